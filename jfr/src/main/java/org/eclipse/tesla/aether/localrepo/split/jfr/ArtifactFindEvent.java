@@ -0,0 +1,68 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name( "org.eclipse.tesla.splitLocalRepo.ArtifactFind" )
+@Label( "Artifact Find" )
+@Description( "Lookup of an artifact in the local repository" )
+class ArtifactFindEvent
+    extends RepositoryEvent
+{
+
+    @Label( "Group Id" )
+    String groupId;
+
+    @Label( "Artifact Id" )
+    String artifactId;
+
+    @Label( "Version" )
+    String version;
+
+    @Label( "Base Directory" )
+    @Description( "The base directory the artifact was found in, empty if it was not found" )
+    String tier;
+
+    @Label( "Available" )
+    boolean available;
+
+    @Override
+    void set( String attribute, String value )
+    {
+        if ( "groupId".equals( attribute ) )
+        {
+            groupId = value;
+        }
+        else if ( "artifactId".equals( attribute ) )
+        {
+            artifactId = value;
+        }
+        else if ( "version".equals( attribute ) )
+        {
+            version = value;
+        }
+        else if ( "tier".equals( attribute ) )
+        {
+            tier = value;
+        }
+    }
+
+    @Override
+    void set( String attribute, boolean value )
+    {
+        if ( "available".equals( attribute ) )
+        {
+            available = value;
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name( "org.eclipse.tesla.splitLocalRepo.ArtifactRegistration" )
+@Label( "Artifact Registration" )
+@Description( "Registration of downloaded or installed artifacts with the local repository" )
+class ArtifactRegistrationEvent
+    extends RepositoryEvent
+{
+
+    @Label( "Artifacts" )
+    int artifacts;
+
+    @Override
+    void set( String attribute, long value )
+    {
+        if ( "artifacts".equals( attribute ) )
+        {
+            artifacts = (int) value;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import org.eclipse.tesla.aether.localrepo.split.Instrumentation;
+
+/**
+ * Emits the instrumentation events of the split local repository as Java Flight Recorder events. The events are
+ * listed in the category "Maven / Local Repository" and are enabled via the usual recording settings, e.g.
+ * {@code -XX:StartFlightRecording:settings=profile}.
+ */
+public class JfrInstrumentation
+    implements Instrumentation
+{
+
+    public Span begin( String event )
+    {
+        RepositoryEvent e = newEvent( event );
+        if ( e == null || !e.isEnabled() )
+        {
+            return Span.NONE;
+        }
+        e.begin();
+        return new EventSpan( e );
+    }
+
+    private static RepositoryEvent newEvent( String event )
+    {
+        switch ( event )
+        {
+            case ARTIFACT_FIND:
+                return new ArtifactFindEvent();
+            case ARTIFACT_REGISTRATION:
+                return new ArtifactRegistrationEvent();
+            case TRACKING_READ:
+                return new TrackingFileEvent.Read();
+            case TRACKING_UPDATE:
+                return new TrackingFileEvent.Update();
+            case METADATA_REPAIR:
+                return new MetadataRepairEvent();
+            case METADATA_BACKUP:
+                return new MetadataBackupEvent();
+            default:
+                return null;
+        }
+    }
+
+    static final class EventSpan
+        implements Span
+    {
+
+        private final RepositoryEvent event;
+
+        EventSpan( RepositoryEvent event )
+        {
+            this.event = event;
+        }
+
+        public Span set( String attribute, String value )
+        {
+            event.set( attribute, value );
+            return this;
+        }
+
+        public Span set( String attribute, long value )
+        {
+            event.set( attribute, value );
+            return this;
+        }
+
+        public Span set( String attribute, boolean value )
+        {
+            event.set( attribute, value );
+            return this;
+        }
+
+        public void end()
+        {
+            event.commit();
+        }
+
+    }
+
+}
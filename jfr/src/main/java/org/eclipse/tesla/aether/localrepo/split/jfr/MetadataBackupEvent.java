@@ -0,0 +1,34 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name( "org.eclipse.tesla.splitLocalRepo.MetadataBackup" )
+@Label( "Metadata Backup" )
+@Description( "Copy of release metadata into the snapshot base directory" )
+class MetadataBackupEvent
+    extends RepositoryEvent
+{
+
+    @Label( "Path" )
+    String path;
+
+    @Override
+    void set( String attribute, String value )
+    {
+        if ( "path".equals( attribute ) )
+        {
+            path = value;
+        }
+    }
+
+}
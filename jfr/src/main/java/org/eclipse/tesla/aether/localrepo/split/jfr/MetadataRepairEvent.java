@@ -0,0 +1,42 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name( "org.eclipse.tesla.splitLocalRepo.MetadataRepair" )
+@Label( "Metadata Repair" )
+@Description( "Repair of metadata after snapshots or releases were deleted" )
+class MetadataRepairEvent
+    extends RepositoryEvent
+{
+
+    @Label( "Path" )
+    String path;
+
+    @Label( "Purged" )
+    @Description( "The versions that were purged from the metadata, either snapshots or releases" )
+    String purged;
+
+    @Override
+    void set( String attribute, String value )
+    {
+        if ( "path".equals( attribute ) )
+        {
+            path = value;
+        }
+        else if ( "purged".equals( attribute ) )
+        {
+            purged = value;
+        }
+    }
+
+}
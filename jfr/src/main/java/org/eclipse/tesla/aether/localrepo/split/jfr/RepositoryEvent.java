@@ -0,0 +1,35 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+
+/**
+ * The base class of the events emitted by the split local repository. Attributes that an event does not declare are
+ * ignored.
+ */
+@Category( { "Maven", "Local Repository" } )
+abstract class RepositoryEvent
+    extends Event
+{
+
+    void set( String attribute, String value )
+    {
+    }
+
+    void set( String attribute, long value )
+    {
+    }
+
+    void set( String attribute, boolean value )
+    {
+    }
+
+}
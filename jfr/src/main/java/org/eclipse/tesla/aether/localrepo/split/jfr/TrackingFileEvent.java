@@ -0,0 +1,72 @@
+package org.eclipse.tesla.aether.localrepo.split.jfr;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * An access to a resolution tracking file.
+ */
+abstract class TrackingFileEvent
+    extends RepositoryEvent
+{
+
+    @Label( "Path" )
+    String path;
+
+    @Label( "Size" )
+    @DataAmount
+    long bytes;
+
+    @Label( "Lock Wait" )
+    @Description( "The time until the file was locked" )
+    @Timespan
+    long lockWait;
+
+    @Override
+    void set( String attribute, String value )
+    {
+        if ( "path".equals( attribute ) )
+        {
+            path = value;
+        }
+    }
+
+    @Override
+    void set( String attribute, long value )
+    {
+        if ( "bytes".equals( attribute ) )
+        {
+            bytes = value;
+        }
+        else if ( "lockWait".equals( attribute ) )
+        {
+            lockWait = value;
+        }
+    }
+
+    @Name( "org.eclipse.tesla.splitLocalRepo.TrackingRead" )
+    @Label( "Tracking File Read" )
+    static class Read
+        extends TrackingFileEvent
+    {
+    }
+
+    @Name( "org.eclipse.tesla.splitLocalRepo.TrackingUpdate" )
+    @Label( "Tracking File Update" )
+    static class Update
+        extends TrackingFileEvent
+    {
+    }
+
+}
@@ -0,0 +1,284 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Records the accesses to the local repository as JSON lines, one object per call. Each record carries the operation
+ * ({@code findArtifact}, {@code addArtifact}, {@code findMetadata} or {@code addMetadata}), the coordinates and
+ * repositories from the request, the tier that satisfied a lookup and the latency of the call in nanoseconds. The
+ * trace is appended to the file, concurrent processes should use distinct trace files. Records are buffered and written
+ * in batches, a few seconds after the last batch at the latest and when the JVM exits.
+ */
+class AccessTrace
+    implements Flushable
+{
+
+    private static final int FLUSH_INTERVAL = 256;
+
+    private final File file;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private Writer writer;
+
+    private int pending;
+
+    /**
+     * Creates a new trace.
+     *
+     * @param file The trace file, must not be {@code null}. Missing parent directories are created on first use.
+     */
+    public AccessTrace( File file )
+    {
+        this.file = file;
+    }
+
+    public AccessTrace setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public void findArtifact( LocalArtifactRequest request, LocalArtifactResult result, String tier, long nanos )
+    {
+        StringBuilder buffer = start( "findArtifact" );
+        append( buffer, request.getArtifact() );
+        append( buffer, "context", request.getContext() );
+        append( buffer, "repositories", request.getRepositories() );
+        append( buffer, "tier", tier );
+        buffer.append( ",\"available\":" ).append( result.isAvailable() );
+        write( buffer, nanos );
+    }
+
+    public void addArtifact( LocalArtifactRegistration request, long nanos )
+    {
+        StringBuilder buffer = start( "addArtifact" );
+        append( buffer, request.getArtifact() );
+        append( buffer, request.getRepository() );
+        append( buffer, "contexts", request.getContexts() );
+        write( buffer, nanos );
+    }
+
+    public void findMetadata( LocalMetadataRequest request, LocalMetadataResult result, String tier, long nanos )
+    {
+        StringBuilder buffer = start( "findMetadata" );
+        append( buffer, request.getMetadata() );
+        append( buffer, "context", request.getContext() );
+        append( buffer, request.getRepository() );
+        append( buffer, "tier", tier );
+        buffer.append( ",\"stale\":" ).append( result.isStale() );
+        write( buffer, nanos );
+    }
+
+    public void addMetadata( LocalMetadataRegistration request, long nanos )
+    {
+        StringBuilder buffer = start( "addMetadata" );
+        append( buffer, request.getMetadata() );
+        append( buffer, request.getRepository() );
+        append( buffer, "contexts", request.getContexts() );
+        write( buffer, nanos );
+    }
+
+    private StringBuilder start( String operation )
+    {
+        StringBuilder buffer = new StringBuilder( 256 );
+        buffer.append( "{\"time\":" ).append( System.currentTimeMillis() );
+        append( buffer, "op", operation );
+        return buffer;
+    }
+
+    private void append( StringBuilder buffer, Artifact artifact )
+    {
+        if ( artifact != null )
+        {
+            append( buffer, "groupId", artifact.getGroupId() );
+            append( buffer, "artifactId", artifact.getArtifactId() );
+            append( buffer, "extension", artifact.getExtension() );
+            append( buffer, "classifier", artifact.getClassifier() );
+            append( buffer, "version", artifact.getVersion() );
+        }
+    }
+
+    private void append( StringBuilder buffer, Metadata metadata )
+    {
+        if ( metadata != null )
+        {
+            append( buffer, "groupId", metadata.getGroupId() );
+            append( buffer, "artifactId", metadata.getArtifactId() );
+            append( buffer, "version", metadata.getVersion() );
+            append( buffer, "type", metadata.getType() );
+            append( buffer, "nature", String.valueOf( metadata.getNature() ) );
+        }
+    }
+
+    private void append( StringBuilder buffer, RemoteRepository repository )
+    {
+        if ( repository != null )
+        {
+            append( buffer, "repository", repository.getId() );
+            append( buffer, "url", repository.getUrl() );
+        }
+    }
+
+    private void append( StringBuilder buffer, String key, Collection<?> values )
+    {
+        if ( values == null )
+        {
+            return;
+        }
+        buffer.append( ",\"" ).append( key ).append( "\":[" );
+        boolean first = true;
+        for ( Object value : values )
+        {
+            if ( !first )
+            {
+                buffer.append( ',' );
+            }
+            first = false;
+            if ( value instanceof RemoteRepository )
+            {
+                RemoteRepository repository = (RemoteRepository) value;
+                quote( buffer, repository.getId() + '@' + repository.getUrl() );
+            }
+            else
+            {
+                quote( buffer, String.valueOf( value ) );
+            }
+        }
+        buffer.append( ']' );
+    }
+
+    private void append( StringBuilder buffer, String key, String value )
+    {
+        if ( value != null )
+        {
+            buffer.append( ",\"" ).append( key ).append( "\":" );
+            quote( buffer, value );
+        }
+    }
+
+    private static void quote( StringBuilder buffer, String value )
+    {
+        buffer.append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            if ( c == '"' || c == '\\' )
+            {
+                buffer.append( '\\' ).append( c );
+            }
+            else if ( c < 0x20 )
+            {
+                buffer.append( String.format( "\\u%04x", Integer.valueOf( c ) ) );
+            }
+            else
+            {
+                buffer.append( c );
+            }
+        }
+        buffer.append( '"' );
+    }
+
+    private synchronized void write( StringBuilder buffer, long nanos )
+    {
+        buffer.append( ",\"nanos\":" ).append( nanos ).append( "}\n" );
+        try
+        {
+            if ( writer == null )
+            {
+                File directory = file.getAbsoluteFile().getParentFile();
+                if ( !directory.mkdirs() && !directory.exists() )
+                {
+                    throw new IOException( "Could not create directory " + directory );
+                }
+                writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file, true ), "UTF-8" ) );
+            }
+            writer.write( buffer.toString() );
+            if ( ++pending >= FLUSH_INTERVAL )
+            {
+                pending = 0;
+                writer.flush();
+            }
+            else if ( pending == 1 )
+            {
+                DeferredFlush.schedule( this );
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not write access trace " + file + ": " + e );
+        }
+    }
+
+    /**
+     * Writes the buffered records to the trace file.
+     */
+    public synchronized void flush()
+    {
+        if ( writer != null && pending > 0 )
+        {
+            try
+            {
+                writer.flush();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not write access trace " + file + ": " + e );
+            }
+            pending = 0;
+        }
+    }
+
+    /**
+     * Flushes and closes the trace file. Subsequent records reopen the file.
+     */
+    public synchronized void close()
+    {
+        if ( writer != null )
+        {
+            try
+            {
+                writer.close();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Error closing access trace " + file + ": " + e );
+            }
+            writer = null;
+            pending = 0;
+        }
+    }
+
+}
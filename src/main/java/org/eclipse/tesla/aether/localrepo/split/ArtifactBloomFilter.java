@@ -0,0 +1,498 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * A persistent Bloom filter over the paths of the artifacts in the local repository. The filter is used to skip file
+ * system probes for artifacts that are definitely absent. Additions are written through to the filter file so that
+ * other processes observe them, a full rebuild by scanning the base directories purges entries for deleted files.
+ * Additions that could not be written are retried with the next addition. Each write bumps a generation counter in
+ * the file header which other processes poll to decide whether to reload the filter. As the poll is rate-limited, an
+ * addition by another process can go unnoticed for a moment and the filter cannot know about artifacts that were
+ * placed without this filter at all, so a negative answer must only be trusted where a false one is recoverable.
+ */
+class ArtifactBloomFilter
+{
+
+    private static final int MAGIC = 0x53504C43;
+
+    private static final int GENERATION_OFFSET = 4 + 4 + 8;
+
+    private static final int HEADER_SIZE = GENERATION_OFFSET + 8;
+
+    private final File file;
+
+    private final File lockFile;
+
+    private final LockStrategy lockStrategy;
+
+    private final int numHashes;
+
+    private final long numBits;
+
+    private final long refreshInterval;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private volatile AtomicLongArray words;
+
+    private volatile AtomicLongArray rebuilding;
+
+    private volatile boolean ready;
+
+    private volatile long generation;
+
+    private volatile long lastRefresh;
+
+    /**
+     * The indices of the words with additions that were not yet written to the file. Guarded by this filter.
+     */
+    private final BitSet unwritten = new BitSet();
+
+    /**
+     * Creates a new filter backed by the specified file.
+     *
+     * @param file The file to store the filter in, must not be {@code null}.
+     * @param lockFile The file used to serialize updates of the filter file, must not be {@code null}.
+     * @param lockStrategy The strategy used to lock the lock file, must not be {@code null}.
+     * @param capacity The expected number of artifacts, must be positive.
+     * @param refreshInterval The minimum interval (in milliseconds) between checks of the filter file for additions by
+     *            other processes.
+     */
+    public ArtifactBloomFilter( File file, File lockFile, LockStrategy lockStrategy, long capacity,
+                                long refreshInterval )
+    {
+        this.file = file;
+        this.lockFile = lockFile;
+        this.lockStrategy = lockStrategy;
+        this.refreshInterval = refreshInterval;
+
+        // false positive probability of 1%
+        double bits = -capacity * Math.log( 0.01 ) / ( Math.log( 2 ) * Math.log( 2 ) );
+        this.numBits = Math.max( 64, ( (long) Math.ceil( bits / 64 ) ) * 64 );
+        this.numHashes = Math.max( 1, (int) Math.round( numBits / (double) capacity * Math.log( 2 ) ) );
+    }
+
+    public ArtifactBloomFilter setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Indicates whether the filter has been populated, either by loading the filter file or by a rebuild. Until then,
+     * the filter claims to contain every key.
+     *
+     * @return {@code true} if the filter is usable, {@code false} otherwise.
+     */
+    public boolean isReady()
+    {
+        return ready;
+    }
+
+    /**
+     * Loads the filter from its file.
+     *
+     * @return {@code true} if the filter was loaded, {@code false} if the file is missing or invalid and the filter
+     *         needs to be rebuilt.
+     */
+    public boolean load()
+    {
+        try
+        {
+            words = read();
+            ready = true;
+            return true;
+        }
+        catch ( IOException e )
+        {
+            if ( file.exists() )
+            {
+                logger.warn( "Could not load artifact filter " + file + ": " + e );
+            }
+            words = new AtomicLongArray( (int) ( numBits / 64 ) );
+            return false;
+        }
+    }
+
+    private AtomicLongArray read()
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 64 * 1024 ) );
+        try
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != numHashes || in.readLong() != numBits )
+            {
+                throw new IOException( "incompatible filter format" );
+            }
+            long header = in.readLong();
+            AtomicLongArray array = new AtomicLongArray( (int) ( numBits / 64 ) );
+            for ( int i = 0; i < array.length(); i++ )
+            {
+                array.set( i, in.readLong() );
+            }
+            generation = header;
+            lastRefresh = System.currentTimeMillis();
+            return array;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Tests whether the specified key might have been added to the filter.
+     *
+     * @param key The key to test, must not be {@code null}.
+     * @return {@code false} if the key is definitely absent, {@code true} if it might be present.
+     */
+    public boolean mightContain( String key )
+    {
+        if ( !ready )
+        {
+            return true;
+        }
+        if ( contains( words, key ) )
+        {
+            return true;
+        }
+        return refresh() && contains( words, key );
+    }
+
+    private boolean contains( AtomicLongArray array, String key )
+    {
+        long[] hashes = hash( key );
+        for ( int i = 0; i < numHashes; i++ )
+        {
+            long bit = index( hashes, i );
+            if ( ( array.get( (int) ( bit >>> 6 ) ) & ( 1L << bit ) ) == 0 )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean refresh()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - lastRefresh < refreshInterval )
+        {
+            return false;
+        }
+        lastRefresh = now;
+
+        if ( rebuilding != null )
+        {
+            return false;
+        }
+
+        try
+        {
+            if ( readGeneration() == generation )
+            {
+                return false;
+            }
+            AtomicLongArray current = words;
+            AtomicLongArray loaded = read();
+            for ( int i = 0; i < loaded.length(); i++ )
+            {
+                long word = loaded.get( i );
+                if ( word != 0 )
+                {
+                    or( current, i, word );
+                }
+            }
+            return true;
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Could not refresh artifact filter " + file + ": " + e );
+            return false;
+        }
+    }
+
+    private long readGeneration()
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try
+        {
+            raf.seek( GENERATION_OFFSET );
+            return raf.readLong();
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Adds the specified key to the filter and its file.
+     *
+     * @param key The key to add, must not be {@code null}.
+     */
+    public void add( String key )
+    {
+        long[] hashes = hash( key );
+
+        AtomicLongArray array = words;
+        AtomicLongArray pending = rebuilding;
+
+        boolean changed = false;
+        synchronized ( this )
+        {
+            for ( int i = 0; i < numHashes; i++ )
+            {
+                long bit = index( hashes, i );
+                int word = (int) ( bit >>> 6 );
+                if ( or( array, word, 1L << bit ) )
+                {
+                    unwritten.set( word );
+                }
+                if ( pending != null )
+                {
+                    or( pending, word, 1L << bit );
+                }
+            }
+            changed = !unwritten.isEmpty();
+        }
+
+        if ( changed && ready )
+        {
+            write( array );
+        }
+    }
+
+    /**
+     * Writes the unwritten words to the file. On failure, the words remain unwritten and are retried by the next call.
+     */
+    private synchronized void write( AtomicLongArray array )
+    {
+        try
+        {
+            LockFile lock = LockFile.acquire( lockFile, lockStrategy );
+            try
+            {
+                RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+                try
+                {
+                    if ( raf.length() < HEADER_SIZE + numBits / 8 )
+                    {
+                        throw new IOException( "Incomplete filter file" );
+                    }
+                    for ( int i = unwritten.nextSetBit( 0 ); i >= 0; i = unwritten.nextSetBit( i + 1 ) )
+                    {
+                        long pos = HEADER_SIZE + i * 8L;
+                        raf.seek( pos );
+                        long word = raf.readLong() | array.get( i );
+                        raf.seek( pos );
+                        raf.writeLong( word );
+                    }
+                    raf.seek( GENERATION_OFFSET );
+                    long current = raf.readLong();
+                    raf.seek( GENERATION_OFFSET );
+                    raf.writeLong( current + 1 );
+                    // only skip our own write, additions by others in the meantime still need a refresh
+                    if ( current == generation )
+                    {
+                        generation = current + 1;
+                    }
+                }
+                finally
+                {
+                    raf.close();
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+            unwritten.clear();
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Could not update artifact filter " + file + ", retrying with next addition: " + e );
+        }
+    }
+
+    /**
+     * Rebuilds the filter from scratch by scanning the specified base directories. Additions made while the scan is in
+     * progress are retained.
+     *
+     * @param tiers The names of the base directories, used as key prefixes, must not be {@code null}.
+     * @param directories The base directories to scan, must not be {@code null}.
+     */
+    public void rebuild( String[] tiers, File[] directories )
+    {
+        AtomicLongArray array = new AtomicLongArray( (int) ( numBits / 64 ) );
+        rebuilding = array;
+        try
+        {
+            long count = 0;
+            for ( int i = 0; i < tiers.length; i++ )
+            {
+                count += scan( array, tiers[i], directories[i] );
+            }
+            logger.debug( "Rebuilt artifact filter " + file + " with " + count + " files" );
+
+            words = array;
+            ready = true;
+
+            save( array );
+        }
+        finally
+        {
+            rebuilding = null;
+        }
+    }
+
+    private long scan( AtomicLongArray array, String prefix, File directory )
+    {
+        long count = 0;
+        File[] children = directory.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                if ( child.isDirectory() )
+                {
+                    count += scan( array, prefix + child.getName() + '/', child );
+                }
+                else
+                {
+                    long[] hashes = hash( prefix + child.getName() );
+                    for ( int i = 0; i < numHashes; i++ )
+                    {
+                        long bit = index( hashes, i );
+                        or( array, (int) ( bit >>> 6 ), 1L << bit );
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void save( AtomicLongArray array )
+    {
+        long epoch = new Random().nextLong();
+        try
+        {
+            File dir = file.getAbsoluteFile().getParentFile();
+            dir.mkdirs();
+            File tmp = File.createTempFile( file.getName(), ".tmp", dir );
+            try
+            {
+                DataOutputStream out =
+                    new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ), 64 * 1024 ) );
+                try
+                {
+                    out.writeInt( MAGIC );
+                    out.writeInt( numHashes );
+                    out.writeLong( numBits );
+                    // a fresh random generation, so processes holding the replaced file reload in any case
+                    out.writeLong( epoch );
+                    for ( int i = 0; i < array.length(); i++ )
+                    {
+                        out.writeLong( array.get( i ) );
+                    }
+                }
+                finally
+                {
+                    out.close();
+                }
+                // replace the file under the lock so no concurrent addition gets written into the replaced file
+                LockFile lock = LockFile.acquire( lockFile, lockStrategy );
+                try
+                {
+                    if ( !tmp.renameTo( file ) && !( file.delete() && tmp.renameTo( file ) ) )
+                    {
+                        throw new IOException( "Could not rename " + tmp + " to " + file );
+                    }
+                    generation = epoch;
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                tmp.delete();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not save artifact filter " + file + ": " + e );
+        }
+    }
+
+    private static boolean or( AtomicLongArray array, int index, long mask )
+    {
+        while ( true )
+        {
+            long word = array.get( index );
+            if ( ( word | mask ) == word )
+            {
+                return false;
+            }
+            if ( array.compareAndSet( index, word, word | mask ) )
+            {
+                return true;
+            }
+        }
+    }
+
+    private long index( long[] hashes, int i )
+    {
+        return ( ( hashes[0] + i * hashes[1] ) & Long.MAX_VALUE ) % numBits;
+    }
+
+    private static long[] hash( String key )
+    {
+        // 64-bit FNV-1a, the second hash is derived by an additional avalanche step
+        long h1 = 0xcbf29ce484222325L;
+        for ( int i = 0, n = key.length(); i < n; i++ )
+        {
+            h1 ^= key.charAt( i );
+            h1 *= 0x100000001b3L;
+        }
+        long h2 = h1;
+        h2 ^= h2 >>> 33;
+        h2 *= 0xff51afd7ed558ccdL;
+        h2 ^= h2 >>> 33;
+        h2 *= 0xc4ceb9fe1a85ec53L;
+        h2 ^= h2 >>> 33;
+        return new long[] { h1, h2 | 1 };
+    }
+
+}
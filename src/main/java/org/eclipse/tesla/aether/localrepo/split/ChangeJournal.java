@@ -0,0 +1,274 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * An append-only journal of changes to the local repository that is shared among processes. Each process appends the
+ * paths it modifies and tails the journal to invalidate its caches for paths modified by others. The journal starts
+ * with a random epoch which is renewed whenever the journal is truncated to bound its size, tailers that observe a
+ * new epoch conservatively discard all caches.
+ */
+class ChangeJournal
+{
+
+    /**
+     * Receives the changes recorded in the journal.
+     */
+    interface Listener
+    {
+
+        /**
+         * Notifies the listener about a change to the specified path.
+         *
+         * @param path The changed path, never {@code null}.
+         */
+        void changed( String path );
+
+        /**
+         * Notifies the listener that changes might have been missed and all cached state should be discarded.
+         */
+        void reset();
+
+    }
+
+    private static final int HEADER_SIZE = 8;
+
+    private static final Random RANDOM = new Random();
+
+    private final File file;
+
+    private final LockStrategy lockStrategy;
+
+    private final long maxSize;
+
+    private final long pollInterval;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private Listener listener;
+
+    private long epoch;
+
+    /**
+     * The offset of the next unread journal entry, {@code 0} if the journal did not exist when last polled and
+     * {@code -1} if the journal has not been polled yet.
+     */
+    private long offset = -1;
+
+    private long lastPoll;
+
+    /**
+     * Creates a new journal.
+     *
+     * @param file The journal file, must not be {@code null}.
+     * @param lockStrategy The strategy used to lock the journal file, must not be {@code null}.
+     * @param maxSize The size (in bytes) beyond which the journal gets truncated.
+     * @param pollInterval The minimum interval (in milliseconds) between two checks for new journal entries.
+     */
+    public ChangeJournal( File file, LockStrategy lockStrategy, long maxSize, long pollInterval )
+    {
+        this.file = file;
+        this.lockStrategy = lockStrategy;
+        this.maxSize = maxSize;
+        this.pollInterval = pollInterval;
+    }
+
+    public ChangeJournal setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public ChangeJournal setListener( Listener listener )
+    {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Records changes to the specified paths.
+     *
+     * @param paths The changed paths, must not be {@code null}.
+     */
+    public synchronized void append( String... paths )
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream( 256 );
+        try
+        {
+            for ( String path : paths )
+            {
+                buffer.write( path.getBytes( "UTF-8" ) );
+                buffer.write( '\n' );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new IllegalStateException( e );
+        }
+
+        RandomAccessFile raf = null;
+        Closeable lock = null;
+        try
+        {
+            raf = open( "rw" );
+            lock = lockStrategy.lock( file, raf.getChannel(), false );
+
+            long length = raf.length();
+            if ( length < HEADER_SIZE || length > maxSize )
+            {
+                raf.setLength( 0 );
+                raf.writeLong( RANDOM.nextLong() );
+                length = HEADER_SIZE;
+            }
+
+            raf.seek( 0 );
+            long currentEpoch = raf.readLong();
+
+            raf.seek( length );
+            raf.write( buffer.toByteArray() );
+
+            if ( currentEpoch == epoch && length == offset )
+            {
+                // nobody else appended since our last poll, no need to read back our own changes
+                offset = raf.getFilePointer();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not record changes in journal " + file + ": " + e );
+        }
+        finally
+        {
+            close( lock );
+            close( raf );
+        }
+    }
+
+    /**
+     * Reads the changes appended by others since the last poll and passes them to the listener. To bound the I/O
+     * overhead, calls within the poll interval are ignored.
+     */
+    public synchronized void poll()
+    {
+        long now = System.currentTimeMillis();
+        if ( now - lastPoll < pollInterval )
+        {
+            return;
+        }
+        lastPoll = now;
+
+        long length = file.length();
+        if ( length == offset )
+        {
+            return;
+        }
+
+        RandomAccessFile raf = null;
+        try
+        {
+            if ( length < HEADER_SIZE )
+            {
+                if ( offset < 0 )
+                {
+                    // the journal does not exist yet, all its future entries are relevant
+                    offset = 0;
+                }
+                return;
+            }
+
+            raf = open( "r" );
+            long currentEpoch = raf.readLong();
+            length = raf.length();
+
+            if ( offset == 0 )
+            {
+                epoch = currentEpoch;
+                offset = HEADER_SIZE;
+            }
+            else if ( currentEpoch != epoch || offset < 0 || length < offset )
+            {
+                boolean initial = offset < 0;
+                epoch = currentEpoch;
+                offset = length;
+                if ( !initial && listener != null )
+                {
+                    listener.reset();
+                }
+                return;
+            }
+
+            byte[] bytes = new byte[(int) ( length - offset )];
+            raf.seek( offset );
+            raf.readFully( bytes );
+
+            int start = 0;
+            for ( int i = 0; i < bytes.length; i++ )
+            {
+                if ( bytes[i] == '\n' )
+                {
+                    if ( i > start && listener != null )
+                    {
+                        listener.changed( new String( bytes, start, i - start, "UTF-8" ) );
+                    }
+                    start = i + 1;
+                }
+            }
+            // an incomplete trailing line is still being written, pick it up during the next poll
+            offset += start;
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Could not read journal " + file + ": " + e );
+        }
+        finally
+        {
+            close( raf );
+        }
+    }
+
+    private RandomAccessFile open( String mode )
+        throws IOException
+    {
+        if ( mode.indexOf( 'w' ) >= 0 )
+        {
+            File directory = file.getAbsoluteFile().getParentFile();
+            if ( !directory.mkdirs() && !directory.exists() )
+            {
+                throw new IOException( "Could not create directory " + directory );
+            }
+        }
+        return new RandomAccessFile( file, mode );
+    }
+
+    private void close( Closeable closeable )
+    {
+        if ( closeable != null )
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Error closing journal " + file + ": " + e );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,546 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.SessionData;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.repository.LocalRepository;
+import org.sonatype.aether.repository.LocalRepositoryManager;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * A thin client that forwards lookups and registrations to a {@link RepositoryDaemon}. Paths are calculated locally
+ * and leases are taken locally for the lifetime of the build. If the daemon becomes unreachable, the client falls back
+ * to accessing the local repository directly for the remainder of its lifetime. A daemon that stops responding is
+ * treated like an unreachable one once the read timeout elapses.
+ */
+class DaemonLocalRepositoryManager
+    implements LocalRepositoryManager
+{
+
+    private static final int CONNECT_TIMEOUT = 1000;
+
+    private static final int READ_TIMEOUT = 30 * 1000;
+
+    private final SplitLocalRepositoryManager direct;
+
+    private final InetSocketAddress address;
+
+    private final String token;
+
+    private final String sessionKey;
+
+    private final Queue<Connection> connections = new ConcurrentLinkedQueue<Connection>();
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private int readTimeout = READ_TIMEOUT;
+
+    private volatile boolean fallback;
+
+    /**
+     * Creates a new client.
+     *
+     * @param direct The manager used to calculate paths, take leases and to fall back to, must not be {@code null}.
+     * @param port The port of the daemon on the loopback interface.
+     * @param token The access token announced by the daemon, must not be {@code null}.
+     */
+    public DaemonLocalRepositoryManager( SplitLocalRepositoryManager direct, int port, String token )
+        throws IOException
+    {
+        this.direct = direct;
+        this.address = new InetSocketAddress( InetAddress.getByName( "127.0.0.1" ), port );
+        this.token = token;
+        sessionKey = DaemonLocalRepositoryManager.class.getName() + '@' + direct.getRepository().getBasedir();
+    }
+
+    public DaemonLocalRepositoryManager setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Sets the maximum time to wait for a response from the daemon before falling back to direct access.
+     *
+     * @param readTimeout The read timeout in milliseconds, must be positive.
+     * @return This client for chaining, never {@code null}.
+     */
+    public DaemonLocalRepositoryManager setReadTimeout( int readTimeout )
+    {
+        this.readTimeout = readTimeout;
+        return this;
+    }
+
+    /**
+     * Connects to the daemon that serves the local repository of the specified manager.
+     *
+     * @param direct The manager used to calculate paths, take leases and to fall back to, must not be {@code null}.
+     * @param logger The logger to use, must not be {@code null}.
+     * @return The client or {@code null} if no daemon is running for the local repository.
+     */
+    public static DaemonLocalRepositoryManager connect( SplitLocalRepositoryManager direct, Logger logger )
+    {
+        File portFile = new File( direct.getRepository().getBasedir(), DaemonProtocol.PORT_FILE );
+        Properties props = readPortFile( portFile );
+        if ( props == null )
+        {
+            return null;
+        }
+        try
+        {
+            int port = Integer.parseInt( props.getProperty( "port", "" ).trim() );
+            DaemonLocalRepositoryManager client =
+                new DaemonLocalRepositoryManager( direct, port, props.getProperty( "token", "" ) ).setLogger( logger );
+            client.connections.add( client.open() );
+            return client;
+        }
+        catch ( NumberFormatException e )
+        {
+            logger.warn( "Ignoring invalid local repository daemon port file " + portFile );
+        }
+        catch ( IOException e )
+        {
+            // e.g. a stale port file of a crashed daemon
+            logger.debug( "Not using local repository daemon announced in " + portFile + ": " + e );
+        }
+        return null;
+    }
+
+    static Properties readPortFile( File file )
+    {
+        if ( !file.isFile() )
+        {
+            return null;
+        }
+        Properties props = new Properties();
+        try
+        {
+            InputStream is = new FileInputStream( file );
+            try
+            {
+                props.load( is );
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        return props;
+    }
+
+    SplitLocalRepositoryManager getDirect()
+    {
+        return direct;
+    }
+
+    /**
+     * Indicates whether this client gave up on the daemon and accesses the local repository directly.
+     */
+    boolean isFallback()
+    {
+        return fallback;
+    }
+
+    public LocalRepository getRepository()
+    {
+        return direct.getRepository();
+    }
+
+    public String getPathForLocalArtifact( Artifact artifact )
+    {
+        return direct.getPathForLocalArtifact( artifact );
+    }
+
+    public String getPathForRemoteArtifact( Artifact artifact, RemoteRepository repository, String context )
+    {
+        return direct.getPathForRemoteArtifact( artifact, repository, context );
+    }
+
+    public String getPathForLocalMetadata( Metadata metadata )
+    {
+        return direct.getPathForLocalMetadata( metadata );
+    }
+
+    public String getPathForRemoteMetadata( Metadata metadata, RemoteRepository repository, String context )
+    {
+        return direct.getPathForRemoteMetadata( metadata, repository, context );
+    }
+
+    public LocalArtifactResult find( RepositorySystemSession session, final LocalArtifactRequest request )
+    {
+        direct.leaseArtifact( request.getArtifact() );
+        if ( !fallback )
+        {
+            final String id = getSessionId( session );
+            try
+            {
+                return execute( new Call<LocalArtifactResult>( DaemonProtocol.FIND_ARTIFACT )
+                {
+                    @Override
+                    void write( DataOutputStream out )
+                        throws IOException
+                    {
+                        DaemonProtocol.writeString( out, id );
+                        DaemonProtocol.writeArtifact( out, request.getArtifact() );
+                        DaemonProtocol.writeString( out, request.getContext() );
+                        List<RemoteRepository> repositories = request.getRepositories();
+                        out.writeInt( repositories.size() );
+                        for ( RemoteRepository repository : repositories )
+                        {
+                            DaemonProtocol.writeRepository( out, repository );
+                        }
+                    }
+
+                    @Override
+                    LocalArtifactResult read( DataInputStream in )
+                        throws IOException
+                    {
+                        LocalArtifactResult result = new LocalArtifactResult( request );
+                        result.setFile( DaemonProtocol.readFile( in ) );
+                        result.setAvailable( in.readBoolean() );
+                        int index = in.readInt();
+                        if ( index >= 0 )
+                        {
+                            result.setRepository( request.getRepositories().get( index ) );
+                        }
+                        return result;
+                    }
+                } );
+            }
+            catch ( IOException e )
+            {
+                fallBack( e );
+            }
+        }
+        return direct.find( session, request );
+    }
+
+    public void add( RepositorySystemSession session, LocalArtifactRegistration request )
+    {
+        addAll( session, Collections.singleton( request ) );
+    }
+
+    /**
+     * Registers the specified artifacts with a single request to the daemon.
+     *
+     * @see SplitLocalRepositoryManager#addAll(RepositorySystemSession, Collection)
+     */
+    public void addAll( RepositorySystemSession session, final Collection<LocalArtifactRegistration> requests )
+    {
+        for ( LocalArtifactRegistration request : requests )
+        {
+            if ( request.getArtifact() != null )
+            {
+                direct.leaseArtifact( request.getArtifact() );
+            }
+        }
+        if ( !fallback )
+        {
+            final String id = getSessionId( session );
+            try
+            {
+                execute( new Call<Object>( DaemonProtocol.ADD_ARTIFACTS )
+                {
+                    @Override
+                    void write( DataOutputStream out )
+                        throws IOException
+                    {
+                        DaemonProtocol.writeString( out, id );
+                        out.writeInt( requests.size() );
+                        for ( LocalArtifactRegistration request : requests )
+                        {
+                            DaemonProtocol.writeArtifact( out, request.getArtifact() );
+                            DaemonProtocol.writeRepository( out, request.getRepository() );
+                            DaemonProtocol.writeStrings( out, request.getContexts() );
+                        }
+                    }
+                } );
+                return;
+            }
+            catch ( IOException e )
+            {
+                fallBack( e );
+            }
+        }
+        direct.addAll( session, requests );
+    }
+
+    public LocalMetadataResult find( RepositorySystemSession session, final LocalMetadataRequest request )
+    {
+        direct.leaseMetadata( request.getMetadata() );
+        if ( !fallback )
+        {
+            final String id = getSessionId( session );
+            try
+            {
+                return execute( new Call<LocalMetadataResult>( DaemonProtocol.FIND_METADATA )
+                {
+                    @Override
+                    void write( DataOutputStream out )
+                        throws IOException
+                    {
+                        DaemonProtocol.writeString( out, id );
+                        DaemonProtocol.writeMetadata( out, request.getMetadata() );
+                        DaemonProtocol.writeString( out, request.getContext() );
+                        DaemonProtocol.writeRepository( out, request.getRepository() );
+                    }
+
+                    @Override
+                    LocalMetadataResult read( DataInputStream in )
+                        throws IOException
+                    {
+                        LocalMetadataResult result = new LocalMetadataResult( request );
+                        result.setFile( DaemonProtocol.readFile( in ) );
+                        result.setStale( in.readBoolean() );
+                        return result;
+                    }
+                } );
+            }
+            catch ( IOException e )
+            {
+                fallBack( e );
+            }
+        }
+        return direct.find( session, request );
+    }
+
+    public void add( RepositorySystemSession session, final LocalMetadataRegistration request )
+    {
+        direct.leaseMetadata( request.getMetadata() );
+        if ( !fallback )
+        {
+            final String id = getSessionId( session );
+            try
+            {
+                execute( new Call<Object>( DaemonProtocol.ADD_METADATA )
+                {
+                    @Override
+                    void write( DataOutputStream out )
+                        throws IOException
+                    {
+                        DaemonProtocol.writeString( out, id );
+                        DaemonProtocol.writeMetadata( out, request.getMetadata() );
+                        DaemonProtocol.writeRepository( out, request.getRepository() );
+                        DaemonProtocol.writeStrings( out, request.getContexts() );
+                    }
+                } );
+                return;
+            }
+            catch ( IOException e )
+            {
+                fallBack( e );
+            }
+        }
+        direct.add( session, request );
+    }
+
+    /**
+     * Closes the connections to the daemon and the manager used for direct access.
+     */
+    public void close()
+    {
+        for ( Connection connection = connections.poll(); connection != null; connection = connections.poll() )
+        {
+            connection.close();
+        }
+        direct.close();
+    }
+
+    private void fallBack( IOException e )
+    {
+        if ( !fallback )
+        {
+            fallback = true;
+            logger.warn( "Local repository daemon at " + address + " is unavailable, accessing "
+                + getRepository().getBasedir() + " directly: " + e );
+        }
+        for ( Connection connection = connections.poll(); connection != null; connection = connections.poll() )
+        {
+            connection.close();
+        }
+    }
+
+    /**
+     * Gets the id by which the daemon associates requests with the lookup cache of the specified session.
+     */
+    private String getSessionId( RepositorySystemSession session )
+    {
+        SessionData data = ( session != null ) ? session.getData() : null;
+        if ( data == null )
+        {
+            return null;
+        }
+        Object id = data.get( sessionKey );
+        while ( id == null )
+        {
+            String newId = UUID.randomUUID().toString();
+            if ( data.set( sessionKey, null, newId ) )
+            {
+                return newId;
+            }
+            id = data.get( sessionKey );
+        }
+        return id.toString();
+    }
+
+    private <T> T execute( Call<T> call )
+        throws IOException
+    {
+        Connection connection = connections.poll();
+        if ( connection == null )
+        {
+            connection = open();
+        }
+        boolean reusable = false;
+        try
+        {
+            connection.out.writeByte( call.opcode );
+            call.write( connection.out );
+            connection.out.flush();
+            if ( connection.in.readByte() != DaemonProtocol.OK )
+            {
+                String error = DaemonProtocol.readString( connection.in );
+                reusable = true;
+                throw new IllegalStateException( "Local repository daemon failed to serve request: " + error );
+            }
+            T result = call.read( connection.in );
+            reusable = true;
+            return result;
+        }
+        finally
+        {
+            if ( reusable && !fallback )
+            {
+                connections.add( connection );
+            }
+            else
+            {
+                connection.close();
+            }
+        }
+    }
+
+    private Connection open()
+        throws IOException
+    {
+        Socket socket = new Socket();
+        try
+        {
+            socket.connect( address, CONNECT_TIMEOUT );
+            socket.setTcpNoDelay( true );
+            // a hung daemon yields a SocketTimeoutException which triggers the fallback like any other I/O error
+            socket.setSoTimeout( readTimeout );
+            Connection connection = new Connection( socket );
+            connection.out.writeByte( DaemonProtocol.HELLO );
+            connection.out.writeInt( DaemonProtocol.VERSION );
+            DaemonProtocol.writeString( connection.out, token );
+            connection.out.flush();
+            if ( connection.in.readByte() != DaemonProtocol.OK )
+            {
+                throw new IOException( DaemonProtocol.readString( connection.in ) );
+            }
+            return connection;
+        }
+        catch ( IOException e )
+        {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * A request to the daemon along with the parsing of its response.
+     */
+    abstract static class Call<T>
+    {
+
+        final byte opcode;
+
+        Call( byte opcode )
+        {
+            this.opcode = opcode;
+        }
+
+        abstract void write( DataOutputStream out )
+            throws IOException;
+
+        T read( DataInputStream in )
+            throws IOException
+        {
+            return null;
+        }
+
+    }
+
+    class Connection
+    {
+
+        final Socket socket;
+
+        final DataInputStream in;
+
+        final DataOutputStream out;
+
+        Connection( Socket socket )
+            throws IOException
+        {
+            this.socket = socket;
+            in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+        }
+
+        void close()
+        {
+            try
+            {
+                socket.close();
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Could not close connection to local repository daemon: " + e );
+            }
+        }
+
+    }
+
+}
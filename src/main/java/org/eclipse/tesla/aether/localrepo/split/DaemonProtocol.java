@@ -0,0 +1,371 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.RemoteRepository;
+
+/**
+ * The wire format spoken between {@link RepositoryDaemon} and {@link DaemonLocalRepositoryManager}. Each request
+ * consists of an opcode followed by its arguments and is answered by a status byte followed by the results or an
+ * error message. Strings are written in modified UTF-8 and prefixed by a flag to allow for {@code null}.
+ */
+class DaemonProtocol
+{
+
+    /**
+     * The file in the base directory through which a running daemon announces its port and access token.
+     */
+    static final String PORT_FILE = SplitLocalRepositoryManager.INDEX + "daemon.port";
+
+    static final int VERSION = 1;
+
+    static final byte HELLO = 1;
+
+    static final byte FIND_ARTIFACT = 2;
+
+    static final byte ADD_ARTIFACTS = 3;
+
+    static final byte FIND_METADATA = 4;
+
+    static final byte ADD_METADATA = 5;
+
+    static final byte OK = 0;
+
+    static final byte ERROR = 1;
+
+    public static void writeString( DataOutput out, String value )
+        throws IOException
+    {
+        out.writeBoolean( value != null );
+        if ( value != null )
+        {
+            out.writeUTF( value );
+        }
+    }
+
+    public static String readString( DataInput in )
+        throws IOException
+    {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static void writeFile( DataOutput out, File file )
+        throws IOException
+    {
+        writeString( out, ( file != null ) ? file.getAbsolutePath() : null );
+    }
+
+    public static File readFile( DataInput in )
+        throws IOException
+    {
+        String path = readString( in );
+        return ( path != null ) ? new File( path ) : null;
+    }
+
+    public static void writeStrings( DataOutput out, Collection<String> values )
+        throws IOException
+    {
+        out.writeInt( ( values != null ) ? values.size() : -1 );
+        if ( values != null )
+        {
+            for ( String value : values )
+            {
+                writeString( out, value );
+            }
+        }
+    }
+
+    public static List<String> readStrings( DataInput in )
+        throws IOException
+    {
+        int count = in.readInt();
+        if ( count < 0 )
+        {
+            return null;
+        }
+        List<String> values = new ArrayList<String>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            values.add( readString( in ) );
+        }
+        return values;
+    }
+
+    public static void writeArtifact( DataOutput out, Artifact artifact )
+        throws IOException
+    {
+        out.writeBoolean( artifact != null );
+        if ( artifact == null )
+        {
+            return;
+        }
+        writeString( out, artifact.getGroupId() );
+        writeString( out, artifact.getArtifactId() );
+        writeString( out, artifact.getVersion() );
+        writeString( out, artifact.getBaseVersion() );
+        out.writeBoolean( artifact.isSnapshot() );
+        writeString( out, artifact.getClassifier() );
+        writeString( out, artifact.getExtension() );
+    }
+
+    public static Artifact readArtifact( DataInput in )
+        throws IOException
+    {
+        if ( !in.readBoolean() )
+        {
+            return null;
+        }
+        WireArtifact artifact = new WireArtifact();
+        artifact.groupId = readString( in );
+        artifact.artifactId = readString( in );
+        artifact.version = readString( in );
+        artifact.baseVersion = readString( in );
+        artifact.snapshot = in.readBoolean();
+        artifact.classifier = readString( in );
+        artifact.extension = readString( in );
+        return artifact;
+    }
+
+    public static void writeMetadata( DataOutput out, Metadata metadata )
+        throws IOException
+    {
+        writeString( out, metadata.getGroupId() );
+        writeString( out, metadata.getArtifactId() );
+        writeString( out, metadata.getVersion() );
+        writeString( out, metadata.getType() );
+        writeString( out, metadata.getNature().name() );
+    }
+
+    public static Metadata readMetadata( DataInput in )
+        throws IOException
+    {
+        WireMetadata metadata = new WireMetadata();
+        metadata.groupId = readString( in );
+        metadata.artifactId = readString( in );
+        metadata.version = readString( in );
+        metadata.type = readString( in );
+        try
+        {
+            metadata.nature = Metadata.Nature.valueOf( readString( in ) );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new IOException( "Unknown metadata nature: " + e.getMessage() );
+        }
+        return metadata;
+    }
+
+    /**
+     * Writes the properties of the repository that determine its repository key in the local repository.
+     */
+    public static void writeRepository( DataOutput out, RemoteRepository repository )
+        throws IOException
+    {
+        out.writeBoolean( repository != null );
+        if ( repository != null )
+        {
+            writeString( out, repository.getId() );
+            writeString( out, repository.getContentType() );
+            writeString( out, repository.getUrl() );
+            out.writeBoolean( repository.isRepositoryManager() );
+            List<String> mirrored = new ArrayList<String>();
+            for ( RemoteRepository mirroredRepo : repository.getMirroredRepositories() )
+            {
+                mirrored.add( mirroredRepo.getId() );
+            }
+            writeStrings( out, mirrored );
+        }
+    }
+
+    public static RemoteRepository readRepository( DataInput in )
+        throws IOException
+    {
+        if ( !in.readBoolean() )
+        {
+            return null;
+        }
+        RemoteRepository repository = new RemoteRepository( readString( in ), readString( in ), readString( in ) );
+        repository.setRepositoryManager( in.readBoolean() );
+        List<RemoteRepository> mirrored = new ArrayList<RemoteRepository>();
+        for ( String id : readStrings( in ) )
+        {
+            mirrored.add( new RemoteRepository( id, repository.getContentType(), "" ) );
+        }
+        repository.setMirroredRepositories( mirrored );
+        return repository;
+    }
+
+    /**
+     * An artifact received from a client, it only carries the coordinates needed to locate it.
+     */
+    static class WireArtifact
+        implements Artifact
+    {
+
+        String groupId;
+
+        String artifactId;
+
+        String version;
+
+        String baseVersion;
+
+        boolean snapshot;
+
+        String classifier;
+
+        String extension;
+
+        public String getGroupId()
+        {
+            return groupId;
+        }
+
+        public String getArtifactId()
+        {
+            return artifactId;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public Artifact setVersion( String version )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public String getBaseVersion()
+        {
+            return baseVersion;
+        }
+
+        public boolean isSnapshot()
+        {
+            return snapshot;
+        }
+
+        public String getClassifier()
+        {
+            return classifier;
+        }
+
+        public String getExtension()
+        {
+            return extension;
+        }
+
+        public File getFile()
+        {
+            return null;
+        }
+
+        public Artifact setFile( File file )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public String getProperty( String key, String defaultValue )
+        {
+            return defaultValue;
+        }
+
+        public Map<String, String> getProperties()
+        {
+            return Collections.emptyMap();
+        }
+
+        public Artifact setProperties( Map<String, String> properties )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString()
+        {
+            return groupId + ':' + artifactId + ':' + extension
+                + ( ( classifier.length() > 0 ) ? ':' + classifier : "" ) + ':' + version;
+        }
+
+    }
+
+    /**
+     * Metadata received from a client, it only carries the coordinates needed to locate it.
+     */
+    static class WireMetadata
+        implements Metadata
+    {
+
+        String groupId;
+
+        String artifactId;
+
+        String version;
+
+        String type;
+
+        Nature nature;
+
+        public String getGroupId()
+        {
+            return groupId;
+        }
+
+        public String getArtifactId()
+        {
+            return artifactId;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public String getType()
+        {
+            return type;
+        }
+
+        public Nature getNature()
+        {
+            return nature;
+        }
+
+        public File getFile()
+        {
+            return null;
+        }
+
+        public Metadata setFile( File file )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String toString()
+        {
+            return groupId + ':' + artifactId + ':' + version + '/' + type;
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Accesses the local file system via {@link File} and the file streams.
+ */
+class DefaultFileAccess
+    implements FileAccess
+{
+
+    static final DefaultFileAccess INSTANCE = new DefaultFileAccess();
+
+    public boolean isFile( File file )
+    {
+        return file.isFile();
+    }
+
+    public boolean exists( File file )
+    {
+        return file.exists();
+    }
+
+    public FileInputStream openInput( File file )
+        throws IOException
+    {
+        return new FileInputStream( file );
+    }
+
+    public FileOutputStream openOutput( File file )
+        throws IOException
+    {
+        return new FileOutputStream( file );
+    }
+
+    public RandomAccessFile openRandomAccess( File file )
+        throws IOException
+    {
+        return new RandomAccessFile( file, "rw" );
+    }
+
+    public File createTempFile( String prefix, String suffix, File directory )
+        throws IOException
+    {
+        return File.createTempFile( prefix, suffix, directory );
+    }
+
+    public boolean rename( File src, File dst )
+    {
+        return src.renameTo( dst );
+    }
+
+    public boolean delete( File file )
+    {
+        return file.delete();
+    }
+
+    public boolean mkdirs( File directory )
+    {
+        return directory.mkdirs() || directory.isDirectory();
+    }
+
+}
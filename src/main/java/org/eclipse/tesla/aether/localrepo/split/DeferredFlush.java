@@ -0,0 +1,133 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Flushable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Writes deferred state of components that are never closed. The repository system offers no means to close a local
+ * repository manager, so state that is written lazily (e.g. batched tracking updates) needs to be flushed by the
+ * manager itself. Scheduled components are flushed after a short delay from a background thread and at the latest
+ * when the JVM shuts down. Components are only referenced while they are scheduled, so components of finished builds
+ * do not pile up in long-lived JVMs.
+ */
+class DeferredFlush
+{
+
+    /**
+     * The delay (in milliseconds) after which a scheduled component gets flushed.
+     */
+    static final long DELAY = 5 * 1000;
+
+    private static final Timer TIMER = new Timer( "split-localrepo-flush", true );
+
+    private static final Map<Flushable, Boolean> SCHEDULED = new IdentityHashMap<Flushable, Boolean>();
+
+    private static boolean hooked;
+
+    private DeferredFlush()
+    {
+        // hide constructor
+    }
+
+    /**
+     * Schedules the specified component to be flushed unless it is already scheduled.
+     *
+     * @param target The component to flush, must not be {@code null}. Its {@code flush()} method is responsible for
+     *            handling any errors.
+     */
+    public static void schedule( final Flushable target )
+    {
+        synchronized ( SCHEDULED )
+        {
+            if ( SCHEDULED.put( target, Boolean.TRUE ) != null )
+            {
+                return;
+            }
+            if ( !hooked )
+            {
+                hooked = true;
+                addShutdownHook();
+            }
+        }
+        TIMER.schedule( new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                flush( target );
+            }
+        }, DELAY );
+    }
+
+    /**
+     * Flushes all scheduled components right away.
+     */
+    public static void flushAll()
+    {
+        Collection<Flushable> targets;
+        synchronized ( SCHEDULED )
+        {
+            targets = new ArrayList<Flushable>( SCHEDULED.keySet() );
+        }
+        for ( Flushable target : targets )
+        {
+            flush( target );
+        }
+    }
+
+    private static void flush( Flushable target )
+    {
+        synchronized ( SCHEDULED )
+        {
+            if ( SCHEDULED.remove( target ) == null )
+            {
+                return;
+            }
+        }
+        try
+        {
+            target.flush();
+        }
+        catch ( Exception e )
+        {
+            // the targets report their errors themselves, don't let one of them stop the others
+        }
+    }
+
+    private static void addShutdownHook()
+    {
+        try
+        {
+            Runtime.getRuntime().addShutdownHook( new Thread( "split-localrepo-shutdown-flush" )
+            {
+                @Override
+                public void run()
+                {
+                    flushAll();
+                }
+            } );
+        }
+        catch ( IllegalStateException e )
+        {
+            // already shutting down
+        }
+        catch ( SecurityException e )
+        {
+            // flushes rely on the timer alone
+        }
+    }
+
+}
@@ -0,0 +1,399 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.Flushable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Accounts the disk usage of the local repository per base directory and groupId prefix. The totals are stored in a
+ * properties file shared among processes, each manager collects the changes it makes in memory and adds them to the
+ * stored totals when it is flushed, which happens shortly after the changes via {@link DeferredFlush}. As other tools
+ * might modify the repository without accounting, the totals can drift and should be corrected by an occasional
+ * {@link #rescan(SplitLocalRepositoryManager) rescan}.
+ */
+class DiskUsage
+    implements Flushable
+{
+
+    /**
+     * The maximum number of groupId segments that the totals are broken down by, e.g. {@code org/apache/maven}.
+     */
+    static final int DEPTH = 3;
+
+    private static final String RESCANNED = ".rescanned";
+
+    private static final String TRACKING_FILE = "_maven.repositories";
+
+    private final File file;
+
+    private final File lockFile;
+
+    private final LockStrategy lockStrategy;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private final Map<String, long[]> pending = new HashMap<String, long[]>();
+
+    /**
+     * Creates a new accounting store.
+     *
+     * @param file The file to store the totals in, must not be {@code null}.
+     * @param lockFile The file used to serialize updates of the totals among processes, must not be {@code null}.
+     * @param lockStrategy The strategy used to lock the lock file, must not be {@code null}.
+     */
+    public DiskUsage( File file, File lockFile, LockStrategy lockStrategy )
+    {
+        this.file = file;
+        this.lockFile = lockFile;
+        this.lockStrategy = lockStrategy;
+    }
+
+    public DiskUsage setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Gets the key under which the usage of the specified file is accounted. The last two directories of a file are
+     * assumed to be the artifactId and version, the groupId prefix consists of at most {@link #DEPTH} of the remaining
+     * directories (but at least one).
+     *
+     * @param tier The base directory of the file, e.g. {@link SplitLocalRepositoryManager#REMOTE_RELEASES}.
+     * @param subPath The path of the file relative to its base directory, must not be {@code null}.
+     * @return The key, e.g. {@code rr/org/apache/maven}, never {@code null}.
+     */
+    static String getKey( String tier, String subPath )
+    {
+        String[] segments = subPath.split( "/" );
+        int count = Math.min( Math.min( DEPTH, Math.max( 1, segments.length - 3 ) ), segments.length - 1 );
+        StringBuilder key = new StringBuilder( tier );
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( i > 0 )
+            {
+                key.append( '/' );
+            }
+            key.append( segments[i] );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Accounts a change of the disk usage. The change is kept in memory until the next {@link #flush()}.
+     *
+     * @param tier The base directory of the changed file, e.g. {@link SplitLocalRepositoryManager#REMOTE_RELEASES}.
+     * @param subPath The path of the changed file relative to its base directory, must not be {@code null}.
+     * @param files The change of the file count, negative for deletions.
+     * @param bytes The change of the size in bytes, negative for deletions.
+     */
+    public void add( String tier, String subPath, int files, long bytes )
+    {
+        String key = getKey( tier, subPath );
+        synchronized ( pending )
+        {
+            long[] usage = pending.get( key );
+            if ( usage == null )
+            {
+                usage = new long[2];
+                pending.put( key, usage );
+            }
+            usage[0] += files;
+            usage[1] += bytes;
+        }
+        DeferredFlush.schedule( this );
+    }
+
+    /**
+     * Adds the changes accounted since the last flush to the stored totals.
+     */
+    public void flush()
+    {
+        Map<String, long[]> changes;
+        synchronized ( pending )
+        {
+            if ( pending.isEmpty() )
+            {
+                return;
+            }
+            changes = new HashMap<String, long[]>( pending );
+            pending.clear();
+        }
+        update( changes, false );
+    }
+
+    /**
+     * Reads the stored totals, including the changes that have not been flushed yet.
+     *
+     * @return The totals keyed by base directory and groupId prefix, the values hold the file count and the size in
+     *         bytes. Never {@code null}.
+     */
+    public Map<String, long[]> read()
+    {
+        Map<String, long[]> totals = new TreeMap<String, long[]>();
+        apply( totals, load() );
+        synchronized ( pending )
+        {
+            for ( Map.Entry<String, long[]> entry : pending.entrySet() )
+            {
+                add( totals, entry.getKey(), entry.getValue()[0], entry.getValue()[1] );
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * Gets the time of the last rescan.
+     *
+     * @return The time of the last rescan or {@code 0} if the totals were never rescanned.
+     */
+    public long getLastRescan()
+    {
+        String value = load().getProperty( RESCANNED );
+        try
+        {
+            return ( value != null ) ? Long.parseLong( value.trim() ) : 0;
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Recalculates the totals by scanning the base directories of the specified manager. The directories of each
+     * base directory are scanned in parallel.
+     *
+     * @param lrm The manager whose base directories to scan, must not be {@code null}.
+     * @return The recalculated totals, never {@code null}.
+     */
+    public Map<String, long[]> rescan( SplitLocalRepositoryManager lrm )
+    {
+        flush();
+
+        final Map<String, long[]> totals = new TreeMap<String, long[]>();
+        Collection<Callable<Map<String, long[]>>> tasks = new ArrayList<Callable<Map<String, long[]>>>();
+        String[] tiers =
+            { SplitLocalRepositoryManager.LOCAL_SNAPSHOTS, SplitLocalRepositoryManager.LOCAL_RELEASES,
+                SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, SplitLocalRepositoryManager.REMOTE_RELEASES };
+        for ( final String tier : tiers )
+        {
+            File[] children = new File( lrm.getRepository().getBasedir(), lrm.getTierPath( tier ) ).listFiles();
+            if ( children == null )
+            {
+                continue;
+            }
+            for ( final File child : children )
+            {
+                if ( child.getName().startsWith( "." ) )
+                {
+                    continue;
+                }
+                tasks.add( new Callable<Map<String, long[]>>()
+                {
+                    public Map<String, long[]> call()
+                    {
+                        Map<String, long[]> usage = new HashMap<String, long[]>();
+                        scan( child, tier, child.getName(), usage );
+                        return usage;
+                    }
+                } );
+            }
+        }
+        List<Map<String, long[]>> results = lrm.getWorkers().run( tasks );
+        for ( Map<String, long[]> usage : results )
+        {
+            for ( Map.Entry<String, long[]> entry : usage.entrySet() )
+            {
+                add( totals, entry.getKey(), entry.getValue()[0], entry.getValue()[1] );
+            }
+        }
+
+        update( totals, true );
+        return totals;
+    }
+
+    private static void scan( File file, String tier, String subPath, Map<String, long[]> usage )
+    {
+        File[] children = file.listFiles();
+        if ( children == null )
+        {
+            add( usage, getKey( tier, subPath ), 1, file.length() );
+            return;
+        }
+        for ( File child : children )
+        {
+            // tracking files are not accounted by registrations either
+            if ( !child.getName().startsWith( "." ) && !TRACKING_FILE.equals( child.getName() ) )
+            {
+                scan( child, tier, subPath + '/' + child.getName(), usage );
+            }
+        }
+    }
+
+    private static void add( Map<String, long[]> totals, String key, long files, long bytes )
+    {
+        long[] usage = totals.get( key );
+        if ( usage == null )
+        {
+            usage = new long[2];
+            totals.put( key, usage );
+        }
+        usage[0] += files;
+        usage[1] += bytes;
+    }
+
+    private static void apply( Map<String, long[]> totals, Properties props )
+    {
+        for ( Map.Entry<Object, Object> entry : props.entrySet() )
+        {
+            String key = entry.getKey().toString();
+            if ( key.startsWith( "." ) )
+            {
+                continue;
+            }
+            String value = entry.getValue().toString();
+            int comma = value.indexOf( ',' );
+            try
+            {
+                long files = Long.parseLong( value.substring( 0, comma ).trim() );
+                long bytes = Long.parseLong( value.substring( comma + 1 ).trim() );
+                add( totals, key, files, bytes );
+            }
+            catch ( RuntimeException e )
+            {
+                // ignore corrupt entry, the next rescan fixes it
+            }
+        }
+    }
+
+    private void update( Map<String, long[]> changes, boolean replace )
+    {
+        LockFile lock;
+        try
+        {
+            lock = LockFile.acquire( lockFile, lockStrategy );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not lock disk usage file " + file + ": " + e );
+            return;
+        }
+        try
+        {
+            Properties props = load();
+            Map<String, long[]> totals = new TreeMap<String, long[]>();
+            if ( !replace )
+            {
+                apply( totals, props );
+            }
+            for ( Map.Entry<String, long[]> entry : changes.entrySet() )
+            {
+                add( totals, entry.getKey(), entry.getValue()[0], entry.getValue()[1] );
+            }
+
+            Properties updated = new Properties();
+            String rescanned = replace ? Long.toString( System.currentTimeMillis() ) : props.getProperty( RESCANNED );
+            if ( rescanned != null )
+            {
+                updated.setProperty( RESCANNED, rescanned );
+            }
+            for ( Map.Entry<String, long[]> entry : totals.entrySet() )
+            {
+                long files = Math.max( 0, entry.getValue()[0] );
+                long bytes = Math.max( 0, entry.getValue()[1] );
+                if ( files > 0 || bytes > 0 )
+                {
+                    updated.setProperty( entry.getKey(), files + "," + bytes );
+                }
+            }
+            store( updated );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not update disk usage file " + file + ": " + e );
+        }
+        finally
+        {
+            try
+            {
+                lock.release();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not unlock disk usage file " + file + ": " + e );
+            }
+        }
+    }
+
+    private Properties load()
+    {
+        Properties props = new Properties();
+        try
+        {
+            InputStream is = new FileInputStream( file );
+            try
+            {
+                props.load( is );
+            }
+            finally
+            {
+                is.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // missing file, no usage accounted yet
+        }
+        return props;
+    }
+
+    private void store( Properties props )
+        throws IOException
+    {
+        File directory = file.getParentFile();
+        if ( !directory.mkdirs() && !directory.exists() )
+        {
+            throw new IOException( "Could not create directory " + directory );
+        }
+        File tmp = new File( file.getPath() + ".tmp" );
+        OutputStream os = new FileOutputStream( tmp );
+        try
+        {
+            props.store( os, "NOTE: This is an internal implementation file"
+                + ", its format can be changed without prior notice." );
+        }
+        finally
+        {
+            os.close();
+        }
+        if ( !tmp.renameTo( file ) && ( !file.delete() || !tmp.renameTo( file ) ) )
+        {
+            throw new IOException( "Could not rename " + tmp + " to " + file );
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Performs the primitive file system operations of the local repository. The default implementation directly
+ * delegates to {@link File} and the file streams, other implementations can instrument or emulate the file system,
+ * e.g. to assess the behavior on slow network file systems.
+ */
+interface FileAccess
+{
+
+    /**
+     * Tests whether the specified path denotes an existing regular file.
+     */
+    boolean isFile( File file );
+
+    /**
+     * Tests whether the specified path denotes an existing file or directory.
+     */
+    boolean exists( File file );
+
+    FileInputStream openInput( File file )
+        throws IOException;
+
+    FileOutputStream openOutput( File file )
+        throws IOException;
+
+    /**
+     * Opens the specified file for reading and writing, creating it if necessary.
+     */
+    RandomAccessFile openRandomAccess( File file )
+        throws IOException;
+
+    /**
+     * Creates a new empty file in the specified directory.
+     *
+     * @see File#createTempFile(String, String, File)
+     */
+    File createTempFile( String prefix, String suffix, File directory )
+        throws IOException;
+
+    boolean rename( File src, File dst );
+
+    boolean delete( File file );
+
+    /**
+     * Creates the specified directory and any missing parent directories.
+     *
+     * @return {@code true} if the directory exists after the call, {@code false} otherwise.
+     */
+    boolean mkdirs( File directory );
+
+}
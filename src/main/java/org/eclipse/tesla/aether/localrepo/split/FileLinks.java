@@ -0,0 +1,210 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * Creates file system links. The extension targets Java 5 which offers no API for links, so the methods of
+ * {@code java.nio.file.Files} are used reflectively when running on Java 7 or later and the {@code ln} command
+ * otherwise.
+ */
+class FileLinks
+{
+
+    private static final Method TO_PATH;
+
+    private static final Method CREATE_LINK;
+
+    private static final Method CREATE_SYMBOLIC_LINK;
+
+    private static final Method IS_SYMBOLIC_LINK;
+
+    private static final Object NO_ATTRIBUTES;
+
+    static
+    {
+        Method toPath = null;
+        Method createLink = null;
+        Method createSymbolicLink = null;
+        Method isSymbolicLink = null;
+        Object noAttributes = null;
+        try
+        {
+            Class<?> path = Class.forName( "java.nio.file.Path" );
+            Class<?> files = Class.forName( "java.nio.file.Files" );
+            Class<?> attribute = Class.forName( "java.nio.file.attribute.FileAttribute" );
+            noAttributes = Array.newInstance( attribute, 0 );
+            toPath = File.class.getMethod( "toPath" );
+            createLink = files.getMethod( "createLink", path, path );
+            createSymbolicLink = files.getMethod( "createSymbolicLink", path, path, noAttributes.getClass() );
+            isSymbolicLink = files.getMethod( "isSymbolicLink", path );
+        }
+        catch ( Exception e )
+        {
+            // Java 6 or earlier
+            createLink = null;
+            createSymbolicLink = null;
+            isSymbolicLink = null;
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+        CREATE_SYMBOLIC_LINK = createSymbolicLink;
+        IS_SYMBOLIC_LINK = isSymbolicLink;
+        NO_ATTRIBUTES = noAttributes;
+    }
+
+    /**
+     * Creates a hard link for an existing file.
+     *
+     * @param link The path of the link to create, must not be {@code null}. The parent directory must exist.
+     * @param existing The existing file to link to, must not be {@code null}.
+     * @throws IOException If the link could not be created, e.g. because the file system does not support hard links
+     *             or both paths are on different file systems.
+     */
+    public static void createHardLink( File link, File existing )
+        throws IOException
+    {
+        if ( CREATE_LINK != null )
+        {
+            invoke( CREATE_LINK, toPath( link ), toPath( existing ) );
+        }
+        else
+        {
+            exec( "ln", existing.getAbsolutePath(), link.getAbsolutePath() );
+        }
+    }
+
+    /**
+     * Creates a symbolic link to a file.
+     *
+     * @param link The path of the link to create, must not be {@code null}. The parent directory must exist.
+     * @param target The file to link to, must not be {@code null}.
+     * @throws IOException If the link could not be created, e.g. because the file system does not support symbolic
+     *             links.
+     */
+    public static void createSymbolicLink( File link, File target )
+        throws IOException
+    {
+        if ( CREATE_SYMBOLIC_LINK != null )
+        {
+            invoke( CREATE_SYMBOLIC_LINK, toPath( link ), toPath( target ), NO_ATTRIBUTES );
+        }
+        else
+        {
+            exec( "ln", "-s", target.getAbsolutePath(), link.getAbsolutePath() );
+        }
+    }
+
+    /**
+     * Determines whether the specified path denotes a symbolic link, regardless of whether the link target exists.
+     *
+     * @param file The path to check, must not be {@code null}.
+     * @return {@code true} if the path is a symbolic link, {@code false} otherwise.
+     */
+    public static boolean isSymbolicLink( File file )
+    {
+        try
+        {
+            if ( IS_SYMBOLIC_LINK != null )
+            {
+                return Boolean.TRUE.equals( invoke( IS_SYMBOLIC_LINK, toPath( file ) ) );
+            }
+
+            File parent = file.getAbsoluteFile().getParentFile().getCanonicalFile();
+            File resolved = new File( parent, file.getName() );
+            if ( resolved.exists() )
+            {
+                return !resolved.getCanonicalFile().equals( resolved );
+            }
+            // a dangling link does not exist but is still listed by its directory
+            String[] names = parent.list();
+            return names != null && Arrays.asList( names ).contains( file.getName() );
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    private static Object toPath( File file )
+        throws IOException
+    {
+        try
+        {
+            return TO_PATH.invoke( file );
+        }
+        catch ( Exception e )
+        {
+            throw new IOException( "Invalid path " + file + ": " + e );
+        }
+    }
+
+    private static Object invoke( Method method, Object... args )
+        throws IOException
+    {
+        try
+        {
+            return method.invoke( null, args );
+        }
+        catch ( InvocationTargetException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof IOException )
+            {
+                throw (IOException) cause;
+            }
+            throw new IOException( String.valueOf( cause ) );
+        }
+        catch ( IllegalAccessException e )
+        {
+            throw new IOException( String.valueOf( e ) );
+        }
+    }
+
+    private static void exec( String... command )
+        throws IOException
+    {
+        Process process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        InputStream is = process.getInputStream();
+        try
+        {
+            byte[] buffer = new byte[1024];
+            for ( int read = is.read( buffer ); read >= 0; read = is.read( buffer ) )
+            {
+                output.write( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            is.close();
+        }
+        try
+        {
+            if ( process.waitFor() != 0 )
+            {
+                throw new IOException( "Command " + command[0] + " failed: " + output.toString().trim() );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while waiting for command " + command[0] );
+        }
+    }
+
+}
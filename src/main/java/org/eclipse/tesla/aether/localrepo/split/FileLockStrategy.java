@@ -0,0 +1,78 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+
+/**
+ * Locks files using {@link FileChannel#lock(long, long, boolean)}, i.e. by means of the locking facilities of the
+ * operating system. This is the default strategy.
+ */
+class FileLockStrategy
+    implements LockStrategy
+{
+
+    public Closeable lock( File file, FileChannel channel, boolean shared )
+        throws IOException
+    {
+        final FileLock lock = lock( channel, Math.max( 1, channel.size() ), shared );
+
+        return new Closeable()
+        {
+            public void close()
+                throws IOException
+            {
+                lock.release();
+            }
+        };
+    }
+
+    private FileLock lock( FileChannel channel, long size, boolean shared )
+        throws IOException
+    {
+        FileLock lock = null;
+
+        for ( int attempts = 8; attempts >= 0; attempts-- )
+        {
+            try
+            {
+                lock = channel.lock( 0, size, shared );
+                break;
+            }
+            catch ( OverlappingFileLockException e )
+            {
+                if ( attempts <= 0 )
+                {
+                    throw (IOException) new IOException().initCause( e );
+                }
+                try
+                {
+                    Thread.sleep( 50 );
+                }
+                catch ( InterruptedException e1 )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        if ( lock == null )
+        {
+            throw new IOException( "Could not lock file" );
+        }
+
+        return lock;
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.sonatype.aether.metadata.Metadata;
+
+/**
+ * Stores all data directly in the file system.
+ */
+class FileStorage
+    implements Storage
+{
+
+    private final TrackingFileManager trackingFileManager;
+
+    private FileAccess fileAccess = DefaultFileAccess.INSTANCE;
+
+    public FileStorage( TrackingFileManager trackingFileManager )
+    {
+        this.trackingFileManager = trackingFileManager;
+    }
+
+    public FileStorage setFileAccess( FileAccess fileAccess )
+    {
+        this.fileAccess = ( fileAccess != null ) ? fileAccess : DefaultFileAccess.INSTANCE;
+        trackingFileManager.setFileAccess( this.fileAccess );
+        return this;
+    }
+
+    public boolean isFile( File file )
+    {
+        return fileAccess.isFile( file );
+    }
+
+    public Properties readTracking( File file )
+    {
+        return trackingFileManager.read( file );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates )
+    {
+        return trackingFileManager.update( file, updates );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates, Properties previous )
+    {
+        return trackingFileManager.update( file, updates, previous );
+    }
+
+    public void repairMetadata( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases )
+        throws IOException
+    {
+        MetadataUtils.repair( metadata, src, dst, purgeSnapshots, purgeReleases, fileAccess );
+    }
+
+    public void copyMetadata( File src, File dst )
+        throws IOException
+    {
+        MetadataUtils.copyFile( src, dst, fileAccess );
+    }
+
+    public void close()
+    {
+    }
+
+}
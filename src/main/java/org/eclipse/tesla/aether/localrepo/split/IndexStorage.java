@@ -0,0 +1,335 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Keeps the resolution tracking data in a {@link TrackingIndex} instead of the tracking files in the version
+ * directories. Tracking files that are not yet indexed are read through from the file system and get indexed upon
+ * their first update, so an existing repository can be switched to the index without an explicit import. Existence
+ * checks and metadata are delegated to the file system since the repository system accesses those files directly.
+ */
+class IndexStorage
+    implements Storage
+{
+
+    static final String TRACKING_INDEX = SplitLocalRepositoryManager.INDEX + "tracking.idx";
+
+    static final String TRACKING_LOCK = SplitLocalRepositoryManager.LOCKS + "tracking.lock";
+
+    private static final String[] TIERS =
+        { SplitLocalRepositoryManager.LOCAL_SNAPSHOTS, SplitLocalRepositoryManager.LOCAL_RELEASES,
+            SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, SplitLocalRepositoryManager.REMOTE_RELEASES };
+
+    private static final int BATCH_SIZE = 1024;
+
+    private final Storage delegate;
+
+    private final TrackingIndex index;
+
+    private final String basedir;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    /**
+     * Creates a new index storage.
+     *
+     * @param delegate The storage to read not yet indexed tracking files from and to delegate metadata operations to,
+     *            must not be {@code null}.
+     * @param basedir The base directory of the local repository, must not be {@code null}.
+     * @param lockStrategy The strategy used to serialize updates of the index, must not be {@code null}.
+     */
+    public IndexStorage( Storage delegate, File basedir, LockStrategy lockStrategy )
+    {
+        this.delegate = delegate;
+        this.basedir = basedir.getAbsolutePath() + File.separator;
+        index =
+            new TrackingIndex( new File( basedir, TRACKING_INDEX ), new File( basedir, TRACKING_LOCK ), lockStrategy,
+                               0 ).setBasedir( basedir );
+    }
+
+    public IndexStorage setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        index.setLogger( this.logger );
+        return this;
+    }
+
+    TrackingIndex getIndex()
+    {
+        return index;
+    }
+
+    /**
+     * Gets the key of the specified tracking file, i.e. its path relative to the base directory or its absolute path
+     * if it lies outside of the base directory.
+     */
+    String getKey( File file )
+    {
+        String path = file.getAbsolutePath();
+        if ( path.startsWith( basedir ) )
+        {
+            path = path.substring( basedir.length() );
+        }
+        return path.replace( File.separatorChar, '/' );
+    }
+
+    File getFile( String key )
+    {
+        File file = new File( key.replace( '/', File.separatorChar ) );
+        return file.isAbsolute() ? file : new File( basedir, file.getPath() );
+    }
+
+    public boolean isFile( File file )
+    {
+        return delegate.isFile( file );
+    }
+
+    public Properties readTracking( File file )
+    {
+        Properties props = index.get( getKey( file ) );
+        return ( props != null ) ? props : delegate.readTracking( file );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates )
+    {
+        return updateTracking( file, updates, null );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates, Properties previous )
+    {
+        String key = getKey( file );
+        Properties base = ( index.get( key ) == null ) ? delegate.readTracking( file ) : null;
+        try
+        {
+            return index.update( key, updates, base, previous );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Failed to update tracking index " + index.getFile() + " for " + file + ": " + e );
+            Properties props = new Properties();
+            if ( base != null )
+            {
+                props.putAll( base );
+            }
+            if ( previous != null )
+            {
+                previous.putAll( props );
+            }
+            for ( Map.Entry<String, String> update : updates.entrySet() )
+            {
+                if ( update.getValue() != null )
+                {
+                    props.setProperty( update.getKey(), update.getValue() );
+                }
+            }
+            return props;
+        }
+    }
+
+    public void repairMetadata( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases )
+        throws IOException
+    {
+        delegate.repairMetadata( metadata, src, dst, purgeSnapshots, purgeReleases );
+    }
+
+    public void copyMetadata( File src, File dst )
+        throws IOException
+    {
+        delegate.copyMetadata( src, dst );
+    }
+
+    /**
+     * Indexes the tracking files in the base directories of the specified manager, replacing the indexed data of
+     * those files. The tracking files themselves are retained.
+     *
+     * @param lrm The manager whose base directories to scan, must not be {@code null}.
+     * @return The number of imported tracking files.
+     * @throws IOException If the index could not be updated.
+     */
+    public int importFiles( SplitLocalRepositoryManager lrm )
+        throws IOException
+    {
+        Collection<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for ( String tier : TIERS )
+        {
+            File[] children = new File( lrm.getRepository().getBasedir(), lrm.getTierPath( tier ) ).listFiles();
+            if ( children == null )
+            {
+                continue;
+            }
+            for ( final File child : children )
+            {
+                if ( child.getName().startsWith( "." ) || !child.isDirectory() )
+                {
+                    continue;
+                }
+                tasks.add( new Callable<Integer>()
+                {
+                    public Integer call()
+                        throws IOException
+                    {
+                        Map<String, Properties> entries = new HashMap<String, Properties>();
+                        int count = importFiles( child, entries );
+                        index.putAll( entries );
+                        return Integer.valueOf( count + entries.size() );
+                    }
+                } );
+            }
+        }
+        int count = 0;
+        for ( Integer imported : run( lrm, tasks ) )
+        {
+            count += imported.intValue();
+        }
+        logger.debug( "Imported " + count + " resolution tracking files into " + index.getFile() );
+        return count;
+    }
+
+    private int importFiles( File dir, Map<String, Properties> entries )
+        throws IOException
+    {
+        int count = 0;
+        File[] children = dir.listFiles();
+        if ( children == null )
+        {
+            return count;
+        }
+        for ( File child : children )
+        {
+            if ( child.isDirectory() )
+            {
+                count += importFiles( child, entries );
+            }
+            else if ( "_maven.repositories".equals( child.getName() ) )
+            {
+                Properties props = delegate.readTracking( child );
+                if ( props != null )
+                {
+                    entries.put( getKey( child ), props );
+                }
+                if ( entries.size() >= BATCH_SIZE )
+                {
+                    count += entries.size();
+                    index.putAll( entries );
+                    entries.clear();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Writes the indexed tracking data back to the tracking files, e.g. before switching back to file storage. Each
+     * tracking file is made to match the indexed data, the index itself is retained.
+     *
+     * @param lrm The manager whose workers to use, must not be {@code null}.
+     * @return The number of exported tracking files.
+     */
+    public int exportFiles( SplitLocalRepositoryManager lrm )
+    {
+        List<String> keys = index.getKeys();
+        Collection<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for ( int i = 0; i < keys.size(); i += BATCH_SIZE )
+        {
+            final List<String> batch = keys.subList( i, Math.min( keys.size(), i + BATCH_SIZE ) );
+            tasks.add( new Callable<Integer>()
+            {
+                public Integer call()
+                {
+                    int count = 0;
+                    for ( String key : batch )
+                    {
+                        Properties props = index.get( key );
+                        if ( props != null )
+                        {
+                            export( getFile( key ), props );
+                            count++;
+                        }
+                    }
+                    return Integer.valueOf( count );
+                }
+            } );
+        }
+        int count = 0;
+        for ( Integer exported : lrm.getWorkers().run( tasks ) )
+        {
+            count += exported.intValue();
+        }
+        logger.debug( "Exported " + count + " resolution tracking files from " + index.getFile() );
+        return count;
+    }
+
+    private void export( File file, Properties props )
+    {
+        Map<String, String> updates = new HashMap<String, String>();
+        Properties existing = delegate.readTracking( file );
+        if ( existing != null )
+        {
+            for ( Object key : existing.keySet() )
+            {
+                updates.put( key.toString(), null );
+            }
+        }
+        for ( Map.Entry<Object, Object> entry : props.entrySet() )
+        {
+            updates.put( entry.getKey().toString(), entry.getValue().toString() );
+        }
+        delegate.updateTracking( file, updates );
+    }
+
+    private static List<Integer> run( SplitLocalRepositoryManager lrm, Collection<Callable<Integer>> tasks )
+        throws IOException
+    {
+        try
+        {
+            return lrm.getWorkers().run( tasks );
+        }
+        catch ( IllegalStateException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Rewrites the index without superseded records and without the records of tracking files whose directory no
+     * longer exists.
+     *
+     * @throws IOException If the index could not be compacted.
+     */
+    public void compact()
+        throws IOException
+    {
+        index.compact();
+    }
+
+    public void close()
+    {
+        index.close();
+        delegate.close();
+    }
+
+}
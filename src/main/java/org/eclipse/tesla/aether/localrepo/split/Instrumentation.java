@@ -0,0 +1,90 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * Receives timed events about the work done by the split local repository, e.g. to expose them as Java Flight
+ * Recorder events. Implementations must be thread-safe and should return {@link #NONE} for events that are not
+ * recorded to keep the overhead of disabled events minimal.
+ */
+public interface Instrumentation
+{
+
+    /**
+     * The instrumentation that records nothing.
+     */
+    Instrumentation NONE = NoInstrumentation.INSTANCE;
+
+    /**
+     * The lookup of an artifact, attributes: {@code groupId}, {@code artifactId}, {@code version}, {@code tier} (the
+     * base directory the artifact was found in) and {@code available}.
+     */
+    String ARTIFACT_FIND = "ArtifactFind";
+
+    /**
+     * The registration of artifacts, attributes: {@code artifacts} (the number of registered artifacts).
+     */
+    String ARTIFACT_REGISTRATION = "ArtifactRegistration";
+
+    /**
+     * The read of a resolution tracking file, attributes: {@code path}, {@code bytes} and {@code lockWait} (in
+     * nanoseconds).
+     */
+    String TRACKING_READ = "TrackingRead";
+
+    /**
+     * The update of a resolution tracking file, attributes: {@code path}, {@code bytes} and {@code lockWait} (in
+     * nanoseconds).
+     */
+    String TRACKING_UPDATE = "TrackingUpdate";
+
+    /**
+     * The repair of metadata, attributes: {@code path} and {@code purged} (either {@code snapshots} or
+     * {@code releases}).
+     */
+    String METADATA_REPAIR = "MetadataRepair";
+
+    /**
+     * The backup of metadata, attributes: {@code path}.
+     */
+    String METADATA_BACKUP = "MetadataBackup";
+
+    /**
+     * Starts an event.
+     *
+     * @param event The name of the event, e.g. {@link #ARTIFACT_FIND}.
+     * @return The started event or {@link #NONE} if the event is not recorded, never {@code null}.
+     */
+    Span begin( String event );
+
+    /**
+     * An event in progress.
+     */
+    interface Span
+    {
+
+        /**
+         * The event that is not recorded.
+         */
+        Span NONE = NoInstrumentation.INSTANCE;
+
+        Span set( String attribute, String value );
+
+        Span set( String attribute, long value );
+
+        Span set( String attribute, boolean value );
+
+        /**
+         * Ends and records the event.
+         */
+        void end();
+
+    }
+
+}
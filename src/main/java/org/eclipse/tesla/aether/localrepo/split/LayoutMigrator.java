@@ -0,0 +1,448 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Converts a local repository in the standard layout into the split layout. Each file is classified by its tracking
+ * data ({@code _remote.repositories} or {@code _maven.repositories}): installed artifacts go to {@code lr/}/{@code ls/}
+ * and downloaded ones to {@code rr/}/{@code rs/} along with their repository keys. Version-less metadata is moved to
+ * the release directories only, {@link MetadataReconciler} creates the backups afterwards. Files are moved or hard
+ * linked rather than copied, copies are only made if the source and the local repository are on different file
+ * systems.
+ * <p>
+ * The migration can be resumed after an interruption: the tracking data of a directory is converted before its files
+ * are transferred and the source tracking file is only deleted once all files of the directory were moved, so another
+ * run picks up where the previous one left off.
+ */
+class LayoutMigrator
+{
+
+    private static final String[] CHECKSUM_SUFFIXES = { ".sha1", ".md5", ".sha256", ".sha512", ".asc" };
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private final File source;
+
+    private boolean link;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    /**
+     * Creates a new migrator.
+     *
+     * @param lrm The manager of the split local repository to migrate into, must not be {@code null}.
+     * @param source The base directory of the local repository in the standard layout, must not be {@code null}.
+     */
+    public LayoutMigrator( SplitLocalRepositoryManager lrm, File source )
+    {
+        this.lrm = lrm;
+        this.source = source;
+    }
+
+    /**
+     * Controls whether files are hard linked instead of moved, leaving the source repository intact.
+     *
+     * @param link {@code true} to hard link files, {@code false} to move them.
+     * @return This migrator for chaining, never {@code null}.
+     */
+    public LayoutMigrator setLink( boolean link )
+    {
+        this.link = link;
+        return this;
+    }
+
+    public LayoutMigrator setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public Result migrate()
+    {
+        final Result result = new Result();
+
+        // split the tree below the first two levels of the groupIds to balance the work
+        Collection<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        File[] roots = source.listFiles();
+        if ( roots != null )
+        {
+            for ( final File root : roots )
+            {
+                if ( root.getName().startsWith( "." ) || !root.isDirectory() )
+                {
+                    continue;
+                }
+                final String rootPath = root.getName() + '/';
+                tasks.add( new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        migrate( root, rootPath, false, result );
+                        return Boolean.TRUE;
+                    }
+                } );
+                File[] children = root.listFiles();
+                for ( int i = 0; children != null && i < children.length; i++ )
+                {
+                    final File child = children[i];
+                    if ( child.isDirectory() )
+                    {
+                        tasks.add( new Callable<Boolean>()
+                        {
+                            public Boolean call()
+                            {
+                                migrate( child, rootPath + child.getName() + '/', true, result );
+                                return Boolean.TRUE;
+                            }
+                        } );
+                    }
+                }
+            }
+        }
+        lrm.getWorkers().run( tasks );
+
+        if ( !link && roots != null )
+        {
+            for ( File root : roots )
+            {
+                deleteIfEmpty( root );
+            }
+        }
+
+        logger.debug( "Migrated " + source + ": " + result );
+        return result;
+    }
+
+    private void migrate( File dir, String path, boolean recursive, Result result )
+    {
+        File[] children = dir.listFiles();
+        if ( children == null )
+        {
+            return;
+        }
+
+        boolean snapshot = dir.getName().endsWith( "-SNAPSHOT" );
+        Properties tracking = readTracking( dir );
+        Map<File, String> tiers = new LinkedHashMap<File, String>();
+        for ( File child : children )
+        {
+            if ( child.isDirectory() )
+            {
+                continue;
+            }
+            String tier = classify( child.getName(), snapshot, tracking );
+            if ( tier != null )
+            {
+                tiers.put( child, tier );
+            }
+        }
+
+        // also convert the entries of files that were moved by an interrupted run
+        Map<String, String> updates = getUpdates( tracking );
+        if ( !updates.isEmpty() )
+        {
+            String tier = snapshot ? SplitLocalRepositoryManager.REMOTE_SNAPSHOTS
+                            : SplitLocalRepositoryManager.REMOTE_RELEASES;
+            File trackingFile =
+                new File( lrm.getRepository().getBasedir(), lrm.getTierPath( tier ) + path + "_maven.repositories" );
+            Properties existing = lrm.getStorage().readTracking( trackingFile );
+            if ( existing == null || !existing.keySet().containsAll( updates.keySet() ) )
+            {
+                lrm.getStorage().updateTracking( trackingFile, updates );
+                result.trackingFiles.incrementAndGet();
+            }
+        }
+
+        boolean complete = true;
+        for ( Map.Entry<File, String> entry : tiers.entrySet() )
+        {
+            File src = entry.getKey();
+            File dst = new File( lrm.getRepository().getBasedir(), lrm.getTierPath( entry.getValue() ) + path
+                + src.getName() );
+            complete &= transfer( src, dst, result );
+        }
+
+        if ( !link && complete )
+        {
+            // the remaining files are tracking data or caches of the standard layout
+            for ( File child : children )
+            {
+                if ( !tiers.containsKey( child ) && child.isFile() && !child.delete() )
+                {
+                    logger.debug( "Could not delete " + child );
+                }
+            }
+        }
+
+        if ( recursive )
+        {
+            for ( File child : children )
+            {
+                if ( child.isDirectory() && !child.getName().startsWith( "." ) )
+                {
+                    migrate( child, path + child.getName() + '/', true, result );
+                }
+            }
+            if ( !link )
+            {
+                deleteIfEmpty( dir );
+            }
+        }
+    }
+
+    /**
+     * Determines the base directory of the specified file.
+     *
+     * @param name The name of the file, must not be {@code null}.
+     * @param snapshot Whether the file is located in a snapshot version directory.
+     * @param tracking The tracking data of the directory, must not be {@code null}.
+     * @return The base directory or {@code null} if the file is not to be migrated.
+     */
+    String classify( String name, boolean snapshot, Properties tracking )
+    {
+        if ( name.equals( "_remote.repositories" ) || name.equals( "_maven.repositories" )
+            || name.equals( "resolver-status.properties" ) || name.endsWith( ".lastUpdated" ) )
+        {
+            return null;
+        }
+
+        String base = name;
+        for ( String suffix : CHECKSUM_SUFFIXES )
+        {
+            if ( name.endsWith( suffix ) )
+            {
+                base = name.substring( 0, name.length() - suffix.length() );
+                break;
+            }
+        }
+
+        boolean local = false;
+        if ( base.startsWith( "maven-metadata-" ) && base.endsWith( ".xml" ) )
+        {
+            String key = base.substring( "maven-metadata-".length(), base.length() - ".xml".length() );
+            local = key.equals( lrm.getRepository().getId() );
+        }
+        else if ( base.startsWith( "maven-metadata" ) )
+        {
+            // metadata without repository key is not used by the repository system
+            return null;
+        }
+        else
+        {
+            local = tracking.containsKey( base + '>' );
+        }
+
+        if ( local )
+        {
+            return snapshot ? SplitLocalRepositoryManager.LOCAL_SNAPSHOTS : SplitLocalRepositoryManager.LOCAL_RELEASES;
+        }
+        return snapshot ? SplitLocalRepositoryManager.REMOTE_SNAPSHOTS : SplitLocalRepositoryManager.REMOTE_RELEASES;
+    }
+
+    /**
+     * Gets the tracking data for the split layout, i.e. the entries of downloaded artifacts. Installed artifacts are
+     * not tracked in the split layout.
+     */
+    private static Map<String, String> getUpdates( Properties tracking )
+    {
+        Map<String, String> updates = new HashMap<String, String>();
+        for ( Object key : tracking.keySet() )
+        {
+            String entry = key.toString();
+            int separator = entry.indexOf( '>' );
+            if ( separator > 0 && separator < entry.length() - 1
+                && !tracking.containsKey( entry.substring( 0, separator + 1 ) ) )
+            {
+                updates.put( entry, "" );
+            }
+        }
+        return updates;
+    }
+
+    private Properties readTracking( File dir )
+    {
+        Properties props = new Properties();
+        // Maven 3.0 used the same file name as the split layout, later versions use _remote.repositories
+        for ( String name : new String[] { "_maven.repositories", "_remote.repositories" } )
+        {
+            File file = new File( dir, name );
+            if ( !file.isFile() )
+            {
+                continue;
+            }
+            try
+            {
+                InputStream is = new FileInputStream( file );
+                try
+                {
+                    props.load( is );
+                }
+                finally
+                {
+                    is.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not read tracking file " + file + ": " + e );
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Transfers the specified file into the split layout unless it has already been transferred.
+     *
+     * @return {@code true} if the file is available in the split layout, {@code false} otherwise.
+     */
+    private boolean transfer( File src, File dst, Result result )
+    {
+        if ( dst.exists() )
+        {
+            if ( !link && dst.length() == src.length() && !src.delete() )
+            {
+                logger.debug( "Could not delete migrated file " + src );
+            }
+            result.skipped.incrementAndGet();
+            return true;
+        }
+
+        File directory = dst.getParentFile();
+        if ( !directory.mkdirs() && !directory.exists() )
+        {
+            logger.warn( "Could not create directory " + directory );
+            result.failed.incrementAndGet();
+            return false;
+        }
+
+        try
+        {
+            if ( link )
+            {
+                try
+                {
+                    FileLinks.createHardLink( dst, src );
+                    result.linked.incrementAndGet();
+                    return true;
+                }
+                catch ( IOException e )
+                {
+                    logger.debug( "Could not link " + dst + " to " + src + ", copying instead: " + e );
+                }
+            }
+            else if ( src.renameTo( dst ) )
+            {
+                result.moved.incrementAndGet();
+                return true;
+            }
+
+            MetadataUtils.copyFile( src, dst );
+            if ( !dst.setLastModified( src.lastModified() ) )
+            {
+                logger.debug( "Could not preserve last modified time of " + dst );
+            }
+            if ( !link && !src.delete() )
+            {
+                logger.debug( "Could not delete migrated file " + src );
+            }
+            result.copied.incrementAndGet();
+            return true;
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not migrate " + src + " to " + dst + ": " + e );
+            result.failed.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void deleteIfEmpty( File dir )
+    {
+        String[] children = dir.list();
+        if ( children != null && children.length <= 0 && !dir.delete() )
+        {
+            logger.debug( "Could not delete empty directory " + dir );
+        }
+    }
+
+    /**
+     * The outcome of a migration.
+     */
+    public static class Result
+    {
+
+        final AtomicInteger moved = new AtomicInteger();
+
+        final AtomicInteger linked = new AtomicInteger();
+
+        final AtomicInteger copied = new AtomicInteger();
+
+        final AtomicInteger skipped = new AtomicInteger();
+
+        final AtomicInteger failed = new AtomicInteger();
+
+        final AtomicInteger trackingFiles = new AtomicInteger();
+
+        public int getMoved()
+        {
+            return moved.get();
+        }
+
+        public int getLinked()
+        {
+            return linked.get();
+        }
+
+        public int getCopied()
+        {
+            return copied.get();
+        }
+
+        public int getSkipped()
+        {
+            return skipped.get();
+        }
+
+        public int getFailed()
+        {
+            return failed.get();
+        }
+
+        public int getTrackingFiles()
+        {
+            return trackingFiles.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getMoved() + " files moved, " + getLinked() + " linked, " + getCopied() + " copied, "
+                + getSkipped() + " already migrated, " + getFailed() + " failed, " + getTrackingFiles()
+                + " tracking files converted";
+        }
+
+    }
+
+}
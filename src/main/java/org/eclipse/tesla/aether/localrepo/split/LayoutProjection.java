@@ -0,0 +1,672 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Maintains a view of the local repository in the standard layout for tools that access the repository directly
+ * instead of going through the repository API. The view is a directory tree of links that point at the files in the
+ * split base directories, no file contents are copied. If a path exists in several base directories, the link points
+ * at the local releases, local snapshots, remote releases or remote snapshots in that order, i.e. installed artifacts
+ * shadow downloaded ones and version-less metadata refers to its master copy. Downloaded snapshots are additionally
+ * projected under their base version (e.g. {@code a-1.0-SNAPSHOT.jar}) which refers to the latest timestamped file.
+ * Resolution tracking files are not projected.
+ * <p>
+ * The view is updated incrementally with each registration of an artifact/metadata. Changes made without a
+ * registration (e.g. deletions by the pruner) are only picked up by {@link #rebuild()}. Hard links keep referring to
+ * the old contents once the linked file has been replaced, so symbolic links are preferable where supported.
+ * <p>
+ * Only entries created by the projection are ever replaced or deleted: symbolic links identify themselves, hard links
+ * are recorded in the file {@link #MANIFEST} inside the view. Other files in the view are left alone.
+ */
+class LayoutProjection
+{
+
+    /**
+     * The file inside the view that lists the paths of the hard links created by the projection.
+     */
+    static final String MANIFEST = ".projection";
+
+    private static final String[] TIERS = { SplitLocalRepositoryManager.LOCAL_RELEASES,
+        SplitLocalRepositoryManager.LOCAL_SNAPSHOTS, SplitLocalRepositoryManager.REMOTE_RELEASES,
+        SplitLocalRepositoryManager.REMOTE_SNAPSHOTS };
+
+    /**
+     * The index of the remote snapshots in {@link #TIERS}, the only base directory holding timestamped snapshots.
+     */
+    private static final int REMOTE_SNAPSHOTS = 3;
+
+    private static final String TRACKING_FILE = "_maven.repositories";
+
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private static final Pattern TIMESTAMP = Pattern.compile( "([0-9]{8}\\.[0-9]{6})-([0-9]+)(.*)" );
+
+    private static final int FAILED = 0;
+
+    private static final int LINKED = 1;
+
+    private static final int CURRENT = 2;
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private final File directory;
+
+    private boolean hardLinks;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private Set<String> manifest;
+
+    /**
+     * Creates a new projection.
+     *
+     * @param lrm The manager of the split local repository to project, must not be {@code null}.
+     * @param directory The directory holding the view in the standard layout, must not be {@code null}.
+     * @throws IllegalArgumentException If the directory is, contains or is located inside the base directory of the
+     *             local repository or one of its split base directories.
+     */
+    public LayoutProjection( SplitLocalRepositoryManager lrm, File directory )
+    {
+        this.lrm = lrm;
+        this.directory = directory.getAbsoluteFile();
+        checkDirectory();
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Controls whether the view consists of hard links instead of symbolic links.
+     *
+     * @param hardLinks {@code true} to create hard links, {@code false} to create symbolic links.
+     * @return This projection for chaining, never {@code null}.
+     */
+    public LayoutProjection setHardLinks( boolean hardLinks )
+    {
+        this.hardLinks = hardLinks;
+        return this;
+    }
+
+    public LayoutProjection setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    private void checkDirectory()
+    {
+        Collection<File> dirs = new ArrayList<File>();
+        dirs.add( lrm.getRepository().getBasedir() );
+        for ( int i = 0; i < TIERS.length; i++ )
+        {
+            dirs.add( getFile( i, "" ) );
+        }
+        String view = getCanonicalPath( directory );
+        for ( File dir : dirs )
+        {
+            String other = getCanonicalPath( dir );
+            if ( view.equals( other ) || view.startsWith( other + File.separator )
+                || other.startsWith( view + File.separator ) )
+            {
+                throw new IllegalArgumentException( "The directory " + directory
+                    + " of the standard layout view overlaps with the local repository directory " + dir );
+            }
+        }
+    }
+
+    private static String getCanonicalPath( File file )
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch ( IOException e )
+        {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Updates the view for the specified path after the file has been added to or removed from the local repository.
+     *
+     * @param subPath The path in the standard layout, i.e. relative to the base directories, must not be {@code null}.
+     */
+    public void update( String subPath )
+    {
+        int tier = findTier( subPath );
+        if ( tier >= 0 )
+        {
+            project( subPath, getFile( tier, subPath ) );
+        }
+        else if ( remove( subPath ) )
+        {
+            logger.debug( "Removed " + subPath + " from standard layout view" );
+        }
+
+        String[] snapshot = parseSnapshot( subPath );
+        if ( snapshot != null && findTier( snapshot[0] ) < 0 )
+        {
+            if ( tier == REMOTE_SNAPSHOTS )
+            {
+                // the last registered snapshot is the latest one
+                project( snapshot[0], getFile( tier, subPath ) );
+            }
+            else if ( tier < 0 && !new File( directory, snapshot[0] ).exists() )
+            {
+                remove( snapshot[0] );
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the view from the base directories. Missing or outdated links are (re-)created and links to files that
+     * no longer exist are removed. The base directories are scanned in parallel.
+     *
+     * @return The outcome of the rebuild, never {@code null}.
+     */
+    public Result rebuild()
+    {
+        checkDirectory();
+
+        final Result result = new Result();
+        final ConcurrentMap<String, Boolean> projected = new ConcurrentHashMap<String, Boolean>();
+
+        synchronized ( this )
+        {
+            // pick up the links created by other processes
+            manifest = readManifest();
+        }
+
+        Collection<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for ( int i = 0; i < TIERS.length; i++ )
+        {
+            final int tier = i;
+            File[] children = getFile( tier, "" ).listFiles();
+            for ( int j = 0; children != null && j < children.length; j++ )
+            {
+                final File child = children[j];
+                tasks.add( new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        project( child, child.getName(), tier, projected, result );
+                        return Boolean.TRUE;
+                    }
+                } );
+            }
+        }
+        lrm.getWorkers().run( tasks );
+
+        tasks.clear();
+        File[] children = directory.listFiles();
+        for ( int i = 0; children != null && i < children.length; i++ )
+        {
+            final File child = children[i];
+            tasks.add( new Callable<Boolean>()
+            {
+                public Boolean call()
+                {
+                    purge( child, child.getName(), projected, result );
+                    return Boolean.TRUE;
+                }
+            } );
+        }
+        lrm.getWorkers().run( tasks );
+
+        writeManifest();
+
+        return result;
+    }
+
+    private void project( File file, String subPath, int tier, Map<String, Boolean> projected, Result result )
+    {
+        String name = file.getName();
+        if ( name.startsWith( "." ) )
+        {
+            return;
+        }
+        if ( file.isDirectory() )
+        {
+            File[] children = file.listFiles();
+            for ( int i = 0; children != null && i < children.length; i++ )
+            {
+                project( children[i], subPath + '/' + children[i].getName(), tier, projected, result );
+            }
+            if ( tier == REMOTE_SNAPSHOTS && name.endsWith( SNAPSHOT ) && children != null )
+            {
+                projectSnapshots( subPath, children, projected, result );
+            }
+        }
+        else if ( !TRACKING_FILE.equals( name ) && !name.endsWith( TMP_SUFFIX ) && findTier( subPath ) == tier )
+        {
+            // the file is only projected by the scan of the base directory that takes precedence
+            count( project( subPath, file ), result );
+            projected.put( subPath, Boolean.TRUE );
+        }
+    }
+
+    /**
+     * Projects the latest timestamped snapshots of a version directory under their base version.
+     */
+    private void projectSnapshots( String dirPath, File[] children, Map<String, Boolean> projected, Result result )
+    {
+        Map<String, String[]> latest = new HashMap<String, String[]>();
+        for ( File child : children )
+        {
+            String subPath = dirPath + '/' + child.getName();
+            String[] snapshot = parseSnapshot( subPath );
+            if ( snapshot != null && child.isFile() && findTier( subPath ) == REMOTE_SNAPSHOTS )
+            {
+                String[] other = latest.get( snapshot[0] );
+                if ( other == null || isNewer( snapshot, other ) )
+                {
+                    latest.put( snapshot[0], new String[] { snapshot[0], snapshot[1], snapshot[2], subPath } );
+                }
+            }
+        }
+        for ( String[] snapshot : latest.values() )
+        {
+            if ( findTier( snapshot[0] ) < 0 )
+            {
+                count( project( snapshot[0], getFile( REMOTE_SNAPSHOTS, snapshot[3] ) ), result );
+                projected.put( snapshot[0], Boolean.TRUE );
+            }
+        }
+    }
+
+    private static boolean isNewer( String[] snapshot, String[] other )
+    {
+        int diff = snapshot[1].compareTo( other[1] );
+        if ( diff == 0 )
+        {
+            return Long.parseLong( snapshot[2] ) > Long.parseLong( other[2] );
+        }
+        return diff > 0;
+    }
+
+    /**
+     * Parses the path of a timestamped snapshot.
+     *
+     * @return The path of the file under its base version, the timestamp and the build number or {@code null} if the
+     *         path does not denote a timestamped snapshot.
+     */
+    static String[] parseSnapshot( String subPath )
+    {
+        int name = subPath.lastIndexOf( '/' );
+        int dir = ( name > 0 ) ? subPath.lastIndexOf( '/', name - 1 ) : -1;
+        if ( dir <= 0 )
+        {
+            return null;
+        }
+        String baseVersion = subPath.substring( dir + 1, name );
+        if ( !baseVersion.endsWith( "-" + SNAPSHOT ) )
+        {
+            return null;
+        }
+        String artifactId = subPath.substring( subPath.lastIndexOf( '/', dir - 1 ) + 1, dir );
+        String prefix = artifactId + '-' + baseVersion.substring( 0, baseVersion.length() - SNAPSHOT.length() );
+        String fileName = subPath.substring( name + 1 );
+        if ( !fileName.startsWith( prefix ) )
+        {
+            return null;
+        }
+        Matcher matcher = TIMESTAMP.matcher( fileName.substring( prefix.length() ) );
+        if ( !matcher.matches() || matcher.group( 3 ).endsWith( TMP_SUFFIX ) )
+        {
+            return null;
+        }
+        String alias = subPath.substring( 0, name + 1 ) + artifactId + '-' + baseVersion + matcher.group( 3 );
+        return new String[] { alias, matcher.group( 1 ), matcher.group( 2 ) };
+    }
+
+    /**
+     * Removes the links in the view that were created by the projection but were not (re-)projected by the rebuild.
+     *
+     * @return {@code true} if anything was removed, {@code false} otherwise.
+     */
+    private boolean purge( File file, String subPath, Map<String, Boolean> projected, Result result )
+    {
+        if ( file.getName().startsWith( "." ) )
+        {
+            return false;
+        }
+        if ( file.isDirectory() && !FileLinks.isSymbolicLink( file ) )
+        {
+            boolean removed = false;
+            File[] children = file.listFiles();
+            for ( int i = 0; children != null && i < children.length; i++ )
+            {
+                removed |= purge( children[i], subPath + '/' + children[i].getName(), projected, result );
+            }
+            String[] remaining = file.list();
+            if ( removed && remaining != null && remaining.length <= 0 && !file.delete() )
+            {
+                logger.debug( "Could not delete empty directory " + file );
+            }
+            return removed;
+        }
+        else if ( !projected.containsKey( subPath ) && findTier( subPath ) < 0 && remove( subPath ) )
+        {
+            result.removed.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void count( int status, Result result )
+    {
+        if ( status == CURRENT )
+        {
+            result.current.incrementAndGet();
+        }
+        else if ( status == LINKED )
+        {
+            result.linked.incrementAndGet();
+        }
+        else
+        {
+            result.failed.incrementAndGet();
+        }
+    }
+
+    private int findTier( String subPath )
+    {
+        for ( int i = 0; i < TIERS.length; i++ )
+        {
+            if ( getFile( i, subPath ).isFile() )
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private File getFile( int tier, String subPath )
+    {
+        return new File( lrm.getRepository().getBasedir(), lrm.getTierPath( TIERS[tier] ) + subPath );
+    }
+
+    private boolean isOwned( File link, String subPath )
+    {
+        return FileLinks.isSymbolicLink( link ) || getManifest().contains( subPath );
+    }
+
+    private int project( String subPath, File target )
+    {
+        File link = new File( directory, subPath );
+        if ( isCurrent( link, target ) )
+        {
+            return CURRENT;
+        }
+        if ( link.exists() && !isOwned( link, subPath ) )
+        {
+            logger.warn( "Not replacing " + link + " which was not created by the standard layout view" );
+            return FAILED;
+        }
+        return link( link, subPath, target ) ? LINKED : FAILED;
+    }
+
+    private boolean remove( String subPath )
+    {
+        File link = new File( directory, subPath );
+        if ( isOwned( link, subPath ) && link.delete() )
+        {
+            synchronized ( this )
+            {
+                getManifest().remove( subPath );
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private boolean isCurrent( File link, File target )
+    {
+        if ( !link.exists() )
+        {
+            return false;
+        }
+        if ( hardLinks )
+        {
+            // a hard link shares the timestamp of its target
+            return link.length() == target.length() && link.lastModified() == target.lastModified();
+        }
+        try
+        {
+            return link.getCanonicalFile().equals( target.getCanonicalFile() );
+        }
+        catch ( IOException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Creates a link under a temporary name and renames it into place to atomically replace any existing link.
+     */
+    private boolean link( File link, String subPath, File target )
+    {
+        File parent = link.getParentFile();
+        if ( !parent.mkdirs() && !parent.isDirectory() )
+        {
+            logger.warn( "Could not create directory " + parent );
+            return false;
+        }
+
+        String id = Long.toHexString( Thread.currentThread().getId() ) + '-' + Long.toHexString( System.nanoTime() );
+        File tmp = new File( parent, link.getName() + '.' + id + TMP_SUFFIX );
+        try
+        {
+            if ( hardLinks )
+            {
+                FileLinks.createHardLink( tmp, target );
+                // record the link before it becomes visible, an unrecorded link would never be removed
+                record( subPath );
+            }
+            else
+            {
+                FileLinks.createSymbolicLink( tmp, target.getAbsoluteFile() );
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not link " + link + " to " + target + ": " + e );
+            return false;
+        }
+
+        if ( !tmp.renameTo( link ) )
+        {
+            // some platforms refuse to rename onto an existing file
+            link.delete();
+            if ( !tmp.renameTo( link ) )
+            {
+                tmp.delete();
+                logger.warn( "Could not rename " + tmp + " to " + link );
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized Set<String> getManifest()
+    {
+        if ( manifest == null )
+        {
+            manifest = readManifest();
+        }
+        return manifest;
+    }
+
+    private synchronized void record( String subPath )
+    {
+        if ( !getManifest().add( subPath ) )
+        {
+            return;
+        }
+        File file = new File( directory, MANIFEST );
+        try
+        {
+            OutputStream os = new FileOutputStream( file, true );
+            try
+            {
+                os.write( ( subPath + '\n' ).getBytes( "UTF-8" ) );
+            }
+            finally
+            {
+                os.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not record " + subPath + " in " + file + ": " + e );
+        }
+    }
+
+    private Set<String> readManifest()
+    {
+        Set<String> paths = new HashSet<String>();
+        File file = new File( directory, MANIFEST );
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+            try
+            {
+                for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                {
+                    if ( line.length() > 0 )
+                    {
+                        paths.add( line );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( FileNotFoundException e )
+        {
+            // no hard links created yet
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not read " + file + ": " + e );
+        }
+        return paths;
+    }
+
+    /**
+     * Rewrites the manifest to drop the paths of removed links.
+     */
+    private synchronized void writeManifest()
+    {
+        File file = new File( directory, MANIFEST );
+        if ( getManifest().isEmpty() && !file.exists() )
+        {
+            return;
+        }
+        File tmp = new File( directory, MANIFEST + TMP_SUFFIX );
+        try
+        {
+            OutputStream os = new FileOutputStream( tmp );
+            try
+            {
+                for ( String subPath : getManifest() )
+                {
+                    os.write( ( subPath + '\n' ).getBytes( "UTF-8" ) );
+                }
+            }
+            finally
+            {
+                os.close();
+            }
+            if ( !tmp.renameTo( file ) && ( !file.delete() || !tmp.renameTo( file ) ) )
+            {
+                throw new IOException( "Could not rename " + tmp + " to " + file );
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not write " + file + ": " + e );
+            tmp.delete();
+        }
+    }
+
+    /**
+     * The outcome of a rebuild.
+     */
+    public static class Result
+    {
+
+        final AtomicInteger linked = new AtomicInteger();
+
+        final AtomicInteger current = new AtomicInteger();
+
+        final AtomicInteger removed = new AtomicInteger();
+
+        final AtomicInteger failed = new AtomicInteger();
+
+        public int getLinked()
+        {
+            return linked.get();
+        }
+
+        public int getCurrent()
+        {
+            return current.get();
+        }
+
+        public int getRemoved()
+        {
+            return removed.get();
+        }
+
+        public int getFailed()
+        {
+            return failed.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getLinked() + " files linked, " + getCurrent() + " up-to-date, " + getRemoved() + " removed, "
+                + getFailed() + " failed";
+        }
+
+    }
+
+}
@@ -0,0 +1,418 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * A lease on directories of the local repository that protects them from concurrent cleanup. Each manager holds its
+ * own lease file that lists the leased directories, one per line. The lease file is kept alive by periodically
+ * touching it, lease files that have not been touched within the time-to-live are considered abandoned (e.g. by a
+ * crashed build) and are ignored and eventually deleted by the cleanup. For managers that outlive single builds, the
+ * leased directories can be made to expire individually once they have not been accessed for some time.
+ */
+class Lease
+{
+
+    static final String SUFFIX = ".lease";
+
+    static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+    private static final Timer HEARTBEAT = new Timer( "split-localrepo-lease-heartbeat", true );
+
+    private final File file;
+
+    private final long ttl;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    /**
+     * The leased paths along with the time of their last access. The paths are replaced as a whole when directories
+     * expire, so the dictionary does not retain the segments of expired paths.
+     */
+    private volatile Paths paths = new Paths();
+
+    private volatile long idleTimeout;
+
+    private OutputStream out;
+
+    private TimerTask heartbeat;
+
+    /**
+     * Creates a new lease.
+     *
+     * @param directory The directory holding the lease files, must not be {@code null}.
+     * @param ttl The time-to-live of the lease in milliseconds, must be positive.
+     */
+    public Lease( File directory, long ttl )
+    {
+        this.file = new File( directory, UUID.randomUUID().toString() + SUFFIX );
+        this.ttl = ttl;
+    }
+
+    public Lease setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Lets leased directories expire once they have not been accessed for the specified period, e.g. for managers that
+     * are shared by consecutive builds and hence never released.
+     *
+     * @param idleTimeout The period in milliseconds, a non-positive value retains the directories until the lease is
+     *            released.
+     * @return This lease for chaining, never {@code null}.
+     */
+    public Lease setIdleTimeout( long idleTimeout )
+    {
+        this.idleTimeout = idleTimeout;
+        return this;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Leases the specified directory. The lease is persisted before this method returns.
+     *
+     * @param path The path of the directory, relative to the base directory of the local repository and starting with
+     *            the name of its base directory, e.g. {@code rs/org/example/1.0-SNAPSHOT}, must not be {@code null}.
+     */
+    public void add( String path )
+    {
+        Long now = Long.valueOf( System.currentTimeMillis() );
+        Paths paths = this.paths;
+        PathDictionary.Path key = paths.dictionary.encode( path );
+        if ( ( idleTimeout > 0 ? paths.times.put( key, now ) : paths.times.putIfAbsent( key, now ) ) != null )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( paths != this.paths )
+            {
+                // expired directories were purged meanwhile, record the access with the current paths
+                paths = this.paths;
+                key = paths.dictionary.encode( path );
+                paths.times.put( key, now );
+            }
+            try
+            {
+                if ( out == null )
+                {
+                    File directory = file.getParentFile();
+                    if ( !directory.mkdirs() && !directory.exists() )
+                    {
+                        throw new IOException( "Could not create directory " + directory );
+                    }
+                    out = new FileOutputStream( file, true );
+                    heartbeat = new TimerTask()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            if ( !file.setLastModified( System.currentTimeMillis() ) )
+                            {
+                                logger.debug( "Could not renew lease " + file );
+                            }
+                            if ( idleTimeout > 0 )
+                            {
+                                expire( System.currentTimeMillis() - idleTimeout );
+                            }
+                        }
+                    };
+                    HEARTBEAT.schedule( heartbeat, ttl / 3, ttl / 3 );
+                }
+                out.write( ( path + '\n' ).getBytes( "UTF-8" ) );
+                out.flush();
+            }
+            catch ( IOException e )
+            {
+                paths.times.remove( key );
+                logger.warn( "Could not record lease on " + path + " in " + file + ": " + e );
+            }
+        }
+    }
+
+    /**
+     * Removes the directories that have not been accessed since the specified time and rewrites the lease file. An
+     * access that races with the expiry of its directory may be lost, the next access leases the directory again.
+     */
+    synchronized void expire( long minAccess )
+    {
+        if ( out == null )
+        {
+            return;
+        }
+
+        // the lease file holds the paths in their textual form, needed to encode them with a fresh dictionary
+        Collection<String> lines = new ArrayList<String>();
+        read( file, lines, logger );
+        Paths paths = this.paths;
+        if ( lines.isEmpty() )
+        {
+            return;
+        }
+        Paths renewed = new Paths();
+        Collection<String> remaining = new ArrayList<String>();
+        for ( String line : new LinkedHashSet<String>( lines ) )
+        {
+            PathDictionary.Path key = paths.dictionary.find( line );
+            Long access = ( key != null ) ? paths.times.get( key ) : null;
+            if ( access != null && access.longValue() >= minAccess )
+            {
+                renewed.times.put( renewed.dictionary.encode( line ), access );
+                remaining.add( line );
+            }
+        }
+        if ( remaining.size() == paths.times.size() )
+        {
+            return;
+        }
+
+        try
+        {
+            File tmp = new File( file.getPath() + ".tmp" );
+            OutputStream tmpOut = new FileOutputStream( tmp );
+            try
+            {
+                for ( String line : remaining )
+                {
+                    tmpOut.write( ( line + '\n' ).getBytes( "UTF-8" ) );
+                }
+            }
+            finally
+            {
+                tmpOut.close();
+            }
+            out.close();
+            if ( !tmp.renameTo( file ) )
+            {
+                tmp.delete();
+                throw new IOException( "Could not rename " + tmp + " to " + file );
+            }
+            this.paths = renewed;
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Could not expire directories of lease " + file + ": " + e );
+        }
+        finally
+        {
+            try
+            {
+                out = new FileOutputStream( file, true );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not reopen lease " + file + ": " + e );
+                out = null;
+                this.paths = new Paths();
+            }
+        }
+    }
+
+    public boolean contains( String path )
+    {
+        Paths paths = this.paths;
+        PathDictionary.Path key = paths.dictionary.find( path );
+        return key != null && paths.times.containsKey( key );
+    }
+
+    /**
+     * Releases all leased directories and deletes the lease file.
+     */
+    public synchronized void release()
+    {
+        if ( heartbeat != null )
+        {
+            heartbeat.cancel();
+            heartbeat = null;
+        }
+        if ( out != null )
+        {
+            try
+            {
+                out.close();
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Error closing lease " + file + ": " + e );
+            }
+            out = null;
+            if ( !file.delete() && file.exists() )
+            {
+                logger.warn( "Could not delete lease " + file );
+            }
+        }
+        paths = new Paths();
+    }
+
+    /**
+     * Reads the directories leased by all active leases in the specified directory. Abandoned lease files are deleted.
+     *
+     * @param directory The directory holding the lease files, must not be {@code null}.
+     * @param ttl The time-to-live of leases in milliseconds.
+     * @param logger The logger to use, must not be {@code null}.
+     * @return The leased paths, never {@code null}.
+     */
+    public static Set<String> read( File directory, long ttl, Logger logger )
+    {
+        return new Reader( directory, ttl, logger ).read();
+    }
+
+    private static void read( File file, Collection<String> leased, Logger logger )
+    {
+        try
+        {
+            BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+            try
+            {
+                for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+                {
+                    if ( line.length() > 0 )
+                    {
+                        leased.add( line );
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // the lease was probably released meanwhile
+            logger.debug( "Could not read lease " + file + ": " + e );
+        }
+    }
+
+    /**
+     * Reads the directories leased by all active leases in a directory repeatedly, e.g. right before each deletion.
+     * Only lease files whose length or timestamp changed since the previous read are parsed again.
+     */
+    static class Reader
+    {
+
+        private final File directory;
+
+        private final long ttl;
+
+        private final Logger logger;
+
+        private final Map<File, Snapshot> snapshots = new HashMap<File, Snapshot>();
+
+        /**
+         * Creates a new reader.
+         *
+         * @param directory The directory holding the lease files, must not be {@code null}.
+         * @param ttl The time-to-live of leases in milliseconds.
+         * @param logger The logger to use, must not be {@code null}.
+         */
+        public Reader( File directory, long ttl, Logger logger )
+        {
+            this.directory = directory;
+            this.ttl = ttl;
+            this.logger = logger;
+        }
+
+        /**
+         * Reads the currently leased directories. Abandoned lease files are deleted.
+         *
+         * @return The leased paths, never {@code null}.
+         */
+        public synchronized Set<String> read()
+        {
+            Set<String> leased = new HashSet<String>();
+            Map<File, Snapshot> current = new HashMap<File, Snapshot>();
+            File[] files = directory.listFiles();
+            long now = System.currentTimeMillis();
+            for ( int i = 0; files != null && i < files.length; i++ )
+            {
+                File file = files[i];
+                if ( !file.getName().endsWith( SUFFIX ) )
+                {
+                    continue;
+                }
+                long modified = file.lastModified();
+                if ( modified != 0 && now - modified > ttl )
+                {
+                    logger.debug( "Deleting abandoned lease " + file );
+                    file.delete();
+                    continue;
+                }
+                long length = file.length();
+                Snapshot snapshot = snapshots.get( file );
+                if ( snapshot == null || snapshot.modified != modified || snapshot.length != length )
+                {
+                    snapshot = new Snapshot( modified, length );
+                    Lease.read( file, snapshot.paths, logger );
+                }
+                current.put( file, snapshot );
+                leased.addAll( snapshot.paths );
+            }
+            snapshots.clear();
+            snapshots.putAll( current );
+            return leased;
+        }
+
+    }
+
+    static class Paths
+    {
+
+        final PathDictionary dictionary = new PathDictionary();
+
+        final ConcurrentMap<PathDictionary.Path, Long> times = new ConcurrentHashMap<PathDictionary.Path, Long>();
+
+    }
+
+    static class Snapshot
+    {
+
+        final long modified;
+
+        final long length;
+
+        final Collection<String> paths = new ArrayList<String>();
+
+        Snapshot( long modified, long length )
+        {
+            this.modified = modified;
+            this.length = length;
+        }
+
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An exclusive lock on a file that coordinates work among processes and among the threads of this JVM. Threads are
+ * serialized by a monitor on the canonical path in front of the lock strategy, so two managers in one JVM never hit
+ * an {@link java.nio.channels.OverlappingFileLockException}. The lock file itself is retained after release to avoid
+ * races with other processes trying to lock it, callers should hence draw lock files from a bounded set of names.
+ */
+class LockFile
+{
+
+    /**
+     * The canonical paths of the files locked by this JVM, the interned paths serve as monitors to wait on.
+     */
+    private static final Set<String> HELD = new HashSet<String>();
+
+    private final File file;
+
+    private final String path;
+
+    private final RandomAccessFile raf;
+
+    private final Closeable lock;
+
+    private LockFile( File file, String path, RandomAccessFile raf, Closeable lock )
+    {
+        this.file = file;
+        this.path = path;
+        this.raf = raf;
+        this.lock = lock;
+    }
+
+    /**
+     * Acquires the lock, blocking until it is available.
+     *
+     * @param file The lock file, must not be {@code null}. Missing parent directories are created.
+     * @param strategy The strategy used to lock the file, must not be {@code null}.
+     * @return The acquired lock, never {@code null}.
+     * @throws IOException If the lock could not be acquired.
+     */
+    public static LockFile acquire( File file, LockStrategy strategy )
+        throws IOException
+    {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if ( !directory.mkdirs() && !directory.exists() )
+        {
+            throw new IOException( "Could not create directory " + directory );
+        }
+
+        String path = file.getCanonicalPath().intern();
+        enter( path );
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile( file, "rw" );
+            Closeable lock = strategy.lock( file, raf.getChannel(), false );
+            return new LockFile( file, path, raf, lock );
+        }
+        catch ( IOException e )
+        {
+            close( raf, path );
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            close( raf, path );
+            throw e;
+        }
+    }
+
+    private static void close( RandomAccessFile raf, String path )
+        throws IOException
+    {
+        try
+        {
+            if ( raf != null )
+            {
+                raf.close();
+            }
+        }
+        finally
+        {
+            exit( path );
+        }
+    }
+
+    private static void enter( String path )
+        throws IOException
+    {
+        synchronized ( path )
+        {
+            while ( true )
+            {
+                synchronized ( HELD )
+                {
+                    if ( HELD.add( path ) )
+                    {
+                        return;
+                    }
+                }
+                try
+                {
+                    path.wait();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    IOException ioe = new IOException( "Interrupted while waiting for lock file " + path );
+                    throw (IOException) ioe.initCause( e );
+                }
+            }
+        }
+    }
+
+    private static void exit( String path )
+    {
+        synchronized ( path )
+        {
+            synchronized ( HELD )
+            {
+                HELD.remove( path );
+            }
+            path.notifyAll();
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Releases the lock.
+     *
+     * @throws IOException If the lock could not be released.
+     */
+    public void release()
+        throws IOException
+    {
+        try
+        {
+            lock.close();
+        }
+        finally
+        {
+            close( raf, path );
+        }
+    }
+
+}
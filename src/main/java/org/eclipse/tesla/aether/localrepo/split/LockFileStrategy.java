@@ -0,0 +1,364 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+
+/**
+ * Locks files by atomically creating a companion lock file next to them, which works reliably on network file systems
+ * that lack proper support for byte-range locks. Each lock file contains a unique token of its owner which is verified
+ * before the lock file is deleted, and the owner refreshes the timestamp of the lock file while it holds the lock. A
+ * lock file whose token and timestamp did not change for a configurable age is considered stale, i.e. left behind by
+ * a crashed process, and is broken. As the age is measured with the local clock, clock skew between hosts sharing the
+ * repository does not matter. The observations of foreign lock files are kept across lock requests, so a stale lock
+ * file is broken even if each request times out before the stale age has passed. Shared locks are shared among the
+ * threads of this JVM, across processes readers and writers exclude each other.
+ */
+class LockFileStrategy
+    implements LockStrategy
+{
+
+    static final String SUFFIX = ".lock";
+
+    /**
+     * The locks held by this JVM, keyed by the absolute path of their lock file.
+     */
+    private static final Map<File, Holder> HELD = new HashMap<File, Holder>();
+
+    /**
+     * The states of foreign lock files along with the (local) time they were first observed in, keyed by the absolute
+     * path of the lock file. Guarded by {@link #HELD}.
+     */
+    private static final Map<File, Observation> OBSERVED = new HashMap<File, Observation>();
+
+    private static Timer heartbeat;
+
+    private final long staleAge;
+
+    private final long timeout;
+
+    /**
+     * Creates a new lock strategy.
+     *
+     * @param staleAge The age (in milliseconds) after which an unchanged lock file is considered stale.
+     * @param timeout The maximum time (in milliseconds) to wait for a lock.
+     */
+    public LockFileStrategy( long staleAge, long timeout )
+    {
+        this.staleAge = staleAge;
+        this.timeout = timeout;
+    }
+
+    public Closeable lock( File file, FileChannel channel, boolean shared )
+        throws IOException
+    {
+        final File lockFile = new File( file.getAbsolutePath() + SUFFIX );
+
+        long deadline = System.currentTimeMillis() + timeout;
+        long delay = 5;
+        while ( true )
+        {
+            synchronized ( HELD )
+            {
+                Holder holder = HELD.get( lockFile );
+                if ( holder != null )
+                {
+                    if ( shared && holder.shared && !holder.writerWaiting )
+                    {
+                        holder.count++;
+                        return new Handle( holder );
+                    }
+                    // let the readers drain instead of starving the writer
+                    holder.writerWaiting |= !shared;
+                }
+            }
+
+            String token = UUID.randomUUID().toString();
+            if ( create( lockFile, token ) )
+            {
+                Holder holder = new Holder( lockFile, token, shared );
+                synchronized ( HELD )
+                {
+                    HELD.put( lockFile, holder );
+                    OBSERVED.remove( lockFile );
+                }
+                startHeartbeat( holder );
+                return new Handle( holder );
+            }
+
+            long now = System.currentTimeMillis();
+
+            String state = readState( lockFile );
+            if ( state != null && now - observe( lockFile, state, now ) > staleAge && !isHeld( lockFile ) )
+            {
+                // the owner presumably died without releasing the lock
+                breakLock( lockFile, state );
+                continue;
+            }
+
+            if ( now > deadline )
+            {
+                throw new IOException( "Timeout while waiting for lock file " + lockFile );
+            }
+
+            try
+            {
+                Thread.sleep( delay );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                IOException ioe = new IOException( "Interrupted while waiting for lock file " + lockFile );
+                throw (IOException) ioe.initCause( e );
+            }
+            delay = Math.min( delay * 2, 100 );
+        }
+    }
+
+    /**
+     * Records the current state of a foreign lock file.
+     *
+     * @return The time since which the lock file has been observed in the specified state.
+     */
+    private static long observe( File lockFile, String state, long now )
+    {
+        synchronized ( HELD )
+        {
+            Observation observation = OBSERVED.get( lockFile );
+            if ( observation == null || !observation.state.equals( state ) )
+            {
+                observation = new Observation( state, now );
+                OBSERVED.put( lockFile, observation );
+            }
+            return observation.since;
+        }
+    }
+
+    private static boolean isHeld( File lockFile )
+    {
+        synchronized ( HELD )
+        {
+            return HELD.containsKey( lockFile );
+        }
+    }
+
+    private static boolean create( File lockFile, String token )
+        throws IOException
+    {
+        if ( !lockFile.createNewFile() )
+        {
+            return false;
+        }
+        try
+        {
+            FileOutputStream out = new FileOutputStream( lockFile );
+            try
+            {
+                out.write( token.getBytes( "UTF-8" ) );
+            }
+            finally
+            {
+                out.close();
+            }
+            return true;
+        }
+        catch ( IOException e )
+        {
+            lockFile.delete();
+            throw e;
+        }
+    }
+
+    private static String readToken( File lockFile )
+    {
+        try
+        {
+            FileInputStream in = new FileInputStream( lockFile );
+            try
+            {
+                byte[] bytes = new byte[64];
+                int length = 0;
+                for ( int n; length < bytes.length && ( n = in.read( bytes, length, bytes.length - length ) ) > 0; )
+                {
+                    length += n;
+                }
+                return new String( bytes, 0, length, "UTF-8" );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            // e.g. released in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * Gets the token and timestamp of the specified lock file, {@code null} if it does not exist (anymore).
+     */
+    private static String readState( File lockFile )
+    {
+        long lastModified = lockFile.lastModified();
+        String token = readToken( lockFile );
+        if ( lastModified <= 0 || token == null )
+        {
+            return null;
+        }
+        return token + '@' + lastModified;
+    }
+
+    private static void breakLock( File lockFile, String staleState )
+    {
+        // renaming first ensures that of several concurrent breakers, only one gets hold of the stale lock file
+        File broken = new File( lockFile.getPath() + '.' + UUID.randomUUID() + ".stale" );
+        if ( !lockFile.renameTo( broken ) )
+        {
+            return;
+        }
+        String token = readToken( broken );
+        if ( token == null || !staleState.startsWith( token + '@' ) )
+        {
+            // the lock was released and acquired by another owner in the meantime, hand it back
+            if ( !lockFile.exists() && broken.renameTo( lockFile ) )
+            {
+                return;
+            }
+        }
+        broken.delete();
+    }
+
+    private void startHeartbeat( final Holder holder )
+    {
+        synchronized ( LockFileStrategy.class )
+        {
+            if ( heartbeat == null )
+            {
+                heartbeat = new Timer( "split-localrepo-lock-heartbeat", true );
+            }
+            holder.heartbeat = new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    holder.lockFile.setLastModified( System.currentTimeMillis() );
+                }
+            };
+            long period = Math.max( 1, staleAge / 4 );
+            heartbeat.schedule( holder.heartbeat, period, period );
+        }
+    }
+
+    /**
+     * A lock file held by this JVM.
+     */
+    static class Holder
+    {
+
+        final File lockFile;
+
+        final String token;
+
+        final boolean shared;
+
+        int count = 1;
+
+        boolean writerWaiting;
+
+        TimerTask heartbeat;
+
+        Holder( File lockFile, String token, boolean shared )
+        {
+            this.lockFile = lockFile;
+            this.token = token;
+            this.shared = shared;
+        }
+
+    }
+
+    /**
+     * The state of a foreign lock file (i.e. its token and timestamp) and the time it was first observed in.
+     */
+    static class Observation
+    {
+
+        final String state;
+
+        final long since;
+
+        Observation( String state, long since )
+        {
+            this.state = state;
+            this.since = since;
+        }
+
+    }
+
+    /**
+     * The handle of a single lock request, a holder shared by several readers is released with its last handle.
+     */
+    static class Handle
+        implements Closeable
+    {
+
+        private final Holder holder;
+
+        private boolean closed;
+
+        Handle( Holder holder )
+        {
+            this.holder = holder;
+        }
+
+        public void close()
+            throws IOException
+        {
+            synchronized ( HELD )
+            {
+                if ( closed )
+                {
+                    return;
+                }
+                closed = true;
+                if ( --holder.count > 0 )
+                {
+                    return;
+                }
+                HELD.remove( holder.lockFile );
+                holder.heartbeat.cancel();
+            }
+
+            File lockFile = holder.lockFile;
+            String token = readToken( lockFile );
+            if ( !holder.token.equals( token ) )
+            {
+                // never delete the lock file of another owner
+                throw new IOException( "Lock file " + lockFile + " was broken by another process" );
+            }
+            if ( !lockFile.delete() && lockFile.exists() )
+            {
+                throw new IOException( "Could not delete lock file " + lockFile );
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Guards a file against concurrent access by other processes.
+ */
+interface LockStrategy
+{
+
+    /**
+     * Locks the specified file.
+     *
+     * @param file The file to lock, must not be {@code null}.
+     * @param channel The channel that was opened on the file, must not be {@code null}.
+     * @param shared {@code true} to request a shared lock for reading, {@code false} to request an exclusive lock for
+     *            writing. Strategies that do not support shared locks grant an exclusive lock instead.
+     * @return The handle to release the lock, never {@code null}.
+     * @throws IOException If the lock could not be acquired.
+     */
+    Closeable lock( File file, FileChannel channel, boolean shared )
+        throws IOException;
+
+}
@@ -0,0 +1,189 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * A process-wide registry of local repository managers that allows long-lived processes like build daemons to reuse
+ * one manager (along with its caches) per local repository and configuration across builds. Managers are reference
+ * counted, each {@link #acquire(File, String, Callable)} must be paired with a
+ * {@link SplitLocalRepositoryManager#close()}.
+ * <p>
+ * <strong>Note:</strong> The repository system never closes the local repository managers it obtained from the
+ * factory, so a shared manager created for a build stays registered for the lifetime of the JVM and is never disposed.
+ * Its deferred bookkeeping is written via {@link DeferredFlush} and its leases expire once idle, but the resources it
+ * holds (e.g. open index files and worker threads) are only released when the JVM exits.
+ */
+class ManagerRegistry
+{
+
+    static final ManagerRegistry INSTANCE = new ManagerRegistry();
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    /**
+     * Gets the manager for the specified base directory and configuration, creating it if necessary. Users with a
+     * different configuration get a manager of their own, even for the same base directory.
+     *
+     * @param basedir The base directory of the local repository, must not be {@code null}.
+     * @param configuration The configuration of the manager, e.g. its sorted properties, must not be {@code null}.
+     * @param factory The factory used to create the manager if none is registered yet, must not be {@code null}.
+     * @return The registered manager, never {@code null}.
+     */
+    public synchronized SplitLocalRepositoryManager acquire( File basedir, String configuration,
+                                                         Callable<SplitLocalRepositoryManager> factory )
+    {
+        Key key = new Key( getKey( basedir ), configuration );
+        Entry entry = entries.get( key );
+        if ( entry == null )
+        {
+            SplitLocalRepositoryManager manager;
+            try
+            {
+                manager = factory.call();
+            }
+            catch ( RuntimeException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( "Could not create local repository manager for " + key.basedir, e );
+            }
+            manager.setRegistry( this );
+            entry = new Entry( manager );
+            entries.put( key, entry );
+        }
+        entry.references++;
+        return entry.manager;
+    }
+
+    /**
+     * Releases a reference to the specified manager, disposing the manager when its last reference was released.
+     *
+     * @param manager The manager to release, must not be {@code null}.
+     */
+    public void release( SplitLocalRepositoryManager manager )
+    {
+        synchronized ( this )
+        {
+            Iterator<Entry> it = entries.values().iterator();
+            while ( true )
+            {
+                if ( !it.hasNext() )
+                {
+                    throw new IllegalStateException( "local repository manager for "
+                        + manager.getRepository().getBasedir() + " is not registered" );
+                }
+                Entry entry = it.next();
+                if ( entry.manager != manager )
+                {
+                    continue;
+                }
+                if ( --entry.references > 0 )
+                {
+                    return;
+                }
+                it.remove();
+                break;
+            }
+        }
+        manager.dispose();
+    }
+
+    /**
+     * Gets the number of references to the managers for the specified base directory, regardless of their
+     * configuration.
+     *
+     * @param basedir The base directory of the local repository, must not be {@code null}.
+     * @return The number of references, {@code 0} if no manager is registered.
+     */
+    public synchronized int getReferences( File basedir )
+    {
+        File file = getKey( basedir );
+        int references = 0;
+        for ( Map.Entry<Key, Entry> entry : entries.entrySet() )
+        {
+            if ( entry.getKey().basedir.equals( file ) )
+            {
+                references += entry.getValue().references;
+            }
+        }
+        return references;
+    }
+
+    private static File getKey( File basedir )
+    {
+        try
+        {
+            return basedir.getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            return basedir.getAbsoluteFile();
+        }
+    }
+
+    static class Key
+    {
+
+        final File basedir;
+
+        final String configuration;
+
+        Key( File basedir, String configuration )
+        {
+            this.basedir = basedir;
+            this.configuration = configuration;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+            if ( !( obj instanceof Key ) )
+            {
+                return false;
+            }
+            Key that = (Key) obj;
+            return basedir.equals( that.basedir ) && configuration.equals( that.configuration );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return basedir.hashCode() * 31 + configuration.hashCode();
+        }
+
+    }
+
+    static class Entry
+    {
+
+        final SplitLocalRepositoryManager manager;
+
+        int references;
+
+        Entry( SplitLocalRepositoryManager manager )
+        {
+            this.manager = manager;
+        }
+
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Keeps the resolution tracking data in memory on top of another storage. Tracking files that have not been updated
+ * are read through from the underlying storage, updates are only recorded in memory until they get spilled. This
+ * avoids the locked read-modify-write cycles of tracking files for short-lived builds whose downloads need not be
+ * tracked persistently. Existence checks and metadata are delegated to the underlying storage since the repository
+ * system accesses those files directly.
+ * <p>
+ * If enabled, the updates are spilled in batches via {@link DeferredFlush}, i.e. shortly after they were made and when
+ * the JVM shuts down, since the repository system never closes the storage.
+ */
+class MemoryStorage
+    implements Storage, Flushable
+{
+
+    private final Storage delegate;
+
+    private final boolean spill;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    /**
+     * The in-memory tracking data, the values hold the full state of the tracking file once it was updated.
+     */
+    private final ConcurrentMap<File, Properties> tracking = new ConcurrentHashMap<File, Properties>();
+
+    /**
+     * The updates that have not been spilled yet, per tracking file.
+     */
+    private final Map<File, Map<String, String>> pending = new HashMap<File, Map<String, String>>();
+
+    /**
+     * Creates a new in-memory storage.
+     *
+     * @param delegate The storage to read through to and to spill to, must not be {@code null}.
+     * @param spill {@code true} to spill the in-memory data in the background and when the storage is closed,
+     *            {@code false} to discard it.
+     */
+    public MemoryStorage( Storage delegate, boolean spill )
+    {
+        this.delegate = delegate;
+        this.spill = spill;
+    }
+
+    public MemoryStorage setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public boolean isFile( File file )
+    {
+        return delegate.isFile( file );
+    }
+
+    public Properties readTracking( File file )
+    {
+        Properties props = tracking.get( file );
+        if ( props != null )
+        {
+            synchronized ( props )
+            {
+                Properties copy = new Properties();
+                copy.putAll( props );
+                return copy;
+            }
+        }
+        return delegate.readTracking( file );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates )
+    {
+        return updateTracking( file, updates, null );
+    }
+
+    public Properties updateTracking( File file, Map<String, String> updates, Properties previous )
+    {
+        Properties props = tracking.get( file );
+        if ( props == null )
+        {
+            props = new Properties();
+            Properties existing = delegate.readTracking( file );
+            if ( existing != null )
+            {
+                props.putAll( existing );
+            }
+            Properties other = tracking.putIfAbsent( file, props );
+            if ( other != null )
+            {
+                props = other;
+            }
+        }
+
+        synchronized ( pending )
+        {
+            Map<String, String> changes = pending.get( file );
+            if ( changes == null )
+            {
+                changes = new HashMap<String, String>();
+                pending.put( file, changes );
+            }
+            changes.putAll( updates );
+        }
+        if ( spill )
+        {
+            DeferredFlush.schedule( this );
+        }
+
+        synchronized ( props )
+        {
+            if ( previous != null )
+            {
+                previous.putAll( props );
+            }
+            for ( Map.Entry<String, String> update : updates.entrySet() )
+            {
+                if ( update.getValue() == null )
+                {
+                    props.remove( update.getKey() );
+                }
+                else
+                {
+                    props.setProperty( update.getKey(), update.getValue() );
+                }
+            }
+            Properties copy = new Properties();
+            copy.putAll( props );
+            return copy;
+        }
+    }
+
+    public void repairMetadata( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases )
+        throws IOException
+    {
+        delegate.repairMetadata( metadata, src, dst, purgeSnapshots, purgeReleases );
+    }
+
+    public void copyMetadata( File src, File dst )
+        throws IOException
+    {
+        delegate.copyMetadata( src, dst );
+    }
+
+    /**
+     * Gets the number of tracking files with updates that have not been spilled yet.
+     */
+    public int getPendingCount()
+    {
+        synchronized ( pending )
+        {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Writes the pending tracking updates to the underlying storage. The updates are merged into the tracking files,
+     * i.e. concurrent modifications of the tracking files by other processes are preserved.
+     *
+     * @return The number of spilled tracking files.
+     */
+    public int spill()
+    {
+        Map<File, Map<String, String>> changes;
+        synchronized ( pending )
+        {
+            changes = new HashMap<File, Map<String, String>>( pending );
+            pending.clear();
+        }
+        for ( Map.Entry<File, Map<String, String>> change : changes.entrySet() )
+        {
+            delegate.updateTracking( change.getKey(), change.getValue() );
+        }
+        if ( !changes.isEmpty() )
+        {
+            logger.debug( "Spilled " + changes.size() + " resolution tracking files to disk" );
+        }
+        return changes.size();
+    }
+
+    public void flush()
+    {
+        spill();
+    }
+
+    public void close()
+    {
+        if ( spill )
+        {
+            spill();
+        }
+        delegate.close();
+    }
+
+}
@@ -0,0 +1,186 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Repairs all version-less metadata whose master or backup file is missing, e.g. after a base directory with
+ * snapshots or releases was wiped or cleaned. Builds would repair such metadata on demand as well, reconciling it in
+ * bulk beforehand just keeps this work off their path.
+ */
+class MetadataReconciler
+{
+
+    private static final String[][] PAIRS =
+        { { SplitLocalRepositoryManager.LOCAL_RELEASES, SplitLocalRepositoryManager.LOCAL_SNAPSHOTS },
+            { SplitLocalRepositoryManager.REMOTE_RELEASES, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS } };
+
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    public MetadataReconciler( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    public MetadataReconciler setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    public Result reconcile()
+    {
+        final Result result = new Result();
+        File basedir = lrm.getRepository().getBasedir();
+
+        Collection<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for ( String[] pair : PAIRS )
+        {
+            String master = lrm.getTierPath( pair[0] );
+            String backup = lrm.getTierPath( pair[1] );
+            Set<String> masters = new TreeSet<String>();
+            findMetadata( new File( basedir, master ), "", masters );
+            Set<String> backups = new TreeSet<String>();
+            findMetadata( new File( basedir, backup ), "", backups );
+
+            Set<String> paths = new TreeSet<String>( masters );
+            paths.addAll( backups );
+            result.scanned.addAndGet( paths.size() );
+            for ( String path : paths )
+            {
+                if ( masters.contains( path ) && backups.contains( path ) )
+                {
+                    continue;
+                }
+                final File file = new File( basedir, ( masters.contains( path ) ? master : backup ) + path );
+                final String[] repairPaths = { master + path, backup + path };
+                tasks.add( new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        repair( file, repairPaths, result );
+                        return Boolean.TRUE;
+                    }
+                } );
+            }
+        }
+        lrm.getWorkers().run( tasks );
+
+        logger.debug( "Reconciled " + result );
+        return result;
+    }
+
+    private void repair( File file, String[] paths, Result result )
+    {
+        Metadata metadata;
+        try
+        {
+            metadata = MetadataUtils.readMetadata( file );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not read metadata file " + file + ": " + e );
+            result.failed.incrementAndGet();
+            return;
+        }
+        if ( metadata.getVersion().length() > 0 )
+        {
+            // version-level metadata lives in only one base directory, the scan already skips snapshot versions
+            return;
+        }
+        if ( lrm.repairMetadata( metadata, paths ) )
+        {
+            result.repaired.incrementAndGet();
+        }
+    }
+
+    /**
+     * Collects the paths of the group- and artifact-level metadata below the specified directory. Snapshot version
+     * directories only hold version-level metadata, so they are not scanned at all.
+     */
+    private static void findMetadata( File dir, String path, Set<String> paths )
+    {
+        File[] children = dir.listFiles();
+        if ( children == null )
+        {
+            return;
+        }
+        for ( File child : children )
+        {
+            String name = child.getName();
+            if ( name.startsWith( "." ) )
+            {
+                continue;
+            }
+            if ( child.isDirectory() )
+            {
+                if ( !name.endsWith( SNAPSHOT ) )
+                {
+                    findMetadata( child, path + name + '/', paths );
+                }
+            }
+            else if ( name.startsWith( "maven-metadata" ) && name.endsWith( ".xml" ) )
+            {
+                paths.add( path + name );
+            }
+        }
+    }
+
+    /**
+     * The outcome of a reconciliation.
+     */
+    public static class Result
+    {
+
+        final AtomicInteger scanned = new AtomicInteger();
+
+        final AtomicInteger repaired = new AtomicInteger();
+
+        final AtomicInteger failed = new AtomicInteger();
+
+        public int getScanned()
+        {
+            return scanned.get();
+        }
+
+        public int getRepaired()
+        {
+            return repaired.get();
+        }
+
+        public int getFailed()
+        {
+            return failed.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getRepaired() + " of " + getScanned() + " metadata files, " + getFailed() + " unreadable";
+        }
+
+    }
+
+}
@@ -10,10 +10,11 @@ package org.eclipse.tesla.aether.localrepo.split;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 
-import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.ReaderFactory;
 import org.codehaus.plexus.util.WriterFactory;
@@ -32,11 +33,18 @@ class MetadataUtils
 
     public static void repair( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases )
         throws IOException
+    {
+        repair( metadata, src, dst, purgeSnapshots, purgeReleases, DefaultFileAccess.INSTANCE );
+    }
+
+    public static void repair( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases,
+                               FileAccess access )
+        throws IOException
     {
         if ( MAVEN_METADATA.equals( metadata.getType() ) && metadata.getArtifactId().length() > 0
             && metadata.getVersion().length() <= 0 )
         {
-            Xpp3Dom dom = readXml( src );
+            Xpp3Dom dom = readXml( src, access );
 
             Xpp3Dom versioning = dom.getChild( "versioning" );
             if ( versioning != null )
@@ -82,18 +90,107 @@ class MetadataUtils
                 }
             }
 
-            writeXml( dst, dom );
+            writeXml( dst, dom, access );
         }
         else
         {
-            FileUtils.copyFile( src, dst );
+            copyFile( src, dst, access );
         }
     }
 
-    private static Xpp3Dom readXml( File src )
+    /**
+     * Copies the specified file. The copy is first written to a temporary file next to the destination and then
+     * renamed, i.e. concurrent readers never observe a partially written destination file.
+     *
+     * @param src The file to copy, must not be {@code null}.
+     * @param dst The destination file, must not be {@code null}.
+     * @throws IOException If the file could not be copied.
+     */
+    public static void copyFile( File src, File dst )
+        throws IOException
+    {
+        copyFile( src, dst, DefaultFileAccess.INSTANCE );
+    }
+
+    public static void copyFile( File src, File dst, FileAccess access )
+        throws IOException
+    {
+        File tmp = newTempFile( dst, access );
+        try
+        {
+            InputStream in = access.openInput( src );
+            try
+            {
+                OutputStream out = access.openOutput( tmp );
+                try
+                {
+                    IOUtil.copy( in, out );
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+            publish( tmp, dst, access );
+        }
+        finally
+        {
+            access.delete( tmp );
+        }
+    }
+
+    private static File newTempFile( File dst, FileAccess access )
+        throws IOException
+    {
+        File dir = dst.getAbsoluteFile().getParentFile();
+        access.mkdirs( dir );
+        return access.createTempFile( dst.getName(), ".tmp", dir );
+    }
+
+    private static void publish( File tmp, File dst, FileAccess access )
+        throws IOException
+    {
+        if ( !access.rename( tmp, dst ) )
+        {
+            // some platforms refuse to rename onto an existing file
+            access.delete( dst );
+            if ( !access.rename( tmp, dst ) )
+            {
+                throw new IOException( "Could not rename " + tmp + " to " + dst );
+            }
+        }
+    }
+
+    /**
+     * Reads the coordinates of the specified Maven metadata file.
+     *
+     * @param file The metadata file, must not be {@code null}.
+     * @return The metadata with the coordinates from the file, never {@code null}. Missing coordinates are empty.
+     * @throws IOException If the file could not be read.
+     */
+    public static Metadata readMetadata( File file )
+        throws IOException
+    {
+        Xpp3Dom dom = readXml( file, DefaultFileAccess.INSTANCE );
+        return new FileMetadata( getValue( dom, "groupId" ), getValue( dom, "artifactId" ),
+                                 getValue( dom, "version" ), file );
+    }
+
+    private static String getValue( Xpp3Dom dom, String child )
+    {
+        Xpp3Dom node = dom.getChild( child );
+        String value = ( node != null ) ? node.getValue() : null;
+        return ( value != null ) ? value.trim() : "";
+    }
+
+    private static Xpp3Dom readXml( File src, FileAccess access )
         throws IOException
     {
-        Reader reader = ReaderFactory.newXmlReader( src );
+        Reader reader = ReaderFactory.newXmlReader( access.openInput( src ) );
         try
         {
             return Xpp3DomBuilder.build( reader, false );
@@ -108,20 +205,92 @@ class MetadataUtils
         }
     }
 
-    private static void writeXml( File dst, Xpp3Dom dom )
+    private static void writeXml( File dst, Xpp3Dom dom, FileAccess access )
         throws IOException
     {
-        dst.getAbsoluteFile().getParentFile().mkdirs();
-
-        Writer writer = WriterFactory.newXmlWriter( dst );
+        File tmp = newTempFile( dst, access );
         try
         {
-            Xpp3DomWriter.write( writer, dom );
+            Writer writer = WriterFactory.newXmlWriter( access.openOutput( tmp ) );
+            try
+            {
+                Xpp3DomWriter.write( writer, dom );
+            }
+            finally
+            {
+                writer.close();
+            }
+
+            publish( tmp, dst, access );
         }
         finally
         {
-            writer.close();
+            access.delete( tmp );
+        }
+    }
+
+    static class FileMetadata
+        implements Metadata
+    {
+
+        private final String groupId;
+
+        private final String artifactId;
+
+        private final String version;
+
+        private File file;
+
+        FileMetadata( String groupId, String artifactId, String version, File file )
+        {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.file = file;
         }
+
+        public String getGroupId()
+        {
+            return groupId;
+        }
+
+        public String getArtifactId()
+        {
+            return artifactId;
+        }
+
+        public String getVersion()
+        {
+            return version;
+        }
+
+        public String getType()
+        {
+            return MAVEN_METADATA;
+        }
+
+        public Nature getNature()
+        {
+            return Nature.RELEASE_OR_SNAPSHOT;
+        }
+
+        public File getFile()
+        {
+            return file;
+        }
+
+        public Metadata setFile( File file )
+        {
+            this.file = file;
+            return this;
+        }
+
+        @Override
+        public String toString()
+        {
+            return groupId + ':' + artifactId + ':' + version + '/' + MAVEN_METADATA;
+        }
+
     }
 
 }
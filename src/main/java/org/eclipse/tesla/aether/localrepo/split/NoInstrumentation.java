@@ -0,0 +1,48 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+/**
+ * The instrumentation that records nothing.
+ */
+final class NoInstrumentation
+    implements Instrumentation, Instrumentation.Span
+{
+
+    static final NoInstrumentation INSTANCE = new NoInstrumentation();
+
+    private NoInstrumentation()
+    {
+    }
+
+    public Span begin( String event )
+    {
+        return this;
+    }
+
+    public Span set( String attribute, String value )
+    {
+        return this;
+    }
+
+    public Span set( String attribute, long value )
+    {
+        return this;
+    }
+
+    public Span set( String attribute, boolean value )
+    {
+        return this;
+    }
+
+    public void end()
+    {
+    }
+
+}
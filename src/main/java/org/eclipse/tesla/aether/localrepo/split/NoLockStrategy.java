@@ -0,0 +1,36 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.channels.FileChannel;
+
+/**
+ * Does not lock files at all. Only suitable if at most one process at a time accesses the local repository.
+ */
+class NoLockStrategy
+    implements LockStrategy
+{
+
+    static final NoLockStrategy INSTANCE = new NoLockStrategy();
+
+    private static final Closeable RELEASE = new Closeable()
+    {
+        public void close()
+        {
+        }
+    };
+
+    public Closeable lock( File file, FileChannel channel, boolean shared )
+    {
+        return RELEASE;
+    }
+
+}
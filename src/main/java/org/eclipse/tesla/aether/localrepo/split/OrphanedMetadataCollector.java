@@ -0,0 +1,241 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Deletes the metadata files of remote repository keys that are no longer in use. For a repository manager, the key
+ * embedded in the name of a metadata file (e.g. {@code maven-metadata-nexus-<digest>.xml}) depends on the mirrored
+ * repositories and the request context, so every change of those leaves a new set of metadata files behind. A key is
+ * considered live if it was explicitly configured or has been used within the maximum age, the usage of keys is
+ * recorded by the manager in {@link SplitLocalRepositoryManager#REPOSITORY_KEYS}. Files of other keys are deleted
+ * unless they were modified within the maximum age, which protects keys of managers that did not record their usage.
+ */
+class OrphanedMetadataCollector
+{
+
+    static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static final String PREFIX = "maven-metadata-";
+
+    private static final String[] TIERS =
+        { SplitLocalRepositoryManager.REMOTE_RELEASES, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS };
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private final Set<String> liveKeys = new HashSet<String>();
+
+    private long maxAge = DEFAULT_MAX_AGE;
+
+    public OrphanedMetadataCollector( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    public OrphanedMetadataCollector setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Sets the repository keys whose metadata files must be retained regardless of their usage.
+     *
+     * @param keys The live repository keys, may be {@code null}.
+     * @return This collector for chaining, never {@code null}.
+     */
+    public OrphanedMetadataCollector setLiveKeys( Collection<String> keys )
+    {
+        liveKeys.clear();
+        if ( keys != null )
+        {
+            liveKeys.addAll( keys );
+        }
+        return this;
+    }
+
+    /**
+     * Sets the period after which an unused repository key is considered orphaned.
+     *
+     * @param maxAge The maximum age in milliseconds.
+     * @return This collector for chaining, never {@code null}.
+     */
+    public OrphanedMetadataCollector setMaxAge( long maxAge )
+    {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    public Result collect()
+    {
+        final Result result = new Result();
+        File basedir = lrm.getRepository().getBasedir();
+        final long minUsage = System.currentTimeMillis() - maxAge;
+
+        final Set<String> live = new HashSet<String>( liveKeys );
+        live.add( lrm.getRepository().getId() );
+        File usageFile = new File( basedir, SplitLocalRepositoryManager.REPOSITORY_KEYS );
+        Properties usage = lrm.getStorage().readTracking( usageFile );
+        if ( usage != null )
+        {
+            for ( Object key : usage.keySet() )
+            {
+                if ( SplitLocalRepositoryManager.getLastUsage( usage, key.toString() ) >= minUsage )
+                {
+                    live.add( key.toString() );
+                }
+            }
+        }
+
+        // each group directory of each base directory is scanned by a separate task
+        Collection<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for ( final String tier : TIERS )
+        {
+            final String tierPath = lrm.getTierPath( tier );
+            File[] children = new File( basedir, tierPath ).listFiles();
+            if ( children == null )
+            {
+                continue;
+            }
+            for ( final File child : children )
+            {
+                if ( child.getName().startsWith( "." ) )
+                {
+                    continue;
+                }
+                tasks.add( new Callable<Boolean>()
+                {
+                    public Boolean call()
+                    {
+                        Collection<String> paths = new ArrayList<String>();
+                        collect( child, tier, child.getName(), live, minUsage, paths, result );
+                        lrm.invalidate( paths );
+                        return Boolean.TRUE;
+                    }
+                } );
+            }
+        }
+        lrm.getWorkers().run( tasks );
+
+        logger.debug( "Collected " + result );
+        return result;
+    }
+
+    private void collect( File file, String tier, String subPath, Set<String> live, long minUsage,
+                          Collection<String> paths, Result result )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                if ( !child.getName().startsWith( "." ) )
+                {
+                    collect( child, tier, subPath + '/' + child.getName(), live, minUsage, paths, result );
+                }
+            }
+            return;
+        }
+
+        String key = getRepositoryKey( file.getName() );
+        if ( key == null || live.contains( key ) )
+        {
+            return;
+        }
+        result.keys.add( key );
+        long length = file.length();
+        if ( file.lastModified() >= minUsage )
+        {
+            return;
+        }
+        if ( file.delete() )
+        {
+            result.files.incrementAndGet();
+            result.bytes.addAndGet( length );
+            paths.add( lrm.getLookupKey( tier, subPath ) );
+            lrm.recordUsage( tier, subPath, -1, -length );
+        }
+        else if ( file.exists() )
+        {
+            logger.warn( "Could not delete " + file );
+        }
+    }
+
+    /**
+     * Extracts the repository key from the name of a metadata file.
+     *
+     * @param filename The name of the file, must not be {@code null}.
+     * @return The repository key or {@code null} if the file is no metadata file with a key.
+     */
+    static String getRepositoryKey( String filename )
+    {
+        int end = filename.indexOf( ".xml" );
+        if ( !filename.startsWith( PREFIX ) || end <= PREFIX.length() )
+        {
+            return null;
+        }
+        return filename.substring( PREFIX.length(), end );
+    }
+
+    /**
+     * The outcome of a collection.
+     */
+    public static class Result
+    {
+
+        final Set<String> keys = Collections.synchronizedSet( new HashSet<String>() );
+
+        final AtomicInteger files = new AtomicInteger();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * Gets the unused repository keys that were found, including those whose files were not old enough yet.
+         *
+         * @return The unused repository keys, never {@code null}.
+         */
+        public Set<String> getKeys()
+        {
+            return keys;
+        }
+
+        public int getFiles()
+        {
+            return files.get();
+        }
+
+        public long getBytes()
+        {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getFiles() + " metadata files (" + getBytes() + " bytes) of " + keys.size() + " unused keys";
+        }
+
+    }
+
+}
@@ -0,0 +1,204 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a batch of independent tasks in parallel and waits for their completion. The worker threads are reused by
+ * consecutive batches and terminate once they have been idle for a while, so runners that are never closed (like those
+ * of the managers created by the factory) do not retain threads.
+ */
+class ParallelTasks
+{
+
+    private static final long KEEP_ALIVE = 30;
+
+    private final String name;
+
+    private final int threads;
+
+    private ExecutorService executor;
+
+    /**
+     * Creates a new task runner.
+     *
+     * @param name The name prefix for the worker threads, must not be {@code null}.
+     * @param threads The maximum number of worker threads, a non-positive value selects the number of processors.
+     */
+    public ParallelTasks( String name, int threads )
+    {
+        this.name = name;
+        this.threads = ( threads > 0 ) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs the specified tasks. Small batches are run on the calling thread.
+     *
+     * @param tasks The tasks to run, must not be {@code null}.
+     * @return The results of the tasks in the order of the given collection, never {@code null}.
+     * @throws IllegalStateException If a task failed, the original exception is given as cause. All tasks are run
+     *             regardless of failures.
+     */
+    public <T> List<T> run( Collection<? extends Callable<T>> tasks )
+    {
+        List<T> results = new ArrayList<T>( tasks.size() );
+
+        // a task that runs another batch would wait for workers that are busy with its own batch
+        if ( tasks.size() <= 1 || threads <= 1 || isWorker() )
+        {
+            Exception failure = null;
+            for ( Callable<T> task : tasks )
+            {
+                try
+                {
+                    results.add( task.call() );
+                }
+                catch ( Exception e )
+                {
+                    failure = ( failure != null ) ? failure : e;
+                    results.add( null );
+                }
+            }
+            check( failure );
+            return results;
+        }
+
+        try
+        {
+            List<Future<T>> futures = getExecutor().invokeAll( tasks );
+            Throwable failure = null;
+            for ( Future<T> future : futures )
+            {
+                try
+                {
+                    results.add( future.get() );
+                }
+                catch ( ExecutionException e )
+                {
+                    failure = ( failure != null ) ? failure : e.getCause();
+                    results.add( null );
+                }
+            }
+            check( failure );
+            return results;
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( "Interrupted while waiting for tasks to complete", e );
+        }
+    }
+
+    private synchronized ExecutorService getExecutor()
+    {
+        if ( executor == null )
+        {
+            executor =
+                new ThreadPoolExecutor( 0, threads, KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                                        new Factory(), new CallerRuns() );
+        }
+        return executor;
+    }
+
+    private boolean isWorker()
+    {
+        Thread thread = Thread.currentThread();
+        return thread instanceof Worker && ( (Worker) thread ).getOwner() == this;
+    }
+
+    /**
+     * Terminates the worker threads once they completed the running batches rather than after their idle timeout. A
+     * later batch creates new workers.
+     */
+    public synchronized void close()
+    {
+        if ( executor != null )
+        {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private void check( Throwable failure )
+    {
+        if ( failure instanceof RuntimeException )
+        {
+            throw (RuntimeException) failure;
+        }
+        else if ( failure instanceof Error )
+        {
+            throw (Error) failure;
+        }
+        else if ( failure != null )
+        {
+            throw new IllegalStateException( failure.getMessage(), failure );
+        }
+    }
+
+    /**
+     * Runs the tasks beyond the maximum number of threads on the calling thread, which waits for the batch anyway.
+     * Unlike {@link ThreadPoolExecutor.CallerRunsPolicy}, this also runs tasks of a batch that overlaps with
+     * {@link #close()} instead of dropping them.
+     */
+    static class CallerRuns
+        implements RejectedExecutionHandler
+    {
+
+        public void rejectedExecution( Runnable r, ThreadPoolExecutor executor )
+        {
+            r.run();
+        }
+
+    }
+
+    class Factory
+        implements ThreadFactory
+    {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Worker( r, name + "-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+
+    }
+
+    class Worker
+        extends Thread
+    {
+
+        Worker( Runnable r, String name )
+        {
+            super( r, name );
+        }
+
+        ParallelTasks getOwner()
+        {
+            return ParallelTasks.this;
+        }
+
+    }
+
+}
@@ -0,0 +1,166 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Assigns integer ids to the segments of repository paths. The caches and indexes of the local repository hold
+ * millions of paths that share their groupId, artifactId, version and repository key segments, encoding the paths as
+ * tuples of segment ids stores each distinct segment only once. The dictionary never forgets a segment, so it must be
+ * owned by a structure with a bounded lifetime (e.g. the lookup cache of a session) and be discarded along with it.
+ * Over time, the distinct segments of a local repository are not bounded, e.g. timestamped snapshot file names keep
+ * coming.
+ */
+class PathDictionary
+{
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>( 1024 );
+
+    /**
+     * Gets the id of the specified segment, assigning a new id if necessary.
+     *
+     * @param segment The segment, must not be {@code null}.
+     * @return The id of the segment.
+     */
+    public int getId( String segment )
+    {
+        Integer id = ids.get( segment );
+        if ( id == null )
+        {
+            synchronized ( this )
+            {
+                id = ids.get( segment );
+                if ( id == null )
+                {
+                    id = Integer.valueOf( ids.size() );
+                    // copy the segment, on older runtimes a substring retains the characters of the entire path
+                    ids.put( new String( segment ), id );
+                }
+            }
+        }
+        return id.intValue();
+    }
+
+    /**
+     * Gets the number of distinct segments in this dictionary.
+     *
+     * @return The number of segments.
+     */
+    public int size()
+    {
+        return ids.size();
+    }
+
+    /**
+     * Encodes the specified path, assigning ids to new segments.
+     *
+     * @param path The path whose segments are separated by slashes, must not be {@code null}.
+     * @return The encoded path, never {@code null}.
+     */
+    public Path encode( String path )
+    {
+        return encode( path, true );
+    }
+
+    /**
+     * Encodes the specified path if all its segments are already known. Lookups use this method to avoid growing the
+     * dictionary with paths that cannot be contained in any index.
+     *
+     * @param path The path whose segments are separated by slashes, must not be {@code null}.
+     * @return The encoded path or {@code null} if some segment has no id yet.
+     */
+    public Path find( String path )
+    {
+        return encode( path, false );
+    }
+
+    private Path encode( String path, boolean create )
+    {
+        int count = 1;
+        for ( int i = path.indexOf( '/' ); i >= 0; i = path.indexOf( '/', i + 1 ) )
+        {
+            count++;
+        }
+        int[] segments = new int[count];
+        int start = 0;
+        for ( int i = 0; i < count; i++ )
+        {
+            int end = path.indexOf( '/', start );
+            if ( end < 0 )
+            {
+                end = path.length();
+            }
+            String segment = path.substring( start, end );
+            if ( create )
+            {
+                segments[i] = getId( segment );
+            }
+            else
+            {
+                Integer id = ids.get( segment );
+                if ( id == null )
+                {
+                    return null;
+                }
+                segments[i] = id.intValue();
+            }
+            start = end + 1;
+        }
+        return new Path( segments );
+    }
+
+    /**
+     * A path encoded as the ids of its segments. Paths are only comparable if they were encoded by the same dictionary.
+     */
+    static final class Path
+    {
+
+        private final int[] segments;
+
+        private final int hash;
+
+        Path( int[] segments )
+        {
+            this.segments = segments;
+            this.hash = Arrays.hashCode( segments );
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( this == obj )
+            {
+                return true;
+            }
+            if ( !( obj instanceof Path ) )
+            {
+                return false;
+            }
+            Path that = (Path) obj;
+            return hash == that.hash && Arrays.equals( segments, that.segments );
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return Arrays.toString( segments );
+        }
+
+    }
+
+}
@@ -0,0 +1,509 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.SessionData;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Serves the lookups and registrations of the processes on this host from a single manager, so its caches and
+ * storage are shared and writes are serialized within this process instead of contending for file locks. The daemon
+ * listens on a loopback socket whose port and access token are announced in {@link DaemonProtocol#PORT_FILE}, the
+ * factory hands out {@link DaemonLocalRepositoryManager}s that connect to it. Lookup caches are kept per client
+ * session and discarded once the session has been idle for {@link #SESSION_TTL}.
+ */
+class RepositoryDaemon
+{
+
+    static final long SESSION_TTL = 60 * 60 * 1000;
+
+    private static final long HOUSEKEEPING_INTERVAL = 60 * 1000;
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private final ConcurrentMap<String, DaemonSession> sessions = new ConcurrentHashMap<String, DaemonSession>();
+
+    private final Map<Socket, Boolean> connections = new ConcurrentHashMap<Socket, Boolean>();
+
+    private ServerSocket server;
+
+    private ExecutorService executor;
+
+    private Timer timer;
+
+    private File portFile;
+
+    private String token;
+
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new daemon.
+     *
+     * @param lrm The manager to serve, must not be {@code null}. The manager should not hold leases, those are taken
+     *            by the clients for the lifetime of their builds.
+     */
+    public RepositoryDaemon( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    public RepositoryDaemon setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Starts listening for clients and announces the daemon in the base directory of the local repository.
+     *
+     * @return The port the daemon listens on.
+     * @throws IOException If the daemon could not be started.
+     */
+    public synchronized int start()
+        throws IOException
+    {
+        if ( server != null )
+        {
+            return server.getLocalPort();
+        }
+
+        server = new ServerSocket( 0, 50, InetAddress.getByName( "127.0.0.1" ) );
+        token = Long.toHexString( new SecureRandom().nextLong() );
+        executor = Executors.newCachedThreadPool( new ThreadFactory()
+        {
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "split-localrepo-daemon" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        executor.execute( new Runnable()
+        {
+            public void run()
+            {
+                accept();
+            }
+        } );
+        timer = new Timer( "split-localrepo-daemon-housekeeping", true );
+        timer.schedule( new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                housekeep();
+            }
+        }, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL );
+
+        portFile = new File( lrm.getRepository().getBasedir(), DaemonProtocol.PORT_FILE );
+        writePortFile( server.getLocalPort() );
+        logger.debug( "Local repository daemon for " + lrm.getRepository().getBasedir() + " listening on port "
+            + server.getLocalPort() );
+        return server.getLocalPort();
+    }
+
+    private void writePortFile( int port )
+        throws IOException
+    {
+        Properties props = new Properties();
+        props.setProperty( "port", String.valueOf( port ) );
+        props.setProperty( "token", token );
+        File tmp = new File( portFile.getPath() + ".tmp" );
+        File directory = portFile.getParentFile();
+        if ( !directory.mkdirs() && !directory.exists() )
+        {
+            throw new IOException( "Could not create directory " + directory );
+        }
+        OutputStream os = new FileOutputStream( tmp );
+        try
+        {
+            props.store( os, "split local repository daemon" );
+        }
+        finally
+        {
+            os.close();
+        }
+        if ( !tmp.renameTo( portFile ) && ( !portFile.delete() || !tmp.renameTo( portFile ) ) )
+        {
+            throw new IOException( "Could not rename " + tmp + " to " + portFile );
+        }
+    }
+
+    /**
+     * Stops the daemon, closing all client connections. Clients fall back to direct access of the local repository.
+     */
+    public void stop()
+    {
+        synchronized ( this )
+        {
+            if ( server == null || stopped )
+            {
+                return;
+            }
+            stopped = true;
+            notifyAll();
+        }
+
+        Properties props = DaemonLocalRepositoryManager.readPortFile( portFile );
+        if ( props != null && token.equals( props.getProperty( "token" ) ) && !portFile.delete() )
+        {
+            logger.warn( "Could not delete " + portFile );
+        }
+        close( server );
+        for ( Socket socket : connections.keySet() )
+        {
+            close( socket );
+        }
+        timer.cancel();
+        executor.shutdown();
+        lrm.flush();
+    }
+
+    /**
+     * Blocks until the daemon has been stopped.
+     */
+    public synchronized void await()
+        throws InterruptedException
+    {
+        while ( !stopped )
+        {
+            wait();
+        }
+    }
+
+    private void close( Object closeable )
+    {
+        try
+        {
+            if ( closeable instanceof Socket )
+            {
+                ( (Socket) closeable ).close();
+            }
+            else if ( closeable instanceof ServerSocket )
+            {
+                ( (ServerSocket) closeable ).close();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Could not close " + closeable + ": " + e );
+        }
+    }
+
+    private void accept()
+    {
+        while ( !stopped )
+        {
+            try
+            {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay( true );
+                connections.put( socket, Boolean.TRUE );
+                executor.execute( new Runnable()
+                {
+                    public void run()
+                    {
+                        serve( socket );
+                    }
+                } );
+            }
+            catch ( IOException e )
+            {
+                if ( !stopped )
+                {
+                    logger.warn( "Local repository daemon could not accept connection: " + e );
+                }
+            }
+        }
+    }
+
+    private void housekeep()
+    {
+        long expired = System.currentTimeMillis() - SESSION_TTL;
+        for ( Iterator<DaemonSession> it = sessions.values().iterator(); it.hasNext(); )
+        {
+            if ( it.next().lastAccess < expired )
+            {
+                it.remove();
+            }
+        }
+        lrm.flush();
+    }
+
+    private void serve( Socket socket )
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( socket.getInputStream() ) );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( socket.getOutputStream() ) );
+
+            if ( !authenticate( in ) )
+            {
+                out.writeByte( DaemonProtocol.ERROR );
+                DaemonProtocol.writeString( out, "Access denied" );
+                out.flush();
+                return;
+            }
+            out.writeByte( DaemonProtocol.OK );
+            out.flush();
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream( 1024 );
+            while ( !stopped )
+            {
+                byte opcode;
+                try
+                {
+                    opcode = in.readByte();
+                }
+                catch ( EOFException e )
+                {
+                    return;
+                }
+                buffer.reset();
+                try
+                {
+                    handle( opcode, in, new DataOutputStream( buffer ) );
+                    out.writeByte( DaemonProtocol.OK );
+                    buffer.writeTo( out );
+                }
+                catch ( RuntimeException e )
+                {
+                    logger.debug( "Local repository daemon failed to serve request: " + e );
+                    out.writeByte( DaemonProtocol.ERROR );
+                    DaemonProtocol.writeString( out, e.toString() );
+                }
+                out.flush();
+            }
+        }
+        catch ( IOException e )
+        {
+            if ( !stopped )
+            {
+                logger.debug( "Local repository daemon closing connection: " + e );
+            }
+        }
+        finally
+        {
+            connections.remove( socket );
+            close( socket );
+        }
+    }
+
+    private boolean authenticate( DataInputStream in )
+        throws IOException
+    {
+        if ( in.readByte() != DaemonProtocol.HELLO || in.readInt() != DaemonProtocol.VERSION )
+        {
+            return false;
+        }
+        return token.equals( DaemonProtocol.readString( in ) );
+    }
+
+    /**
+     * Reads the arguments of a request and executes it. Runtime exceptions may only be thrown once all arguments have
+     * been read.
+     */
+    private void handle( byte opcode, DataInputStream in, DataOutputStream out )
+        throws IOException
+    {
+        if ( opcode == DaemonProtocol.FIND_ARTIFACT )
+        {
+            RepositorySystemSession session = getSession( DaemonProtocol.readString( in ) );
+            Artifact artifact = DaemonProtocol.readArtifact( in );
+            String context = DaemonProtocol.readString( in );
+            int count = in.readInt();
+            List<RemoteRepository> repositories = new ArrayList<RemoteRepository>( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                repositories.add( DaemonProtocol.readRepository( in ) );
+            }
+
+            LocalArtifactResult result =
+                lrm.find( session, new LocalArtifactRequest( artifact, repositories, context ) );
+            DaemonProtocol.writeFile( out, result.getFile() );
+            out.writeBoolean( result.isAvailable() );
+            out.writeInt( repositories.indexOf( result.getRepository() ) );
+        }
+        else if ( opcode == DaemonProtocol.ADD_ARTIFACTS )
+        {
+            RepositorySystemSession session = getSession( DaemonProtocol.readString( in ) );
+            int count = in.readInt();
+            List<LocalArtifactRegistration> requests = new ArrayList<LocalArtifactRegistration>( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                Artifact artifact = DaemonProtocol.readArtifact( in );
+                RemoteRepository repository = DaemonProtocol.readRepository( in );
+                List<String> contexts = DaemonProtocol.readStrings( in );
+                requests.add( new LocalArtifactRegistration( artifact, repository, contexts ) );
+            }
+
+            lrm.addAll( session, requests );
+        }
+        else if ( opcode == DaemonProtocol.FIND_METADATA )
+        {
+            RepositorySystemSession session = getSession( DaemonProtocol.readString( in ) );
+            Metadata metadata = DaemonProtocol.readMetadata( in );
+            String context = DaemonProtocol.readString( in );
+            RemoteRepository repository = DaemonProtocol.readRepository( in );
+
+            LocalMetadataResult result =
+                lrm.find( session, new LocalMetadataRequest( metadata, repository, context ) );
+            DaemonProtocol.writeFile( out, result.getFile() );
+            out.writeBoolean( result.isStale() );
+        }
+        else if ( opcode == DaemonProtocol.ADD_METADATA )
+        {
+            RepositorySystemSession session = getSession( DaemonProtocol.readString( in ) );
+            Metadata metadata = DaemonProtocol.readMetadata( in );
+            RemoteRepository repository = DaemonProtocol.readRepository( in );
+            List<String> contexts = DaemonProtocol.readStrings( in );
+
+            lrm.add( session, new LocalMetadataRegistration( metadata, repository, contexts ) );
+        }
+        else
+        {
+            throw new IOException( "Unknown opcode " + opcode );
+        }
+    }
+
+    private RepositorySystemSession getSession( String id )
+    {
+        if ( id == null )
+        {
+            return null;
+        }
+        DaemonSession session = sessions.get( id );
+        if ( session == null )
+        {
+            session = new DaemonSession();
+            DaemonSession existing = sessions.putIfAbsent( id, session );
+            if ( existing != null )
+            {
+                session = existing;
+            }
+        }
+        session.lastAccess = System.currentTimeMillis();
+        return session.proxy;
+    }
+
+    /**
+     * Stands in for the repository system session of a client. The manager only uses the session data, so all other
+     * methods of the session report their defaults.
+     */
+    static class DaemonSession
+        implements SessionData, InvocationHandler
+    {
+
+        final ConcurrentMap<Object, Object> data = new ConcurrentHashMap<Object, Object>();
+
+        final RepositorySystemSession proxy =
+            (RepositorySystemSession) Proxy.newProxyInstance( RepositorySystemSession.class.getClassLoader(),
+                                                              new Class<?>[] { RepositorySystemSession.class }, this );
+
+        volatile long lastAccess;
+
+        public void set( Object key, Object value )
+        {
+            if ( value != null )
+            {
+                data.put( key, value );
+            }
+            else
+            {
+                data.remove( key );
+            }
+        }
+
+        public boolean set( Object key, Object oldValue, Object newValue )
+        {
+            if ( oldValue == null )
+            {
+                return ( newValue != null ) ? data.putIfAbsent( key, newValue ) == null : !data.containsKey( key );
+            }
+            return ( newValue != null ) ? data.replace( key, oldValue, newValue ) : data.remove( key, oldValue );
+        }
+
+        public Object get( Object key )
+        {
+            return data.get( key );
+        }
+
+        public Object invoke( Object proxy, Method method, Object[] args )
+        {
+            String name = method.getName();
+            if ( "getData".equals( name ) )
+            {
+                return this;
+            }
+            else if ( "equals".equals( name ) )
+            {
+                return Boolean.valueOf( proxy == args[0] );
+            }
+            else if ( "hashCode".equals( name ) )
+            {
+                return Integer.valueOf( System.identityHashCode( proxy ) );
+            }
+            else if ( "toString".equals( name ) )
+            {
+                return "DaemonSession@" + Integer.toHexString( System.identityHashCode( proxy ) );
+            }
+            if ( method.getReturnType() == Boolean.TYPE )
+            {
+                return Boolean.FALSE;
+            }
+            return null;
+        }
+
+    }
+
+}
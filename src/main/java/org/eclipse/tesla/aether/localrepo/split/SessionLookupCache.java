@@ -0,0 +1,223 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.SessionData;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.LocalMetadataResult;
+import org.sonatype.aether.repository.RemoteRepository;
+
+/**
+ * Memorizes the results of local repository lookups for the lifetime of a repository system session. Entries are
+ * keyed by the path of the looked up artifact/metadata as given by
+ * {@link SplitLocalRepositoryManager#getLookupKey(String, String)} and get invalidated when the corresponding
+ * artifact/metadata is registered with or deleted from the local repository. The paths are held in their compact
+ * form as encoded by a {@link PathDictionary} that is owned by the cache, so its segments are discarded along with
+ * the session.
+ */
+class SessionLookupCache
+{
+
+    private final ConcurrentHashMap<PathDictionary.Path, Map<Object, Object>> entries =
+        new ConcurrentHashMap<PathDictionary.Path, Map<Object, Object>>();
+
+    private final PathDictionary dictionary = new PathDictionary();
+
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * Gets the lookup cache for the specified session, creating it if necessary.
+     *
+     * @param session The repository system session, may be {@code null}.
+     * @param key The key under which the cache is stored in the session data, must not be {@code null}.
+     * @param caches The map to register a newly created cache with, may be {@code null}.
+     * @return The lookup cache or {@code null} if the session provides no data store.
+     */
+    public static SessionLookupCache get( RepositorySystemSession session, Object key,
+                                          Map<SessionLookupCache, Boolean> caches )
+    {
+        SessionData data = ( session != null ) ? session.getData() : null;
+        if ( data == null )
+        {
+            return null;
+        }
+
+        SessionLookupCache cache = (SessionLookupCache) data.get( key );
+        while ( cache == null )
+        {
+            cache = new SessionLookupCache();
+            if ( data.set( key, null, cache ) )
+            {
+                if ( caches != null )
+                {
+                    caches.put( cache, Boolean.TRUE );
+                }
+                return cache;
+            }
+            cache = (SessionLookupCache) data.get( key );
+        }
+        return cache;
+    }
+
+    /**
+     * Gets the current generation of this cache. The generation should be sampled before a lookup starts and passed
+     * into the subsequent {@code put()} to prevent the caching of a result that was invalidated while the lookup was
+     * in progress.
+     *
+     * @return The current generation of this cache.
+     */
+    public long getGeneration()
+    {
+        return generation.get();
+    }
+
+    public LocalArtifactResult find( String path, LocalArtifactRequest request )
+    {
+        ArtifactEntry entry = (ArtifactEntry) get( path, getKey( request ) );
+        if ( entry == null )
+        {
+            return null;
+        }
+        LocalArtifactResult result = new LocalArtifactResult( request );
+        result.setFile( entry.file );
+        result.setAvailable( entry.available );
+        result.setRepository( entry.repository );
+        return result;
+    }
+
+    public void put( String path, LocalArtifactResult result, long generation )
+    {
+        put( path, getKey( result.getRequest() ), new ArtifactEntry( result ), generation );
+    }
+
+    public LocalMetadataResult find( String path, LocalMetadataRequest request )
+    {
+        MetadataEntry entry = (MetadataEntry) get( path, MetadataEntry.class );
+        if ( entry == null )
+        {
+            return null;
+        }
+        LocalMetadataResult result = new LocalMetadataResult( request );
+        result.setFile( entry.file );
+        return result;
+    }
+
+    public void put( String path, LocalMetadataResult result, long generation )
+    {
+        if ( !result.isStale() )
+        {
+            put( path, MetadataEntry.class, new MetadataEntry( result ), generation );
+        }
+    }
+
+    /**
+     * Discards all cached lookups for the specified path.
+     *
+     * @param path The repository-relative path whose lookups should be discarded, must not be {@code null}.
+     */
+    public void invalidate( String path )
+    {
+        generation.incrementAndGet();
+        PathDictionary.Path key = dictionary.find( path );
+        if ( key != null )
+        {
+            entries.remove( key );
+        }
+    }
+
+    /**
+     * Discards all cached lookups.
+     */
+    public void clear()
+    {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    private Object get( String path, Object key )
+    {
+        PathDictionary.Path compactPath = dictionary.find( path );
+        Map<Object, Object> values = ( compactPath != null ) ? entries.get( compactPath ) : null;
+        return ( values != null ) ? values.get( key ) : null;
+    }
+
+    private void put( String path, Object key, Object value, long generation )
+    {
+        PathDictionary.Path compactPath = dictionary.encode( path );
+        Map<Object, Object> values = entries.get( compactPath );
+        if ( values == null )
+        {
+            values = new ConcurrentHashMap<Object, Object>();
+            Map<Object, Object> existing = entries.putIfAbsent( compactPath, values );
+            if ( existing != null )
+            {
+                values = existing;
+            }
+        }
+        values.put( key, value );
+
+        if ( this.generation.get() != generation )
+        {
+            // an invalidation raced with the lookup, the result might be outdated
+            values.remove( key );
+        }
+    }
+
+    private Object getKey( LocalArtifactRequest request )
+    {
+        List<RemoteRepository> repositories = request.getRepositories();
+        if ( repositories != null )
+        {
+            repositories = new ArrayList<RemoteRepository>( repositories );
+        }
+        return Arrays.<Object> asList( request.getContext(), repositories );
+    }
+
+    static class ArtifactEntry
+    {
+
+        final File file;
+
+        final boolean available;
+
+        final RemoteRepository repository;
+
+        ArtifactEntry( LocalArtifactResult result )
+        {
+            file = result.getFile();
+            available = result.isAvailable();
+            repository = result.getRepository();
+        }
+
+    }
+
+    static class MetadataEntry
+    {
+
+        final File file;
+
+        MetadataEntry( LocalMetadataResult result )
+        {
+            file = result.getFile();
+        }
+
+    }
+
+}
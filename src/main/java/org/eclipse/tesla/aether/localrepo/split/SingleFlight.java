@@ -0,0 +1,130 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coordinates concurrent executions of tasks for the same key within this JVM. At most one task per key is in flight
+ * at any time, threads arriving while a task is in progress either share its outcome or wait for it to finish.
+ */
+class SingleFlight<V>
+{
+
+    private final ConcurrentMap<String, FutureTask<V>> flights = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    /**
+     * Executes the specified task unless a task for the same key is already in flight, in which case the calling
+     * thread waits for the other task and returns its outcome.
+     *
+     * @param key The key of the task, must not be {@code null}.
+     * @param task The task to execute, must not be {@code null}.
+     * @return The outcome of the task that was in flight for the key.
+     */
+    public V join( String key, Callable<V> task )
+    {
+        FutureTask<V> flight = new FutureTask<V>( task );
+        FutureTask<V> existing = flights.putIfAbsent( key, flight );
+        if ( existing != null )
+        {
+            return get( existing );
+        }
+        return run( key, flight );
+    }
+
+    /**
+     * Executes the specified task after any task for the same key that is currently in flight has finished. Unlike
+     * {@link #join(String, Callable)}, the specified task is always executed.
+     *
+     * @param key The key of the task, must not be {@code null}.
+     * @param task The task to execute, must not be {@code null}.
+     * @return The outcome of the specified task.
+     */
+    public V execute( String key, Callable<V> task )
+    {
+        FutureTask<V> flight = new FutureTask<V>( task );
+        while ( true )
+        {
+            FutureTask<V> existing = flights.putIfAbsent( key, flight );
+            if ( existing == null )
+            {
+                return run( key, flight );
+            }
+            await( existing );
+        }
+    }
+
+    private void await( FutureTask<V> flight )
+    {
+        boolean interrupted = false;
+        while ( !flight.isDone() )
+        {
+            try
+            {
+                flight.get();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted = true;
+            }
+            catch ( ExecutionException e )
+            {
+                // not our task, ignore
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private V run( String key, FutureTask<V> flight )
+    {
+        try
+        {
+            flight.run();
+            return get( flight );
+        }
+        finally
+        {
+            flights.remove( key, flight );
+        }
+    }
+
+    private V get( FutureTask<V> flight )
+    {
+        try
+        {
+            return flight.get();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch ( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException )
+            {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error )
+            {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException( cause );
+        }
+    }
+
+}
@@ -0,0 +1,352 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Deletes snapshot versions from the snapshot base directories while builds are running. Directories leased by a
+ * running build (see {@link SplitLocalRepositoryManager#setLeases(long)}) are skipped and deleted by a later run. To
+ * not race with builds that lease a directory just before it is deleted, the leases are checked again right before
+ * each directory is moved aside, then once more afterwards and directories that got leased meanwhile are restored.
+ * Once all versions of an artifact are gone, the metadata backups of the artifact are deleted as well such that the
+ * metadata in the release base directories gets repaired.
+ */
+class SnapshotCleaner
+{
+
+    private static final String DELETING = ".deleting-";
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private String[] tiers =
+        { SplitLocalRepositoryManager.LOCAL_SNAPSHOTS, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS };
+
+    private long minAge;
+
+    private long leaseTtl = Lease.DEFAULT_TTL;
+
+    public SnapshotCleaner( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    public SnapshotCleaner setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Sets the base directories to clean.
+     *
+     * @param tiers The base directories, each must be either {@link SplitLocalRepositoryManager#LOCAL_SNAPSHOTS} or
+     *            {@link SplitLocalRepositoryManager#REMOTE_SNAPSHOTS}.
+     * @return This cleaner for chaining, never {@code null}.
+     */
+    public SnapshotCleaner setTiers( String... tiers )
+    {
+        this.tiers = tiers.clone();
+        return this;
+    }
+
+    /**
+     * Sets the minimum age of snapshot versions to delete. A snapshot version is only deleted if none of its files
+     * has been modified within this period.
+     *
+     * @param minAge The minimum age in milliseconds.
+     * @return This cleaner for chaining, never {@code null}.
+     */
+    public SnapshotCleaner setMinAge( long minAge )
+    {
+        this.minAge = minAge;
+        return this;
+    }
+
+    /**
+     * Sets the time-to-live of leases, leases that have not been renewed within this period are ignored.
+     *
+     * @param leaseTtl The time-to-live in milliseconds.
+     * @return This cleaner for chaining, never {@code null}.
+     */
+    public SnapshotCleaner setLeaseTtl( long leaseTtl )
+    {
+        this.leaseTtl = leaseTtl;
+        return this;
+    }
+
+    private File getLeaseDirectory()
+    {
+        return new File( lrm.getRepository().getBasedir(), SplitLocalRepositoryManager.LEASES );
+    }
+
+    public Result clean()
+    {
+        final Result result = new Result();
+        final Lease.Reader leases = new Lease.Reader( getLeaseDirectory(), leaseTtl, logger );
+        Set<String> leased = leases.read();
+        final long maxModified = System.currentTimeMillis() - minAge;
+
+        final List<Candidate> candidates = new ArrayList<Candidate>();
+        Map<File, Candidate> artifacts = new HashMap<File, Candidate>();
+        for ( String tier : tiers )
+        {
+            File basedir = new File( lrm.getRepository().getBasedir(), lrm.getTierPath( tier ) );
+            List<File> directories = new ArrayList<File>();
+            SnapshotPruner.findVersionDirectories( basedir, directories );
+            for ( File directory : directories )
+            {
+                Candidate candidate = new Candidate( tier, basedir, directory );
+                if ( leased.contains( candidate.path ) )
+                {
+                    result.leased.incrementAndGet();
+                    continue;
+                }
+                candidates.add( candidate );
+                File parent = directory.getParentFile();
+                if ( !artifacts.containsKey( parent ) )
+                {
+                    artifacts.put( parent, new Candidate( tier, basedir, parent ) );
+                }
+            }
+        }
+
+        // move the unleased and old enough versions aside
+        Collection<Callable<Candidate>> tasks = new ArrayList<Callable<Candidate>>();
+        for ( final Candidate candidate : candidates )
+        {
+            tasks.add( new Callable<Candidate>()
+            {
+                public Candidate call()
+                {
+                    if ( minAge > 0 && getLastModified( candidate.directory ) > maxModified )
+                    {
+                        result.young.incrementAndGet();
+                        return null;
+                    }
+                    // the scan may have taken a while, only lease files that changed meanwhile are read again
+                    if ( leases.read().contains( candidate.path ) )
+                    {
+                        result.leased.incrementAndGet();
+                        return null;
+                    }
+                    File trash =
+                        new File( candidate.directory.getParentFile(), '.' + candidate.directory.getName() + DELETING
+                            + UUID.randomUUID() );
+                    if ( !candidate.directory.renameTo( trash ) )
+                    {
+                        logger.warn( "Could not move " + candidate.directory + " for deletion" );
+                        return null;
+                    }
+                    candidate.trash = trash;
+                    return candidate;
+                }
+            } );
+        }
+        List<Candidate> moved = lrm.getWorkers().run( tasks );
+
+        // restore the versions that got leased in the meantime, delete the others
+        final Set<String> leasedNow = leases.read();
+        tasks.clear();
+        for ( final Candidate candidate : moved )
+        {
+            if ( candidate == null )
+            {
+                continue;
+            }
+            tasks.add( new Callable<Candidate>()
+            {
+                public Candidate call()
+                {
+                    if ( leasedNow.contains( candidate.path ) && candidate.trash.renameTo( candidate.directory ) )
+                    {
+                        result.leased.incrementAndGet();
+                        return null;
+                    }
+                    Collection<String> paths = new ArrayList<String>();
+                    delete( candidate.trash, candidate.tier, candidate.path.substring( candidate.tier.length() ), paths,
+                            result );
+                    lrm.invalidate( paths );
+                    result.versions.incrementAndGet();
+                    return candidate;
+                }
+            } );
+        }
+        lrm.getWorkers().run( tasks );
+
+        // delete the metadata backups of artifacts without remaining versions
+        for ( Candidate artifact : artifacts.values() )
+        {
+            cleanArtifact( artifact, leasedNow, result );
+        }
+
+        logger.debug( "Cleaned " + result );
+        return result;
+    }
+
+    private void cleanArtifact( Candidate artifact, Set<String> leased, Result result )
+    {
+        File[] children = artifact.directory.listFiles();
+        if ( children == null || leased.contains( artifact.path ) )
+        {
+            return;
+        }
+        for ( File child : children )
+        {
+            if ( child.isDirectory() && !child.getName().contains( DELETING ) )
+            {
+                return;
+            }
+        }
+        Collection<String> paths = new ArrayList<String>();
+        for ( File child : children )
+        {
+            delete( child, artifact.tier, artifact.path.substring( artifact.tier.length() ) + '/' + child.getName(),
+                    paths, result );
+        }
+        lrm.invalidate( paths );
+
+        // delete the artifact directory and any parent directories that became empty
+        File dir = artifact.directory;
+        while ( !dir.equals( artifact.basedir ) && dir.delete() )
+        {
+            dir = dir.getParentFile();
+        }
+    }
+
+    private void delete( File file, String tier, String path, Collection<String> paths, Result result )
+    {
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                delete( child, tier, path + '/' + child.getName(), paths, result );
+            }
+        }
+        else
+        {
+            long length = file.length();
+            result.bytes.addAndGet( length );
+            result.files.incrementAndGet();
+            paths.add( lrm.getLookupKey( tier, path ) );
+            lrm.recordUsage( tier, path, -1, -length );
+        }
+        if ( !file.delete() && file.exists() )
+        {
+            logger.warn( "Could not delete " + file );
+        }
+    }
+
+    static long getLastModified( File file )
+    {
+        long modified = file.lastModified();
+        File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( File child : children )
+            {
+                modified = Math.max( modified, getLastModified( child ) );
+            }
+        }
+        return modified;
+    }
+
+    static class Candidate
+    {
+
+        final String tier;
+
+        final File basedir;
+
+        final File directory;
+
+        /**
+         * The path of the directory as used by leases, e.g. {@code rs/org/example/1.0-SNAPSHOT}.
+         */
+        final String path;
+
+        File trash;
+
+        Candidate( String tier, File basedir, File directory )
+        {
+            this.tier = tier;
+            this.basedir = basedir;
+            this.directory = directory;
+            this.path = tier + SnapshotPruner.getRelativePath( basedir, directory );
+        }
+
+    }
+
+    /**
+     * The outcome of a cleanup.
+     */
+    public static class Result
+    {
+
+        final AtomicInteger versions = new AtomicInteger();
+
+        final AtomicInteger leased = new AtomicInteger();
+
+        final AtomicInteger young = new AtomicInteger();
+
+        final AtomicInteger files = new AtomicInteger();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        public int getVersions()
+        {
+            return versions.get();
+        }
+
+        public int getLeased()
+        {
+            return leased.get();
+        }
+
+        public int getYoung()
+        {
+            return young.get();
+        }
+
+        public int getFiles()
+        {
+            return files.get();
+        }
+
+        public long getBytes()
+        {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getVersions() + " snapshot versions (" + getFiles() + " files, " + getBytes() + " bytes), skipped "
+                + getLeased() + " leased and " + getYoung() + " recently used versions";
+        }
+
+    }
+
+}
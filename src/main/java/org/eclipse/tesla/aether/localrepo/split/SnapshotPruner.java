@@ -0,0 +1,341 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * Deletes outdated timestamped snapshots from the base directory for downloaded snapshots. For each base version
+ * directory, only the files of the latest builds are retained, the files of older builds are deleted along with their
+ * keys in the resolution tracking file. Directories are pruned in parallel, directories leased by running builds are
+ * skipped.
+ */
+class SnapshotPruner
+{
+
+    private static final Pattern TIMESTAMPED = Pattern.compile( "(\\d{8}\\.\\d{6})-(\\d+)(.*)" );
+
+    private static final String SNAPSHOT = "-SNAPSHOT";
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private int retain = 1;
+
+    private long leaseTtl = Lease.DEFAULT_TTL;
+
+    public SnapshotPruner( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    public SnapshotPruner setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Sets the number of timestamped builds to retain per base version.
+     *
+     * @param retain The number of builds to retain, must be positive.
+     * @return This pruner for chaining, never {@code null}.
+     */
+    public SnapshotPruner setRetain( int retain )
+    {
+        if ( retain < 1 )
+        {
+            throw new IllegalArgumentException( "number of builds to retain must be positive: " + retain );
+        }
+        this.retain = retain;
+        return this;
+    }
+
+    /**
+     * Sets the time-to-live of leases, leases that have not been renewed within this period are ignored.
+     *
+     * @param leaseTtl The time-to-live in milliseconds.
+     * @return This pruner for chaining, never {@code null}.
+     */
+    public SnapshotPruner setLeaseTtl( long leaseTtl )
+    {
+        this.leaseTtl = leaseTtl;
+        return this;
+    }
+
+    /**
+     * Prunes the base directory for downloaded snapshots.
+     *
+     * @return The outcome of the pruning, never {@code null}.
+     */
+    public Result prune()
+    {
+        final String tier = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS;
+        final File basedir = new File( lrm.getRepository().getBasedir(), lrm.getTierPath( tier ) );
+
+        List<File> directories = new ArrayList<File>();
+        findVersionDirectories( basedir, directories );
+
+        File leases = new File( lrm.getRepository().getBasedir(), SplitLocalRepositoryManager.LEASES );
+        Set<String> leased = Lease.read( leases, leaseTtl, logger );
+
+        final Result result = new Result();
+        Collection<Callable<Object>> tasks = new ArrayList<Callable<Object>>( directories.size() );
+        for ( final File directory : directories )
+        {
+            if ( leased.contains( tier + getRelativePath( basedir, directory ) ) )
+            {
+                logger.debug( "Skipping leased directory " + directory );
+                continue;
+            }
+            tasks.add( new Callable<Object>()
+            {
+                public Object call()
+                {
+                    prune( basedir, directory, result );
+                    return null;
+                }
+            } );
+        }
+        lrm.getWorkers().run( tasks );
+
+        logger.debug( "Pruned " + result );
+        return result;
+    }
+
+    static void findVersionDirectories( File directory, List<File> directories )
+    {
+        File[] children = directory.listFiles();
+        if ( children == null )
+        {
+            return;
+        }
+        for ( File child : children )
+        {
+            if ( child.isDirectory() && !child.getName().startsWith( "." ) )
+            {
+                if ( child.getName().endsWith( SNAPSHOT ) )
+                {
+                    directories.add( child );
+                }
+                else
+                {
+                    findVersionDirectories( child, directories );
+                }
+            }
+        }
+    }
+
+    static String getRelativePath( File basedir, File file )
+    {
+        String path = file.getAbsolutePath().substring( basedir.getAbsolutePath().length() + 1 );
+        return path.replace( File.separatorChar, '/' );
+    }
+
+    private void prune( File basedir, File directory, Result result )
+    {
+        String version = directory.getName();
+        String prefix =
+            directory.getParentFile().getName() + '-' + version.substring( 0, version.length() - SNAPSHOT.length() )
+                + '-';
+
+        File[] files = directory.listFiles();
+        if ( files == null )
+        {
+            return;
+        }
+
+        Map<Build, List<File>> builds = new HashMap<Build, List<File>>();
+        for ( File file : files )
+        {
+            if ( !file.getName().startsWith( prefix ) )
+            {
+                continue;
+            }
+            Matcher matcher = TIMESTAMPED.matcher( file.getName().substring( prefix.length() ) );
+            if ( matcher.matches() )
+            {
+                Build build = new Build( matcher.group( 1 ), Integer.parseInt( matcher.group( 2 ) ) );
+                List<File> buildFiles = builds.get( build );
+                if ( buildFiles == null )
+                {
+                    buildFiles = new ArrayList<File>();
+                    builds.put( build, buildFiles );
+                }
+                buildFiles.add( file );
+            }
+        }
+
+        List<Build> sorted = new ArrayList<Build>( builds.keySet() );
+        if ( sorted.size() <= retain )
+        {
+            return;
+        }
+        Collections.sort( sorted, Build.NEWEST_FIRST );
+
+        Collection<String> deleted = new HashSet<String>();
+        Collection<String> paths = new ArrayList<String>();
+        for ( Build build : sorted.subList( retain, sorted.size() ) )
+        {
+            for ( File file : builds.get( build ) )
+            {
+                long length = file.length();
+                if ( file.delete() )
+                {
+                    String path = getRelativePath( basedir, file );
+                    deleted.add( file.getName() );
+                    paths.add( lrm.getLookupKey( SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, path ) );
+                    lrm.recordUsage( SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, path, -1, -length );
+                    result.files.incrementAndGet();
+                    result.bytes.addAndGet( length );
+                }
+                else
+                {
+                    logger.warn( "Could not delete outdated snapshot " + file );
+                }
+            }
+            result.builds.incrementAndGet();
+        }
+        result.directories.incrementAndGet();
+
+        removeTrackingKeys( new File( directory, "_maven.repositories" ), deleted );
+        lrm.invalidate( paths );
+    }
+
+    private void removeTrackingKeys( File trackingFile, Collection<String> deleted )
+    {
+        Properties props = lrm.getStorage().readTracking( trackingFile );
+        if ( props == null || deleted.isEmpty() )
+        {
+            return;
+        }
+        Map<String, String> updates = new HashMap<String, String>();
+        for ( Object key : props.keySet() )
+        {
+            String name = key.toString();
+            int index = name.indexOf( '>' );
+            if ( index >= 0 && deleted.contains( name.substring( 0, index ) ) )
+            {
+                updates.put( name, null );
+            }
+        }
+        if ( !updates.isEmpty() )
+        {
+            lrm.getStorage().updateTracking( trackingFile, updates );
+        }
+    }
+
+    static class Build
+    {
+
+        static final Comparator<Build> NEWEST_FIRST = new Comparator<Build>()
+        {
+            public int compare( Build b1, Build b2 )
+            {
+                int rel = b2.timestamp.compareTo( b1.timestamp );
+                if ( rel == 0 )
+                {
+                    rel = ( b2.number < b1.number ) ? -1 : ( ( b2.number == b1.number ) ? 0 : 1 );
+                }
+                return rel;
+            }
+        };
+
+        final String timestamp;
+
+        final int number;
+
+        Build( String timestamp, int number )
+        {
+            this.timestamp = timestamp;
+            this.number = number;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            if ( !( obj instanceof Build ) )
+            {
+                return false;
+            }
+            Build that = (Build) obj;
+            return timestamp.equals( that.timestamp ) && number == that.number;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return timestamp.hashCode() * 31 + number;
+        }
+
+    }
+
+    /**
+     * The outcome of a pruning.
+     */
+    public static class Result
+    {
+
+        final AtomicInteger directories = new AtomicInteger();
+
+        final AtomicInteger builds = new AtomicInteger();
+
+        final AtomicInteger files = new AtomicInteger();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        public int getDirectories()
+        {
+            return directories.get();
+        }
+
+        public int getBuilds()
+        {
+            return builds.get();
+        }
+
+        public int getFiles()
+        {
+            return files.get();
+        }
+
+        public long getBytes()
+        {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return getBuilds() + " builds (" + getFiles() + " files, " + getBytes() + " bytes) in " + getDirectories()
+                + " directories";
+        }
+
+    }
+
+}
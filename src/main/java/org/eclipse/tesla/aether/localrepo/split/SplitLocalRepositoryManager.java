@@ -9,16 +9,28 @@ package org.eclipse.tesla.aether.localrepo.split;
  *******************************************************************************/
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.SortedSet;
 import java.util.TreeSet;
-
-import org.codehaus.plexus.util.FileUtils;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.tesla.aether.localrepo.split.Instrumentation.Span;
 import org.sonatype.aether.RepositorySystemSession;
 import org.sonatype.aether.artifact.Artifact;
 import org.sonatype.aether.metadata.Metadata;
@@ -48,12 +60,106 @@ class SplitLocalRepositoryManager
 
     static final String REMOTE_RELEASES = "rr/";
 
+    static final String LOCKS = ".locks/";
+
+    private static final int METADATA_LOCK_STRIPES = 256;
+
+    static final String INDEX = ".index/";
+
+    static final String LEASES = ".leases/";
+
+    static final String REPOSITORY_KEYS = INDEX + "repository-keys.properties";
+
+    static final String DISK_USAGE = INDEX + "usage.properties";
+
+    /**
+     * The suffix of the tracking key that holds the accounted size of a file if the disk usage is accounted. The
+     * {@code '>'} associates the key with the file like its repository keys, so it is removed along with those.
+     */
+    static final String SIZE_KEY = ">#size";
+
+    /**
+     * The interval (in milliseconds) at which the last usage of a repository key gets updated.
+     */
+    private static final long KEY_USAGE_INTERVAL = 60 * 60 * 1000;
+
     private final LocalRepository repository;
 
-    private TrackingFileManager trackingFileManager;
+    private String localSnapshots = LOCAL_SNAPSHOTS;
+
+    private String localReleases = LOCAL_RELEASES;
+
+    private String remoteSnapshots = REMOTE_SNAPSHOTS;
+
+    private String remoteReleases = REMOTE_RELEASES;
+
+    private final TrackingFileManager trackingFileManager;
+
+    private final FileStorage fileStorage;
+
+    private Storage storage;
+
+    private LockStrategy lockStrategy = new FileLockStrategy();
 
     private Logger logger = NullLogger.INSTANCE;
 
+    private boolean lookupCaching;
+
+    private final Object lookupCacheKey;
+
+    private boolean backgroundRepair;
+
+    private boolean readOnly;
+
+    private ArtifactBloomFilter bloomFilter;
+
+    private ManagerRegistry registry;
+
+    private ChangeJournal journal;
+
+    private volatile AccessTrace trace;
+
+    private Lease lease;
+
+    private DiskUsage diskUsage;
+
+    private Instrumentation instrumentation = Instrumentation.NONE;
+
+    private LayoutProjection projection;
+
+    private final Map<SessionLookupCache, Boolean> lookupCaches =
+        Collections.synchronizedMap( new WeakHashMap<SessionLookupCache, Boolean>() );
+
+    private final ConcurrentMap<Object, String> repositoryKeys = new ConcurrentHashMap<Object, String>();
+
+    private final ConcurrentMap<String, Boolean> usedRepositoryKeys = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * The time at which the usage of a repository key was last recorded, to throttle the updates of the usage file.
+     */
+    private final ConcurrentMap<String, Long> recordedRepositoryKeys = new ConcurrentHashMap<String, Long>();
+
+    private final Flushable repositoryKeyRecorder = new Flushable()
+    {
+        public void flush()
+        {
+            recordRepositoryKeys();
+        }
+    };
+
+    private final ConcurrentMap<String, Boolean> pendingRepairs = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * The executor for background repairs, shared by all managers and created upon first use. Its single daemon thread
+     * never prevents the JVM from exiting, so it is never shut down.
+     */
+    private static Executor repairExecutor;
+
+    private final SingleFlight<Boolean> metadataFlights = new SingleFlight<Boolean>();
+
+
+    private ParallelTasks workers = new ParallelTasks( "split-localrepo-worker", 0 );
+
     public SplitLocalRepositoryManager( File basedir )
     {
         if ( basedir == null )
@@ -62,15 +168,852 @@ class SplitLocalRepositoryManager
         }
         repository = new LocalRepository( basedir.getAbsoluteFile(), "splitted" );
         trackingFileManager = new TrackingFileManager();
+        fileStorage = new FileStorage( trackingFileManager );
+        storage = fileStorage;
+        lookupCacheKey = SessionLookupCache.class.getName() + '@' + repository.getBasedir();
     }
 
     public SplitLocalRepositoryManager setLogger( Logger logger )
     {
         this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
         trackingFileManager.setLogger( logger );
+        if ( bloomFilter != null )
+        {
+            bloomFilter.setLogger( logger );
+        }
+        if ( journal != null )
+        {
+            journal.setLogger( logger );
+        }
+        if ( trace != null )
+        {
+            trace.setLogger( logger );
+        }
+        if ( projection != null )
+        {
+            projection.setLogger( logger );
+        }
+        return this;
+    }
+
+    /**
+     * Sets the strategy used to guard files against concurrent access by other processes.
+     *
+     * @param lockStrategy The lock strategy, may be {@code null} to use the default strategy based on file locks.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setLockStrategy( LockStrategy lockStrategy )
+    {
+        this.lockStrategy = ( lockStrategy != null ) ? lockStrategy : new FileLockStrategy();
+        trackingFileManager.setLockStrategy( this.lockStrategy );
+        if ( journal != null )
+        {
+            setChangeJournal( true );
+        }
+        return this;
+    }
+
+    /**
+     * Sets the primitive file system operations used to access artifacts, metadata and resolution tracking files.
+     *
+     * @param fileAccess The file access, may be {@code null} to directly access the local file system.
+     * @return This manager for chaining, never {@code null}.
+     */
+    SplitLocalRepositoryManager setFileAccess( FileAccess fileAccess )
+    {
+        fileStorage.setFileAccess( fileAccess );
+        return this;
+    }
+
+    /**
+     * Sets the storage for resolution tracking data and derived metadata files.
+     *
+     * @param storage The storage to use, may be {@code null} to store all data directly in the file system.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setStorage( Storage storage )
+    {
+        this.storage = ( storage != null ) ? storage : fileStorage;
+        return this;
+    }
+
+    /**
+     * Enables an in-memory storage for resolution tracking data on top of the file system, e.g. for short-lived builds
+     * whose downloads need not be tracked persistently.
+     *
+     * @param spill {@code true} to write the tracking data to disk in batches (shortly after the updates, when the
+     *            JVM exits and when the manager is closed), {@code false} to discard it.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setMemoryStorage( boolean spill )
+    {
+        return setStorage( new MemoryStorage( fileStorage, spill ).setLogger( logger ) );
+    }
+
+    /**
+     * Enables a memory-mapped index in the base directory that holds the resolution tracking data instead of the
+     * tracking files in the version directories.
+     *
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setIndexStorage()
+    {
+        File basedir = getRepository().getBasedir();
+        return setStorage( new IndexStorage( fileStorage, basedir, lockStrategy ).setLogger( logger ) );
+    }
+
+    Storage getStorage()
+    {
+        return storage;
+    }
+
+    /**
+     * Maintains a view of the local repository in the standard layout for plugins that access the repository
+     * directly. The view consists of links to the files in the split base directories and is updated with each
+     * registration, {@link LayoutProjection#rebuild()} brings it up to date with changes made by other means.
+     *
+     * @param directory The directory holding the view, may be {@code null} to disable the view.
+     * @param hardLinks {@code true} to create hard links, {@code false} to create symbolic links.
+     * @return This manager for chaining, never {@code null}.
+     * @throws IllegalArgumentException If the directory overlaps with the local repository.
+     */
+    public SplitLocalRepositoryManager setProjection( File directory, boolean hardLinks )
+    {
+        if ( directory != null )
+        {
+            projection = new LayoutProjection( this, directory ).setHardLinks( hardLinks ).setLogger( logger );
+        }
+        else
+        {
+            projection = null;
+        }
+        return this;
+    }
+
+    LayoutProjection getProjection()
+    {
+        return projection;
+    }
+
+    /**
+     * Controls whether the local repository is treated as immutable. In read-only mode, files are accessed without
+     * any locking, resolution tracking files are cached, metadata files are not repaired and all attempts to register
+     * artifacts or metadata are rejected with an {@link UnsupportedOperationException}.
+     *
+     * @param readOnly {@code true} to enable the read-only mode, {@code false} otherwise.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setReadOnly( boolean readOnly )
+    {
+        this.readOnly = readOnly;
+        trackingFileManager.setReadOnly( readOnly );
+        return this;
+    }
+
+    /**
+     * Enables a persistent Bloom filter over the artifacts in the local repository that allows lookups to skip file
+     * system probes for artifacts that are definitely absent. If the filter file does not exist yet, it is built by a
+     * background scan of the base directories and lookups access the file system until the scan completes. The filter
+     * is only consulted for downloaded artifacts, where a false negative merely causes another download. Locally
+     * installed artifacts are always probed, as a false negative would make a freshly installed artifact unresolvable.
+     *
+     * @param capacity The expected number of artifacts in the local repository, a non-positive value disables the
+     *            filter.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setBloomFilter( long capacity )
+    {
+        if ( capacity <= 0 )
+        {
+            bloomFilter = null;
+        }
+        else
+        {
+            File file = new File( getRepository().getBasedir(), INDEX + "artifacts.bloom" );
+            File lockFile = new File( getRepository().getBasedir(), LOCKS + "artifacts.lock" );
+            final ArtifactBloomFilter filter =
+                new ArtifactBloomFilter( file, lockFile, lockStrategy, capacity, 1000 ).setLogger( logger );
+            if ( !filter.load() )
+            {
+                Thread thread = new Thread( "split-localrepo-bloom-filter-scan" )
+                {
+                    public void run()
+                    {
+                        rebuildBloomFilter( filter );
+                    }
+                };
+                thread.setDaemon( true );
+                thread.start();
+            }
+            bloomFilter = filter;
+        }
+        return this;
+    }
+
+    /**
+     * Rebuilds the Bloom filter (if enabled) by scanning the base directories, thereby purging entries for deleted
+     * artifacts.
+     */
+    public void rebuildBloomFilter()
+    {
+        if ( bloomFilter != null )
+        {
+            rebuildBloomFilter( bloomFilter );
+        }
+    }
+
+    private void rebuildBloomFilter( ArtifactBloomFilter filter )
+    {
+        String[] tiers = { LOCAL_SNAPSHOTS, LOCAL_RELEASES, REMOTE_SNAPSHOTS, REMOTE_RELEASES };
+        File[] directories = new File[tiers.length];
+        for ( int i = 0; i < tiers.length; i++ )
+        {
+            directories[i] = new File( getRepository().getBasedir(), getTierPath( tiers[i] ) );
+        }
+        filter.rebuild( tiers, directories );
+    }
+
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    private void checkWritable()
+    {
+        if ( readOnly )
+        {
+            throw new UnsupportedOperationException( "local repository " + getRepository().getBasedir()
+                + " is read-only" );
+        }
+    }
+
+    /**
+     * Relocates one of the base directories of the local repository. By default, the base directories are
+     * subdirectories of the repository's base directory but each of them can be placed elsewhere, e.g. on a different
+     * file system.
+     *
+     * @param tier The base directory to relocate, must be one of {@link #LOCAL_SNAPSHOTS}, {@link #LOCAL_RELEASES},
+     *            {@link #REMOTE_SNAPSHOTS} or {@link #REMOTE_RELEASES}.
+     * @param directory The new location of the base directory, may be {@code null} to restore the default location.
+     *            A relative path is resolved against the repository's base directory.
+     * @return This manager for chaining, never {@code null}.
+     * @throws IllegalArgumentException If the tier is unknown, the directory cannot be addressed relative to the
+     *             repository's base directory or the directory overlaps with another base directory, i.e. one of them
+     *             is nested in the other.
+     */
+    public SplitLocalRepositoryManager setTierDirectory( String tier, File directory )
+    {
+        String prefix = tier;
+        if ( directory != null )
+        {
+            if ( !directory.isAbsolute() )
+            {
+                directory = new File( getRepository().getBasedir(), directory.getPath() );
+            }
+            prefix = getRelativePath( getRepository().getBasedir(), directory );
+        }
+        checkOverlap( tier, prefix );
+
+        if ( LOCAL_SNAPSHOTS.equals( tier ) )
+        {
+            localSnapshots = prefix;
+        }
+        else if ( LOCAL_RELEASES.equals( tier ) )
+        {
+            localReleases = prefix;
+        }
+        else if ( REMOTE_SNAPSHOTS.equals( tier ) )
+        {
+            remoteSnapshots = prefix;
+        }
+        else if ( REMOTE_RELEASES.equals( tier ) )
+        {
+            remoteReleases = prefix;
+        }
+        else
+        {
+            throw new IllegalArgumentException( "unknown base directory " + tier );
+        }
+        return this;
+    }
+
+    /**
+     * Gets the path of the specified base directory relative to the repository's base directory.
+     *
+     * @param tier The base directory, must be one of {@link #LOCAL_SNAPSHOTS}, {@link #LOCAL_RELEASES},
+     *            {@link #REMOTE_SNAPSHOTS} or {@link #REMOTE_RELEASES}.
+     * @return The relative path of the base directory including a trailing slash, never {@code null}.
+     */
+    String getTierPath( String tier )
+    {
+        if ( LOCAL_SNAPSHOTS.equals( tier ) )
+        {
+            return localSnapshots;
+        }
+        else if ( LOCAL_RELEASES.equals( tier ) )
+        {
+            return localReleases;
+        }
+        else if ( REMOTE_SNAPSHOTS.equals( tier ) )
+        {
+            return remoteSnapshots;
+        }
+        else if ( REMOTE_RELEASES.equals( tier ) )
+        {
+            return remoteReleases;
+        }
+        throw new IllegalArgumentException( "unknown base directory " + tier );
+    }
+
+    /**
+     * Determines the base directory that contains the specified file.
+     *
+     * @param file The file to classify, may be {@code null}.
+     * @return The base directory (one of {@link #LOCAL_SNAPSHOTS}, {@link #LOCAL_RELEASES}, {@link #REMOTE_SNAPSHOTS}
+     *         or {@link #REMOTE_RELEASES}) or {@code null} if the file is not located in any base directory.
+     */
+    String getTier( File file )
+    {
+        if ( file == null )
+        {
+            return null;
+        }
+        String path = file.getPath();
+        for ( String tier : new String[] { LOCAL_SNAPSHOTS, LOCAL_RELEASES, REMOTE_SNAPSHOTS, REMOTE_RELEASES } )
+        {
+            String dir = new File( getRepository().getBasedir(), getTierPath( tier ) ).getPath() + File.separator;
+            if ( path.startsWith( dir ) )
+            {
+                return tier;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Ensures that the specified location of a base directory neither contains nor is contained in the location of
+     * another base directory, which would mix up their files.
+     */
+    private void checkOverlap( String tier, String prefix )
+    {
+        if ( prefix.replace( "../", "" ).length() <= 0 )
+        {
+            throw new IllegalArgumentException( "base directory " + tier + " must not contain the repository's base "
+                + "directory " + getRepository().getBasedir() );
+        }
+        for ( String other : new String[] { LOCAL_SNAPSHOTS, LOCAL_RELEASES, REMOTE_SNAPSHOTS, REMOTE_RELEASES } )
+        {
+            if ( other.equals( tier ) )
+            {
+                continue;
+            }
+            String otherPrefix = getTierPath( other );
+            if ( prefix.startsWith( otherPrefix ) || otherPrefix.startsWith( prefix ) )
+            {
+                throw new IllegalArgumentException( "base directory " + tier + " at " + prefix
+                    + " overlaps with base directory " + other + " at " + otherPrefix );
+            }
+        }
+    }
+
+    private static String getRelativePath( File basedir, File directory )
+    {
+        String[] from = getSegments( basedir );
+        String[] to = getSegments( directory );
+
+        int common = 0;
+        while ( common < from.length && common < to.length && from[common].equals( to[common] ) )
+        {
+            common++;
+        }
+        if ( common <= 0 )
+        {
+            throw new IllegalArgumentException( "directory " + directory + " has no common root with " + basedir );
+        }
+
+        StringBuilder path = new StringBuilder( 128 );
+        for ( int i = common; i < from.length; i++ )
+        {
+            path.append( "../" );
+        }
+        for ( int i = common; i < to.length; i++ )
+        {
+            path.append( to[i] ).append( '/' );
+        }
+        if ( path.length() <= 0 )
+        {
+            throw new IllegalArgumentException( "directory " + directory + " equals base directory " + basedir );
+        }
+        return path.toString();
+    }
+
+    private static String[] getSegments( File file )
+    {
+        File absolute = file.getAbsoluteFile();
+        try
+        {
+            absolute = absolute.getCanonicalFile();
+        }
+        catch ( IOException e )
+        {
+            // use the absolute path then
+        }
+        String path = absolute.getPath().replace( File.separatorChar, '/' );
+        // keep the root as first segment to detect paths on different drives
+        int root = path.indexOf( '/' ) + 1;
+        String[] tail = ( root < path.length() ) ? path.substring( root ).split( "/+" ) : new String[0];
+        String[] segments = new String[tail.length + 1];
+        segments[0] = path.substring( 0, root );
+        System.arraycopy( tail, 0, segments, 1, tail.length );
+        return segments;
+    }
+
+    /**
+     * Controls whether the results of {@code find()} are memorized for the lifetime of the repository system session.
+     * The session-scoped memo assumes that files enter the local repository only along with a corresponding
+     * {@code add()} call on this manager during the same session.
+     *
+     * @param lookupCaching {@code true} to memorize lookups in the session data, {@code false} otherwise.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setLookupCaching( boolean lookupCaching )
+    {
+        this.lookupCaching = lookupCaching;
+        return this;
+    }
+
+    /**
+     * Enables leases on the snapshot directories that are accessed via this manager, protecting them from concurrent
+     * cleanup by {@link SnapshotCleaner} until this manager is closed.
+     *
+     * @param ttl The time-to-live of the lease in milliseconds. The lease is renewed periodically while this manager
+     *            is open, it expires if this process dies. A non-positive value disables leases.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setLeases( long ttl )
+    {
+        if ( lease != null )
+        {
+            lease.release();
+            lease = null;
+        }
+        if ( ttl > 0 )
+        {
+            lease = new Lease( new File( getRepository().getBasedir(), LEASES ), ttl ).setLogger( logger );
+        }
+        return this;
+    }
+
+    /**
+     * Controls whether the disk usage of the local repository is accounted per base directory and groupId prefix. The
+     * usage is updated by registrations and maintenance tasks and stored in {@code .index/usage.properties} shortly
+     * afterwards. The accounted size of each registered file is kept in its tracking file, so overwritten files only
+     * change the usage by the difference in size.
+     *
+     * @param diskUsage {@code true} to enable the accounting, {@code false} otherwise.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setDiskUsage( boolean diskUsage )
+    {
+        if ( diskUsage )
+        {
+            File basedir = getRepository().getBasedir();
+            File file = new File( basedir, DISK_USAGE );
+            File lockFile = new File( basedir, LOCKS + "usage.lock" );
+            this.diskUsage = new DiskUsage( file, lockFile, lockStrategy ).setLogger( logger );
+        }
+        else
+        {
+            this.diskUsage = null;
+        }
+        return this;
+    }
+
+    DiskUsage getDiskUsage()
+    {
+        return diskUsage;
+    }
+
+    /**
+     * Accounts a change of the disk usage if enabled.
+     *
+     * @param tier The base directory of the changed file, e.g. {@link #REMOTE_RELEASES}.
+     * @param subPath The path of the changed file relative to its base directory, must not be {@code null}.
+     * @param files The change of the file count, negative for deletions.
+     * @param bytes The change of the size in bytes, negative for deletions.
+     */
+    void recordUsage( String tier, String subPath, int files, long bytes )
+    {
+        DiskUsage diskUsage = this.diskUsage;
+        if ( diskUsage != null )
+        {
+            diskUsage.add( tier, subPath, files, bytes );
+        }
+    }
+
+    /**
+     * Sets the instrumentation that receives events about lookups, registrations, accesses to resolution tracking
+     * files and metadata repairs.
+     *
+     * @param instrumentation The instrumentation, may be {@code null} to record nothing.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setInstrumentation( Instrumentation instrumentation )
+    {
+        this.instrumentation = ( instrumentation != null ) ? instrumentation : Instrumentation.NONE;
+        trackingFileManager.setInstrumentation( this.instrumentation );
+        return this;
+    }
+
+    Lease getLease()
+    {
+        return lease;
+    }
+
+    /**
+     * Leases the snapshot directories that hold the specified artifact/metadata before they are accessed.
+     *
+     * @param subPath The path of the artifact/metadata relative to its base directory, must not be {@code null}.
+     */
+    private void lease( String subPath )
+    {
+        Lease lease = this.lease;
+        int slash = subPath.lastIndexOf( '/' );
+        if ( lease != null && slash > 0 )
+        {
+            String directory = subPath.substring( 0, slash );
+            lease.add( LOCAL_SNAPSHOTS + directory );
+            lease.add( REMOTE_SNAPSHOTS + directory );
+        }
+    }
+
+    /**
+     * Leases the snapshot directories of the specified artifact, e.g. for lookups that are served by another manager.
+     *
+     * @param artifact The artifact whose directories to lease, must not be {@code null}.
+     */
+    void leaseArtifact( Artifact artifact )
+    {
+        if ( lease != null && artifact.isSnapshot() )
+        {
+            lease( getSubPath( artifact, false ) );
+        }
+    }
+
+    void leaseMetadata( Metadata metadata )
+    {
+        // version-less metadata has its backup in the snapshot directories
+        if ( lease != null && ( metadata.getVersion().length() <= 0 || isSnapshot( metadata ) ) )
+        {
+            lease( getSubPath( metadata, getRepository().getId() ) );
+        }
+    }
+
+    /**
+     * Enables the recording of all lookups and registrations to the specified trace file. The trace uses JSON lines
+     * and is meant to capture real workloads for later replay in benchmarks.
+     *
+     * @param file The trace file to append to, may be {@code null} to disable tracing.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setTrace( File file )
+    {
+        AccessTrace trace = this.trace;
+        if ( trace != null )
+        {
+            trace.close();
+        }
+        this.trace = ( file != null ) ? new AccessTrace( file ).setLogger( logger ) : null;
         return this;
     }
 
+    /**
+     * Controls whether metadata files that need repair after the deletion of a base directory are repaired on a
+     * background thread. In this mode, {@code find()} immediately returns the usable metadata file and flags it as
+     * stale instead of blocking on the repair.
+     *
+     * @param backgroundRepair {@code true} to repair metadata in the background, {@code false} to repair it during
+     *            the lookup.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setBackgroundRepair( boolean backgroundRepair )
+    {
+        this.backgroundRepair = backgroundRepair;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of threads used to perform independent file updates in parallel.
+     *
+     * @param threads The maximum number of threads, a non-positive value selects the number of available processors.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setThreads( int threads )
+    {
+        workers.close();
+        workers = new ParallelTasks( "split-localrepo-worker", threads );
+        return this;
+    }
+
+    ParallelTasks getWorkers()
+    {
+        return workers;
+    }
+
+    private SessionLookupCache getLookupCache( RepositorySystemSession session )
+    {
+        if ( !lookupCaching )
+        {
+            return null;
+        }
+        if ( journal != null )
+        {
+            journal.poll();
+        }
+        return SessionLookupCache.get( session, lookupCacheKey, lookupCaches );
+    }
+
+    /**
+     * Controls whether changes to the local repository are recorded in a journal shared with other processes. Each
+     * manager tails the journal to invalidate its caches for artifacts and metadata that were changed by others.
+     *
+     * @param changeJournal {@code true} to enable the change journal, {@code false} otherwise.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManager setChangeJournal( boolean changeJournal )
+    {
+        if ( changeJournal )
+        {
+            File file = new File( getRepository().getBasedir(), INDEX + "changes.log" );
+            journal = new ChangeJournal( file, lockStrategy, 1024 * 1024, 100 ).setLogger( logger );
+            journal.setListener( new ChangeJournal.Listener()
+            {
+                public void changed( String path )
+                {
+                    for ( SessionLookupCache cache : getLookupCaches() )
+                    {
+                        cache.invalidate( path );
+                    }
+                }
+
+                public void reset()
+                {
+                    for ( SessionLookupCache cache : getLookupCaches() )
+                    {
+                        cache.clear();
+                    }
+                }
+            } );
+            journal.poll();
+        }
+        else
+        {
+            journal = null;
+        }
+        return this;
+    }
+
+    private Collection<SessionLookupCache> getLookupCaches()
+    {
+        synchronized ( lookupCaches )
+        {
+            return new ArrayList<SessionLookupCache>( lookupCaches.keySet() );
+        }
+    }
+
+    private void recordChange( String... paths )
+    {
+        if ( journal != null )
+        {
+            journal.append( paths );
+        }
+    }
+
+    /**
+     * Gets the key under which lookups of the specified file are cached. Artifacts are looked up across all base
+     * directories and are hence keyed by their path within the base directory. Metadata is keyed by its path relative
+     * to the repository's base directory, for version-less metadata the path of its master copy (which is also
+     * affected by changes of the backup copy).
+     *
+     * @param tier The base directory containing the file, must be one of {@link #LOCAL_SNAPSHOTS},
+     *            {@link #LOCAL_RELEASES}, {@link #REMOTE_SNAPSHOTS} or {@link #REMOTE_RELEASES}.
+     * @param path The path of the file relative to its base directory, must not be {@code null}.
+     * @return The key of the cached lookups, never {@code null}.
+     */
+    String getLookupKey( String tier, String path )
+    {
+        int slash = path.lastIndexOf( '/' );
+        String name = path.substring( slash + 1 );
+        if ( !name.startsWith( "maven-metadata" ) || !name.endsWith( ".xml" ) )
+        {
+            return path;
+        }
+        String parent = ( slash > 0 ) ? path.substring( 0, slash ) : "";
+        if ( !parent.endsWith( "SNAPSHOT" ) )
+        {
+            // version-less metadata in a snapshot directory is the backup of the master copy
+            if ( LOCAL_SNAPSHOTS.equals( tier ) )
+            {
+                tier = LOCAL_RELEASES;
+            }
+            else if ( REMOTE_SNAPSHOTS.equals( tier ) )
+            {
+                tier = REMOTE_RELEASES;
+            }
+        }
+        return getTierPath( tier ) + path;
+    }
+
+    /**
+     * Gets the key under which lookups of the metadata with the specified paths are cached, see
+     * {@link #getLookupKey(String, String)}.
+     */
+    private String getLookupKey( String[] paths )
+    {
+        String path = paths[0];
+        for ( String tier : new String[] { LOCAL_SNAPSHOTS, LOCAL_RELEASES, REMOTE_SNAPSHOTS, REMOTE_RELEASES } )
+        {
+            String tierPath = getTierPath( tier );
+            if ( path.startsWith( tierPath ) )
+            {
+                return getLookupKey( tier, path.substring( tierPath.length() ) );
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Discards the cached lookups of all sessions for the specified keys, e.g. after registrations or after
+     * maintenance tasks deleted the corresponding files. With the change journal enabled, other processes are notified
+     * as well.
+     *
+     * @param paths The lookup keys of the modified artifacts/metadata as given by
+     *            {@link #getLookupKey(String, String)}, must not be {@code null}.
+     */
+    void invalidate( Collection<String> paths )
+    {
+        if ( paths.isEmpty() )
+        {
+            return;
+        }
+        for ( SessionLookupCache cache : getLookupCaches() )
+        {
+            for ( String path : paths )
+            {
+                cache.invalidate( path );
+            }
+        }
+        recordChange( paths.toArray( new String[paths.size()] ) );
+    }
+
+    void setRegistry( ManagerRegistry registry )
+    {
+        this.registry = registry;
+    }
+
+    /**
+     * Closes this manager. A manager that is shared via the {@link ManagerRegistry} is only disposed once all its
+     * users have closed it.
+     */
+    public void close()
+    {
+        flush();
+        if ( registry != null )
+        {
+            registry.release( this );
+        }
+        else
+        {
+            dispose();
+        }
+    }
+
+    /**
+     * Writes the deferred bookkeeping right away, i.e. the usage of repository keys and the disk usage accounting.
+     * Otherwise, it is written in the background via {@link DeferredFlush}.
+     */
+    void flush()
+    {
+        recordRepositoryKeys();
+        if ( diskUsage != null )
+        {
+            diskUsage.flush();
+        }
+    }
+
+    private boolean isUsageDue( String repositoryKey )
+    {
+        Long recorded = recordedRepositoryKeys.get( repositoryKey );
+        return recorded == null || recorded.longValue() < System.currentTimeMillis() - KEY_USAGE_INTERVAL;
+    }
+
+    /**
+     * Records the last usage of the repository keys that were used for remote metadata since the last call. The usage
+     * allows to collect metadata files of keys that are no longer in use, see {@link OrphanedMetadataCollector}. New
+     * keys are recorded via {@link DeferredFlush} shortly after their first use, each key at most once per
+     * {@link #KEY_USAGE_INTERVAL}.
+     */
+    private void recordRepositoryKeys()
+    {
+        if ( readOnly || usedRepositoryKeys.isEmpty() )
+        {
+            return;
+        }
+        Collection<String> keys = new ArrayList<String>( usedRepositoryKeys.keySet() );
+        usedRepositoryKeys.keySet().removeAll( keys );
+
+        File file = new File( getRepository().getBasedir(), REPOSITORY_KEYS );
+        Properties usage = trackingFileManager.read( file );
+        long now = System.currentTimeMillis();
+        Map<String, String> updates = new HashMap<String, String>();
+        for ( String key : keys )
+        {
+            long lastUsage = getLastUsage( usage, key );
+            if ( lastUsage < now - KEY_USAGE_INTERVAL )
+            {
+                updates.put( key, Long.toString( now ) );
+                lastUsage = now;
+            }
+            recordedRepositoryKeys.put( key, Long.valueOf( lastUsage ) );
+        }
+        if ( !updates.isEmpty() )
+        {
+            trackingFileManager.update( file, updates );
+        }
+    }
+
+    static long getLastUsage( Properties usage, String key )
+    {
+        String value = ( usage != null ) ? usage.getProperty( key ) : null;
+        if ( value != null )
+        {
+            try
+            {
+                return Long.parseLong( value.trim() );
+            }
+            catch ( NumberFormatException e )
+            {
+                // treat as unused
+            }
+        }
+        return 0;
+    }
+
+    void dispose()
+    {
+        AccessTrace trace = this.trace;
+        if ( trace != null )
+        {
+            trace.close();
+        }
+        storage.close();
+        if ( lease != null )
+        {
+            lease.release();
+        }
+        workers.close();
+    }
+
     public LocalRepository getRepository()
     {
         return repository;
@@ -111,7 +1054,7 @@ class SplitLocalRepositoryManager
 
     public String getPathForLocalArtifact( Artifact artifact )
     {
-        String path = artifact.isSnapshot() ? LOCAL_SNAPSHOTS : LOCAL_RELEASES;
+        String path = artifact.isSnapshot() ? localSnapshots : localReleases;
         path += getSubPath( artifact, true );
         return path;
     }
@@ -123,7 +1066,7 @@ class SplitLocalRepositoryManager
 
     private String getPathForRemoteArtifact( Artifact artifact )
     {
-        String path = artifact.isSnapshot() ? REMOTE_SNAPSHOTS : REMOTE_RELEASES;
+        String path = artifact.isSnapshot() ? remoteSnapshots : remoteReleases;
         path += getSubPath( artifact, false );
         return path;
     }
@@ -182,6 +1125,13 @@ class SplitLocalRepositoryManager
         {
             repositoryKey = getRepository().getId();
         }
+        else if ( !readOnly && !usedRepositoryKeys.containsKey( repositoryKey ) && isUsageDue( repositoryKey ) )
+        {
+            if ( usedRepositoryKeys.putIfAbsent( repositoryKey, Boolean.TRUE ) == null )
+            {
+                DeferredFlush.schedule( repositoryKeyRecorder );
+            }
+        }
 
         String path = getSubPath( metadata, repositoryKey );
         String[] paths;
@@ -199,12 +1149,12 @@ class SplitLocalRepositoryManager
 
     public String getPathForLocalMetadata( Metadata metadata )
     {
-        return getPaths( metadata, null, LOCAL_RELEASES, LOCAL_SNAPSHOTS )[0];
+        return getPaths( metadata, null, localReleases, localSnapshots )[0];
     }
 
     public String getPathForRemoteMetadata( Metadata metadata, RemoteRepository repository, String context )
     {
-        return getPaths( metadata, getRepositoryKey( repository, context ), REMOTE_RELEASES, REMOTE_SNAPSHOTS )[0];
+        return getPaths( metadata, getRepositoryKey( repository, context ), remoteReleases, remoteSnapshots )[0];
     }
 
     private String getRepositoryKey( RemoteRepository repository, String context )
@@ -215,18 +1165,25 @@ class SplitLocalRepositoryManager
         {
             // repository serves dynamic contents, take request parameters into account for key
 
-            StringBuilder buffer = new StringBuilder( 128 );
-
-            buffer.append( repository.getId() );
-
-            buffer.append( '-' );
-
             SortedSet<String> subKeys = new TreeSet<String>();
             for ( RemoteRepository mirroredRepo : repository.getMirroredRepositories() )
             {
                 subKeys.add( mirroredRepo.getId() );
             }
 
+            Object memoKey = Arrays.asList( repository.getId(), context, subKeys );
+            key = repositoryKeys.get( memoKey );
+            if ( key != null )
+            {
+                return key;
+            }
+
+            StringBuilder buffer = new StringBuilder( 128 );
+
+            buffer.append( repository.getId() );
+
+            buffer.append( '-' );
+
             SimpleDigest digest = new SimpleDigest();
             digest.update( context );
             for ( String subKey : subKeys )
@@ -236,6 +1193,12 @@ class SplitLocalRepositoryManager
             buffer.append( digest.digest() );
 
             key = buffer.toString();
+
+            if ( repositoryKeys.size() > 1024 )
+            {
+                repositoryKeys.clear();
+            }
+            repositoryKeys.put( memoKey, key );
         }
         else
         {
@@ -249,26 +1212,77 @@ class SplitLocalRepositoryManager
 
     public LocalArtifactResult find( RepositorySystemSession session, LocalArtifactRequest request )
     {
-        LocalArtifactResult result = new LocalArtifactResult( request );
+        Span span = instrumentation.begin( Instrumentation.ARTIFACT_FIND );
+        AccessTrace trace = this.trace;
+        LocalArtifactResult result;
+        if ( trace == null )
+        {
+            result = lookup( session, request );
+        }
+        else
+        {
+            long start = System.nanoTime();
+            result = lookup( session, request );
+            trace.findArtifact( request, result, getTier( result.getFile() ), System.nanoTime() - start );
+        }
+        if ( span != Span.NONE )
+        {
+            Artifact artifact = request.getArtifact();
+            span.set( "groupId", artifact.getGroupId() ).set( "artifactId", artifact.getArtifactId() );
+            span.set( "version", artifact.getVersion() ).set( "tier", getTier( result.getFile() ) );
+            span.set( "available", result.isAvailable() ).end();
+        }
+        return result;
+    }
 
+    private LocalArtifactResult lookup( RepositorySystemSession session, LocalArtifactRequest request )
+    {
         String subPath = getSubPath( request.getArtifact(), false );
 
-        String path = request.getArtifact().isSnapshot() ? LOCAL_SNAPSHOTS : LOCAL_RELEASES;
+        if ( lease != null && request.getArtifact().isSnapshot() )
+        {
+            lease( subPath );
+        }
+
+        SessionLookupCache cache = getLookupCache( session );
+        if ( cache == null )
+        {
+            return find( request, subPath );
+        }
+
+        String key = getLookupKey( LOCAL_RELEASES, subPath );
+        LocalArtifactResult result = cache.find( key, request );
+        if ( result == null )
+        {
+            long generation = cache.getGeneration();
+            result = find( request, subPath );
+            cache.put( key, result, generation );
+        }
+        return result;
+    }
+
+    private LocalArtifactResult find( LocalArtifactRequest request, String subPath )
+    {
+        LocalArtifactResult result = new LocalArtifactResult( request );
+
+        boolean snapshot = request.getArtifact().isSnapshot();
+
+        String path = snapshot ? localSnapshots : localReleases;
         path += subPath;
         File file = new File( getRepository().getBasedir(), path );
 
-        if ( file.isFile() )
+        if ( mightExist( snapshot ? LOCAL_SNAPSHOTS : LOCAL_RELEASES, subPath ) && storage.isFile( file ) )
         {
             result.setFile( file );
             result.setAvailable( true );
         }
         else
         {
-            path = request.getArtifact().isSnapshot() ? REMOTE_SNAPSHOTS : REMOTE_RELEASES;
+            path = snapshot ? remoteSnapshots : remoteReleases;
             path += subPath;
             file = new File( getRepository().getBasedir(), path );
 
-            if ( file.isFile() )
+            if ( mightExist( snapshot ? REMOTE_SNAPSHOTS : REMOTE_RELEASES, subPath ) && storage.isFile( file ) )
             {
                 result.setFile( file );
 
@@ -292,12 +1306,196 @@ class SplitLocalRepositoryManager
 
     public void add( RepositorySystemSession session, LocalArtifactRegistration request )
     {
-        if ( request.getRepository() != null )
+        addAll( session, Collections.singleton( request ) );
+    }
+
+    /**
+     * Registers the specified artifacts with the local repository. Registrations that affect the same resolution
+     * tracking file are applied with a single update of that file, the updates of different directories are
+     * performed in parallel. This method returns once all registrations have been applied.
+     *
+     * @param session The repository system session, must not be {@code null}.
+     * @param requests The registrations to apply, must not be {@code null}.
+     */
+    public void addAll( RepositorySystemSession session, Collection<LocalArtifactRegistration> requests )
+    {
+        Span span = instrumentation.begin( Instrumentation.ARTIFACT_REGISTRATION );
+        AccessTrace trace = this.trace;
+        if ( trace == null )
+        {
+            register( session, requests );
+        }
+        else if ( !requests.isEmpty() )
+        {
+            long start = System.nanoTime();
+            register( session, requests );
+            long nanos = ( System.nanoTime() - start ) / requests.size();
+            for ( LocalArtifactRegistration request : requests )
+            {
+                trace.addArtifact( request, nanos );
+            }
+        }
+        span.set( "artifacts", requests.size() ).end();
+    }
+
+    private void register( RepositorySystemSession session, Collection<LocalArtifactRegistration> requests )
+    {
+        checkWritable();
+
+        Collection<String> changes = new ArrayList<String>();
+        Map<File, Map<String, String>> updates = new LinkedHashMap<File, Map<String, String>>();
+
+        for ( LocalArtifactRegistration request : requests )
+        {
+            Artifact artifact = request.getArtifact();
+
+            if ( lease != null && artifact != null && artifact.isSnapshot() )
+            {
+                lease( getSubPath( artifact, false ) );
+            }
+
+            if ( artifact != null && ( lookupCaching || journal != null ) )
+            {
+                changes.add( getLookupKey( LOCAL_RELEASES, getSubPath( artifact, false ) ) );
+            }
+
+            if ( projection != null && artifact != null )
+            {
+                projection.update( getSubPath( artifact, request.getRepository() == null ) );
+            }
+
+            if ( request.getRepository() != null )
+            {
+                addArtifact( artifact, getRepositoryKeys( request.getRepository(), request.getContexts() ), updates );
+            }
+            else if ( artifact != null )
+            {
+                String tier = artifact.isSnapshot() ? LOCAL_SNAPSHOTS : LOCAL_RELEASES;
+                if ( bloomFilter != null )
+                {
+                    bloomFilter.add( tier + getSubPath( artifact, true ) );
+                }
+                if ( diskUsage != null )
+                {
+                    String path = getTierPath( tier ) + getSubPath( artifact, true );
+                    addSize( new File( getRepository().getBasedir(), path ), updates );
+                }
+            }
+        }
+
+        invalidate( changes );
+
+        Collection<Callable<Properties>> tasks = new ArrayList<Callable<Properties>>( updates.size() );
+        for ( final Map.Entry<File, Map<String, String>> update : updates.entrySet() )
+        {
+            tasks.add( new Callable<Properties>()
+            {
+                public Properties call()
+                {
+                    if ( diskUsage == null )
+                    {
+                        return storage.updateTracking( update.getKey(), update.getValue() );
+                    }
+                    Properties previous = new Properties();
+                    Properties props = storage.updateTracking( update.getKey(), update.getValue(), previous );
+                    recordUsage( update.getKey(), update.getValue(), previous );
+                    return props;
+                }
+            } );
+        }
+        workers.run( tasks );
+    }
+
+    /**
+     * Accounts the disk usage of the files whose sizes were recorded by the specified tracking update. The previous
+     * size was read under the same lock, so a file that was registered before is only accounted with the difference
+     * in size, no matter which process registered it. Files that were tracked before their size was recorded have
+     * already been accounted by a rescan.
+     */
+    private void recordUsage( File trackingFile, Map<String, String> updates, Properties previous )
+    {
+        for ( Map.Entry<String, String> update : updates.entrySet() )
+        {
+            String key = update.getKey();
+            if ( !key.endsWith( SIZE_KEY ) || update.getValue() == null )
+            {
+                continue;
+            }
+            String name = key.substring( 0, key.length() - SIZE_KEY.length() );
+            long size = parseSize( update.getValue() );
+            String previousSize = previous.getProperty( key );
+            int files = 0;
+            long bytes;
+            if ( previousSize != null )
+            {
+                bytes = size - parseSize( previousSize );
+            }
+            else if ( isTracked( previous, name ) )
+            {
+                continue;
+            }
+            else
+            {
+                files = 1;
+                bytes = size;
+            }
+
+            File file = new File( trackingFile.getParentFile(), name );
+            String tier = getTier( file );
+            if ( tier != null && ( files != 0 || bytes != 0 ) )
+            {
+                String basedir = new File( getRepository().getBasedir(), getTierPath( tier ) ).getAbsolutePath();
+                String subPath = file.getAbsolutePath().substring( basedir.length() + 1 );
+                recordUsage( tier, subPath.replace( File.separatorChar, '/' ), files, bytes );
+            }
+        }
+    }
+
+    private static boolean isTracked( Properties tracked, String name )
+    {
+        for ( Object key : tracked.keySet() )
+        {
+            if ( key.toString().startsWith( name + '>' ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long parseSize( String size )
+    {
+        try
+        {
+            return Long.parseLong( size.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
+    /**
+     * Records the current size of the specified file in its tracking file, for the disk usage accounting.
+     */
+    private void addSize( File file, Map<File, Map<String, String>> updates )
+    {
+        if ( storage.isFile( file ) )
         {
-            addArtifact( request.getArtifact(), getRepositoryKeys( request.getRepository(), request.getContexts() ) );
+            getUpdates( file, updates ).put( file.getName() + SIZE_KEY, Long.toString( file.length() ) );
         }
     }
 
+    private boolean mightExist( String tier, String subPath )
+    {
+        if ( bloomFilter == null || LOCAL_SNAPSHOTS.equals( tier ) || LOCAL_RELEASES.equals( tier ) )
+        {
+            // the filter can miss recent additions by other processes, only downloads recover from that
+            return true;
+        }
+        return bloomFilter.mightContain( tier + subPath );
+    }
+
     private Collection<String> getRepositoryKeys( RemoteRepository repository, Collection<String> contexts )
     {
         Collection<String> keys = new HashSet<String>();
@@ -313,7 +1511,8 @@ class SplitLocalRepositoryManager
         return keys;
     }
 
-    private void addArtifact( Artifact artifact, Collection<String> repositories )
+    private void addArtifact( Artifact artifact, Collection<String> repositories,
+                              Map<File, Map<String, String>> updates )
     {
         if ( artifact == null )
         {
@@ -321,28 +1520,48 @@ class SplitLocalRepositoryManager
         }
         String path = getPathForRemoteArtifact( artifact );
         File file = new File( getRepository().getBasedir(), path );
-        addRepo( file, repositories );
+        addRepo( file, repositories, updates );
+        if ( diskUsage != null )
+        {
+            addSize( file, updates );
+        }
+        if ( bloomFilter != null )
+        {
+            bloomFilter.add( ( artifact.isSnapshot() ? REMOTE_SNAPSHOTS : REMOTE_RELEASES )
+                + getSubPath( artifact, false ) );
+        }
     }
 
     private Properties readRepos( File artifactFile )
     {
         File trackingFile = getTrackingFile( artifactFile );
 
-        Properties props = trackingFileManager.read( trackingFile );
+        Properties props = storage.readTracking( trackingFile );
         return ( props != null ) ? props : new Properties();
     }
 
-    private void addRepo( File artifactFile, Collection<String> repositories )
+    private void addRepo( File artifactFile, Collection<String> repositories,
+                          Map<File, Map<String, String>> updates )
     {
-        Map<String, String> updates = new HashMap<String, String>();
+        Map<String, String> props = getUpdates( artifactFile, updates );
+
         for ( String repository : repositories )
         {
-            updates.put( getKey( artifactFile, repository ), "" );
+            props.put( getKey( artifactFile, repository ), "" );
         }
+    }
 
+    private Map<String, String> getUpdates( File artifactFile, Map<File, Map<String, String>> updates )
+    {
         File trackingFile = getTrackingFile( artifactFile );
 
-        trackingFileManager.update( trackingFile, updates );
+        Map<String, String> props = updates.get( trackingFile );
+        if ( props == null )
+        {
+            props = new HashMap<String, String>();
+            updates.put( trackingFile, props );
+        }
+        return props;
     }
 
     private File getTrackingFile( File artifactFile )
@@ -357,8 +1576,19 @@ class SplitLocalRepositoryManager
 
     public LocalMetadataResult find( RepositorySystemSession session, LocalMetadataRequest request )
     {
-        LocalMetadataResult result = new LocalMetadataResult( request );
+        AccessTrace trace = this.trace;
+        if ( trace == null )
+        {
+            return lookup( session, request );
+        }
+        long start = System.nanoTime();
+        LocalMetadataResult result = lookup( session, request );
+        trace.findMetadata( request, result, getTier( result.getFile() ), System.nanoTime() - start );
+        return result;
+    }
 
+    private LocalMetadataResult lookup( RepositorySystemSession session, LocalMetadataRequest request )
+    {
         String[] paths;
 
         Metadata metadata = request.getMetadata();
@@ -367,17 +1597,42 @@ class SplitLocalRepositoryManager
 
         if ( remote != null )
         {
-            paths = getPaths( metadata, getRepositoryKey( remote, context ), REMOTE_RELEASES, REMOTE_SNAPSHOTS );
+            paths = getPaths( metadata, getRepositoryKey( remote, context ), remoteReleases, remoteSnapshots );
         }
         else
         {
-            paths = getPaths( metadata, null, LOCAL_RELEASES, LOCAL_SNAPSHOTS );
+            paths = getPaths( metadata, null, localReleases, localSnapshots );
+        }
+
+        leaseMetadata( metadata );
+
+        SessionLookupCache cache = getLookupCache( session );
+        if ( cache == null )
+        {
+            return find( request, paths );
+        }
+
+        String key = getLookupKey( paths );
+        LocalMetadataResult result = cache.find( key, request );
+        if ( result == null )
+        {
+            long generation = cache.getGeneration();
+            result = find( request, paths );
+            cache.put( key, result, generation );
         }
+        return result;
+    }
+
+    private LocalMetadataResult find( LocalMetadataRequest request, String[] paths )
+    {
+        LocalMetadataResult result = new LocalMetadataResult( request );
+
+        Metadata metadata = request.getMetadata();
 
         if ( paths.length < 2 )
         {
             File file = new File( getRepository().getBasedir(), paths[0] );
-            if ( file.isFile() )
+            if ( storage.isFile( file ) )
             {
                 result.setFile( file );
             }
@@ -386,30 +1641,25 @@ class SplitLocalRepositoryManager
         {
             File masterFile = new File( getRepository().getBasedir(), paths[0] );
             File backupFile = new File( getRepository().getBasedir(), paths[1] );
-            boolean masterExists = masterFile.isFile();
-            boolean backupExists = backupFile.isFile();
-            if ( masterExists || backupExists )
+            boolean masterExists = storage.isFile( masterFile );
+            boolean backupExists = storage.isFile( backupFile );
+            if ( masterExists != backupExists && ( backgroundRepair || readOnly ) )
             {
-                try
+                if ( !readOnly )
                 {
-                    if ( !backupExists )
-                    {
-                        logger.debug( "Repairing metadata file " + masterFile + " after deletion of snapshots" );
-                        MetadataUtils.repair( metadata, masterFile, masterFile, true, false );
-                        backupMetadata( paths );
-                    }
-                    else if ( !masterExists )
-                    {
-                        logger.debug( "Repairing metadata file " + masterFile + " after deletion of releases" );
-                        MetadataUtils.repair( metadata, backupFile, masterFile, false, true );
-                    }
+                    scheduleRepair( metadata, paths );
                 }
-                catch ( IOException e )
+                result.setFile( masterExists ? masterFile : backupFile );
+                result.setStale( true );
+            }
+            else if ( masterExists || backupExists )
+            {
+                if ( !masterExists || !backupExists )
                 {
-                    logger.warn( "Could not repair metadata file " + masterFile + ": " + e );
+                    repairMetadata( metadata, paths );
                 }
 
-                if ( masterExists || masterFile.isFile() )
+                if ( masterExists || storage.isFile( masterFile ) )
                 {
                     result.setFile( masterFile );
                     result.setStale( !masterExists || !backupExists );
@@ -420,27 +1670,229 @@ class SplitLocalRepositoryManager
         return result;
     }
 
+    private void scheduleRepair( final Metadata metadata, final String[] paths )
+    {
+        final String key = paths[0];
+        if ( pendingRepairs.putIfAbsent( key, Boolean.TRUE ) != null )
+        {
+            return;
+        }
+
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    repairMetadata( metadata, paths );
+                }
+                finally
+                {
+                    pendingRepairs.remove( key );
+                }
+            }
+        };
+
+        getRepairExecutor().execute( task );
+    }
+
+    private static synchronized Executor getRepairExecutor()
+    {
+        if ( repairExecutor == null )
+        {
+            repairExecutor = Executors.newSingleThreadExecutor( new ThreadFactory()
+            {
+                public Thread newThread( Runnable r )
+                {
+                    Thread thread = new Thread( r, "split-localrepo-metadata-repair" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+        return repairExecutor;
+    }
+
+    /**
+     * Repairs the master or backup file of some version-less metadata if exactly one of them exists. The repair is
+     * coordinated with concurrent lookups of the same metadata.
+     *
+     * @param metadata The metadata to repair, must not be {@code null}.
+     * @param paths The repository-relative paths of the master and the backup file, must not be {@code null}.
+     * @return {@code true} if the metadata was repaired, {@code false} if nothing needed to be done.
+     */
+    boolean repairMetadata( final Metadata metadata, final String[] paths )
+    {
+        Boolean repaired = metadataFlights.join( paths[0], new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                LockFile lock = lockMetadata( paths[0] );
+                try
+                {
+                    boolean repaired = repairMetadataLocked( metadata, paths );
+                    if ( repaired )
+                    {
+                        recordChange( getLookupKey( paths ) );
+                    }
+                    return Boolean.valueOf( repaired );
+                }
+                finally
+                {
+                    unlockMetadata( lock );
+                }
+            }
+        } );
+        return Boolean.TRUE.equals( repaired );
+    }
+
+    private boolean repairMetadataLocked( Metadata metadata, String[] paths )
+    {
+        File masterFile = new File( getRepository().getBasedir(), paths[0] );
+        File backupFile = new File( getRepository().getBasedir(), paths[1] );
+        boolean masterExists = storage.isFile( masterFile );
+        boolean backupExists = storage.isFile( backupFile );
+
+        try
+        {
+            if ( masterExists && !backupExists )
+            {
+                logger.debug( "Repairing metadata file " + masterFile + " after deletion of snapshots" );
+                Span span = instrumentation.begin( Instrumentation.METADATA_REPAIR );
+                storage.repairMetadata( metadata, masterFile, masterFile, true, false );
+                span.set( "path", paths[0] ).set( "purged", "snapshots" ).end();
+                copyMetadata( paths );
+                return true;
+            }
+            else if ( !masterExists && backupExists )
+            {
+                logger.debug( "Repairing metadata file " + masterFile + " after deletion of releases" );
+                Span span = instrumentation.begin( Instrumentation.METADATA_REPAIR );
+                storage.repairMetadata( metadata, backupFile, masterFile, false, true );
+                span.set( "path", paths[0] ).set( "purged", "releases" ).end();
+                return true;
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not repair metadata file " + masterFile + ": " + e );
+        }
+
+        return false;
+    }
+
+    private LockFile lockMetadata( String path )
+    {
+        // the lock files are retained, striping bounds their number at the expense of rare false contention
+        String stripe = Integer.toHexString( ( path.hashCode() % METADATA_LOCK_STRIPES + METADATA_LOCK_STRIPES )
+            % METADATA_LOCK_STRIPES );
+        File file = new File( getRepository().getBasedir(), LOCKS + "metadata-" + stripe + ".lock" );
+        try
+        {
+            return LockFile.acquire( file, lockStrategy );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Could not lock metadata file " + path + ", proceeding without lock: " + e );
+            return null;
+        }
+    }
+
+    private void unlockMetadata( LockFile lock )
+    {
+        if ( lock != null )
+        {
+            try
+            {
+                lock.release();
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Error releasing lock file " + lock.getFile() + ": " + e );
+            }
+        }
+    }
+
     public void add( RepositorySystemSession session, LocalMetadataRegistration request )
     {
+        AccessTrace trace = this.trace;
+        if ( trace == null )
+        {
+            register( session, request );
+        }
+        else
+        {
+            long start = System.nanoTime();
+            register( session, request );
+            trace.addMetadata( request, System.nanoTime() - start );
+        }
+    }
+
+    private void register( RepositorySystemSession session, LocalMetadataRegistration request )
+    {
+        checkWritable();
+
         Metadata metadata = request.getMetadata();
 
-        if ( metadata.getVersion().length() <= 0 )
+        leaseMetadata( metadata );
+
+        Collection<String[]> pathSets = new ArrayList<String[]>();
+        if ( request.getRepository() == null )
         {
-            if ( request.getRepository() == null )
+            pathSets.add( getPaths( metadata, null, localReleases, localSnapshots ) );
+            if ( projection != null )
             {
-                backupMetadata( getPaths( metadata, null, LOCAL_RELEASES, LOCAL_SNAPSHOTS ) );
+                projection.update( getSubPath( metadata, getRepository().getId() ) );
             }
-            else
+        }
+        else
+        {
+            for ( String repositoryKey : getRepositoryKeys( request.getRepository(), request.getContexts() ) )
             {
-                for ( String repositoryKey : getRepositoryKeys( request.getRepository(), request.getContexts() ) )
+                pathSets.add( getPaths( metadata, repositoryKey, remoteReleases, remoteSnapshots ) );
+                if ( projection != null )
                 {
-                    backupMetadata( getPaths( metadata, repositoryKey, REMOTE_RELEASES, REMOTE_SNAPSHOTS ) );
+                    projection.update( getSubPath( metadata, repositoryKey ) );
                 }
             }
         }
+
+        Collection<String> changes = new ArrayList<String>( pathSets.size() );
+        for ( String[] paths : pathSets )
+        {
+            changes.add( getLookupKey( paths ) );
+        }
+        invalidate( changes );
+
+        for ( String[] paths : pathSets )
+        {
+            if ( metadata.getVersion().length() <= 0 )
+            {
+                backupMetadata( paths );
+            }
+        }
+    }
+
+    private void backupMetadata( final String[] paths )
+    {
+        metadataFlights.execute( paths[0], new Callable<Boolean>()
+        {
+            public Boolean call()
+            {
+                LockFile lock = lockMetadata( paths[0] );
+                try
+                {
+                    return Boolean.valueOf( copyMetadata( paths ) );
+                }
+                finally
+                {
+                    unlockMetadata( lock );
+                }
+            }
+        } );
     }
 
-    private void backupMetadata( String[] paths )
+    private boolean copyMetadata( String[] paths )
     {
         File basedir = getRepository().getBasedir();
         File masterFile = new File( basedir, paths[0] );
@@ -448,11 +1900,15 @@ class SplitLocalRepositoryManager
 
         try
         {
-            FileUtils.copyFile( masterFile, backupFile );
+            Span span = instrumentation.begin( Instrumentation.METADATA_BACKUP );
+            storage.copyMetadata( masterFile, backupFile );
+            span.set( "path", paths[1] ).end();
+            return true;
         }
         catch ( IOException e )
         {
             logger.warn( "Could not create metadata backup file " + backupFile + ": " + e );
+            return false;
         }
     }
 
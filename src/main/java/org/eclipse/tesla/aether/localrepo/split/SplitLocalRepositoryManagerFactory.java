@@ -8,6 +8,11 @@ package org.eclipse.tesla.aether.localrepo.split;
  *   http://www.eclipse.org/legal/epl-v10.html
  *******************************************************************************/
 
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
 import org.codehaus.plexus.component.annotations.Component;
 import org.codehaus.plexus.component.annotations.Requirement;
 import org.sonatype.aether.repository.LocalRepository;
@@ -20,22 +25,223 @@ import org.sonatype.aether.spi.log.Logger;
 import org.sonatype.aether.spi.log.NullLogger;
 
 /**
- * Creates local repository managers for the local repository types {@code "split"} and {@code ""} (automatic).
+ * Creates local repository managers for the local repository types {@code "split"} and {@code ""} (automatic). The
+ * created managers are configured from the system properties, see the {@code CONFIG_*} constants for the supported
+ * keys.
  */
 @Component( role = LocalRepositoryManagerFactory.class, hint = "split" )
 public class SplitLocalRepositoryManagerFactory
     implements LocalRepositoryManagerFactory, Service
 {
 
+    /**
+     * The common prefix of all configuration properties understood by this factory.
+     */
+    static final String CONFIG_PREFIX = "aether.splitLocalRepo.";
+
+    /**
+     * The configuration property to enable the memorization of lookups in the session data, defaults to
+     * {@code false}.
+     */
+    static final String CONFIG_SESSION_CACHE = CONFIG_PREFIX + "sessionCache";
+
+    /**
+     * The configuration property to enable the repair of metadata on a background thread, defaults to {@code false}.
+     */
+    static final String CONFIG_BACKGROUND_REPAIR = CONFIG_PREFIX + "backgroundRepair";
+
+    /**
+     * The configuration property specifying the maximum number of threads used for parallel file operations, defaults
+     * to the number of available processors.
+     */
+    static final String CONFIG_THREADS = CONFIG_PREFIX + "threads";
+
+    /**
+     * The configuration property specifying a file to which all lookups and registrations are appended as JSON lines,
+     * defaults to none. A relative path is resolved against the base directory of the local repository.
+     */
+    static final String CONFIG_TRACE = CONFIG_PREFIX + "trace";
+
+    /**
+     * The configuration property selecting the storage for resolution tracking data. Supported values are
+     * {@code "file"} (default) to store the data in the file system and {@code "memory"} to keep updates in memory.
+     */
+    static final String CONFIG_STORAGE = CONFIG_PREFIX + "storage";
+
+    /**
+     * The configuration property to write the tracking data kept by the in-memory storage to disk in batches, shortly
+     * after the updates and when the JVM exits, defaults to {@code false}.
+     */
+    static final String CONFIG_SPILL_ON_CLOSE = CONFIG_PREFIX + "spillOnClose";
+
+    /**
+     * The configuration property to lease the accessed snapshot directories for the lifetime of the manager, protecting
+     * them from concurrent cleanup, defaults to {@code false}.
+     */
+    static final String CONFIG_LEASES = CONFIG_PREFIX + "leases";
+
+    /**
+     * The configuration property specifying the time-to-live of leases in milliseconds, defaults to 10 minutes. Leases
+     * are renewed while their build is running, leases of crashed builds expire after this period.
+     */
+    static final String CONFIG_LEASE_TTL = CONFIG_PREFIX + "leaseTtl";
+
+    /**
+     * The configuration property specifying the period in milliseconds after which a directory leased by a shared
+     * manager (see {@link #CONFIG_SHARED}) expires unless it was accessed again, defaults to 1 hour. Shared managers
+     * outlive the builds that use them, so their leases would otherwise protect every directory they ever accessed.
+     */
+    static final String CONFIG_LEASE_IDLE_TIMEOUT = CONFIG_PREFIX + "leaseIdleTimeout";
+
+    /**
+     * The configuration property to account the disk usage per base directory and groupId prefix, defaults to
+     * {@code false}.
+     */
+    static final String CONFIG_DISK_USAGE = CONFIG_PREFIX + "diskUsage";
+
+    /**
+     * The configuration property selecting the {@link Instrumentation}, either {@code auto} (the default) to use the
+     * Java Flight Recorder add-on if it is on the class path, {@code jfr} to require it, {@code none} or the name of a
+     * class that implements {@link Instrumentation}.
+     */
+    static final String CONFIG_INSTRUMENTATION = CONFIG_PREFIX + "instrumentation";
+
+    static final String JFR_INSTRUMENTATION = "org.eclipse.tesla.aether.localrepo.split.jfr.JfrInstrumentation";
+
+    /**
+     * The configuration property specifying the location of the base directory for locally installed snapshots,
+     * defaults to the subdirectory {@code ls/} of the local repository. A relative path is resolved against the base
+     * directory of the local repository.
+     */
+    static final String CONFIG_LOCAL_SNAPSHOTS_DIR = CONFIG_PREFIX + "localSnapshotsDir";
+
+    /**
+     * The configuration property specifying the location of the base directory for locally installed releases,
+     * defaults to the subdirectory {@code lr/} of the local repository.
+     */
+    static final String CONFIG_LOCAL_RELEASES_DIR = CONFIG_PREFIX + "localReleasesDir";
+
+    /**
+     * The configuration property specifying the location of the base directory for downloaded snapshots, defaults to
+     * the subdirectory {@code rs/} of the local repository.
+     */
+    static final String CONFIG_REMOTE_SNAPSHOTS_DIR = CONFIG_PREFIX + "remoteSnapshotsDir";
+
+    /**
+     * The configuration property specifying the location of the base directory for downloaded releases, defaults to
+     * the subdirectory {@code rr/} of the local repository.
+     */
+    static final String CONFIG_REMOTE_RELEASES_DIR = CONFIG_PREFIX + "remoteReleasesDir";
+
+    /**
+     * The configuration property selecting the strategy to guard files against concurrent access. Supported values
+     * are {@code "filelock"} (default) to use file locks provided by the operating system, {@code "lockfile"} to use
+     * atomically created lock files (e.g. for network file systems without proper lock support) and {@code "none"} to
+     * disable locking when only a single process accesses the repository.
+     */
+    static final String CONFIG_LOCK_STRATEGY = CONFIG_PREFIX + "lockStrategy";
+
+    /**
+     * The configuration property specifying the time (in milliseconds) after which a lock file that did not change is
+     * considered stale, defaults to {@code 60000}. Only used with the lock strategy {@code "lockfile"}.
+     */
+    static final String CONFIG_STALE_LOCK_AGE = CONFIG_PREFIX + "staleLockAge";
+
+    /**
+     * The configuration property specifying the maximum time (in milliseconds) to wait for a lock file, defaults to
+     * {@code 30000}. Only used with the lock strategy {@code "lockfile"}.
+     */
+    static final String CONFIG_LOCK_TIMEOUT = CONFIG_PREFIX + "lockTimeout";
+
+    /**
+     * The configuration property to enable the read-only mode for immutable repositories. Supported values are
+     * {@code "true"}, {@code "false"} (default) and {@code "auto"} to enable the read-only mode if the base directory
+     * of the local repository and each of its (possibly relocated) tier directories exist but are not writable.
+     */
+    static final String CONFIG_READ_ONLY = CONFIG_PREFIX + "readOnly";
+
+    /**
+     * The configuration property specifying the expected number of artifacts in the local repository to enable a
+     * persistent Bloom filter that speeds up lookups of absent artifacts, defaults to {@code 0}, i.e. disabled.
+     */
+    static final String CONFIG_BLOOM_FILTER = CONFIG_PREFIX + "bloomFilter";
+
+    /**
+     * The configuration property to share one manager instance per local repository and configuration among all users
+     * within the JVM (e.g. consecutive builds in a build daemon), defaults to {@code false}. As the repository system
+     * never closes its local repository manager, a shared manager retains its caches until the JVM exits, see
+     * {@link ManagerRegistry}.
+     */
+    static final String CONFIG_SHARED = CONFIG_PREFIX + "shared";
+
+    /**
+     * The configuration property to enable the journal through which processes sharing the local repository notify
+     * each other about changes, defaults to {@code false}. Enable this for all processes that access the repository
+     * concurrently if lookups are cached.
+     */
+    static final String CONFIG_CHANGE_JOURNAL = CONFIG_PREFIX + "changeJournal";
+
+    /**
+     * The configuration property to forward lookups and registrations to a {@link RepositoryDaemon} serving the local
+     * repository, defaults to {@code false}. If no daemon is running, the local repository is accessed directly.
+     */
+    static final String CONFIG_DAEMON = CONFIG_PREFIX + "daemon";
+
+    /**
+     * The configuration property specifying a directory in which a view of the local repository in the standard
+     * layout is maintained for plugins that access the repository directly, defaults to none. A relative path is
+     * resolved against the parent of the local repository's base directory, the view must not overlap with the local
+     * repository.
+     */
+    static final String CONFIG_PROJECTION_DIR = CONFIG_PREFIX + "projectionDir";
+
+    /**
+     * The configuration property specifying the kind of links that make up the view in the standard layout, either
+     * {@code "symbolic"} (default) or {@code "hard"}.
+     */
+    static final String CONFIG_PROJECTION_LINKS = CONFIG_PREFIX + "projectionLinks";
+
     @Requirement
     private Logger logger = NullLogger.INSTANCE;
 
+    private Map<?, ?> configuration;
+
     public LocalRepositoryManager newInstance( LocalRepository repository )
         throws NoLocalRepositoryManagerException
     {
         if ( "".equals( repository.getContentType() ) || "split".equals( repository.getContentType() ) )
         {
-            return new SplitLocalRepositoryManager( repository.getBasedir() ).setLogger( logger );
+            final File basedir = repository.getBasedir();
+            SplitLocalRepositoryManager manager;
+            if ( getBoolean( CONFIG_SHARED, false ) )
+            {
+                String config = getConfigurationKey();
+                manager = ManagerRegistry.INSTANCE.acquire( basedir, config, new Callable<SplitLocalRepositoryManager>()
+                {
+                    public SplitLocalRepositoryManager call()
+                    {
+                        SplitLocalRepositoryManager manager = newManager( basedir );
+                        if ( manager.getLease() != null )
+                        {
+                            manager.getLease().setIdleTimeout( getLong( CONFIG_LEASE_IDLE_TIMEOUT, 60 * 60 * 1000 ) );
+                        }
+                        return manager;
+                    }
+                } );
+            }
+            else
+            {
+                manager = newManager( basedir );
+            }
+            if ( getBoolean( CONFIG_DAEMON, false ) )
+            {
+                DaemonLocalRepositoryManager client = DaemonLocalRepositoryManager.connect( manager, logger );
+                if ( client != null )
+                {
+                    return client;
+                }
+            }
+            return manager;
         }
         else
         {
@@ -43,6 +249,64 @@ public class SplitLocalRepositoryManagerFactory
         }
     }
 
+    SplitLocalRepositoryManager newManager( File basedir )
+    {
+        SplitLocalRepositoryManager manager = new SplitLocalRepositoryManager( basedir );
+        manager.setLogger( logger );
+        manager.setLockStrategy( newLockStrategy() );
+        manager.setLookupCaching( getBoolean( CONFIG_SESSION_CACHE, false ) );
+        manager.setChangeJournal( getBoolean( CONFIG_CHANGE_JOURNAL, false ) );
+        manager.setBackgroundRepair( getBoolean( CONFIG_BACKGROUND_REPAIR, false ) );
+        manager.setThreads( (int) getLong( CONFIG_THREADS, 0 ) );
+        setStorage( manager );
+        manager.setInstrumentation( newInstrumentation() );
+        if ( getBoolean( CONFIG_LEASES, false ) )
+        {
+            manager.setLeases( getLong( CONFIG_LEASE_TTL, Lease.DEFAULT_TTL ) );
+        }
+        manager.setDiskUsage( getBoolean( CONFIG_DISK_USAGE, false ) );
+        setTierDirectory( manager, SplitLocalRepositoryManager.LOCAL_SNAPSHOTS, CONFIG_LOCAL_SNAPSHOTS_DIR );
+        setTierDirectory( manager, SplitLocalRepositoryManager.LOCAL_RELEASES, CONFIG_LOCAL_RELEASES_DIR );
+        setTierDirectory( manager, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, CONFIG_REMOTE_SNAPSHOTS_DIR );
+        setTierDirectory( manager, SplitLocalRepositoryManager.REMOTE_RELEASES, CONFIG_REMOTE_RELEASES_DIR );
+        manager.setReadOnly( isReadOnly( manager ) );
+        manager.setBloomFilter( getLong( CONFIG_BLOOM_FILTER, 0 ) );
+        String trace = getString( CONFIG_TRACE, null );
+        if ( trace != null && trace.length() > 0 )
+        {
+            File file = new File( trace );
+            manager.setTrace( file.isAbsolute() ? file : new File( basedir, trace ) );
+        }
+        String projection = getString( CONFIG_PROJECTION_DIR, null );
+        if ( projection != null && projection.length() > 0 )
+        {
+            File directory = new File( projection );
+            if ( !directory.isAbsolute() )
+            {
+                directory = new File( basedir.getAbsoluteFile().getParentFile(), projection );
+            }
+            boolean hardLinks = isHardLinks( getString( CONFIG_PROJECTION_LINKS, "symbolic" ) );
+            try
+            {
+                manager.setProjection( directory, hardLinks );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                logger.warn( "Ignoring " + CONFIG_PROJECTION_DIR + ": " + e.getMessage() );
+            }
+        }
+        return manager;
+    }
+
+    boolean isHardLinks( String links )
+    {
+        if ( !"hard".equals( links ) && !"symbolic".equals( links ) )
+        {
+            logger.warn( "Ignoring unknown value of " + CONFIG_PROJECTION_LINKS + ": " + links );
+        }
+        return "hard".equals( links );
+    }
+
     public void initService( ServiceLocator locator )
     {
         setLogger( locator.getService( Logger.class ) );
@@ -54,6 +318,188 @@ public class SplitLocalRepositoryManagerFactory
         return this;
     }
 
+    /**
+     * Sets the configuration properties for the created managers.
+     *
+     * @param configuration The configuration properties, may be {@code null} to use the system properties.
+     * @return This factory for chaining, never {@code null}.
+     */
+    public SplitLocalRepositoryManagerFactory setConfiguration( Map<?, ?> configuration )
+    {
+        this.configuration = configuration;
+        return this;
+    }
+
+    private boolean isReadOnly( SplitLocalRepositoryManager manager )
+    {
+        String readOnly = getString( CONFIG_READ_ONLY, "false" );
+        if ( "auto".equals( readOnly ) )
+        {
+            File basedir = manager.getRepository().getBasedir();
+            if ( !isNonWritable( basedir ) )
+            {
+                return false;
+            }
+            for ( String tier : new String[] { SplitLocalRepositoryManager.LOCAL_SNAPSHOTS,
+                SplitLocalRepositoryManager.LOCAL_RELEASES, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS,
+                SplitLocalRepositoryManager.REMOTE_RELEASES } )
+            {
+                if ( !isNonWritable( new File( basedir, manager.getTierPath( tier ) ) ) )
+                {
+                    return false;
+                }
+            }
+            logger.debug( "Using read-only mode for non-writable local repository " + basedir );
+            return true;
+        }
+        return Boolean.parseBoolean( readOnly );
+    }
+
+    private static boolean isNonWritable( File directory )
+    {
+        return directory.isDirectory() && !directory.canWrite();
+    }
+
+    private LockStrategy newLockStrategy()
+    {
+        String strategy = getString( CONFIG_LOCK_STRATEGY, "filelock" );
+        if ( "lockfile".equals( strategy ) )
+        {
+            long staleAge = getLong( CONFIG_STALE_LOCK_AGE, 60 * 1000 );
+            long timeout = getLong( CONFIG_LOCK_TIMEOUT, 30 * 1000 );
+            return new LockFileStrategy( staleAge, timeout );
+        }
+        else if ( "none".equals( strategy ) )
+        {
+            return NoLockStrategy.INSTANCE;
+        }
+        else if ( !"filelock".equals( strategy ) )
+        {
+            logger.warn( "Ignoring unknown value of " + CONFIG_LOCK_STRATEGY + ": " + strategy );
+        }
+        return new FileLockStrategy();
+    }
+
+    private Instrumentation newInstrumentation()
+    {
+        String instrumentation = getString( CONFIG_INSTRUMENTATION, "auto" );
+        if ( "none".equals( instrumentation ) )
+        {
+            return null;
+        }
+        boolean auto = "auto".equals( instrumentation );
+        String type = ( auto || "jfr".equals( instrumentation ) ) ? JFR_INSTRUMENTATION : instrumentation;
+        try
+        {
+            return (Instrumentation) getClass().getClassLoader().loadClass( type ).newInstance();
+        }
+        catch ( Exception e )
+        {
+            logInstrumentationFailure( type, e, auto );
+        }
+        catch ( LinkageError e )
+        {
+            // e.g. add-on on a Java runtime without Flight Recorder
+            logInstrumentationFailure( type, e, auto );
+        }
+        return null;
+    }
+
+    private void logInstrumentationFailure( String type, Throwable e, boolean auto )
+    {
+        if ( auto )
+        {
+            logger.debug( "Not using instrumentation " + type + ": " + e );
+        }
+        else
+        {
+            logger.warn( "Could not create instrumentation " + type + ": " + e );
+        }
+    }
+
+    private void setStorage( SplitLocalRepositoryManager manager )
+    {
+        String storage = getString( CONFIG_STORAGE, "file" );
+        if ( "memory".equals( storage ) )
+        {
+            manager.setMemoryStorage( getBoolean( CONFIG_SPILL_ON_CLOSE, false ) );
+        }
+        else if ( "index".equals( storage ) )
+        {
+            manager.setIndexStorage();
+        }
+        else if ( !"file".equals( storage ) )
+        {
+            logger.warn( "Ignoring unknown value of " + CONFIG_STORAGE + ": " + storage );
+        }
+    }
+
+    private void setTierDirectory( SplitLocalRepositoryManager manager, String tier, String key )
+    {
+        String directory = getString( key, null );
+        if ( directory != null && directory.length() > 0 )
+        {
+            try
+            {
+                manager.setTierDirectory( tier, new File( directory ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                logger.warn( "Ignoring invalid value of " + key + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    /**
+     * Gets the properties of this factory in canonical form, i.e. sorted by key, to tell apart shared managers with
+     * different configurations.
+     */
+    private String getConfigurationKey()
+    {
+        // copy the system properties as they could be modified while being iterated
+        Map<?, ?> config = ( configuration != null ) ? configuration : (Map<?, ?>) System.getProperties().clone();
+        Map<String, String> props = new TreeMap<String, String>();
+        for ( Map.Entry<?, ?> entry : config.entrySet() )
+        {
+            String key = String.valueOf( entry.getKey() );
+            if ( key.startsWith( CONFIG_PREFIX ) && entry.getValue() != null )
+            {
+                props.put( key, entry.getValue().toString().trim() );
+            }
+        }
+        return props.toString();
+    }
+
+    private String getString( String key, String defaultValue )
+    {
+        Map<?, ?> config = ( configuration != null ) ? configuration : System.getProperties();
+        Object value = config.get( key );
+        return ( value != null ) ? value.toString().trim() : defaultValue;
+    }
+
+    private boolean getBoolean( String key, boolean defaultValue )
+    {
+        String value = getString( key, null );
+        return ( value != null && value.length() > 0 ) ? Boolean.parseBoolean( value ) : defaultValue;
+    }
+
+    private long getLong( String key, long defaultValue )
+    {
+        String value = getString( key, null );
+        if ( value != null && value.length() > 0 )
+        {
+            try
+            {
+                return Long.parseLong( value );
+            }
+            catch ( NumberFormatException e )
+            {
+                logger.warn( "Ignoring invalid value of " + key + ": " + value );
+            }
+        }
+        return defaultValue;
+    }
+
     public int getPriority()
     {
         return 50;
@@ -0,0 +1,429 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.sonatype.aether.spi.log.Logger;
+
+/**
+ * A command line tool to maintain a split local repository. The configuration properties of the
+ * {@link SplitLocalRepositoryManagerFactory} are read from the system properties. Usage:
+ *
+ * <pre>
+ * java -cp ... org.eclipse.tesla.aether.localrepo.split.SplitLocalRepositoryTool \
+ *     &lt;command&gt; &lt;basedir&gt; [options]
+ * </pre>
+ */
+public class SplitLocalRepositoryTool
+{
+
+    private static final long RESCAN_INTERVAL = 7L * 24 * 60 * 60 * 1000;
+
+    private static final long SHUTDOWN_TIMEOUT = 30 * 1000;
+
+    private final CountDownLatch closed = new CountDownLatch( 1 );
+
+    private final PrintStream out;
+
+    private final PrintStream err;
+
+    public SplitLocalRepositoryTool( PrintStream out, PrintStream err )
+    {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main( String[] args )
+    {
+        System.exit( new SplitLocalRepositoryTool( System.out, System.err ).run( args ) );
+    }
+
+    /**
+     * Runs the specified command.
+     *
+     * @param args The command line arguments, must not be {@code null}.
+     * @return The exit code, {@code 0} on success.
+     */
+    public int run( String[] args )
+    {
+        if ( args.length < 2 )
+        {
+            usage();
+            return 1;
+        }
+
+        String command = args[0];
+        File basedir = new File( args[1] ).getAbsoluteFile();
+        Map<String, String> options = new HashMap<String, String>();
+        for ( int i = 2; i < args.length; i++ )
+        {
+            String arg = args[i];
+            if ( !arg.startsWith( "--" ) )
+            {
+                err.println( "Invalid option: " + arg );
+                usage();
+                return 1;
+            }
+            int eq = arg.indexOf( '=' );
+            if ( eq > 0 )
+            {
+                options.put( arg.substring( 2, eq ), arg.substring( eq + 1 ) );
+            }
+            else
+            {
+                options.put( arg.substring( 2 ), "true" );
+            }
+        }
+
+        Logger logger = new ConsoleLogger( options.containsKey( "debug" ) );
+        SplitLocalRepositoryManagerFactory factory = new SplitLocalRepositoryManagerFactory().setLogger( logger );
+        SplitLocalRepositoryManager lrm = factory.newManager( basedir );
+        if ( lrm.getDiskUsage() == null && new File( basedir, SplitLocalRepositoryManager.DISK_USAGE ).isFile() )
+        {
+            // keep the accounting of builds up-to-date
+            lrm.setDiskUsage( true );
+        }
+        try
+        {
+            if ( "prune".equals( command ) )
+            {
+                SnapshotPruner pruner = new SnapshotPruner( lrm ).setLogger( logger );
+                pruner.setRetain( Integer.parseInt( getOption( options, "keep", "1" ) ) );
+                pruner.setLeaseTtl( getLeaseTtl() );
+                out.println( "Pruned " + pruner.prune() );
+            }
+            else if ( "cleanup".equals( command ) )
+            {
+                SnapshotCleaner cleaner = new SnapshotCleaner( lrm ).setLogger( logger );
+                String tiers = getOption( options, "tiers", "ls,rs" );
+                List<String> dirs = new ArrayList<String>();
+                for ( String tier : tiers.split( "," ) )
+                {
+                    dirs.add( tier.trim() + '/' );
+                }
+                cleaner.setTiers( dirs.toArray( new String[dirs.size()] ) );
+                cleaner.setMinAge( Long.parseLong( getOption( options, "min-age", "0" ) ) );
+                cleaner.setLeaseTtl( getLeaseTtl() );
+                out.println( "Cleaned " + cleaner.clean() );
+                if ( Boolean.parseBoolean( getOption( options, "reconcile", "true" ) ) )
+                {
+                    out.println( "Reconciled " + new MetadataReconciler( lrm ).setLogger( logger ).reconcile() );
+                }
+            }
+            else if ( "gc".equals( command ) )
+            {
+                OrphanedMetadataCollector collector = new OrphanedMetadataCollector( lrm ).setLogger( logger );
+                String keys = options.get( "live-keys" );
+                if ( keys != null )
+                {
+                    List<String> live = new ArrayList<String>();
+                    for ( String key : keys.split( "," ) )
+                    {
+                        live.add( key.trim() );
+                    }
+                    collector.setLiveKeys( live );
+                }
+                String maxAge = getOption( options, "max-age", null );
+                if ( maxAge != null )
+                {
+                    collector.setMaxAge( Long.parseLong( maxAge ) );
+                }
+                out.println( "Collected " + collector.collect() );
+            }
+            else if ( "usage".equals( command ) )
+            {
+                lrm.setDiskUsage( true );
+                DiskUsage usage = lrm.getDiskUsage();
+                String interval = getOption( options, "rescan-interval", String.valueOf( RESCAN_INTERVAL ) );
+                long rescanBefore = System.currentTimeMillis() - Long.parseLong( interval );
+                if ( options.containsKey( "rescan" ) || usage.getLastRescan() < rescanBefore )
+                {
+                    usage.rescan( lrm );
+                }
+                printUsage( usage.read(), Integer.parseInt( getOption( options, "depth", "1" ) ) );
+            }
+            else if ( "reconcile".equals( command ) )
+            {
+                out.println( "Reconciled " + new MetadataReconciler( lrm ).setLogger( logger ).reconcile() );
+            }
+            else if ( "migrate".equals( command ) )
+            {
+                String source = options.get( "source" );
+                if ( source == null )
+                {
+                    err.println( "Missing option: --source" );
+                    usage();
+                    return 1;
+                }
+                boolean link = options.containsKey( "link" );
+                LayoutMigrator migrator = new LayoutMigrator( lrm, new File( source ).getAbsoluteFile() );
+                out.println( "Migrated " + migrator.setLink( link ).setLogger( logger ).migrate() );
+                out.println( "Reconciled " + new MetadataReconciler( lrm ).setLogger( logger ).reconcile() );
+                if ( lrm.getDiskUsage() != null )
+                {
+                    lrm.getDiskUsage().rescan( lrm );
+                }
+                lrm.rebuildBloomFilter();
+            }
+            else if ( "daemon".equals( command ) )
+            {
+                runDaemon( lrm, logger );
+            }
+            else if ( "project".equals( command ) )
+            {
+                String dir = options.get( "dir" );
+                if ( dir != null )
+                {
+                    boolean hardLinks = factory.isHardLinks( getOption( options, "links", "symbolic" ) );
+                    lrm.setProjection( new File( dir ).getAbsoluteFile(), hardLinks );
+                }
+                else if ( lrm.getProjection() == null )
+                {
+                    err.println( "Missing option: --dir" );
+                    usage();
+                    return 1;
+                }
+                out.println( "Projected " + lrm.getProjection().rebuild() );
+            }
+            else if ( "index".equals( command ) )
+            {
+                if ( !( lrm.getStorage() instanceof IndexStorage ) )
+                {
+                    lrm.setIndexStorage();
+                }
+                index( (IndexStorage) lrm.getStorage(), lrm, getOption( options, "action", "import" ) );
+            }
+            else
+            {
+                err.println( "Unknown command: " + command );
+                usage();
+                return 1;
+            }
+            return 0;
+        }
+        catch ( RuntimeException e )
+        {
+            err.println( "Command " + command + " failed: " + e );
+            if ( options.containsKey( "debug" ) )
+            {
+                e.printStackTrace( err );
+            }
+            return 2;
+        }
+        catch ( IOException e )
+        {
+            err.println( "Command " + command + " failed: " + e );
+            if ( options.containsKey( "debug" ) )
+            {
+                e.printStackTrace( err );
+            }
+            return 2;
+        }
+        finally
+        {
+            lrm.close();
+            closed.countDown();
+        }
+    }
+
+    private void runDaemon( SplitLocalRepositoryManager lrm, Logger logger )
+        throws IOException
+    {
+        // leases are taken by the clients for the lifetime of their builds
+        lrm.setLeases( 0 );
+        lrm.setLookupCaching( true );
+        // the caches outlive single builds, so changes by processes bypassing the daemon must reach them
+        lrm.setChangeJournal( true );
+        final RepositoryDaemon daemon = new RepositoryDaemon( lrm ).setLogger( logger );
+        out.println( "Listening on port " + daemon.start() );
+        Runtime.getRuntime().addShutdownHook( new Thread( "split-localrepo-daemon-shutdown" )
+        {
+            @Override
+            public void run()
+            {
+                daemon.stop();
+                try
+                {
+                    // let the main thread close the manager
+                    closed.await( SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    // exit anyway
+                }
+            }
+        } );
+        try
+        {
+            daemon.await();
+        }
+        catch ( InterruptedException e )
+        {
+            daemon.stop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void index( IndexStorage storage, SplitLocalRepositoryManager lrm, String action )
+        throws IOException
+    {
+        if ( "import".equals( action ) )
+        {
+            out.println( "Imported " + storage.importFiles( lrm ) + " tracking files" );
+        }
+        else if ( "export".equals( action ) )
+        {
+            out.println( "Exported " + storage.exportFiles( lrm ) + " tracking files" );
+        }
+        else if ( "compact".equals( action ) )
+        {
+            storage.compact();
+            out.println( "Compacted " + storage.getIndex().getFile() );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown index action: " + action );
+        }
+    }
+
+    private void printUsage( Map<String, long[]> totals, int depth )
+    {
+        Map<String, long[]> aggregated = new TreeMap<String, long[]>();
+        for ( Map.Entry<String, long[]> entry : totals.entrySet() )
+        {
+            String[] segments = entry.getKey().split( "/" );
+            StringBuilder key = new StringBuilder( segments[0] ).append( '/' );
+            for ( int i = 1; i <= depth && i < segments.length; i++ )
+            {
+                key.append( ( i > 1 ) ? "/" : "" ).append( segments[i] );
+            }
+            long[] sum = aggregated.get( key.toString() );
+            if ( sum == null )
+            {
+                sum = new long[2];
+                aggregated.put( key.toString(), sum );
+            }
+            sum[0] += entry.getValue()[0];
+            sum[1] += entry.getValue()[1];
+        }
+        for ( Map.Entry<String, long[]> entry : aggregated.entrySet() )
+        {
+            out.println( String.format( "%-60s %10d files %15d bytes", entry.getKey(), entry.getValue()[0],
+                                        entry.getValue()[1] ) );
+        }
+    }
+
+    private static long getLeaseTtl()
+    {
+        String ttl = System.getProperty( SplitLocalRepositoryManagerFactory.CONFIG_LEASE_TTL );
+        return ( ttl != null ) ? Long.parseLong( ttl.trim() ) : Lease.DEFAULT_TTL;
+    }
+
+    private static String getOption( Map<String, String> options, String key, String defaultValue )
+    {
+        String value = options.get( key );
+        return ( value != null ) ? value : defaultValue;
+    }
+
+    private void usage()
+    {
+        err.println( "Usage: SplitLocalRepositoryTool <command> <basedir> [options]" );
+        err.println( "Commands:" );
+        err.println( "  prune     Deletes all but the latest timestamped snapshots in rs/" );
+        err.println( "            --keep=<n>  The number of builds to retain per snapshot version (default 1)" );
+        err.println( "  cleanup   Deletes snapshot versions that are not leased by running builds" );
+        err.println( "            --tiers=<dirs>  The base directories to clean (default ls,rs)" );
+        err.println( "            --min-age=<ms>  Skips versions modified within this period (default 0)" );
+        err.println( "            --reconcile=<bool>  Reconciles the metadata afterwards (default true)" );
+        err.println( "  reconcile Repairs metadata whose copy in the release or snapshot directories is missing" );
+        err.println( "  gc        Deletes metadata files of remote repository keys that are no longer used" );
+        err.println( "            --live-keys=<keys>  The repository keys to retain regardless of their usage" );
+        err.println( "            --max-age=<ms>  The period after which unused keys are orphaned (default 30 days)" );
+        err.println( "  usage     Prints the disk usage per base directory and groupId prefix" );
+        err.println( "            --depth=<n>  The number of groupId segments to break the usage down by (default 1)" );
+        err.println( "            --rescan  Recalculates the usage instead of relying on the accounting" );
+        err.println( "            --rescan-interval=<ms>  The interval of automatic recalculations (default 7 days)" );
+        err.println( "  migrate   Converts a local repository in the standard layout into the split layout" );
+        err.println( "            --source=<dir>  The base directory of the repository to convert (required)" );
+        err.println( "            --link  Hard links the files instead of moving them" );
+        err.println( "  daemon    Serves the local repository to builds using aether.splitLocalRepo.daemon=true" );
+        err.println( "  project   Rebuilds the view of the repository in the standard layout" );
+        err.println( "            --dir=<dir>  The directory of the view (default from projectionDir)" );
+        err.println( "            --links=<type>  symbolic (default) or hard links" );
+        err.println( "  index     Maintains the tracking index used by aether.splitLocalRepo.storage=index" );
+        err.println( "            --action=<action>  import, export or compact the index (default import)" );
+        err.println( "Options:" );
+        err.println( "  --debug   Prints debug messages" );
+    }
+
+    class ConsoleLogger
+        implements Logger
+    {
+
+        private final boolean debug;
+
+        ConsoleLogger( boolean debug )
+        {
+            this.debug = debug;
+        }
+
+        public boolean isDebugEnabled()
+        {
+            return debug;
+        }
+
+        public void debug( String msg )
+        {
+            debug( msg, null );
+        }
+
+        public void debug( String msg, Throwable error )
+        {
+            if ( debug )
+            {
+                out.println( "[DEBUG] " + msg );
+                if ( error != null )
+                {
+                    error.printStackTrace( out );
+                }
+            }
+        }
+
+        public boolean isWarnEnabled()
+        {
+            return true;
+        }
+
+        public void warn( String msg )
+        {
+            warn( msg, null );
+        }
+
+        public void warn( String msg, Throwable error )
+        {
+            err.println( "[WARN] " + msg );
+            if ( error != null && debug )
+            {
+                error.printStackTrace( err );
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,80 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+
+import org.sonatype.aether.metadata.Metadata;
+
+/**
+ * Stores the files managed by the local repository, i.e. the resolution tracking files and the metadata files that
+ * the local repository itself derives (backups and repaired copies). Artifacts and the metadata registered by the
+ * repository system are written by the latter directly to the paths reported by the local repository and hence only
+ * get checked for existence.
+ */
+interface Storage
+{
+
+    /**
+     * Tests whether the specified artifact/metadata file exists.
+     */
+    boolean isFile( File file );
+
+    /**
+     * Reads the specified resolution tracking file.
+     *
+     * @param file The tracking file, must not be {@code null}.
+     * @return The tracked properties or {@code null} if the tracking file does not exist or could not be read.
+     */
+    Properties readTracking( File file );
+
+    /**
+     * Applies the specified updates to the resolution tracking file. A {@code null} value removes the key.
+     *
+     * @param file The tracking file, must not be {@code null}.
+     * @param updates The updates to apply, must not be {@code null}.
+     * @return The updated properties, never {@code null}.
+     */
+    Properties updateTracking( File file, Map<String, String> updates );
+
+    /**
+     * Applies the specified updates to the resolution tracking file and reports its previous contents. Unlike a
+     * separate read before the update, the previous contents are captured while the update holds the lock on the
+     * tracking data, so concurrent updates by other processes are observed exactly once.
+     *
+     * @param file The tracking file, must not be {@code null}.
+     * @param updates The updates to apply, must not be {@code null}.
+     * @param previous Receives the tracked properties before the update, may be {@code null}.
+     * @return The updated properties, never {@code null}.
+     */
+    Properties updateTracking( File file, Map<String, String> updates, Properties previous );
+
+    /**
+     * Writes a copy of the source metadata to the destination that contains only releases/snapshots.
+     *
+     * @see MetadataUtils#repair(Metadata, File, File, boolean, boolean)
+     */
+    void repairMetadata( Metadata metadata, File src, File dst, boolean purgeSnapshots, boolean purgeReleases )
+        throws IOException;
+
+    /**
+     * Atomically copies the specified metadata file.
+     */
+    void copyMetadata( File src, File dst )
+        throws IOException;
+
+    /**
+     * Releases any resources held by this storage.
+     */
+    void close();
+
+}
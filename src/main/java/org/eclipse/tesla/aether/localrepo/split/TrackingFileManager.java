@@ -15,45 +15,112 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.channels.FileLock;
-import java.nio.channels.OverlappingFileLockException;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.eclipse.tesla.aether.localrepo.split.Instrumentation.Span;
 import org.sonatype.aether.spi.log.Logger;
 import org.sonatype.aether.spi.log.NullLogger;
 
 /**
- * Manages potentially concurrent accesses to a properties file.
+ * Manages potentially concurrent accesses to a properties file. In read-only mode, files are read without any locking
+ * and cached since nobody is expected to modify them.
  */
 class TrackingFileManager
 {
 
+    private static final Properties MISSING = new Properties();
+
     private Logger logger = NullLogger.INSTANCE;
 
+    private LockStrategy lockStrategy = new FileLockStrategy();
+
+    private FileAccess fileAccess = DefaultFileAccess.INSTANCE;
+
+    private ConcurrentMap<File, Properties> cache;
+
+    private Instrumentation instrumentation = Instrumentation.NONE;
+
     public TrackingFileManager setLogger( Logger logger )
     {
         this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
         return this;
     }
 
+    public TrackingFileManager setLockStrategy( LockStrategy lockStrategy )
+    {
+        this.lockStrategy = ( lockStrategy != null ) ? lockStrategy : new FileLockStrategy();
+        return this;
+    }
+
+    public TrackingFileManager setFileAccess( FileAccess fileAccess )
+    {
+        this.fileAccess = ( fileAccess != null ) ? fileAccess : DefaultFileAccess.INSTANCE;
+        return this;
+    }
+
+    public TrackingFileManager setInstrumentation( Instrumentation instrumentation )
+    {
+        this.instrumentation = ( instrumentation != null ) ? instrumentation : Instrumentation.NONE;
+        return this;
+    }
+
+    /**
+     * Enables the read-only mode. In this mode, {@link #read(File)} returns shared instances that must not be modified
+     * by the caller and {@link #update(File, Map)} is rejected.
+     *
+     * @param readOnly {@code true} to enable the read-only mode, {@code false} otherwise.
+     * @return This manager for chaining, never {@code null}.
+     */
+    public TrackingFileManager setReadOnly( boolean readOnly )
+    {
+        this.cache = readOnly ? new ConcurrentHashMap<File, Properties>() : null;
+        return this;
+    }
+
     public Properties read( File file )
     {
+        if ( cache != null )
+        {
+            return readCached( file );
+        }
+
+        Span span = instrumentation.begin( Instrumentation.TRACKING_READ );
+        try
+        {
+            return read( file, span );
+        }
+        finally
+        {
+            span.end();
+        }
+    }
+
+    private Properties read( File file, Span span )
+    {
+        long start = System.nanoTime();
         synchronized ( getLock( file ) )
         {
-            FileLock lock = null;
+            Closeable lock = null;
             FileInputStream stream = null;
             try
             {
-                if ( !file.exists() )
+                if ( !fileAccess.exists( file ) )
                 {
                     return null;
                 }
 
-                stream = new FileInputStream( file );
+                stream = fileAccess.openInput( file );
 
-                lock = lock( stream.getChannel(), Math.max( 1, file.length() ), true );
+                lock = lockStrategy.lock( file, stream.getChannel(), true );
+
+                if ( span != Span.NONE )
+                {
+                    span.set( "path", file.getPath() ).set( "lockWait", System.nanoTime() - start );
+                    span.set( "bytes", stream.getChannel().size() );
+                }
 
                 Properties props = new Properties();
                 props.load( stream );
@@ -74,25 +141,89 @@ class TrackingFileManager
         return null;
     }
 
+    private Properties readCached( File file )
+    {
+        Properties props = cache.get( file );
+        if ( props == null )
+        {
+            props = MISSING;
+            if ( fileAccess.isFile( file ) )
+            {
+                FileInputStream stream = null;
+                try
+                {
+                    stream = fileAccess.openInput( file );
+                    props = new Properties();
+                    props.load( stream );
+                }
+                catch ( IOException e )
+                {
+                    logger.warn( "Failed to read resolution tracking file " + file, e );
+                    return null;
+                }
+                finally
+                {
+                    close( stream, file );
+                }
+            }
+            cache.put( file, props );
+        }
+        return ( props != MISSING ) ? props : null;
+    }
+
     public Properties update( File file, Map<String, String> updates )
+    {
+        return update( file, updates, null );
+    }
+
+    /**
+     * Applies the specified updates to the tracking file.
+     *
+     * @param file The tracking file, must not be {@code null}.
+     * @param updates The updates to apply, a {@code null} value removes the property. Must not be {@code null}.
+     * @param previous Receives the properties as read while holding the lock, before the update, may be {@code null}.
+     * @return The updated properties, never {@code null}.
+     */
+    public Properties update( File file, Map<String, String> updates, Properties previous )
+    {
+        if ( cache != null )
+        {
+            throw new UnsupportedOperationException( "Cannot update resolution tracking file " + file
+                + " in read-only mode" );
+        }
+
+        Span span = instrumentation.begin( Instrumentation.TRACKING_UPDATE );
+        try
+        {
+            return update( file, updates, previous, span );
+        }
+        finally
+        {
+            span.end();
+        }
+    }
+
+    private Properties update( File file, Map<String, String> updates, Properties previous, Span span )
     {
         Properties props = new Properties();
 
+        long start = System.nanoTime();
         synchronized ( getLock( file ) )
         {
             File directory = file.getParentFile();
-            if ( !directory.mkdirs() && !directory.exists() )
+            if ( !fileAccess.mkdirs( directory ) )
             {
                 logger.warn( "Failed to create parent directories for resolution tracking file " + file );
                 return props;
             }
 
             RandomAccessFile raf = null;
-            FileLock lock = null;
+            Closeable lock = null;
             try
             {
-                raf = new RandomAccessFile( file, "rw" );
-                lock = lock( raf.getChannel(), Math.max( 1, raf.length() ), false );
+                raf = fileAccess.openRandomAccess( file );
+                lock = lockStrategy.lock( file, raf.getChannel(), false );
+                span.set( "path", file.getPath() ).set( "lockWait", System.nanoTime() - start );
 
                 if ( file.canRead() )
                 {
@@ -104,6 +235,10 @@ class TrackingFileManager
 
                     props.load( stream );
                 }
+                if ( previous != null )
+                {
+                    previous.putAll( props );
+                }
 
                 for ( Map.Entry<String, String> update : updates.entrySet() )
                 {
@@ -126,6 +261,7 @@ class TrackingFileManager
                 raf.seek( 0 );
                 raf.write( stream.toByteArray() );
                 raf.setLength( raf.getFilePointer() );
+                span.set( "bytes", stream.size() );
             }
             catch ( IOException e )
             {
@@ -141,13 +277,13 @@ class TrackingFileManager
         return props;
     }
 
-    private void release( FileLock lock, File file )
+    private void release( Closeable lock, File file )
     {
         if ( lock != null )
         {
             try
             {
-                lock.release();
+                lock.close();
             }
             catch ( IOException e )
             {
@@ -189,41 +325,4 @@ class TrackingFileManager
         }
     }
 
-    private FileLock lock( FileChannel channel, long size, boolean shared )
-        throws IOException
-    {
-        FileLock lock = null;
-
-        for ( int attempts = 8; attempts >= 0; attempts-- )
-        {
-            try
-            {
-                lock = channel.lock( 0, size, shared );
-                break;
-            }
-            catch ( OverlappingFileLockException e )
-            {
-                if ( attempts <= 0 )
-                {
-                    throw (IOException) new IOException().initCause( e );
-                }
-                try
-                {
-                    Thread.sleep( 50 );
-                }
-                catch ( InterruptedException e1 )
-                {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
-
-        if ( lock == null )
-        {
-            throw new IOException( "Could not lock file" );
-        }
-
-        return lock;
-    }
-
 }
@@ -0,0 +1,774 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+import org.sonatype.aether.spi.log.Logger;
+import org.sonatype.aether.spi.log.NullLogger;
+
+/**
+ * A memory-mapped index of resolution tracking data that replaces the tracking files spread over the version
+ * directories by a single file. The file starts with a header, followed by an open-addressing hash table whose slots
+ * point at the latest record of each key, followed by an append-only log of records. Each record holds the full
+ * tracking data of one key (i.e. one tracking file), a pointer to the previous record of the key and a checksum.
+ * <p>
+ * Writers serialize via a lock file and append a record before they publish it in the hash table, so readers never
+ * need a lock: they follow the slot of a key and skip records whose checksum does not match. Before a writer updates
+ * the hash table, it notes the intended changes in the header so that the next writer can complete an update that
+ * was interrupted by a crash. Superseded records are reclaimed by compaction, which rewrites the live records into a
+ * new file that atomically replaces the old one. Processes still mapping the old file notice this via a flag in its
+ * header and reopen the index. The fields of the header and the slots are aligned to their size, so a record pointer
+ * never straddles a cache line.
+ */
+class TrackingIndex
+{
+
+    private static final int MAGIC = 0x53504C54;
+
+    private static final int VERSION = 1;
+
+    private static final int MAGIC_OFFSET = 0;
+
+    private static final int VERSION_OFFSET = 4;
+
+    private static final int CAPACITY_OFFSET = 8;
+
+    private static final int REPLACED_OFFSET = 12;
+
+    private static final int COMMITTED_OFFSET = 16;
+
+    private static final int GARBAGE_OFFSET = 24;
+
+    private static final int COUNT_OFFSET = 32;
+
+    private static final int PENDING_OFFSET = 36;
+
+    private static final int PENDING_SLOT_OFFSET = 40;
+
+    private static final int PENDING_COUNT_OFFSET = 44;
+
+    private static final int PENDING_RECORD_OFFSET = 48;
+
+    private static final int PENDING_GARBAGE_OFFSET = 56;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final int SLOT_RECORD_OFFSET = 8;
+
+    private static final int MIN_CAPACITY = 1 << 12;
+
+    private static final long MIN_COMPACTION = 1024 * 1024;
+
+    private final File file;
+
+    private final File lockFile;
+
+    private final LockStrategy lockStrategy;
+
+    private final int initialCapacity;
+
+    private File basedir;
+
+    private Logger logger = NullLogger.INSTANCE;
+
+    private RandomAccessFile raf;
+
+    private volatile MappedByteBuffer buffer;
+
+    /**
+     * Creates a new index.
+     *
+     * @param file The index file, must not be {@code null}. The file is created upon the first update.
+     * @param lockFile The file used to serialize updates among processes, must not be {@code null}.
+     * @param lockStrategy The strategy used to lock the lock file, must not be {@code null}.
+     * @param initialCapacity The expected number of keys.
+     */
+    public TrackingIndex( File file, File lockFile, LockStrategy lockStrategy, int initialCapacity )
+    {
+        this.file = file;
+        this.lockFile = lockFile;
+        this.lockStrategy = lockStrategy;
+        this.initialCapacity = getCapacity( initialCapacity );
+    }
+
+    public TrackingIndex setLogger( Logger logger )
+    {
+        this.logger = ( logger != null ) ? logger : NullLogger.INSTANCE;
+        return this;
+    }
+
+    /**
+     * Sets the base directory against which relative keys resolve to tracking files. If set, an explicit compaction
+     * drops the records of tracking files whose directory no longer exists, e.g. after the version was deleted.
+     *
+     * @param basedir The base directory of the repository, may be {@code null} to retain all records.
+     * @return This index for chaining, never {@code null}.
+     */
+    public TrackingIndex setBasedir( File basedir )
+    {
+        this.basedir = basedir;
+        return this;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    private static int getCapacity( int keys )
+    {
+        int capacity = MIN_CAPACITY;
+        while ( capacity < keys / 3 * 4 && capacity < ( 1 << 28 ) )
+        {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash( String key )
+    {
+        int h = key.hashCode();
+        h ^= ( h >>> 16 );
+        // zero marks an empty slot
+        return ( h != 0 ) ? h : 1;
+    }
+
+    /**
+     * Gets the tracking data of the specified key.
+     *
+     * @param key The key, must not be {@code null}.
+     * @return The tracking data or {@code null} if the index holds no record for the key.
+     */
+    public Properties get( String key )
+    {
+        ByteBuffer b = getBuffer();
+        if ( b == null )
+        {
+            return null;
+        }
+        Record record = find( b, key );
+        return ( record != null ) ? record.props : null;
+    }
+
+    /**
+     * Applies the specified updates to the tracking data of the specified key.
+     *
+     * @param key The key, must not be {@code null}.
+     * @param updates The updates to apply, a {@code null} value removes the property. Must not be {@code null}.
+     * @param base The tracking data to update if the index holds no record for the key yet, may be {@code null}.
+     * @return The updated tracking data, never {@code null}.
+     * @throws IOException If the index could not be updated.
+     */
+    public Properties update( String key, Map<String, String> updates, Properties base )
+        throws IOException
+    {
+        return update( key, updates, base, null );
+    }
+
+    /**
+     * Applies the specified updates to the tracking data of the specified key.
+     *
+     * @param key The key, must not be {@code null}.
+     * @param updates The updates to apply, a {@code null} value removes the property. Must not be {@code null}.
+     * @param base The tracking data to update if the index holds no record for the key yet, may be {@code null}.
+     * @param previous Receives the tracking data before the update, may be {@code null}.
+     * @return The updated tracking data, never {@code null}.
+     * @throws IOException If the index could not be updated.
+     */
+    public Properties update( String key, Map<String, String> updates, Properties base, Properties previous )
+        throws IOException
+    {
+        synchronized ( this )
+        {
+            LockFile lock = LockFile.acquire( lockFile, lockStrategy );
+            try
+            {
+                ByteBuffer b = openForWrite();
+                Record current = find( b, key );
+                Properties props = new Properties();
+                if ( current != null )
+                {
+                    props.putAll( current.props );
+                }
+                else if ( base != null )
+                {
+                    props.putAll( base );
+                }
+                if ( previous != null )
+                {
+                    previous.putAll( props );
+                }
+                for ( Map.Entry<String, String> update : updates.entrySet() )
+                {
+                    if ( update.getValue() == null )
+                    {
+                        props.remove( update.getKey() );
+                    }
+                    else
+                    {
+                        props.setProperty( update.getKey(), update.getValue() );
+                    }
+                }
+                put( key, props );
+                return props;
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Replaces the tracking data of the specified keys, e.g. to import tracking files.
+     *
+     * @param entries The tracking data to store, keyed by their keys, must not be {@code null}.
+     * @throws IOException If the index could not be updated.
+     */
+    public void putAll( Map<String, Properties> entries )
+        throws IOException
+    {
+        if ( entries.isEmpty() )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            LockFile lock = LockFile.acquire( lockFile, lockStrategy );
+            try
+            {
+                openForWrite();
+                for ( Map.Entry<String, Properties> entry : entries.entrySet() )
+                {
+                    put( entry.getKey(), entry.getValue() );
+                }
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Gets the keys of all records in the index.
+     *
+     * @return The keys, never {@code null}.
+     */
+    public List<String> getKeys()
+    {
+        List<String> keys = new ArrayList<String>();
+        ByteBuffer b = getBuffer();
+        if ( b != null )
+        {
+            int capacity = b.getInt( CAPACITY_OFFSET );
+            for ( int i = 0; i < capacity; i++ )
+            {
+                Record record = readChain( b, i );
+                if ( record != null )
+                {
+                    keys.add( record.key );
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Rewrites the index without the superseded records and without the records of tracking files whose directory no
+     * longer exists (if a base directory is set).
+     *
+     * @throws IOException If the index could not be compacted.
+     */
+    public void compact()
+        throws IOException
+    {
+        synchronized ( this )
+        {
+            LockFile lock = LockFile.acquire( lockFile, lockStrategy );
+            try
+            {
+                ByteBuffer b = openForWrite();
+                compact( b, b.getInt( CAPACITY_OFFSET ), basedir != null );
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+    }
+
+    public synchronized void close()
+    {
+        if ( buffer != null )
+        {
+            buffer.force();
+            buffer = null;
+        }
+        closeFile();
+    }
+
+    private void closeFile()
+    {
+        if ( raf != null )
+        {
+            try
+            {
+                raf.close();
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Could not close tracking index " + file + ": " + e );
+            }
+            raf = null;
+        }
+    }
+
+    /**
+     * Gets the mapping of the index for reading, reopening the index if it was replaced or grown by another process.
+     */
+    private ByteBuffer getBuffer()
+    {
+        MappedByteBuffer b = buffer;
+        if ( b != null && b.getInt( REPLACED_OFFSET ) == 0 && b.getLong( COMMITTED_OFFSET ) <= b.capacity() )
+        {
+            return b;
+        }
+        synchronized ( this )
+        {
+            try
+            {
+                return open( false );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Could not open tracking index " + file + ": " + e );
+                return null;
+            }
+        }
+    }
+
+    private ByteBuffer openForWrite()
+        throws IOException
+    {
+        ByteBuffer b = open( true );
+        recover( b );
+        return b;
+    }
+
+    /**
+     * (Re-)opens the index if necessary. Must be called while holding the monitor of this index.
+     */
+    private ByteBuffer open( boolean create )
+        throws IOException
+    {
+        MappedByteBuffer b = buffer;
+        if ( b != null && b.getInt( REPLACED_OFFSET ) != 0 )
+        {
+            buffer = b = null;
+            closeFile();
+        }
+        if ( b == null )
+        {
+            if ( !file.isFile() )
+            {
+                if ( !create )
+                {
+                    return null;
+                }
+                create( file, initialCapacity );
+            }
+            raf = new RandomAccessFile( file, file.canWrite() ? "rw" : "r" );
+            b = map();
+            if ( b.getInt( MAGIC_OFFSET ) != MAGIC || b.getInt( VERSION_OFFSET ) != VERSION )
+            {
+                closeFile();
+                throw new IOException( "Unsupported format of tracking index " + file );
+            }
+            buffer = b;
+        }
+        else if ( b.getLong( COMMITTED_OFFSET ) > b.capacity() )
+        {
+            buffer = b = map();
+        }
+        return b;
+    }
+
+    private MappedByteBuffer map()
+        throws IOException
+    {
+        boolean writable = file.canWrite();
+        return raf.getChannel().map( writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0,
+                                     raf.length() );
+    }
+
+    private static void create( File file, int capacity )
+        throws IOException
+    {
+        File directory = file.getParentFile();
+        if ( !directory.mkdirs() && !directory.exists() )
+        {
+            throw new IOException( "Could not create directory " + directory );
+        }
+        File tmp = new File( file.getPath() + ".tmp" );
+        RandomAccessFile raf = new RandomAccessFile( tmp, "rw" );
+        try
+        {
+            long logStart = getLogStart( capacity );
+            raf.setLength( logStart + MIN_COMPACTION );
+            raf.seek( 0 );
+            raf.writeInt( MAGIC );
+            raf.writeInt( VERSION );
+            raf.writeInt( capacity );
+            raf.writeInt( 0 );
+            raf.writeLong( logStart );
+        }
+        finally
+        {
+            raf.close();
+        }
+        if ( !tmp.renameTo( file ) && ( !file.delete() || !tmp.renameTo( file ) ) )
+        {
+            throw new IOException( "Could not rename " + tmp + " to " + file );
+        }
+    }
+
+    private static long getLogStart( int capacity )
+    {
+        return HEADER_SIZE + (long) capacity * SLOT_SIZE;
+    }
+
+    private static int getSlotOffset( int slot )
+    {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Completes the publication of a record whose writer crashed before it updated the hash table.
+     */
+    private void recover( ByteBuffer b )
+    {
+        if ( b.getInt( PENDING_OFFSET ) == 0 )
+        {
+            return;
+        }
+        long offset = b.getLong( PENDING_RECORD_OFFSET );
+        Record record = read( b, offset );
+        if ( record != null && record.valid )
+        {
+            logger.debug( "Completing interrupted update of tracking index " + file );
+            publish( b, b.getInt( PENDING_SLOT_OFFSET ), hash( record.key ), offset,
+                     b.getInt( PENDING_COUNT_OFFSET ), b.getLong( PENDING_GARBAGE_OFFSET ) );
+        }
+        else
+        {
+            logger.debug( "Discarding incomplete update of tracking index " + file );
+            b.putLong( COMMITTED_OFFSET, offset );
+            b.putInt( PENDING_OFFSET, 0 );
+        }
+    }
+
+    private static void publish( ByteBuffer b, int slot, int hash, long offset, int count, long garbage )
+    {
+        int slotOffset = getSlotOffset( slot );
+        b.putLong( slotOffset + SLOT_RECORD_OFFSET, offset );
+        b.putInt( slotOffset, hash );
+        b.putInt( COUNT_OFFSET, count );
+        b.putLong( GARBAGE_OFFSET, garbage );
+        b.putInt( PENDING_OFFSET, 0 );
+    }
+
+    private Record find( ByteBuffer b, String key )
+    {
+        int capacity = b.getInt( CAPACITY_OFFSET );
+        int h = hash( key );
+        for ( int i = 0, slot = h & ( capacity - 1 ); i < capacity; i++, slot = ( slot + 1 ) & ( capacity - 1 ) )
+        {
+            int slotHash = b.getInt( getSlotOffset( slot ) );
+            if ( slotHash == 0 )
+            {
+                return null;
+            }
+            if ( slotHash == h )
+            {
+                Record record = readChain( b, slot );
+                if ( record != null && record.key.equals( key ) )
+                {
+                    record.slot = slot;
+                    return record;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the latest intact record of the specified slot.
+     */
+    private Record readChain( ByteBuffer b, int slot )
+    {
+        long offset = b.getLong( getSlotOffset( slot ) + SLOT_RECORD_OFFSET );
+        while ( offset > 0 )
+        {
+            Record record = read( b, offset );
+            if ( record == null )
+            {
+                return null;
+            }
+            if ( record.valid )
+            {
+                return record;
+            }
+            offset = record.prev;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the record at the specified offset. A record whose checksum does not match is returned as invalid if at
+     * least its pointer to the previous record could be read.
+     */
+    private Record read( ByteBuffer b, long offset )
+    {
+        if ( offset + 8 > b.capacity() )
+        {
+            return null;
+        }
+        int length = b.getInt( (int) offset );
+        if ( length < 8 || offset + 8 + length > b.capacity() )
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = b.duplicate();
+        ( (Buffer) view ).position( (int) offset + 4 );
+        view.get( bytes );
+        CRC32 crc = new CRC32();
+        crc.update( bytes );
+        Record record = new Record();
+        record.offset = offset;
+        record.size = 8 + length;
+        try
+        {
+            DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+            record.prev = in.readLong();
+            if ( (int) crc.getValue() != view.getInt() )
+            {
+                return record;
+            }
+            record.key = in.readUTF();
+            int count = in.readInt();
+            record.props = new Properties();
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = in.readUTF();
+                record.props.setProperty( name, in.readUTF() );
+            }
+            record.valid = true;
+        }
+        catch ( IOException e )
+        {
+            record.valid = false;
+        }
+        return record;
+    }
+
+    /**
+     * Appends a record for the specified key and publishes it. Must be called while holding the lock.
+     */
+    private void put( String key, Properties props )
+        throws IOException
+    {
+        ByteBuffer b = buffer;
+        Record current = find( b, key );
+        int capacity = b.getInt( CAPACITY_OFFSET );
+        if ( current == null && ( b.getInt( COUNT_OFFSET ) + 1 ) * 4L > capacity * 3L )
+        {
+            b = compact( b, capacity * 2, false );
+            capacity = b.getInt( CAPACITY_OFFSET );
+        }
+
+        int slot;
+        long prev;
+        int h = hash( key );
+        if ( current != null )
+        {
+            slot = current.slot;
+            prev = b.getLong( getSlotOffset( slot ) + SLOT_RECORD_OFFSET );
+        }
+        else
+        {
+            slot = h & ( capacity - 1 );
+            while ( b.getInt( getSlotOffset( slot ) ) != 0 )
+            {
+                slot = ( slot + 1 ) & ( capacity - 1 );
+            }
+            prev = 0;
+        }
+
+        byte[] bytes = encode( prev, key, props );
+        long offset = b.getLong( COMMITTED_OFFSET );
+        if ( offset + bytes.length > b.capacity() )
+        {
+            long length = raf.length();
+            if ( offset + bytes.length > length )
+            {
+                raf.setLength( Math.max( offset + bytes.length, length * 2 ) );
+            }
+            buffer = map();
+            b = buffer;
+        }
+
+        ByteBuffer view = b.duplicate();
+        ( (Buffer) view ).position( (int) offset );
+        view.put( bytes );
+
+        int count = b.getInt( COUNT_OFFSET ) + ( ( current != null ) ? 0 : 1 );
+        long garbage = b.getLong( GARBAGE_OFFSET ) + ( ( current != null ) ? current.size : 0 );
+        b.putInt( PENDING_SLOT_OFFSET, slot );
+        b.putLong( PENDING_RECORD_OFFSET, offset );
+        b.putInt( PENDING_COUNT_OFFSET, count );
+        b.putLong( PENDING_GARBAGE_OFFSET, garbage );
+        b.putInt( PENDING_OFFSET, 1 );
+        b.putLong( COMMITTED_OFFSET, offset + bytes.length );
+        publish( b, slot, h, offset, count, garbage );
+
+        if ( garbage > MIN_COMPACTION && garbage * 2 > b.getLong( COMMITTED_OFFSET ) - getLogStart( capacity ) )
+        {
+            compact( b, capacity, false );
+        }
+    }
+
+    private static byte[] encode( long prev, String key, Properties props )
+        throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0 );
+        out.writeLong( prev );
+        out.writeUTF( key );
+        out.writeInt( props.size() );
+        for ( Map.Entry<Object, Object> entry : props.entrySet() )
+        {
+            out.writeUTF( entry.getKey().toString() );
+            out.writeUTF( entry.getValue().toString() );
+        }
+        out.writeInt( 0 );
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        int length = record.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update( record, 4, length );
+        ByteBuffer.wrap( record ).putInt( 0, length ).putInt( 4 + length, (int) crc.getValue() );
+        return record;
+    }
+
+    /**
+     * Rewrites the live records into a new file that replaces the current one. Must be called while holding the lock.
+     * Checking the directories of the records is left to explicit compactions, updates must not wait for it.
+     */
+    private ByteBuffer compact( ByteBuffer b, int capacity, boolean pruneDeleted )
+        throws IOException
+    {
+        logger.debug( "Compacting tracking index " + file );
+        File tmp = new File( file.getPath() + ".compact" );
+        tmp.delete();
+        TrackingIndex compacted = new TrackingIndex( tmp, lockFile, lockStrategy, 0 );
+        compacted.setLogger( logger );
+        create( tmp, capacity );
+        try
+        {
+            compacted.open( false );
+            int oldCapacity = b.getInt( CAPACITY_OFFSET );
+            for ( int i = 0; i < oldCapacity; i++ )
+            {
+                Record record = readChain( b, i );
+                if ( record == null )
+                {
+                    continue;
+                }
+                if ( pruneDeleted && !isDirectory( record.key ) )
+                {
+                    logger.debug( "Dropping tracking data of deleted directory from index: " + record.key );
+                    continue;
+                }
+                compacted.put( record.key, record.props );
+            }
+            compacted.buffer.force();
+        }
+        finally
+        {
+            compacted.close();
+        }
+
+        // tell other processes to reopen before the file gets replaced
+        b.putInt( REPLACED_OFFSET, 1 );
+        buffer.force();
+        if ( !tmp.renameTo( file ) && ( !file.delete() || !tmp.renameTo( file ) ) )
+        {
+            throw new IOException( "Could not rename " + tmp + " to " + file );
+        }
+        buffer = null;
+        closeFile();
+        return open( false );
+    }
+
+    /**
+     * Determines whether the directory of the tracking file with the specified key still exists.
+     */
+    private boolean isDirectory( String key )
+    {
+        File trackingFile = new File( key.replace( '/', File.separatorChar ) );
+        if ( !trackingFile.isAbsolute() )
+        {
+            trackingFile = new File( basedir, trackingFile.getPath() );
+        }
+        File directory = trackingFile.getParentFile();
+        return directory == null || directory.isDirectory();
+    }
+
+    static class Record
+    {
+
+        long offset;
+
+        int size;
+
+        long prev;
+
+        boolean valid;
+
+        String key;
+
+        Properties props;
+
+        int slot;
+
+    }
+
+}
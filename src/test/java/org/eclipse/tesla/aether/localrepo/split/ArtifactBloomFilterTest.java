@@ -0,0 +1,131 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class ArtifactBloomFilterTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private File getFile()
+    {
+        return new File( tempDir.getRoot(), ".index/artifacts.bloom" );
+    }
+
+    private ArtifactBloomFilter newFilter()
+    {
+        return new ArtifactBloomFilter( getFile(), new File( tempDir.getRoot(), ".locks/artifacts.lock" ),
+                                        new FileLockStrategy(), 1000, 0 );
+    }
+
+    @Test
+    public void testUnpopulatedFilterContainsEverything()
+    {
+        ArtifactBloomFilter filter = newFilter();
+        assertFalse( filter.load() );
+        assertFalse( filter.isReady() );
+        assertTrue( filter.mightContain( "rr/g/a/1/a-1.jar" ) );
+    }
+
+    @Test
+    public void testRebuildAndAdd()
+        throws Exception
+    {
+        File dir = tempDir.newFolder( "rr" );
+        new File( dir, "g/a/1" ).mkdirs();
+        new File( dir, "g/a/1/a-1.jar" ).createNewFile();
+
+        ArtifactBloomFilter filter = newFilter();
+        filter.load();
+        filter.rebuild( new String[] { "rr/" }, new File[] { dir } );
+        assertTrue( filter.isReady() );
+        assertTrue( getFile().isFile() );
+
+        assertTrue( filter.mightContain( "rr/g/a/1/a-1.jar" ) );
+        assertFalse( filter.mightContain( "rr/g/a/2/a-2.jar" ) );
+
+        filter.add( "rr/g/a/2/a-2.jar" );
+        assertTrue( filter.mightContain( "rr/g/a/2/a-2.jar" ) );
+
+        ArtifactBloomFilter reloaded = newFilter();
+        assertTrue( reloaded.load() );
+        assertTrue( reloaded.mightContain( "rr/g/a/1/a-1.jar" ) );
+        assertTrue( reloaded.mightContain( "rr/g/a/2/a-2.jar" ) );
+        assertFalse( reloaded.mightContain( "rr/g/a/3/a-3.jar" ) );
+    }
+
+    @Test
+    public void testRefreshPicksUpAdditionsOfOtherInstances()
+        throws Exception
+    {
+        ArtifactBloomFilter filter1 = newFilter();
+        filter1.load();
+        filter1.rebuild( new String[0], new File[0] );
+
+        ArtifactBloomFilter filter2 = newFilter();
+        assertTrue( filter2.load() );
+        assertFalse( filter2.mightContain( "rs/g/a/1-SNAPSHOT/a-1-SNAPSHOT.jar" ) );
+
+        filter1.add( "rs/g/a/1-SNAPSHOT/a-1-SNAPSHOT.jar" );
+
+        assertTrue( filter2.mightContain( "rs/g/a/1-SNAPSHOT/a-1-SNAPSHOT.jar" ) );
+    }
+
+    @Test
+    public void testAdditionsOfInstancesInSameJvmAreMerged()
+        throws Exception
+    {
+        ArtifactBloomFilter filter1 = newFilter();
+        filter1.load();
+        filter1.rebuild( new String[0], new File[0] );
+
+        ArtifactBloomFilter filter2 = newFilter();
+        assertTrue( filter2.load() );
+
+        filter1.add( "rr/g/a/1/a-1.jar" );
+        filter2.add( "rr/g/a/2/a-2.jar" );
+
+        ArtifactBloomFilter reloaded = newFilter();
+        assertTrue( reloaded.load() );
+        assertTrue( reloaded.mightContain( "rr/g/a/1/a-1.jar" ) );
+        assertTrue( reloaded.mightContain( "rr/g/a/2/a-2.jar" ) );
+    }
+
+    @Test
+    public void testFailedWritesAreRetried()
+        throws Exception
+    {
+        ArtifactBloomFilter filter = newFilter();
+        filter.load();
+        filter.rebuild( new String[0], new File[0] );
+
+        File saved = new File( tempDir.getRoot(), "saved.bloom" );
+        assertTrue( getFile().renameTo( saved ) );
+        filter.add( "rr/g/a/1/a-1.jar" );
+        assertTrue( saved.renameTo( getFile() ) );
+
+        filter.add( "rr/g/a/1/a-1.jar" );
+
+        ArtifactBloomFilter reloaded = newFilter();
+        assertTrue( reloaded.load() );
+        assertTrue( reloaded.mightContain( "rr/g/a/1/a-1.jar" ) );
+    }
+
+}
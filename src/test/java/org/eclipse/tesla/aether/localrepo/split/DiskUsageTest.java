@@ -0,0 +1,143 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class DiskUsageTest
+{
+
+    private static final String RR = SplitLocalRepositoryManager.REMOTE_RELEASES;
+
+    private static final String RS = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS;
+
+    private static final String LR = SplitLocalRepositoryManager.LOCAL_RELEASES;
+
+    private static final String LS = SplitLocalRepositoryManager.LOCAL_SNAPSHOTS;
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setDiskUsage( true );
+    }
+
+    private File write( String path, int length )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", new String( new char[length] ).replace( '\0', 'x' ) );
+        return file;
+    }
+
+    private long[] get( String key )
+    {
+        SplitLocalRepositoryManager other = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        long[] usage = other.setDiskUsage( true ).getDiskUsage().read().get( key );
+        return ( usage != null ) ? usage : new long[2];
+    }
+
+    @Test
+    public void testGetKey()
+    {
+        assertEquals( "rr/org/apache/maven", DiskUsage.getKey( RR, "org/apache/maven/plugins/p/2.3/p-2.3.jar" ) );
+        assertEquals( "rr/org/apache", DiskUsage.getKey( RR, "org/apache/a/1.0/a-1.0.jar" ) );
+        assertEquals( "rr/junit", DiskUsage.getKey( RR, "junit/junit/4.8/junit-4.8.jar" ) );
+        assertEquals( "rr/g", DiskUsage.getKey( RR, "g/a/maven-metadata-central.xml" ) );
+        assertEquals( "rr/", DiskUsage.getKey( RR, "file.txt" ) );
+    }
+
+    @Test
+    public void testRegistrationsAreAccountedOnce()
+        throws Exception
+    {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+        RemoteRepository mirror = new RemoteRepository( "mirror", "default", "file:" );
+        Artifact artifact = new DefaultArtifact( "org.example:a:1.0" );
+        write( RR + "org/example/a/1.0/a-1.0.jar", 10 );
+        write( LR + "org/example/b/1.0/b-1.0.jar", 5 );
+
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+        lrm.add( session, new LocalArtifactRegistration( artifact, mirror, Arrays.asList( "" ) ) );
+        lrm.add( session, new LocalArtifactRegistration( new DefaultArtifact( "org.example:b:1.0" ) ) );
+        lrm.close();
+
+        assertArrayEquals( new long[] { 1, 10 }, get( RR + "org/example" ) );
+        assertArrayEquals( new long[] { 1, 5 }, get( LR + "org/example" ) );
+    }
+
+    @Test
+    public void testOverwritesAreAccountedByDifferenceWithoutClose()
+        throws Exception
+    {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+        Artifact snapshot = new DefaultArtifact( "org.example:b:1.0-SNAPSHOT" );
+        Artifact release = new DefaultArtifact( "org.example:a:1.0" );
+
+        write( LS + "org/example/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar", 5 );
+        lrm.add( session, new LocalArtifactRegistration( snapshot ) );
+        write( LS + "org/example/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar", 8 );
+        lrm.add( session, new LocalArtifactRegistration( snapshot ) );
+        write( RR + "org/example/a/1.0/a-1.0.jar", 10 );
+        lrm.add( session, new LocalArtifactRegistration( release, central, Arrays.asList( "" ) ) );
+        write( RR + "org/example/a/1.0/a-1.0.jar", 6 );
+        lrm.add( session, new LocalArtifactRegistration( release, central, Arrays.asList( "" ) ) );
+
+        // as done by the timer or the shutdown hook
+        DeferredFlush.flushAll();
+        assertArrayEquals( new long[] { 1, 8 }, get( LS + "org/example" ) );
+        assertArrayEquals( new long[] { 1, 6 }, get( RR + "org/example" ) );
+        assertArrayEquals( new long[] { 1, 8 }, lrm.getDiskUsage().rescan( lrm ).get( LS + "org/example" ) );
+    }
+
+    @Test
+    public void testCleanupIsAccountedAndRescanCorrectsDrift()
+        throws Exception
+    {
+        write( RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar", 7 );
+        write( RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.pom", 3 );
+        write( RR + "g/a/1.0/a-1.0.jar", 4 );
+
+        Map<String, long[]> totals = lrm.getDiskUsage().rescan( lrm );
+        assertArrayEquals( new long[] { 2, 10 }, totals.get( RS + "g" ) );
+        assertArrayEquals( new long[] { 1, 4 }, totals.get( RR + "g" ) );
+
+        new SnapshotCleaner( lrm ).clean();
+        lrm.close();
+        assertArrayEquals( new long[] { 0, 0 }, get( RS + "g" ) );
+        assertArrayEquals( new long[] { 1, 4 }, get( RR + "g" ) );
+        assertTrue( lrm.getDiskUsage().getLastRescan() > 0 );
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class IndexStorageTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    private IndexStorage storage;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() ).setIndexStorage();
+        storage = (IndexStorage) lrm.getStorage();
+    }
+
+    @After
+    public void tearDown()
+    {
+        lrm.close();
+    }
+
+    private File getTrackingFile( String path )
+    {
+        return new File( localRepoDir.getRoot(), path + "/_maven.repositories" );
+    }
+
+    private static Map<String, String> updates( String... keyValues )
+    {
+        Map<String, String> updates = new HashMap<String, String>();
+        for ( int i = 0; i < keyValues.length; i += 2 )
+        {
+            updates.put( keyValues[i], keyValues[i + 1] );
+        }
+        return updates;
+    }
+
+    private Properties reopen( File file )
+    {
+        IndexStorage other = new IndexStorage( new FileStorage( new TrackingFileManager() ), localRepoDir.getRoot(),
+                                               new FileLockStrategy() );
+        try
+        {
+            return other.readTracking( file );
+        }
+        finally
+        {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testUpdatesAreIndexedInsteadOfWrittenToTrackingFiles()
+        throws Exception
+    {
+        RemoteRepository central = new RemoteRepository( "central", "default", "http://repo1.maven.org/maven2" );
+        Artifact artifact = new DefaultArtifact( "g", "a", "", "jar", "1.0" );
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+
+        File trackingFile = new File( file.getParentFile(), "_maven.repositories" );
+        assertFalse( trackingFile.exists() );
+        assertTrue( new File( localRepoDir.getRoot(), IndexStorage.TRACKING_INDEX ).isFile() );
+        assertTrue( lrm.find( session, new LocalArtifactRequest( artifact, Collections.singletonList( central ),
+                                                                 "" ) ).isAvailable() );
+        assertEquals( "", reopen( trackingFile ).getProperty( "a-1.0.jar>central" ) );
+    }
+
+    @Test
+    public void testUnindexedTrackingFilesAreReadThroughAndMergedOnUpdate()
+    {
+        File trackingFile = getTrackingFile( "rr/g/a/1.0" );
+        new TrackingFileManager().update( trackingFile, updates( "a-1.0.jar>central", "" ) );
+
+        assertEquals( "", storage.readTracking( trackingFile ).getProperty( "a-1.0.jar>central" ) );
+
+        storage.updateTracking( trackingFile, updates( "a-1.0.pom>central", "" ) );
+        Properties props = reopen( trackingFile );
+        assertEquals( 2, props.size() );
+        assertEquals( "", props.getProperty( "a-1.0.jar>central" ) );
+
+        storage.updateTracking( trackingFile, updates( "a-1.0.jar>central", null ) );
+        assertEquals( 1, reopen( trackingFile ).size() );
+        assertEquals( "", new TrackingFileManager().read( trackingFile ).getProperty( "a-1.0.jar>central" ) );
+    }
+
+    @Test
+    public void testImportAndExport()
+        throws Exception
+    {
+        TrackingFileManager files = new TrackingFileManager();
+        for ( int i = 0; i < 50; i++ )
+        {
+            files.update( getTrackingFile( "rr/g" + i + "/a/1.0" ), updates( "a-1.0.jar>central", "" ) );
+        }
+        files.update( getTrackingFile( "lr/g/b/1.0" ), updates( "b-1.0.jar>", "" ) );
+
+        assertEquals( 51, storage.importFiles( lrm ) );
+        assertEquals( 51, storage.getIndex().getKeys().size() );
+
+        storage.updateTracking( getTrackingFile( "rr/g7/a/1.0" ), updates( "a-1.0.jar>central", null,
+                                                                            "a-1.0.pom>central", "" ) );
+        assertEquals( 51, storage.exportFiles( lrm ) );
+        Properties props = files.read( getTrackingFile( "rr/g7/a/1.0" ) );
+        assertEquals( 1, props.size() );
+        assertEquals( "", props.getProperty( "a-1.0.pom>central" ) );
+        assertEquals( "", files.read( getTrackingFile( "lr/g/b/1.0" ) ).getProperty( "b-1.0.jar>" ) );
+    }
+
+    @Test
+    public void testCompactionAndGrowthRetainLatestRecords()
+        throws Exception
+    {
+        for ( int round = 0; round < 3; round++ )
+        {
+            for ( int i = 0; i < 5000; i++ )
+            {
+                getTrackingFile( "rr/g/a" + i + "/1.0" ).getParentFile().mkdirs();
+                storage.updateTracking( getTrackingFile( "rr/g/a" + i + "/1.0" ), updates( "round", "" + round ) );
+            }
+        }
+        storage.compact();
+
+        assertEquals( 5000, storage.getIndex().getKeys().size() );
+        for ( int i = 0; i < 5000; i += 499 )
+        {
+            Properties props = reopen( getTrackingFile( "rr/g/a" + i + "/1.0" ) );
+            assertEquals( "2", props.getProperty( "round" ) );
+        }
+        assertEquals( "2", storage.readTracking( getTrackingFile( "rr/g/a42/1.0" ) ).getProperty( "round" ) );
+    }
+
+    @Test
+    public void testCompactionDropsRecordsOfDeletedDirectories()
+        throws Exception
+    {
+        File kept = getTrackingFile( "rr/g/a/1.0" );
+        File deleted = getTrackingFile( "rr/g/a/2.0" );
+        kept.getParentFile().mkdirs();
+        deleted.getParentFile().mkdirs();
+        storage.updateTracking( kept, updates( "a-1.0.jar>central", "" ) );
+        storage.updateTracking( deleted, updates( "a-2.0.jar>central", "" ) );
+        assertTrue( deleted.getParentFile().delete() );
+
+        storage.compact();
+
+        assertEquals( Collections.singletonList( storage.getKey( kept ) ), storage.getIndex().getKeys() );
+        assertEquals( "", reopen( kept ).getProperty( "a-1.0.jar>central" ) );
+        assertNull( reopen( deleted ) );
+    }
+
+}
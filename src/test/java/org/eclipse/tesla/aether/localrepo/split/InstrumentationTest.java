@@ -0,0 +1,122 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class InstrumentationTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    private final List<Map<String, Object>> events =
+        Collections.synchronizedList( new ArrayList<Map<String, Object>>() );
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setInstrumentation( new Instrumentation()
+        {
+            public Span begin( final String event )
+            {
+                final Map<String, Object> attributes = new HashMap<String, Object>();
+                attributes.put( "event", event );
+                return new Span()
+                {
+                    public Span set( String attribute, String value )
+                    {
+                        attributes.put( attribute, value );
+                        return this;
+                    }
+
+                    public Span set( String attribute, long value )
+                    {
+                        attributes.put( attribute, value );
+                        return this;
+                    }
+
+                    public Span set( String attribute, boolean value )
+                    {
+                        attributes.put( attribute, value );
+                        return this;
+                    }
+
+                    public void end()
+                    {
+                        events.add( attributes );
+                    }
+                };
+            }
+        } );
+    }
+
+    private Map<String, Object> getEvent( String event )
+    {
+        for ( Map<String, Object> attributes : events )
+        {
+            if ( event.equals( attributes.get( "event" ) ) )
+            {
+                return attributes;
+            }
+        }
+        fail( "missing event " + event + " in " + events );
+        return null;
+    }
+
+    @Test
+    public void testEventsForRegistrationAndLookup()
+        throws Exception
+    {
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+        Artifact artifact = new DefaultArtifact( "g:a:1.0" );
+        File file = new File( localRepoDir.getRoot(), "rr/g/a/1.0/a-1.0.jar" );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+        lrm.find( session, new LocalArtifactRequest( artifact, Arrays.asList( central ), "" ) );
+
+        assertEquals( 1L, getEvent( Instrumentation.ARTIFACT_REGISTRATION ).get( "artifacts" ) );
+        Map<String, Object> update = getEvent( Instrumentation.TRACKING_UPDATE );
+        assertTrue( update.get( "path" ).toString().endsWith( "_maven.repositories" ) );
+        assertTrue( ( (Long) update.get( "bytes" ) ).longValue() > 0 );
+        assertNotNull( getEvent( Instrumentation.TRACKING_READ ).get( "lockWait" ) );
+        Map<String, Object> find = getEvent( Instrumentation.ARTIFACT_FIND );
+        assertEquals( "a", find.get( "artifactId" ) );
+        assertEquals( SplitLocalRepositoryManager.REMOTE_RELEASES, find.get( "tier" ) );
+        assertEquals( Boolean.TRUE, find.get( "available" ) );
+    }
+
+}
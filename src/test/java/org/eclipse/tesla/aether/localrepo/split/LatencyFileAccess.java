@@ -0,0 +1,165 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Emulates a slow (network) file system by delaying each primitive operation on the local file system. The delays are
+ * configured per kind of operation and the number of performed operations is counted.
+ */
+class LatencyFileAccess
+    implements FileAccess
+{
+
+    enum Op
+    {
+        STAT, OPEN, RENAME, DELETE, MKDIRS, LOCK
+    }
+
+    private final FileAccess delegate;
+
+    private final long[] delays = new long[Op.values().length];
+
+    private final AtomicLong[] counts = new AtomicLong[Op.values().length];
+
+    public LatencyFileAccess()
+    {
+        this( DefaultFileAccess.INSTANCE );
+    }
+
+    public LatencyFileAccess( FileAccess delegate )
+    {
+        this.delegate = delegate;
+        for ( int i = 0; i < counts.length; i++ )
+        {
+            counts[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Sets the delay for the specified kind of operation.
+     *
+     * @param op The kind of operation, must not be {@code null}.
+     * @param micros The delay in microseconds.
+     * @return This instance for chaining, never {@code null}.
+     */
+    public LatencyFileAccess setDelay( Op op, long micros )
+    {
+        delays[op.ordinal()] = micros;
+        return this;
+    }
+
+    public long getCount( Op op )
+    {
+        return counts[op.ordinal()].get();
+    }
+
+    public void resetCounts()
+    {
+        for ( AtomicLong count : counts )
+        {
+            count.set( 0 );
+        }
+    }
+
+    /**
+     * Wraps the specified lock strategy such that each lock operation is delayed and counted as {@link Op#LOCK}.
+     */
+    public LockStrategy wrap( final LockStrategy strategy )
+    {
+        return new LockStrategy()
+        {
+            public Closeable lock( File file, FileChannel channel, boolean shared )
+                throws IOException
+            {
+                delay( Op.LOCK );
+                return strategy.lock( file, channel, shared );
+            }
+        };
+    }
+
+    private void delay( Op op )
+    {
+        counts[op.ordinal()].incrementAndGet();
+        long micros = delays[op.ordinal()];
+        long deadline = System.nanoTime() + micros * 1000;
+        for ( long nanos = micros * 1000; nanos > 0; nanos = deadline - System.nanoTime() )
+        {
+            LockSupport.parkNanos( nanos );
+        }
+    }
+
+    public boolean isFile( File file )
+    {
+        delay( Op.STAT );
+        return delegate.isFile( file );
+    }
+
+    public boolean exists( File file )
+    {
+        delay( Op.STAT );
+        return delegate.exists( file );
+    }
+
+    public FileInputStream openInput( File file )
+        throws IOException
+    {
+        delay( Op.OPEN );
+        return delegate.openInput( file );
+    }
+
+    public FileOutputStream openOutput( File file )
+        throws IOException
+    {
+        delay( Op.OPEN );
+        return delegate.openOutput( file );
+    }
+
+    public RandomAccessFile openRandomAccess( File file )
+        throws IOException
+    {
+        delay( Op.OPEN );
+        return delegate.openRandomAccess( file );
+    }
+
+    public File createTempFile( String prefix, String suffix, File directory )
+        throws IOException
+    {
+        delay( Op.OPEN );
+        return delegate.createTempFile( prefix, suffix, directory );
+    }
+
+    public boolean rename( File src, File dst )
+    {
+        delay( Op.RENAME );
+        return delegate.rename( src, dst );
+    }
+
+    public boolean delete( File file )
+    {
+        delay( Op.DELETE );
+        return delegate.delete( file );
+    }
+
+    public boolean mkdirs( File directory )
+    {
+        delay( Op.MKDIRS );
+        return delegate.mkdirs( directory );
+    }
+
+}
@@ -0,0 +1,95 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class LatencyFileAccessTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private LatencyFileAccess access;
+
+    private SplitLocalRepositoryManager lrm;
+
+    private DefaultRepositorySystemSession session;
+
+    private RemoteRepository central;
+
+    @Before
+    public void setUp()
+    {
+        access = new LatencyFileAccess();
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setFileAccess( access ).setLockStrategy( access.wrap( new FileLockStrategy() ) );
+        session = new DefaultRepositorySystemSession();
+        central = new RemoteRepository( "central", "default", "file:" );
+    }
+
+    private LocalArtifactRequest install( String coords )
+        throws Exception
+    {
+        Artifact artifact = new DefaultArtifact( coords );
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+        return new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+    }
+
+    @Test
+    public void testOperationsAreDelayedAndCounted()
+        throws Exception
+    {
+        access.setDelay( LatencyFileAccess.Op.STAT, 5000 );
+        LocalArtifactRequest request = install( "gid:aid:1.0" );
+        assertEquals( 1, access.getCount( LatencyFileAccess.Op.LOCK ) );
+
+        access.resetCounts();
+        long start = System.nanoTime();
+        assertTrue( lrm.find( session, request ).isAvailable() );
+        long stats = access.getCount( LatencyFileAccess.Op.STAT );
+        assertTrue( stats >= 2 );
+        assertTrue( System.nanoTime() - start >= stats * 5000 * 1000 );
+    }
+
+    @Test
+    public void testLookupCacheAvoidsFileSystemAccess()
+        throws Exception
+    {
+        lrm.setLookupCaching( true );
+        LocalArtifactRequest request = install( "gid:aid:1.0" );
+        assertTrue( lrm.find( session, request ).isAvailable() );
+
+        access.resetCounts();
+        assertTrue( lrm.find( session, request ).isAvailable() );
+        assertEquals( 0, access.getCount( LatencyFileAccess.Op.STAT ) );
+        assertEquals( 0, access.getCount( LatencyFileAccess.Op.OPEN ) );
+        assertEquals( 0, access.getCount( LatencyFileAccess.Op.LOCK ) );
+    }
+
+}
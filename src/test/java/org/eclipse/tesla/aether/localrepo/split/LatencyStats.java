@@ -0,0 +1,73 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples and reports their percentiles.
+ */
+class LatencyStats
+{
+
+    private final String name;
+
+    private long[] samples = new long[1024];
+
+    private int count;
+
+    public LatencyStats( String name )
+    {
+        this.name = name;
+    }
+
+    public synchronized void add( long nanos )
+    {
+        if ( count >= samples.length )
+        {
+            long[] tmp = new long[samples.length * 2];
+            System.arraycopy( samples, 0, tmp, 0, count );
+            samples = tmp;
+        }
+        samples[count++] = nanos;
+    }
+
+    public synchronized int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the specified percentile of the collected samples.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The sample at the percentile in nanoseconds or {@code 0} if no samples were collected.
+     */
+    public synchronized long getPercentile( double percentile )
+    {
+        if ( count <= 0 )
+        {
+            return 0;
+        }
+        long[] sorted = new long[count];
+        System.arraycopy( samples, 0, sorted, 0, count );
+        Arrays.sort( sorted );
+        int index = (int) Math.ceil( percentile / 100 * count ) - 1;
+        return sorted[Math.max( 0, Math.min( count - 1, index ) )];
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%s: n=%d p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus", name, getCount(),
+                              getPercentile( 50 ) / 1000.0, getPercentile( 90 ) / 1000.0,
+                              getPercentile( 99 ) / 1000.0, getPercentile( 100 ) / 1000.0 );
+    }
+
+}
@@ -0,0 +1,137 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class LayoutMigratorTest
+{
+
+    private static final String GA_METADATA = "<metadata><groupId>g</groupId><artifactId>a</artifactId>"
+        + "<versioning><release>1.0</release><versions><version>1.0</version></versions></versioning></metadata>";
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder standardRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setThreads( 2 );
+
+        write( "g/a/1.0/a-1.0.jar", "jar" );
+        write( "g/a/1.0/a-1.0.jar.sha1", "sha1" );
+        write( "g/a/1.0/a-1.0.pom", "pom" );
+        write( "g/a/1.0/a-1.0-sources.jar.lastUpdated", "" );
+        write( "g/a/1.0/_remote.repositories", "a-1.0.jar>central=\na-1.0.pom>central=\n" );
+        write( "g/a/maven-metadata-central.xml", GA_METADATA );
+        write( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar", "jar" );
+        write( "g/b/1.0-SNAPSHOT/maven-metadata-local.xml", "<metadata/>" );
+        write( "g/b/1.0-SNAPSHOT/_remote.repositories", "b-1.0-SNAPSHOT.jar>=\n" );
+        write( "org/c/c/2.0/c-2.0.jar", "jar" );
+    }
+
+    private File write( String path, String contents )
+        throws Exception
+    {
+        File file = new File( standardRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", contents );
+        return file;
+    }
+
+    private File getFile( String path )
+    {
+        return new File( localRepoDir.getRoot(), path );
+    }
+
+    private boolean isAvailable( String coords, RemoteRepository repository )
+    {
+        LocalArtifactRequest request =
+            new LocalArtifactRequest( new DefaultArtifact( coords ), Collections.singletonList( repository ), "" );
+        return lrm.find( new DefaultRepositorySystemSession(), request ).isAvailable();
+    }
+
+    @Test
+    public void testFilesAreMovedIntoSplitLayout()
+    {
+        LayoutMigrator.Result result = new LayoutMigrator( lrm, standardRepoDir.getRoot() ).migrate();
+
+        assertEquals( 0, result.getFailed() );
+        assertEquals( 7, result.getMoved() );
+        assertEquals( 1, result.getTrackingFiles() );
+        assertTrue( getFile( "rr/g/a/1.0/a-1.0.jar" ).isFile() );
+        assertTrue( getFile( "rr/g/a/1.0/a-1.0.jar.sha1" ).isFile() );
+        assertTrue( getFile( "rr/g/a/maven-metadata-central.xml" ).isFile() );
+        assertTrue( getFile( "ls/g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" ).isFile() );
+        assertTrue( getFile( "ls/g/b/1.0-SNAPSHOT/maven-metadata-local.xml" ).isFile() );
+        assertTrue( getFile( "rr/org/c/c/2.0/c-2.0.jar" ).isFile() );
+        assertFalse( getFile( "rr/g/a/1.0/a-1.0-sources.jar.lastUpdated" ).exists() );
+
+        RemoteRepository central = new RemoteRepository( "central", "default", "http://repo1.maven.org/maven2" );
+        assertTrue( isAvailable( "g:a:1.0", central ) );
+        assertTrue( isAvailable( "g:a:pom:1.0", central ) );
+        assertTrue( isAvailable( "g:b:1.0-SNAPSHOT", central ) );
+        assertFalse( isAvailable( "org.c:c:2.0", central ) );
+
+        assertEquals( 0, standardRepoDir.getRoot().list().length );
+    }
+
+    @Test
+    public void testInterruptedMigrationIsResumed()
+    {
+        File moved = getFile( "rr/g/a/1.0/a-1.0.pom" );
+        moved.getParentFile().mkdirs();
+        assertTrue( new File( standardRepoDir.getRoot(), "g/a/1.0/a-1.0.pom" ).renameTo( moved ) );
+
+        LayoutMigrator.Result result = new LayoutMigrator( lrm, standardRepoDir.getRoot() ).migrate();
+
+        assertEquals( 0, result.getFailed() );
+        assertEquals( 6, result.getMoved() );
+        RemoteRepository central = new RemoteRepository( "central", "default", "http://repo1.maven.org/maven2" );
+        assertTrue( isAvailable( "g:a:pom:1.0", central ) );
+
+        result = new LayoutMigrator( lrm, standardRepoDir.getRoot() ).migrate();
+        assertEquals( 0, result.getMoved() + result.getFailed() );
+    }
+
+    @Test
+    public void testFilesAreHardLinked()
+    {
+        LayoutMigrator.Result result = new LayoutMigrator( lrm, standardRepoDir.getRoot() ).setLink( true ).migrate();
+
+        assertEquals( 0, result.getFailed() );
+        assertEquals( 7, result.getLinked() + result.getCopied() );
+        assertTrue( getFile( "rr/g/a/1.0/a-1.0.jar" ).isFile() );
+        assertTrue( new File( standardRepoDir.getRoot(), "g/a/1.0/a-1.0.jar" ).isFile() );
+        assertTrue( new File( standardRepoDir.getRoot(), "g/a/1.0/_remote.repositories" ).isFile() );
+    }
+
+}
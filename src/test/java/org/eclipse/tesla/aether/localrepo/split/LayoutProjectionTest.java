@@ -0,0 +1,204 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ */
+public class LayoutProjectionTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    @Rule
+    public TemporaryFolder viewDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    private RepositorySystemSession session;
+
+    private RemoteRepository central;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setThreads( 2 );
+        lrm.setProjection( viewDir.getRoot(), false );
+        session = new DefaultRepositorySystemSession();
+        central = new RemoteRepository( "central", "default", "file:" );
+    }
+
+    private File write( String path, String contents )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", contents );
+        return file;
+    }
+
+    private String read( String path )
+        throws Exception
+    {
+        return FileUtils.fileRead( new File( viewDir.getRoot(), path ), "UTF-8" );
+    }
+
+    private boolean exists( String path )
+    {
+        return new File( viewDir.getRoot(), path ).exists();
+    }
+
+    @Test
+    public void testRegistrationsUpdateView()
+        throws Exception
+    {
+        Artifact artifact = new DefaultArtifact( "g:a:1.0" );
+        write( "rr/g/a/1.0/a-1.0.jar", "remote" );
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+        assertEquals( "remote", read( "g/a/1.0/a-1.0.jar" ) );
+        assertFalse( exists( "g/a/1.0/_maven.repositories" ) );
+
+        // installed artifacts shadow downloaded ones
+        write( "lr/g/a/1.0/a-1.0.jar", "local" );
+        lrm.add( session, new LocalArtifactRegistration( artifact ) );
+        assertEquals( "local", read( "g/a/1.0/a-1.0.jar" ) );
+
+        Metadata metadata = new DefaultMetadata( "g", "a", "maven-metadata.xml", Metadata.Nature.RELEASE );
+        write( "rr/g/a/maven-metadata-central.xml", "<metadata/>" );
+        lrm.add( session, new LocalMetadataRegistration( metadata, central, Collections.singleton( "" ) ) );
+        assertEquals( "<metadata/>", read( "g/a/maven-metadata-central.xml" ) );
+        assertTrue( new File( localRepoDir.getRoot(), "rs/g/a/maven-metadata-central.xml" ).isFile() );
+    }
+
+    @Test
+    public void testRebuild()
+        throws Exception
+    {
+        write( "rr/g/a/1.0/a-1.0.jar", "remote" );
+        write( "rr/g/a/1.0/_maven.repositories", "a-1.0.jar>central=\n" );
+        write( "rs/g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-1.jar", "snapshot" );
+        write( "ls/g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar", "installed" );
+
+        LayoutProjection.Result result = lrm.getProjection().rebuild();
+        assertEquals( 3, result.getLinked() );
+        assertEquals( 0, result.getFailed() );
+        assertEquals( "remote", read( "g/a/1.0/a-1.0.jar" ) );
+        assertEquals( "snapshot", read( "g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-1.jar" ) );
+        assertEquals( "installed", read( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" ) );
+        assertFalse( exists( "g/a/1.0/_maven.repositories" ) );
+
+        // e.g. cleaned up snapshots
+        FileUtils.deleteDirectory( new File( localRepoDir.getRoot(), "rs/g/b" ) );
+        FileUtils.deleteDirectory( new File( localRepoDir.getRoot(), "ls/g/b" ) );
+        result = lrm.getProjection().rebuild();
+        assertEquals( 0, result.getLinked() );
+        assertEquals( 1, result.getCurrent() );
+        assertEquals( 2, result.getRemoved() );
+        assertFalse( exists( "g/b" ) );
+        assertEquals( "remote", read( "g/a/1.0/a-1.0.jar" ) );
+    }
+
+    @Test
+    public void testSnapshotsAreProjectedUnderBaseVersion()
+        throws Exception
+    {
+        Artifact artifact = new DefaultArtifact( "g:b:1.0-20111122.123456-2" );
+        write( "rs/g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-2.jar", "build 2" );
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+        assertEquals( "build 2", read( "g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-2.jar" ) );
+        assertEquals( "build 2", read( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" ) );
+
+        write( "rs/g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-10.jar", "build 10" );
+        write( "rs/g/b/1.0-SNAPSHOT/b-1.0-20111122.123456-10-sources.jar", "sources 10" );
+        assertEquals( 0, lrm.getProjection().rebuild().getFailed() );
+        assertEquals( "build 10", read( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" ) );
+        assertEquals( "sources 10", read( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT-sources.jar" ) );
+
+        // installed snapshots shadow downloaded ones
+        write( "ls/g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar", "installed" );
+        lrm.getProjection().rebuild();
+        assertEquals( "installed", read( "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" ) );
+    }
+
+    @Test
+    public void testOverlappingDirectoriesAreRejected()
+    {
+        File basedir = localRepoDir.getRoot();
+        for ( File dir : new File[] { basedir, new File( basedir, "rr/g" ), basedir.getParentFile() } )
+        {
+            try
+            {
+                lrm.setProjection( dir, false );
+                fail( "overlapping directory " + dir + " not rejected" );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testRebuildLeavesForeignFilesAlone()
+        throws Exception
+    {
+        lrm.setProjection( viewDir.getRoot(), true );
+        File foreign = new File( viewDir.getRoot(), "g/x/1.0/x-1.0.jar" );
+        foreign.getParentFile().mkdirs();
+        FileUtils.fileWrite( foreign.getPath(), "UTF-8", "foreign" );
+        write( "rr/g/a/1.0/a-1.0.jar", "remote" );
+        assertEquals( 1, lrm.getProjection().rebuild().getLinked() );
+
+        new File( localRepoDir.getRoot(), "rr/g/a/1.0/a-1.0.jar" ).delete();
+        LayoutProjection.Result result = lrm.getProjection().rebuild();
+        assertEquals( 1, result.getRemoved() );
+        assertFalse( exists( "g/a" ) );
+        assertEquals( "foreign", read( "g/x/1.0/x-1.0.jar" ) );
+    }
+
+    @Test
+    public void testHardLinks()
+        throws Exception
+    {
+        lrm.setProjection( viewDir.getRoot(), true );
+        File file = write( "rr/g/a/1.0/a-1.0.jar", "remote" );
+
+        assertEquals( 1, lrm.getProjection().rebuild().getLinked() );
+        assertEquals( "remote", read( "g/a/1.0/a-1.0.jar" ) );
+        assertEquals( 1, lrm.getProjection().rebuild().getCurrent() );
+
+        // a replaced file leaves the hard link behind until it is linked again
+        file.delete();
+        write( "rr/g/a/1.0/a-1.0.jar", "replaced" );
+        assertEquals( 1, lrm.getProjection().rebuild().getLinked() );
+        assertEquals( "replaced", read( "g/a/1.0/a-1.0.jar" ) );
+    }
+
+}
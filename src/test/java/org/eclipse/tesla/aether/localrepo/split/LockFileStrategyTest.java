@@ -0,0 +1,192 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class LockFileStrategyTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testLockAndRelease()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+
+        LockFileStrategy strategy = new LockFileStrategy( 60 * 1000, 100 );
+
+        Closeable lock = strategy.lock( file, null, false );
+        assertTrue( lockFile.isFile() );
+
+        try
+        {
+            strategy.lock( file, null, true );
+            fail( "lock file did not exclude second owner" );
+        }
+        catch ( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().startsWith( "Timeout" ) );
+        }
+
+        lock.close();
+        assertFalse( lockFile.exists() );
+
+        strategy.lock( file, null, false ).close();
+    }
+
+    @Test
+    public void testBreakStaleLock()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+        lockFile.createNewFile();
+        lockFile.setLastModified( System.currentTimeMillis() - 10 * 1000 );
+
+        Closeable lock = new LockFileStrategy( 200, 5 * 1000 ).lock( file, null, false );
+        assertTrue( lockFile.isFile() );
+        lock.close();
+        assertFalse( lockFile.exists() );
+        assertEquals( 0, tempDir.getRoot().list().length );
+    }
+
+    @Test
+    public void testStaleLockIsBrokenAcrossRequestsThatTimeOutEarlier()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+        lockFile.createNewFile();
+
+        // same ratio as the defaults of the factory, i.e. each request gives up after half the stale age
+        LockFileStrategy strategy = new LockFileStrategy( 400, 200 );
+        int timeouts = 0;
+        Closeable lock = null;
+        while ( lock == null )
+        {
+            try
+            {
+                lock = strategy.lock( file, null, false );
+            }
+            catch ( IOException e )
+            {
+                assertTrue( e.getMessage(), e.getMessage().startsWith( "Timeout" ) );
+                assertTrue( "stale lock was not broken", ++timeouts < 10 );
+            }
+        }
+        assertTrue( timeouts > 0 );
+        lock.close();
+        assertFalse( lockFile.exists() );
+    }
+
+    @Test
+    public void testHeldLockIsRefreshed()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+
+        Closeable lock = new LockFileStrategy( 200, 100 ).lock( file, null, false );
+        try
+        {
+            long timestamp = System.currentTimeMillis() - 10 * 1000;
+            lockFile.setLastModified( timestamp );
+            Thread.sleep( 500 );
+            assertTrue( lockFile.lastModified() > timestamp );
+        }
+        finally
+        {
+            lock.close();
+        }
+    }
+
+    @Test
+    public void testLockFileOfOtherOwnerIsNotDeleted()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+
+        Closeable lock = new LockFileStrategy( 60 * 1000, 100 ).lock( file, null, false );
+        // simulate another process that considered the lock stale and took it over
+        lockFile.delete();
+        lockFile.createNewFile();
+
+        try
+        {
+            lock.close();
+            fail( "released lock file of other owner" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+        assertTrue( lockFile.isFile() );
+    }
+
+    @Test
+    public void testSharedLocksAreSharedWithinJvm()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "tracking.properties" );
+        File lockFile = new File( file.getPath() + LockFileStrategy.SUFFIX );
+
+        LockFileStrategy strategy = new LockFileStrategy( 60 * 1000, 100 );
+
+        Closeable lock1 = strategy.lock( file, null, true );
+        Closeable lock2 = strategy.lock( file, null, true );
+
+        try
+        {
+            strategy.lock( file, null, false );
+            fail( "shared lock did not exclude writer" );
+        }
+        catch ( IOException e )
+        {
+            // expected
+        }
+
+        lock1.close();
+        assertTrue( lockFile.isFile() );
+        lock2.close();
+        assertFalse( lockFile.exists() );
+    }
+
+    @Test
+    public void testTrackingFileManager()
+        throws Exception
+    {
+        File file = new File( tempDir.getRoot(), "sub/_maven.repositories" );
+
+        TrackingFileManager tfm = new TrackingFileManager();
+        tfm.setLockStrategy( new LockFileStrategy( 60 * 1000, 1000 ) );
+
+        tfm.update( file, Collections.singletonMap( "a.jar>central", "" ) );
+        Properties props = tfm.read( file );
+        assertEquals( "", props.getProperty( "a.jar>central" ) );
+        assertFalse( new File( file.getPath() + LockFileStrategy.SUFFIX ).exists() );
+    }
+
+}
@@ -0,0 +1,68 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class LockFileTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testThreadsOfSameJvmAreSerialized()
+        throws Exception
+    {
+        final File file = new File( tempDir.getRoot(), ".locks/test.lock" );
+
+        LockFile lock = LockFile.acquire( file, new FileLockStrategy() );
+
+        final AtomicReference<Object> result = new AtomicReference<Object>();
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    // a separate path to the same file, e.g. of another manager
+                    LockFile lock = LockFile.acquire( new File( file.getParentFile(), "../.locks/test.lock" ),
+                                                      new FileLockStrategy() );
+                    lock.release();
+                    result.set( lock );
+                }
+                catch ( Exception e )
+                {
+                    result.set( e );
+                }
+            }
+        };
+        thread.start();
+
+        // longer than the retries of FileLockStrategy upon an OverlappingFileLockException
+        thread.join( 1000 );
+        assertTrue( thread.isAlive() );
+        assertNull( result.get() );
+
+        lock.release();
+        thread.join( 5000 );
+        assertTrue( String.valueOf( result.get() ), result.get() instanceof LockFile );
+    }
+
+}
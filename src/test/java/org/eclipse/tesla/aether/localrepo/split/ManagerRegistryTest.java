@@ -0,0 +1,101 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.repository.LocalRepository;
+
+/**
+ */
+public class ManagerRegistryTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager newInstance( SplitLocalRepositoryManagerFactory factory, File basedir )
+        throws Exception
+    {
+        return (SplitLocalRepositoryManager) factory.newInstance( new LocalRepository( basedir ) );
+    }
+
+    @Test
+    public void testSharedManagerIsReusedAndReferenceCounted()
+        throws Exception
+    {
+        Properties config = new Properties();
+        config.setProperty( SplitLocalRepositoryManagerFactory.CONFIG_SHARED, "true" );
+        SplitLocalRepositoryManagerFactory factory = new SplitLocalRepositoryManagerFactory();
+        factory.setConfiguration( config );
+
+        File basedir = localRepoDir.getRoot();
+
+        SplitLocalRepositoryManager lrm1 = newInstance( factory, basedir );
+        SplitLocalRepositoryManager lrm2 = newInstance( factory, new File( basedir, "sub/.." ) );
+        assertSame( lrm1, lrm2 );
+        assertEquals( 2, ManagerRegistry.INSTANCE.getReferences( basedir ) );
+
+        lrm1.close();
+        assertEquals( 1, ManagerRegistry.INSTANCE.getReferences( basedir ) );
+        lrm2.close();
+        assertEquals( 0, ManagerRegistry.INSTANCE.getReferences( basedir ) );
+
+        SplitLocalRepositoryManager lrm3 = newInstance( factory, basedir );
+        assertNotSame( lrm1, lrm3 );
+        lrm3.close();
+    }
+
+    @Test
+    public void testSharedManagersAreDistinctPerConfiguration()
+        throws Exception
+    {
+        Properties config = new Properties();
+        config.setProperty( SplitLocalRepositoryManagerFactory.CONFIG_SHARED, "true" );
+        SplitLocalRepositoryManagerFactory factory1 = new SplitLocalRepositoryManagerFactory();
+        factory1.setConfiguration( config );
+        config = new Properties();
+        config.setProperty( SplitLocalRepositoryManagerFactory.CONFIG_SHARED, "true" );
+        config.setProperty( SplitLocalRepositoryManagerFactory.CONFIG_STORAGE, "memory" );
+        SplitLocalRepositoryManagerFactory factory2 = new SplitLocalRepositoryManagerFactory();
+        factory2.setConfiguration( config );
+
+        File basedir = localRepoDir.getRoot();
+
+        SplitLocalRepositoryManager lrm1 = newInstance( factory1, basedir );
+        SplitLocalRepositoryManager lrm2 = newInstance( factory2, basedir );
+        assertNotSame( lrm1, lrm2 );
+        assertTrue( lrm2.getStorage() instanceof MemoryStorage );
+        assertEquals( 2, ManagerRegistry.INSTANCE.getReferences( basedir ) );
+
+        lrm1.close();
+        lrm2.close();
+        assertEquals( 0, ManagerRegistry.INSTANCE.getReferences( basedir ) );
+    }
+
+    @Test
+    public void testUnsharedManagersAreDistinct()
+        throws Exception
+    {
+        SplitLocalRepositoryManagerFactory factory = new SplitLocalRepositoryManagerFactory();
+        factory.setConfiguration( new Properties() );
+
+        SplitLocalRepositoryManager lrm1 = newInstance( factory, localRepoDir.getRoot() );
+        SplitLocalRepositoryManager lrm2 = newInstance( factory, localRepoDir.getRoot() );
+        assertNotSame( lrm1, lrm2 );
+        assertEquals( 0, ManagerRegistry.INSTANCE.getReferences( localRepoDir.getRoot() ) );
+    }
+
+}
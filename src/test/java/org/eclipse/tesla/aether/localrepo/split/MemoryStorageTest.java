@@ -0,0 +1,99 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ */
+public class MemoryStorageTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testUpdatesStayInMemoryUntilSpilled()
+    {
+        File file = new File( tempDir.getRoot(), "_maven.repositories" );
+        FileStorage disk = new FileStorage( new TrackingFileManager() );
+        disk.updateTracking( file, Collections.singletonMap( "a.jar>old", "" ) );
+
+        MemoryStorage storage = new MemoryStorage( disk, false );
+        assertEquals( "", storage.readTracking( file ).getProperty( "a.jar>old" ) );
+
+        Properties props = storage.updateTracking( file, Collections.singletonMap( "a.jar>central", "" ) );
+        assertEquals( 2, props.size() );
+        assertEquals( 2, storage.readTracking( file ).size() );
+        assertEquals( 1, disk.readTracking( file ).size() );
+        assertEquals( 1, storage.getPendingCount() );
+
+        disk.updateTracking( file, Collections.singletonMap( "b.jar>other", "" ) );
+        assertEquals( 1, storage.spill() );
+        assertEquals( 0, storage.getPendingCount() );
+        assertEquals( 3, disk.readTracking( file ).size() );
+    }
+
+    @Test
+    public void testUpdatesAreSpilledWithoutClose()
+    {
+        File file = new File( tempDir.getRoot(), "_maven.repositories" );
+        FileStorage disk = new FileStorage( new TrackingFileManager() );
+        MemoryStorage storage = new MemoryStorage( disk, true );
+
+        storage.updateTracking( file, Collections.singletonMap( "a.jar>central", "" ) );
+        assertEquals( 1, storage.getPendingCount() );
+        assertNull( disk.readTracking( file ) );
+
+        // as done by the timer or the shutdown hook
+        DeferredFlush.flushAll();
+        assertEquals( 0, storage.getPendingCount() );
+        assertEquals( "", disk.readTracking( file ).getProperty( "a.jar>central" ) );
+    }
+
+    @Test
+    public void testManagerWithMemoryStorage()
+        throws Exception
+    {
+        SplitLocalRepositoryManager lrm = new SplitLocalRepositoryManager( tempDir.getRoot() ).setMemoryStorage( true );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+
+        Artifact artifact = new DefaultArtifact( "gid:aid:1.0" );
+        File file = new File( tempDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        File trackingFile = new File( file.getParentFile(), "_maven.repositories" );
+        assertFalse( trackingFile.exists() );
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+        assertTrue( lrm.find( session, request ).isAvailable() );
+
+        lrm.close();
+        assertTrue( trackingFile.isFile() );
+        assertTrue( new SplitLocalRepositoryManager( tempDir.getRoot() ).find( session, request ).isAvailable() );
+    }
+
+}
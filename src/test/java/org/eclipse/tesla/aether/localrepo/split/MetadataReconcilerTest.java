@@ -0,0 +1,110 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class MetadataReconcilerTest
+{
+
+    private static final String RR = SplitLocalRepositoryManager.REMOTE_RELEASES;
+
+    private static final String RS = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS;
+
+    private static final String LS = SplitLocalRepositoryManager.LOCAL_SNAPSHOTS;
+
+    private static final String GA_METADATA = "<metadata><groupId>g</groupId><artifactId>a</artifactId>"
+        + "<versioning><latest>2.0-SNAPSHOT</latest><release>1.0</release>"
+        + "<versions><version>1.0</version><version>2.0-SNAPSHOT</version></versions></versioning></metadata>";
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setThreads( 2 );
+    }
+
+    private File write( String path, String contents )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getPath(), "UTF-8", contents );
+        return file;
+    }
+
+    private String read( String path )
+        throws Exception
+    {
+        return FileUtils.fileRead( new File( localRepoDir.getRoot(), path ), "UTF-8" );
+    }
+
+    @Test
+    public void testMasterIsPurgedAndBackupRecreatedAfterSnapshotWipe()
+        throws Exception
+    {
+        write( RR + "g/a/maven-metadata-central.xml", GA_METADATA );
+
+        MetadataReconciler.Result result = new MetadataReconciler( lrm ).reconcile();
+
+        assertEquals( 1, result.getScanned() );
+        assertEquals( 1, result.getRepaired() );
+        String master = read( RR + "g/a/maven-metadata-central.xml" );
+        assertTrue( master, master.contains( "<version>1.0</version>" ) );
+        assertFalse( master, master.contains( "SNAPSHOT" ) );
+        assertEquals( master, read( RS + "g/a/maven-metadata-central.xml" ) );
+
+        result = new MetadataReconciler( lrm ).reconcile();
+        assertEquals( 0, result.getRepaired() );
+    }
+
+    @Test
+    public void testMasterIsRestoredFromBackupAfterReleaseWipe()
+        throws Exception
+    {
+        write( RS + "g/a/maven-metadata-central.xml", GA_METADATA );
+
+        MetadataReconciler.Result result = new MetadataReconciler( lrm ).reconcile();
+
+        assertEquals( 1, result.getRepaired() );
+        String master = read( RR + "g/a/maven-metadata-central.xml" );
+        assertTrue( master, master.contains( "<version>2.0-SNAPSHOT</version>" ) );
+        assertFalse( master, master.contains( "<version>1.0</version>" ) );
+    }
+
+    @Test
+    public void testVersionLevelMetadataIsLeftAlone()
+        throws Exception
+    {
+        write( LS + "g/a/1.0-SNAPSHOT/maven-metadata-local.xml",
+               "<metadata><groupId>g</groupId><artifactId>a</artifactId><version>1.0-SNAPSHOT</version></metadata>" );
+
+        MetadataReconciler.Result result = new MetadataReconciler( lrm ).reconcile();
+
+        assertEquals( 0, result.getScanned() );
+        assertEquals( 0, result.getRepaired() );
+        assertFalse( new File( localRepoDir.getRoot(), "lr/g/a/1.0-SNAPSHOT" ).exists() );
+    }
+
+}
@@ -0,0 +1,134 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ */
+public class OrphanedMetadataCollectorTest
+{
+
+    private static final String RR = SplitLocalRepositoryManager.REMOTE_RELEASES;
+
+    private static final String RS = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS;
+
+    private static final long OLD = System.currentTimeMillis() - 2 * OrphanedMetadataCollector.DEFAULT_MAX_AGE;
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        lrm.setThreads( 2 );
+    }
+
+    private File create( String path, long lastModified )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        file.setLastModified( lastModified );
+        return file;
+    }
+
+    @Test
+    public void testGetRepositoryKey()
+    {
+        assertEquals( "central", OrphanedMetadataCollector.getRepositoryKey( "maven-metadata-central.xml" ) );
+        assertEquals( "nexus-0a1b",
+                      OrphanedMetadataCollector.getRepositoryKey( "maven-metadata-nexus-0a1b.xml.sha1" ) );
+        assertNull( OrphanedMetadataCollector.getRepositoryKey( "maven-metadata.xml" ) );
+        assertNull( OrphanedMetadataCollector.getRepositoryKey( "a-1.0.jar" ) );
+    }
+
+    @Test
+    public void testUsageOfRepositoryKeysIsRecordedOnClose()
+        throws Exception
+    {
+        Metadata metadata = new DefaultMetadata( "g", "a", "", "maven-metadata.xml", Metadata.Nature.RELEASE );
+        RemoteRepository central = new RemoteRepository( "central", "default", "http://localhost" );
+        assertEquals( "rr/g/a/maven-metadata-central.xml", lrm.getPathForRemoteMetadata( metadata, central, "" ) );
+        lrm.close();
+
+        Properties usage =
+            new TrackingFileManager().read( new File( localRepoDir.getRoot(),
+                                                      SplitLocalRepositoryManager.REPOSITORY_KEYS ) );
+        assertNotNull( usage );
+        assertTrue( SplitLocalRepositoryManager.getLastUsage( usage, "central" ) > 0 );
+    }
+
+    @Test
+    public void testUsageOfRepositoryKeysIsRecordedWithoutClose()
+        throws Exception
+    {
+        Metadata metadata = new DefaultMetadata( "g", "a", "", "maven-metadata.xml", Metadata.Nature.RELEASE );
+        RemoteRepository central = new RemoteRepository( "central", "default", "http://localhost" );
+        lrm.getPathForRemoteMetadata( metadata, central, "" );
+        DeferredFlush.flushAll();
+
+        File file = new File( localRepoDir.getRoot(), SplitLocalRepositoryManager.REPOSITORY_KEYS );
+        assertTrue( SplitLocalRepositoryManager.getLastUsage( new TrackingFileManager().read( file ), "central" ) > 0 );
+
+        // the usage is recorded at most once per interval
+        assertTrue( file.delete() );
+        lrm.getPathForRemoteMetadata( metadata, central, "" );
+        DeferredFlush.flushAll();
+        assertFalse( file.exists() );
+    }
+
+    @Test
+    public void testMetadataOfUnusedKeysIsDeleted()
+        throws Exception
+    {
+        File used = create( RR + "g/a/maven-metadata-central.xml", OLD );
+        File live = create( RR + "g/a/maven-metadata-mirror.xml", OLD );
+        File young = create( RR + "g/a/maven-metadata-young.xml", System.currentTimeMillis() );
+        File orphan = create( RR + "g/a/maven-metadata-nexus-0a1b.xml", OLD );
+        File orphanBackup = create( RS + "g/a/maven-metadata-nexus-0a1b.xml", OLD );
+        File version = create( RS + "g/a/1.0-SNAPSHOT/maven-metadata-nexus-0a1b.xml", OLD );
+        File artifact = create( RR + "g/a/1.0/a-1.0.jar", OLD );
+
+        Metadata metadata = new DefaultMetadata( "g", "a", "", "maven-metadata.xml", Metadata.Nature.RELEASE );
+        lrm.getPathForRemoteMetadata( metadata, new RemoteRepository( "central", "default", "http://localhost" ), "" );
+        lrm.close();
+
+        OrphanedMetadataCollector.Result result =
+            new OrphanedMetadataCollector( lrm ).setLiveKeys( Arrays.asList( "mirror" ) ).collect();
+
+        assertEquals( 3, result.getFiles() );
+        assertEquals( new HashSet<String>( Arrays.asList( "nexus-0a1b", "young" ) ), result.getKeys() );
+        assertTrue( used.exists() );
+        assertTrue( live.exists() );
+        assertTrue( young.exists() );
+        assertTrue( artifact.exists() );
+        assertFalse( orphan.exists() );
+        assertFalse( orphanBackup.exists() );
+        assertFalse( version.exists() );
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Tests the path dictionary. The heap benchmark is skipped unless the system property {@code benchmark} is set to
+ * {@code true}, e.g. {@code mvn test -Dbenchmark=true -Dtest=PathDictionaryTest -Dbenchmark.sizes=500000}.
+ */
+public class PathDictionaryTest
+{
+
+    @Test
+    public void testEncode()
+    {
+        PathDictionary dictionary = new PathDictionary();
+        PathDictionary.Path path = dictionary.encode( "g/a/1.0/a-1.0.jar" );
+        assertEquals( path, dictionary.encode( new StringBuilder( "g/a/1.0/" ).append( "a-1.0.jar" ).toString() ) );
+        assertEquals( path.hashCode(), dictionary.find( "g/a/1.0/a-1.0.jar" ).hashCode() );
+        assertFalse( path.equals( dictionary.encode( "g/a/1.0" ) ) );
+        assertFalse( path.equals( dictionary.encode( "a/g/1.0/a-1.0.jar" ) ) );
+        assertEquals( 4, dictionary.size() );
+    }
+
+    @Test
+    public void testFindDoesNotGrowDictionary()
+    {
+        PathDictionary dictionary = new PathDictionary();
+        dictionary.encode( "g/a/1.0/a-1.0.jar" );
+        assertNull( dictionary.find( "g/a/2.0/a-2.0.jar" ) );
+        assertNotNull( dictionary.find( "g/a" ) );
+        assertEquals( 4, dictionary.size() );
+    }
+
+    @Test
+    public void testHeapFootprint()
+    {
+        Assume.assumeTrue( Boolean.getBoolean( "benchmark" ) );
+        for ( String size : System.getProperty( "benchmark.sizes", "100000,500000" ).split( "," ) )
+        {
+            int paths = Integer.parseInt( size.trim() );
+
+            long base = getUsedHeap();
+            Map<Object, Object> strings = new HashMap<Object, Object>();
+            for ( int i = 0; i < paths; i++ )
+            {
+                strings.put( getPath( i ), Boolean.TRUE );
+            }
+            long stringBytes = getUsedHeap() - base;
+            assertEquals( paths, strings.size() );
+            strings = null;
+
+            base = getUsedHeap();
+            PathDictionary dictionary = new PathDictionary();
+            Map<Object, Object> compact = new HashMap<Object, Object>();
+            for ( int i = 0; i < paths; i++ )
+            {
+                compact.put( dictionary.encode( getPath( i ) ), Boolean.TRUE );
+            }
+            long compactBytes = getUsedHeap() - base;
+            assertEquals( paths, compact.size() );
+
+            System.out.println( String.format( Locale.ENGLISH, "%,d paths: %,d bytes with String keys, %,d bytes with "
+                + "compact keys (%,d segments), %.1f%% saved", paths, stringBytes, compactBytes, dictionary.size(),
+                                               100.0 * ( stringBytes - compactBytes ) / stringBytes ) );
+        }
+    }
+
+    /**
+     * Generates the path of an artifact in a repository where each group holds 10 artifacts in 5 versions.
+     */
+    private static String getPath( int index )
+    {
+        int group = index / 50;
+        int artifact = ( index / 5 ) % 10;
+        int version = index % 5;
+        StringBuilder buffer = new StringBuilder( 128 );
+        buffer.append( "com/example/platform/services" ).append( group ).append( '/' );
+        buffer.append( "services-artifact" ).append( artifact ).append( '/' );
+        buffer.append( "2.4." ).append( version ).append( '/' );
+        buffer.append( "services-artifact" ).append( artifact ).append( "-2.4." ).append( version ).append( ".jar" );
+        return buffer.toString();
+    }
+
+    private static long getUsedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for ( int i = 0; i < 5; i++ )
+        {
+            System.gc();
+            used = Math.min( used, runtime.totalMemory() - runtime.freeMemory() );
+        }
+        return used;
+    }
+
+}
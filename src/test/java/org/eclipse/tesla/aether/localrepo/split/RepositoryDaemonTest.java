@@ -0,0 +1,194 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.Collections;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.spi.log.NullLogger;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ */
+public class RepositoryDaemonTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager server;
+
+    private RepositoryDaemon daemon;
+
+    private DefaultRepositorySystemSession session;
+
+    private RemoteRepository central;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        server = new SplitLocalRepositoryManager( localRepoDir.getRoot() ).setLookupCaching( true );
+        daemon = new RepositoryDaemon( server );
+        daemon.start();
+        session = new DefaultRepositorySystemSession();
+        central = new RemoteRepository( "central", "default", "http://repo1.maven.org/maven2" );
+    }
+
+    @After
+    public void tearDown()
+    {
+        daemon.stop();
+        server.close();
+    }
+
+    private DaemonLocalRepositoryManager connect()
+    {
+        SplitLocalRepositoryManager direct = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        return DaemonLocalRepositoryManager.connect( direct, NullLogger.INSTANCE );
+    }
+
+    private File download( DaemonLocalRepositoryManager client, Artifact artifact )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), client.getPathForRemoteArtifact( artifact, central, "" ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return file;
+    }
+
+    private LocalArtifactResult find( DaemonLocalRepositoryManager client, Artifact artifact )
+    {
+        return client.find( session, new LocalArtifactRequest( artifact, Collections.singletonList( central ), "" ) );
+    }
+
+    @Test
+    public void testLookupsAndRegistrationsAreServedByDaemon()
+        throws Exception
+    {
+        DaemonLocalRepositoryManager client = connect();
+        assertNotNull( client );
+        try
+        {
+            Artifact artifact = new DefaultArtifact( "g", "a", "", "jar", "1.0" );
+            File file = download( client, artifact );
+            assertFalse( find( client, artifact ).isAvailable() );
+
+            client.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+
+            LocalArtifactResult result = find( client, artifact );
+            assertTrue( result.isAvailable() );
+            assertSame( central, result.getRepository() );
+            assertEquals( file.getAbsoluteFile(), result.getFile().getAbsoluteFile() );
+            assertTrue( new File( file.getParentFile(), "_maven.repositories" ).isFile() );
+
+            Metadata metadata = new DefaultMetadata( "g", "a", "", "maven-metadata.xml", Metadata.Nature.RELEASE );
+            File metadataFile =
+                new File( localRepoDir.getRoot(), client.getPathForRemoteMetadata( metadata, central, "" ) );
+            metadataFile.getParentFile().mkdirs();
+            metadataFile.createNewFile();
+            client.add( session, new LocalMetadataRegistration( metadata, central, Collections.singleton( "" ) ) );
+            assertEquals( metadataFile.getAbsoluteFile(),
+                          client.find( session, new LocalMetadataRequest( metadata, central, "" ) ).getFile() );
+            assertFalse( client.isFallback() );
+        }
+        finally
+        {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testClientFallsBackToDirectAccessWhenDaemonStops()
+        throws Exception
+    {
+        DaemonLocalRepositoryManager client = connect();
+        try
+        {
+            Artifact artifact = new DefaultArtifact( "g", "b", "", "jar", "1.0" );
+            download( client, artifact );
+            daemon.stop();
+
+            client.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+            assertTrue( client.isFallback() );
+            assertTrue( find( client, artifact ).isAvailable() );
+        }
+        finally
+        {
+            client.close();
+        }
+        assertNull( connect() );
+    }
+
+    @Test
+    public void testStalePortFileIsIgnored()
+        throws Exception
+    {
+        daemon.stop();
+        File portFile = new File( localRepoDir.getRoot(), DaemonProtocol.PORT_FILE );
+        assertFalse( portFile.exists() );
+
+        ServerSocket socket = new ServerSocket( 0 );
+        int port = socket.getLocalPort();
+        socket.close();
+        FileUtils.fileWrite( portFile.getPath(), "UTF-8", "port=" + port + "\ntoken=0\n" );
+        assertNull( connect() );
+    }
+
+    @Test
+    public void testClientFallsBackToDirectAccessWhenDaemonHangs()
+        throws Exception
+    {
+        // accepts connections via its backlog but never responds
+        ServerSocket socket = new ServerSocket( 0 );
+        try
+        {
+            SplitLocalRepositoryManager direct = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+            DaemonLocalRepositoryManager client =
+                new DaemonLocalRepositoryManager( direct, socket.getLocalPort(), "0" ).setReadTimeout( 100 );
+            try
+            {
+                Artifact artifact = new DefaultArtifact( "g", "c", "", "jar", "1.0" );
+                download( client, artifact );
+
+                client.add( session, new LocalArtifactRegistration( artifact, central, Collections.singleton( "" ) ) );
+                assertTrue( client.isFallback() );
+                assertTrue( find( client, artifact ).isAvailable() );
+            }
+            finally
+            {
+                client.close();
+            }
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+}
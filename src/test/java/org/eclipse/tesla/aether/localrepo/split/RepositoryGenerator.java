@@ -0,0 +1,193 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ * Populates a split local repository with synthetic artifacts and metadata for benchmarks.
+ */
+class RepositoryGenerator
+{
+
+    private int groups = 100;
+
+    private int artifactsPerGroup = 10;
+
+    private int versionsPerArtifact = 5;
+
+    private double snapshotRatio = 0.2;
+
+    private int trackingKeys = 1;
+
+    private long seed = 1;
+
+    public RepositoryGenerator setGroups( int groups )
+    {
+        this.groups = groups;
+        return this;
+    }
+
+    public RepositoryGenerator setArtifactsPerGroup( int artifactsPerGroup )
+    {
+        this.artifactsPerGroup = artifactsPerGroup;
+        return this;
+    }
+
+    public RepositoryGenerator setVersionsPerArtifact( int versionsPerArtifact )
+    {
+        this.versionsPerArtifact = versionsPerArtifact;
+        return this;
+    }
+
+    /**
+     * Sets the fraction of versions that are snapshots.
+     */
+    public RepositoryGenerator setSnapshotRatio( double snapshotRatio )
+    {
+        this.snapshotRatio = snapshotRatio;
+        return this;
+    }
+
+    /**
+     * Sets the number of remote repositories each artifact is registered for, i.e. the number of keys per artifact in
+     * the resolution tracking files.
+     */
+    public RepositoryGenerator setTrackingKeys( int trackingKeys )
+    {
+        this.trackingKeys = trackingKeys;
+        return this;
+    }
+
+    public RepositoryGenerator setSeed( long seed )
+    {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Gets the total number of artifacts (excluding POMs) that {@link #generate(SplitLocalRepositoryManager)} creates.
+     */
+    public int getArtifactCount()
+    {
+        return groups * artifactsPerGroup * versionsPerArtifact;
+    }
+
+    public List<RemoteRepository> getRepositories()
+    {
+        List<RemoteRepository> repositories = new ArrayList<RemoteRepository>();
+        for ( int i = 0; i < trackingKeys; i++ )
+        {
+            repositories.add( new RemoteRepository( "repo" + i, "default", "file:" ) );
+        }
+        return repositories;
+    }
+
+    /**
+     * Creates the artifact files of the synthetic repository. The artifacts still need to be registered with the
+     * manager, see {@link #getRegistrations(Artifact)}.
+     *
+     * @return The generated artifacts and metadata, never {@code null}.
+     */
+    public Repository generate( SplitLocalRepositoryManager lrm )
+        throws IOException
+    {
+        Random random = new Random( seed );
+        File basedir = lrm.getRepository().getBasedir();
+        RemoteRepository repository = getRepositories().get( 0 );
+
+        Repository result = new Repository();
+        for ( int g = 0; g < groups; g++ )
+        {
+            String groupId = "org.example.g" + ( g % 10 ) + ".group" + g;
+            for ( int a = 0; a < artifactsPerGroup; a++ )
+            {
+                String artifactId = "artifact" + a;
+                StringBuilder versions = new StringBuilder( 256 );
+                for ( int v = 0; v < versionsPerArtifact; v++ )
+                {
+                    String version = "1." + v + ( random.nextDouble() < snapshotRatio ? "-SNAPSHOT" : "" );
+                    versions.append( "<version>" ).append( version ).append( "</version>" );
+                    for ( String extension : Arrays.asList( "pom", "jar" ) )
+                    {
+                        Artifact artifact = new DefaultArtifact( groupId, artifactId, extension, version );
+                        File file = new File( basedir, lrm.getPathForRemoteArtifact( artifact, repository, "" ) );
+                        file.getParentFile().mkdirs();
+                        file.createNewFile();
+                        if ( "jar".equals( extension ) )
+                        {
+                            result.artifacts.add( artifact );
+                        }
+                    }
+                }
+
+                Metadata metadata =
+                    new DefaultMetadata( groupId, artifactId, "", "maven-metadata.xml",
+                                         Metadata.Nature.RELEASE_OR_SNAPSHOT );
+                String xml =
+                    "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata><groupId>" + groupId + "</groupId><artifactId>"
+                        + artifactId + "</artifactId><versioning><versions>" + versions
+                        + "</versions></versioning></metadata>\n";
+                for ( RemoteRepository repo : getRepositories() )
+                {
+                    File file = new File( basedir, lrm.getPathForRemoteMetadata( metadata, repo, "" ) );
+                    FileUtils.fileWrite( file.getPath(), "UTF-8", xml );
+                }
+                result.metadata.add( metadata );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the registrations of the specified artifact and its POM with all generated remote repositories.
+     */
+    public Collection<LocalArtifactRegistration> getRegistrations( Artifact artifact )
+    {
+        Collection<LocalArtifactRegistration> registrations = new ArrayList<LocalArtifactRegistration>();
+        Artifact pom = new DefaultArtifact( artifact.getGroupId(), artifact.getArtifactId(), "pom",
+                                            artifact.getVersion() );
+        for ( RemoteRepository repository : getRepositories() )
+        {
+            registrations.add( new LocalArtifactRegistration( artifact, repository, Arrays.asList( "" ) ) );
+            registrations.add( new LocalArtifactRegistration( pom, repository, Arrays.asList( "" ) ) );
+        }
+        return registrations;
+    }
+
+    public LocalMetadataRegistration getRegistration( Metadata metadata, RemoteRepository repository )
+    {
+        return new LocalMetadataRegistration( metadata, repository, Arrays.asList( "" ) );
+    }
+
+    static class Repository
+    {
+
+        final List<Artifact> artifacts = new ArrayList<Artifact>();
+
+        final List<Metadata> metadata = new ArrayList<Metadata>();
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+
+/**
+ * Measures how lookups, registrations and cleanups scale with the size of the local repository. The benchmark is
+ * skipped unless the system property {@code benchmark} is set to {@code true}, e.g. {@code mvn test -Dbenchmark=true
+ * -Dtest=ScalingBenchmarkTest -Dbenchmark.sizes=100000,1000000}. To emulate a network file system, each kind of
+ * primitive file operation can be delayed by the given number of microseconds, e.g. {@code -Dbenchmark.latency.stat=500
+ * -Dbenchmark.latency.open=1000 -Dbenchmark.latency.lock=2000 -Dbenchmark.latency.rename=1000}.
+ */
+public class ScalingBenchmarkTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Before
+    public void setUp()
+    {
+        Assume.assumeTrue( Boolean.getBoolean( "benchmark" ) );
+    }
+
+    private static int getInt( String key, int def )
+    {
+        return Integer.parseInt( System.getProperty( "benchmark." + key, String.valueOf( def ) ) );
+    }
+
+    @Test
+    public void testScaling()
+        throws Exception
+    {
+        for ( String size : System.getProperty( "benchmark.sizes", "1000,10000,100000" ).split( "," ) )
+        {
+            run( Integer.parseInt( size.trim() ) );
+        }
+    }
+
+    private void run( int size )
+        throws Exception
+    {
+        int artifactsPerGroup = getInt( "artifactsPerGroup", 10 );
+        int versions = getInt( "versions", 5 );
+        RepositoryGenerator generator =
+            new RepositoryGenerator().setArtifactsPerGroup( artifactsPerGroup ).setVersionsPerArtifact( versions );
+        generator.setGroups( Math.max( 1, size / ( artifactsPerGroup * versions ) ) );
+        generator.setSnapshotRatio( Double.parseDouble( System.getProperty( "benchmark.snapshotRatio", "0.2" ) ) );
+        generator.setTrackingKeys( getInt( "trackingKeys", 2 ) );
+
+        File basedir = tempDir.newFolder( "repo-" + size );
+        SplitLocalRepositoryManager lrm = new SplitLocalRepositoryManager( basedir );
+        LatencyFileAccess access = new LatencyFileAccess();
+        for ( LatencyFileAccess.Op op : LatencyFileAccess.Op.values() )
+        {
+            access.setDelay( op, getInt( "latency." + op.name().toLowerCase( Locale.ENGLISH ), 0 ) );
+        }
+        lrm.setFileAccess( access ).setLockStrategy( access.wrap( new FileLockStrategy() ) );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        List<RemoteRepository> repositories = generator.getRepositories();
+
+        System.out.println( "========== " + generator.getArtifactCount() + " artifacts" );
+
+        long start = System.nanoTime();
+        RepositoryGenerator.Repository repo = generator.generate( lrm );
+        report( "generate", start, generator.getArtifactCount() );
+
+        start = System.nanoTime();
+        for ( Artifact artifact : repo.artifacts )
+        {
+            lrm.addAll( session, generator.getRegistrations( artifact ) );
+        }
+        report( "add artifact", start, repo.artifacts.size() );
+
+        start = System.nanoTime();
+        for ( Metadata metadata : repo.metadata )
+        {
+            for ( RemoteRepository repository : repositories )
+            {
+                lrm.add( session, generator.getRegistration( metadata, repository ) );
+            }
+        }
+        report( "add metadata", start, repo.metadata.size() * repositories.size() );
+
+        int lookups = getInt( "lookups", 10000 );
+        Random random = new Random( 1 );
+
+        LatencyStats hits = new LatencyStats( "find artifact (hit)" );
+        LatencyStats misses = new LatencyStats( "find artifact (miss)" );
+        for ( int i = 0; i < lookups; i++ )
+        {
+            Artifact artifact = repo.artifacts.get( random.nextInt( repo.artifacts.size() ) );
+            RemoteRepository repository = repositories.get( random.nextInt( repositories.size() ) );
+            boolean hit = random.nextBoolean();
+            if ( !hit )
+            {
+                artifact = new DefaultArtifact( artifact.getGroupId(), artifact.getArtifactId(), "jar", "9.9" );
+            }
+            LocalArtifactRequest request =
+                new LocalArtifactRequest( artifact, Collections.singletonList( repository ), "" );
+            long time = System.nanoTime();
+            boolean available = lrm.find( session, request ).isAvailable();
+            ( hit ? hits : misses ).add( System.nanoTime() - time );
+            assertEquals( artifact.toString(), hit, available );
+        }
+        System.out.println( hits );
+        System.out.println( misses );
+
+        LatencyStats metadataFinds = new LatencyStats( "find metadata" );
+        findMetadata( lrm, session, repo, repositories, random, lookups, metadataFinds );
+        System.out.println( metadataFinds );
+
+        start = System.nanoTime();
+        FileUtils.deleteDirectory( new File( basedir, SplitLocalRepositoryManager.REMOTE_SNAPSHOTS ) );
+        report( "cleanup " + SplitLocalRepositoryManager.REMOTE_SNAPSHOTS, start, 1 );
+
+        LatencyStats repairs = new LatencyStats( "find metadata after cleanup" );
+        start = System.nanoTime();
+        findMetadata( lrm, session, repo, repositories, random, repo.metadata.size(), repairs );
+        report( "repair metadata", start, repo.metadata.size() );
+        System.out.println( repairs );
+
+        lrm.close();
+    }
+
+    private void findMetadata( SplitLocalRepositoryManager lrm, DefaultRepositorySystemSession session,
+                               RepositoryGenerator.Repository repo, List<RemoteRepository> repositories,
+                               Random random, int lookups, LatencyStats stats )
+    {
+        for ( int i = 0; i < lookups; i++ )
+        {
+            Metadata metadata = repo.metadata.get( i % repo.metadata.size() );
+            RemoteRepository repository = repositories.get( random.nextInt( repositories.size() ) );
+            LocalMetadataRequest request = new LocalMetadataRequest( metadata, repository, "" );
+            long time = System.nanoTime();
+            File file = lrm.find( session, request ).getFile();
+            stats.add( System.nanoTime() - time );
+            assertNotNull( metadata.toString(), file );
+        }
+    }
+
+    private void report( String operation, long start, int count )
+    {
+        long nanos = System.nanoTime() - start;
+        System.out.println( String.format( "%s: %d ops in %.1fms (%.0f ops/s)", operation, count, nanos / 1000000.0,
+                                           count * 1000000000.0 / Math.max( 1, nanos ) ) );
+    }
+
+}
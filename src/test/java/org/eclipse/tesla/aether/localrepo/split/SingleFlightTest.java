@@ -0,0 +1,124 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ */
+public class SingleFlightTest
+{
+
+    private final SingleFlight<Integer> flights = new SingleFlight<Integer>();
+
+    private List<Thread> start( int count, final String key, final Callable<Integer> task, final boolean join,
+                                final List<Integer> outcomes )
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for ( int i = 0; i < count; i++ )
+        {
+            Thread thread = new Thread()
+            {
+                public void run()
+                {
+                    Integer outcome = join ? flights.join( key, task ) : flights.execute( key, task );
+                    synchronized ( outcomes )
+                    {
+                        outcomes.add( outcome );
+                    }
+                }
+            };
+            thread.start();
+            threads.add( thread );
+        }
+        return threads;
+    }
+
+    private void join( List<Thread> threads )
+        throws InterruptedException
+    {
+        for ( Thread thread : threads )
+        {
+            thread.join( 10000 );
+        }
+    }
+
+    @Test
+    public void testJoinSharesOutcomeOfTaskInFlight()
+        throws Exception
+    {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch( 1 );
+
+        Callable<Integer> task = new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                release.await();
+                return Integer.valueOf( executions.incrementAndGet() );
+            }
+        };
+
+        List<Integer> outcomes = new ArrayList<Integer>();
+        List<Thread> threads = start( 8, "key", task, true, outcomes );
+        Thread.sleep( 200 );
+        release.countDown();
+        join( threads );
+
+        assertEquals( 1, executions.get() );
+        assertEquals( 8, outcomes.size() );
+        for ( Integer outcome : outcomes )
+        {
+            assertEquals( Integer.valueOf( 1 ), outcome );
+        }
+    }
+
+    @Test
+    public void testExecuteSerializesTasks()
+        throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger executions = new AtomicInteger();
+
+        Callable<Integer> task = new Callable<Integer>()
+        {
+            public Integer call()
+                throws Exception
+            {
+                if ( running.incrementAndGet() > 1 )
+                {
+                    overlaps.incrementAndGet();
+                }
+                Thread.sleep( 20 );
+                running.decrementAndGet();
+                return Integer.valueOf( executions.incrementAndGet() );
+            }
+        };
+
+        List<Integer> outcomes = new ArrayList<Integer>();
+        join( start( 4, "key", task, false, outcomes ) );
+
+        assertEquals( 0, overlaps.get() );
+        assertEquals( 4, executions.get() );
+        assertEquals( 4, outcomes.size() );
+        assertEquals( 4, new HashSet<Integer>( outcomes ).size() );
+    }
+
+}
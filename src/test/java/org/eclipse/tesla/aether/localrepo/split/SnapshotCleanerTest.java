@@ -0,0 +1,200 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ */
+public class SnapshotCleanerTest
+{
+
+    private static final String LS = SplitLocalRepositoryManager.LOCAL_SNAPSHOTS;
+
+    private static final String RS = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS;
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    @Before
+    public void setUp()
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+    }
+
+    private File create( String path )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), path );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        return file;
+    }
+
+    private File writeLease( String... paths )
+        throws Exception
+    {
+        File file = new File( localRepoDir.getRoot(), SplitLocalRepositoryManager.LEASES + "other" + Lease.SUFFIX );
+        file.getParentFile().mkdirs();
+        StringBuilder buffer = new StringBuilder();
+        for ( String path : paths )
+        {
+            buffer.append( path ).append( '\n' );
+        }
+        FileUtils.fileWrite( file.getPath(), "UTF-8", buffer.toString() );
+        return file;
+    }
+
+    @Test
+    public void testLeasedVersionsAreSkipped()
+        throws Exception
+    {
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-20110101.101010-1.jar" );
+        create( RS + "g/a/2.0-SNAPSHOT/a-2.0-20110101.101010-1.jar" );
+        create( RS + "g/a/maven-metadata-central.xml" );
+        create( LS + "g/b/1.0-SNAPSHOT/b-1.0-SNAPSHOT.jar" );
+        create( LS + "g/b/maven-metadata-local.xml" );
+        writeLease( RS + "g/a/2.0-SNAPSHOT" );
+
+        SnapshotCleaner.Result result = new SnapshotCleaner( lrm ).clean();
+        assertEquals( 2, result.getVersions() );
+        assertEquals( 1, result.getLeased() );
+
+        assertFalse( new File( localRepoDir.getRoot(), RS + "g/a/1.0-SNAPSHOT" ).exists() );
+        assertTrue( new File( localRepoDir.getRoot(), RS + "g/a/2.0-SNAPSHOT/a-2.0-20110101.101010-1.jar" ).exists() );
+        assertTrue( new File( localRepoDir.getRoot(), RS + "g/a/maven-metadata-central.xml" ).exists() );
+        assertFalse( new File( localRepoDir.getRoot(), LS + "g" ).exists() );
+        assertTrue( new File( localRepoDir.getRoot(), LS ).exists() );
+    }
+
+    @Test
+    public void testAbandonedLeasesAreIgnored()
+        throws Exception
+    {
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar" );
+        File lease = writeLease( RS + "g/a/1.0-SNAPSHOT" );
+        lease.setLastModified( System.currentTimeMillis() - 60 * 1000 );
+
+        SnapshotCleaner.Result result = new SnapshotCleaner( lrm ).setLeaseTtl( 30 * 1000 ).clean();
+        assertEquals( 1, result.getVersions() );
+        assertFalse( lease.exists() );
+    }
+
+    @Test
+    public void testRecentlyModifiedVersionsAreSkipped()
+        throws Exception
+    {
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar" );
+
+        SnapshotCleaner.Result result = new SnapshotCleaner( lrm ).setMinAge( 60 * 1000 ).clean();
+        assertEquals( 0, result.getVersions() );
+        assertEquals( 1, result.getYoung() );
+        assertTrue( new File( localRepoDir.getRoot(), RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar" ).exists() );
+    }
+
+    @Test
+    public void testCleanupInvalidatesCachedLookups()
+        throws Exception
+    {
+        lrm.setLookupCaching( true );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+        Metadata metadata =
+            new DefaultMetadata( "g", "a", "1.0-SNAPSHOT", "maven-metadata.xml", Metadata.Nature.SNAPSHOT );
+        LocalMetadataRequest metadataRequest = new LocalMetadataRequest( metadata, central, "" );
+        Artifact artifact = new DefaultArtifact( "g:a:1.0-20110101.101010-1" );
+        LocalArtifactRequest artifactRequest = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+        create( lrm.getPathForRemoteMetadata( metadata, central, "" ) );
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-20110101.101010-1.jar" );
+        assertNotNull( lrm.find( session, metadataRequest ).getFile() );
+        assertNotNull( lrm.find( session, artifactRequest ).getFile() );
+
+        assertEquals( 1, new SnapshotCleaner( lrm ).clean().getVersions() );
+
+        assertNull( lrm.find( session, metadataRequest ).getFile() );
+        assertNull( lrm.find( session, artifactRequest ).getFile() );
+    }
+
+    @Test
+    public void testManagerLeasesAccessedSnapshots()
+        throws Exception
+    {
+        lrm.setLeases( 60 * 1000 );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+        Artifact artifact = new DefaultArtifact( "g:a:1.0-20110101.101010-1" );
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-20110101.101010-1.jar" );
+        lrm.find( session, new LocalArtifactRequest( artifact, Arrays.asList( central ), "" ) );
+        lrm.find( session, new LocalArtifactRequest( new DefaultArtifact( "g:a:1.0" ), null, "" ) );
+
+        File leaseFile = lrm.getLease().getFile();
+        assertEquals( Arrays.asList( LS + "g/a/1.0-SNAPSHOT", RS + "g/a/1.0-SNAPSHOT" ),
+                      Arrays.asList( FileUtils.fileRead( leaseFile, "UTF-8" ).split( "\n" ) ) );
+
+        SplitLocalRepositoryManager cleaning = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        assertEquals( 0, new SnapshotCleaner( cleaning ).clean().getVersions() );
+        assertEquals( 0, new SnapshotPruner( cleaning ).prune().getDirectories() );
+
+        lrm.close();
+        assertFalse( leaseFile.exists() );
+        assertEquals( 1, new SnapshotCleaner( cleaning ).clean().getVersions() );
+    }
+
+    @Test
+    public void testIdleLeasesOfSharedManagersExpire()
+        throws Exception
+    {
+        lrm.setLeases( 60 * 1000 );
+        Lease lease = lrm.getLease().setIdleTimeout( 60 * 1000 );
+        lease.add( RS + "g/a/1.0-SNAPSHOT" );
+        lease.add( RS + "g/a/2.0-SNAPSHOT" );
+        create( RS + "g/a/1.0-SNAPSHOT/a-1.0-SNAPSHOT.jar" );
+        create( RS + "g/a/2.0-SNAPSHOT/a-2.0-SNAPSHOT.jar" );
+
+        lease.expire( System.currentTimeMillis() - 1000 );
+        assertTrue( lease.contains( RS + "g/a/1.0-SNAPSHOT" ) );
+
+        Thread.sleep( 10 );
+        lease.add( RS + "g/a/2.0-SNAPSHOT" );
+        lease.expire( System.currentTimeMillis() - 5 );
+        assertFalse( lease.contains( RS + "g/a/1.0-SNAPSHOT" ) );
+        assertTrue( lease.contains( RS + "g/a/2.0-SNAPSHOT" ) );
+        assertEquals( RS + "g/a/2.0-SNAPSHOT\n", FileUtils.fileRead( lease.getFile(), "UTF-8" ) );
+
+        SnapshotCleaner.Result result = new SnapshotCleaner( lrm ).clean();
+        assertEquals( 1, result.getVersions() );
+        assertEquals( 1, result.getLeased() );
+        assertFalse( new File( localRepoDir.getRoot(), RS + "g/a/1.0-SNAPSHOT" ).exists() );
+
+        lease.add( RS + "g/a/1.0-SNAPSHOT" );
+        assertEquals( RS + "g/a/2.0-SNAPSHOT\n" + RS + "g/a/1.0-SNAPSHOT\n",
+                      FileUtils.fileRead( lease.getFile(), "UTF-8" ) );
+        lrm.close();
+    }
+
+}
@@ -0,0 +1,102 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ */
+public class SnapshotPrunerTest
+{
+
+    @Rule
+    public TemporaryFolder localRepoDir = new TemporaryFolder();
+
+    private SplitLocalRepositoryManager lrm;
+
+    private File dir;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() );
+        String path = SplitLocalRepositoryManager.REMOTE_SNAPSHOTS + "g/i/d/aid/1.0-SNAPSHOT";
+        dir = new File( localRepoDir.getRoot(), path );
+        dir.mkdirs();
+
+        Map<String, String> keys = new HashMap<String, String>();
+        for ( String build : new String[] { "20110101.101010-1", "20110202.101010-2", "20110202.101010-10" } )
+        {
+            for ( String suffix : new String[] { ".jar", ".jar.sha1", ".pom", "-sources.jar" } )
+            {
+                String name = "aid-1.0-" + build + suffix;
+                new File( dir, name ).createNewFile();
+                keys.put( name + ">central", "" );
+            }
+        }
+        new File( dir, "aid-1.0-SNAPSHOT.jar" ).createNewFile();
+        new File( dir, "maven-metadata-central.xml" ).createNewFile();
+        lrm.getStorage().updateTracking( new File( dir, "_maven.repositories" ), keys );
+    }
+
+    @Test
+    public void testRetainLatestBuilds()
+    {
+        SnapshotPruner.Result result = new SnapshotPruner( lrm ).setRetain( 2 ).prune();
+        assertEquals( 1, result.getDirectories() );
+        assertEquals( 1, result.getBuilds() );
+        assertEquals( 4, result.getFiles() );
+
+        assertFalse( new File( dir, "aid-1.0-20110101.101010-1.jar" ).exists() );
+        assertFalse( new File( dir, "aid-1.0-20110101.101010-1-sources.jar" ).exists() );
+        assertTrue( new File( dir, "aid-1.0-20110202.101010-2.jar" ).exists() );
+        assertTrue( new File( dir, "aid-1.0-20110202.101010-10.jar" ).exists() );
+        assertTrue( new File( dir, "aid-1.0-SNAPSHOT.jar" ).exists() );
+        assertTrue( new File( dir, "maven-metadata-central.xml" ).exists() );
+
+        Properties props = lrm.getStorage().readTracking( new File( dir, "_maven.repositories" ) );
+        assertEquals( 8, props.size() );
+        assertNull( props.getProperty( "aid-1.0-20110101.101010-1.jar>central" ) );
+    }
+
+    @Test
+    public void testToolRetainsNewestBuildByDefault()
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SplitLocalRepositoryTool tool = new SplitLocalRepositoryTool( new PrintStream( out, true ), System.err );
+        assertEquals( 0, tool.run( new String[] { "prune", localRepoDir.getRoot().getPath() } ) );
+        assertTrue( out.toString(), out.toString().contains( "2 builds" ) );
+
+        assertFalse( new File( dir, "aid-1.0-20110202.101010-2.jar" ).exists() );
+        assertTrue( new File( dir, "aid-1.0-20110202.101010-10.jar" ).exists() );
+    }
+
+    @Test
+    public void testToolRejectsUnknownCommand()
+    {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        SplitLocalRepositoryTool tool = new SplitLocalRepositoryTool( System.out, new PrintStream( err, true ) );
+        assertEquals( 1, tool.run( new String[] { "frobnicate", localRepoDir.getRoot().getPath() } ) );
+        assertTrue( err.toString().contains( "Usage" ) );
+    }
+
+}
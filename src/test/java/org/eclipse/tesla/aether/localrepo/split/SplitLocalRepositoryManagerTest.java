@@ -11,7 +11,11 @@ package org.eclipse.tesla.aether.localrepo.split;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -58,6 +62,9 @@ public class SplitLocalRepositoryManagerTest
     @Rule
     public TemporaryFolder localRepoDir = new TemporaryFolder();
 
+    @Rule
+    public TemporaryFolder tierDir = new TemporaryFolder();
+
     private SplitLocalRepositoryManager lrm;
 
     private DefaultRepositorySystemSession session;
@@ -90,6 +97,16 @@ public class SplitLocalRepositoryManagerTest
         FileUtils.copyURLToFile( getClass().getResource( "/metadata/" + resource ), file );
     }
 
+    private void awaitFile( File file )
+        throws Exception
+    {
+        for ( int i = 0; i < 200 && !file.isFile(); i++ )
+        {
+            Thread.sleep( 50 );
+        }
+        assertTrue( file.getPath(), file.isFile() );
+    }
+
     private void assertXmlEqual( String expectedName, File actual )
         throws Exception
     {
@@ -481,4 +498,370 @@ public class SplitLocalRepositoryManagerTest
         assertFalse( result.isStale() );
     }
 
+    @Test
+    public void testLookupCachingOfArtifacts()
+        throws Exception
+    {
+        lrm.setLookupCaching( true );
+
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0" );
+
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+
+        LocalArtifactResult result = lrm.find( session, request );
+        assertNull( result.getFile() );
+        assertFalse( result.isAvailable() );
+
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        create( file );
+
+        result = lrm.find( session, request );
+        assertNull( result.getFile() );
+        assertFalse( result.isAvailable() );
+
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+        assertEquals( central, result.getRepository() );
+
+        result = lrm.find( new DefaultRepositorySystemSession(), new LocalArtifactRequest( artifact, null, "" ) );
+        assertEquals( file, result.getFile() );
+        assertFalse( result.isAvailable() );
+    }
+
+    @Test
+    public void testRegistrationInvalidatesLookupCachesOfOtherSessions()
+        throws Exception
+    {
+        lrm.setLookupCaching( true );
+
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0" );
+
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+
+        DefaultRepositorySystemSession other = new DefaultRepositorySystemSession();
+        LocalArtifactResult result = lrm.find( other, request );
+        assertFalse( result.isAvailable() );
+
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        create( file );
+
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        result = lrm.find( other, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+    }
+
+    @Test
+    public void testLookupCachingOfMetadata()
+        throws Exception
+    {
+        lrm.setLookupCaching( true );
+
+        Metadata metadata = newMetadata( "g.i.d:aid:1.0-SNAPSHOT" );
+
+        LocalMetadataRequest request = new LocalMetadataRequest( metadata, central, "" );
+
+        LocalMetadataResult result = lrm.find( session, request );
+        assertNull( result.getFile() );
+
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteMetadata( metadata, central, "" ) );
+        create( file );
+
+        result = lrm.find( session, request );
+        assertNull( result.getFile() );
+
+        lrm.add( session, new LocalMetadataRegistration( metadata, central, Arrays.asList( "" ) ) );
+
+        result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertFalse( result.isStale() );
+    }
+
+    @Test
+    public void testBackgroundRepairOfGidAidMetadata()
+        throws Exception
+    {
+        lrm.setBackgroundRepair( true );
+
+        Metadata metadata = newMetadata( "g.i.d:aid" );
+
+        LocalMetadataRequest request = new LocalMetadataRequest( metadata, central, "" );
+
+        String path = lrm.getPathForRemoteMetadata( metadata, central, "" );
+        File file = new File( localRepoDir.getRoot(), path );
+        create( file, "maven-metadata-in1.xml" );
+
+        lrm.add( session, new LocalMetadataRegistration( metadata, central, Arrays.asList( "" ) ) );
+
+        File backup = new File( localRepoDir.getRoot(), RS + path.substring( RR.length() ) );
+        assertTrue( backup.isFile() );
+
+        FileUtils.deleteDirectory( new File( localRepoDir.getRoot(), RS ) );
+
+        LocalMetadataResult result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isStale() );
+
+        awaitFile( backup );
+        assertXmlEqual( "maven-metadata-out1a.xml", file );
+
+        result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertFalse( result.isStale() );
+
+        create( file, "maven-metadata-in1.xml" );
+
+        lrm.add( session, new LocalMetadataRegistration( metadata, central, Arrays.asList( "" ) ) );
+
+        FileUtils.deleteDirectory( new File( localRepoDir.getRoot(), RR ) );
+
+        result = lrm.find( session, request );
+        assertEquals( backup, result.getFile() );
+        assertTrue( result.isStale() );
+
+        awaitFile( file );
+        assertXmlEqual( "maven-metadata-out1b.xml", file );
+
+        result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertFalse( result.isStale() );
+    }
+
+    @Test
+    public void testRelocatedTierDirectories()
+        throws Exception
+    {
+        File snapshots = new File( tierDir.getRoot(), "snapshots" );
+        lrm.setTierDirectory( LS, snapshots );
+        lrm.setTierDirectory( RS, new File( "../remote-snapshots" ) );
+
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0-SNAPSHOT" );
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForLocalArtifact( artifact ) );
+        assertEquals( new File( snapshots, "g/i/d/aid/1.0-SNAPSHOT/aid-1.0-SNAPSHOT.jar" ).getCanonicalFile(),
+                      file.getCanonicalFile() );
+
+        String path = lrm.getPathForRemoteArtifact( artifact, central, "" );
+        assertTrue( path, path.startsWith( "../remote-snapshots/g/i/d/" ) );
+
+        create( file );
+        LocalArtifactResult result = lrm.find( session, new LocalArtifactRequest( artifact, null, "" ) );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+
+        lrm.setTierDirectory( RS, null );
+        assertEquals( RS + "g/i/d/aid/1.0-SNAPSHOT/aid-1.0-SNAPSHOT.jar",
+                      lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+    }
+
+    @Test
+    public void testOverlappingTierDirectoriesAreRejected()
+        throws Exception
+    {
+        lrm.setTierDirectory( LS, new File( tierDir.getRoot(), "snapshots" ) );
+        File[] invalid =
+            { new File( tierDir.getRoot(), "snapshots" ), new File( tierDir.getRoot(), "snapshots/remote" ),
+                tierDir.getRoot(), new File( RR + "nested" ), new File( ".." ) };
+        for ( File directory : invalid )
+        {
+            try
+            {
+                lrm.setTierDirectory( RS, directory );
+                fail( "overlapping base directory accepted: " + directory );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // expected
+            }
+            assertEquals( RS, lrm.getTierPath( RS ) );
+        }
+
+        lrm.setTierDirectory( RS, new File( tierDir.getRoot(), "snapshots-remote" ) );
+        assertTrue( lrm.getTierPath( RS ), lrm.getTierPath( RS ).endsWith( "/snapshots-remote/" ) );
+    }
+
+    @Test
+    public void testRelocatedTierDirectoriesForGidAidMetadata()
+        throws Exception
+    {
+        lrm.setTierDirectory( LS, new File( tierDir.getRoot(), "snapshots" ) );
+
+        Metadata metadata = newMetadata( "g.i.d:aid" );
+
+        LocalMetadataRequest request = new LocalMetadataRequest( metadata, null, "" );
+
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForLocalMetadata( metadata ) );
+        create( file, "maven-metadata-in1.xml" );
+
+        lrm.add( session, new LocalMetadataRegistration( metadata ) );
+        assertTrue( new File( tierDir.getRoot(), "snapshots/g/i/d/aid/maven-metadata-local.xml" ).isFile() );
+
+        FileUtils.deleteDirectory( new File( tierDir.getRoot(), "snapshots" ) );
+
+        LocalMetadataResult result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isStale() );
+        assertXmlEqual( "maven-metadata-out1a.xml", file );
+        assertTrue( new File( tierDir.getRoot(), "snapshots/g/i/d/aid/maven-metadata-local.xml" ).isFile() );
+    }
+
+    @Test
+    public void testReadOnlyMode()
+        throws Exception
+    {
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0" );
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        create( file );
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        Metadata metadata = newMetadata( "g.i.d:aid" );
+        File mdFile = new File( localRepoDir.getRoot(), lrm.getPathForRemoteMetadata( metadata, central, "" ) );
+        create( mdFile, "maven-metadata-in1.xml" );
+
+        lrm = new SplitLocalRepositoryManager( localRepoDir.getRoot() ).setReadOnly( true );
+
+        LocalArtifactResult result = lrm.find( session, new LocalArtifactRequest( artifact, Arrays.asList( central ),
+                                                                                  "" ) );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+
+        LocalMetadataResult mdResult = lrm.find( session, new LocalMetadataRequest( metadata, central, "" ) );
+        assertEquals( mdFile, mdResult.getFile() );
+        assertTrue( mdResult.isStale() );
+        assertXmlEqual( "maven-metadata-in1.xml", mdFile );
+
+        try
+        {
+            lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+            fail( "registration of artifact not rejected" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+
+        try
+        {
+            lrm.add( session, new LocalMetadataRegistration( metadata, central, Arrays.asList( "" ) ) );
+            fail( "registration of metadata not rejected" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBloomFilter()
+        throws Exception
+    {
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0" );
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        create( file );
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        lrm.setBloomFilter( 1000 ).rebuildBloomFilter();
+
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+        LocalArtifactResult result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+
+        Artifact other = newArtifact( "g.i.d:aid:2.0" );
+        File otherFile = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( other, central, "" ) );
+        create( otherFile );
+
+        request = new LocalArtifactRequest( other, Arrays.asList( central ), "" );
+        result = lrm.find( session, request );
+        assertNull( result.getFile() );
+
+        lrm.add( session, new LocalArtifactRegistration( other, central, Arrays.asList( "" ) ) );
+
+        result = lrm.find( session, request );
+        assertEquals( otherFile, result.getFile() );
+        assertTrue( result.isAvailable() );
+
+        // locally installed artifacts are always probed, e.g. when installed by another process a moment ago
+        Artifact installed = newArtifact( "g.i.d:aid:3.0" );
+        File installedFile = new File( localRepoDir.getRoot(), lrm.getPathForLocalArtifact( installed ) );
+        create( installedFile );
+
+        result = lrm.find( session, new LocalArtifactRequest( installed, null, "" ) );
+        assertEquals( installedFile, result.getFile() );
+        assertTrue( result.isAvailable() );
+    }
+
+    @Test
+    public void testChangeJournalInvalidatesLookupCachesOfOtherManagers()
+        throws Exception
+    {
+        lrm.setLookupCaching( true ).setChangeJournal( true );
+        SplitLocalRepositoryManager other =
+            new SplitLocalRepositoryManager( localRepoDir.getRoot() ).setLookupCaching( true ).setChangeJournal( true );
+
+        Artifact artifact = newArtifact( "g.i.d:aid:1.0" );
+
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+
+        LocalArtifactResult result = lrm.find( session, request );
+        assertNull( result.getFile() );
+
+        File file = new File( localRepoDir.getRoot(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        create( file );
+        other.add( new DefaultRepositorySystemSession(),
+                   new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+
+        Thread.sleep( 150 );
+
+        result = lrm.find( session, request );
+        assertEquals( file, result.getFile() );
+        assertTrue( result.isAvailable() );
+    }
+
+    @Test
+    public void testAddAllGroupsRegistrationsPerTrackingFile()
+        throws Exception
+    {
+        lrm.setThreads( 4 );
+
+        List<LocalArtifactRegistration> requests = new ArrayList<LocalArtifactRegistration>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            Artifact jar = newArtifact( "gid:aid" + i + ":1.0" );
+            Artifact pom = newArtifact( "gid:aid" + i + ":pom:1.0" );
+            create( new File( lrm.getRepository().getBasedir(), lrm.getPathForRemoteArtifact( jar, central, "" ) ) );
+            create( new File( lrm.getRepository().getBasedir(), lrm.getPathForRemoteArtifact( pom, central, "" ) ) );
+            requests.add( new LocalArtifactRegistration( jar, central, Arrays.asList( "" ) ) );
+            requests.add( new LocalArtifactRegistration( pom, central, Arrays.asList( "" ) ) );
+        }
+
+        LatencyFileAccess access = new LatencyFileAccess();
+        lrm.setFileAccess( access ).setLockStrategy( access.wrap( new FileLockStrategy() ) );
+        lrm.addAll( session, requests );
+        assertEquals( 8, access.getCount( LatencyFileAccess.Op.LOCK ) );
+
+        for ( int i = 0; i < 8; i++ )
+        {
+            File dir = new File( localRepoDir.getRoot(), RR + "gid/aid" + i + "/1.0" );
+            Properties props = new Properties();
+            FileInputStream is = new FileInputStream( new File( dir, "_maven.repositories" ) );
+            try
+            {
+                props.load( is );
+            }
+            finally
+            {
+                is.close();
+            }
+            assertEquals( 2, props.size() );
+
+            LocalArtifactRequest request =
+                new LocalArtifactRequest( newArtifact( "gid:aid" + i + ":1.0" ), Arrays.asList( central ), "" );
+            assertTrue( lrm.find( session, request ).isAvailable() );
+        }
+    }
+
 }
@@ -0,0 +1,129 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ */
+public class TraceReplayTest
+{
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void testParse()
+    {
+        String json = "{\"op\":\"x\",\"s\":\"a\\\"b\\u0041\",\"n\":-12,\"b\":true,\"l\":[\"c\",\"d\"],\"e\":[]}";
+        Map<String, Object> record = TraceReplayer.parse( json );
+        assertEquals( "x", record.get( "op" ) );
+        assertEquals( "a\"bA", record.get( "s" ) );
+        assertEquals( Long.valueOf( -12 ), record.get( "n" ) );
+        assertEquals( Boolean.TRUE, record.get( "b" ) );
+        assertEquals( Arrays.asList( "c", "d" ), record.get( "l" ) );
+        assertEquals( Arrays.asList(), record.get( "e" ) );
+    }
+
+    @Test
+    public void testRecordAndReplay()
+        throws Exception
+    {
+        File trace = new File( tempDir.getRoot(), "trace.jsonl" );
+        SplitLocalRepositoryManager lrm = new SplitLocalRepositoryManager( tempDir.newFolder( "recorded" ) );
+        lrm.setTrace( trace );
+        DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+
+        Artifact artifact = new DefaultArtifact( "gid:aid:jar:sources:1.0" );
+        LocalArtifactRequest request = new LocalArtifactRequest( artifact, Arrays.asList( central ), "" );
+        assertFalse( lrm.find( session, request ).isAvailable() );
+        File file = new File( lrm.getRepository().getBasedir(), lrm.getPathForRemoteArtifact( artifact, central, "" ) );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+        lrm.add( session, new LocalArtifactRegistration( artifact, central, Arrays.asList( "" ) ) );
+        assertTrue( lrm.find( session, request ).isAvailable() );
+        Metadata metadata = new DefaultMetadata( "gid", "aid", "", "maven-metadata.xml", Metadata.Nature.RELEASE );
+        lrm.find( session, new LocalMetadataRequest( metadata, central, "" ) );
+        lrm.close();
+
+        List<Map<String, Object>> records = TraceReplayer.read( trace );
+        assertEquals( 4, records.size() );
+        assertEquals( "findArtifact", records.get( 0 ).get( "op" ) );
+        assertEquals( "sources", records.get( 0 ).get( "classifier" ) );
+        assertEquals( Arrays.asList( "central@file:" ), records.get( 0 ).get( "repositories" ) );
+        assertEquals( "addArtifact", records.get( 1 ).get( "op" ) );
+        assertEquals( "central", records.get( 1 ).get( "repository" ) );
+        assertEquals( SplitLocalRepositoryManager.REMOTE_RELEASES, records.get( 2 ).get( "tier" ) );
+        assertEquals( "findMetadata", records.get( 3 ).get( "op" ) );
+        assertTrue( records.get( 3 ).get( "nanos" ) instanceof Long );
+
+        SplitLocalRepositoryManager fresh = new SplitLocalRepositoryManager( tempDir.newFolder( "replayed" ) );
+        TraceReplayer.Result result = new TraceReplayer( fresh ).replay( trace );
+        assertEquals( 0, result.mismatches.get() );
+        assertEquals( 2, result.getStats( "findArtifact" ).getCount() );
+        assertTrue( fresh.find( session, request ).isAvailable() );
+    }
+
+    @Test
+    public void testTraceIsWrittenWithoutClose()
+        throws Exception
+    {
+        File trace = new File( tempDir.getRoot(), "trace.jsonl" );
+        SplitLocalRepositoryManager lrm = new SplitLocalRepositoryManager( tempDir.newFolder( "recorded" ) );
+        lrm.setTrace( trace );
+        RemoteRepository central = new RemoteRepository( "central", "default", "file:" );
+
+        Artifact artifact = new DefaultArtifact( "gid:aid:1.0" );
+        lrm.find( new DefaultRepositorySystemSession(),
+                  new LocalArtifactRequest( artifact, Arrays.asList( central ), "" ) );
+
+        // as done by the timer or the shutdown hook
+        DeferredFlush.flushAll();
+        assertEquals( 1, TraceReplayer.read( trace ).size() );
+    }
+
+    /**
+     * Replays a recorded production trace, e.g. {@code mvn test -Dtest=TraceReplayTest -Dbenchmark.trace=trace.jsonl
+     * -Dbenchmark.threads=8}.
+     */
+    @Test
+    public void testReplayBenchmark()
+        throws Exception
+    {
+        String trace = System.getProperty( "benchmark.trace" );
+        Assume.assumeTrue( trace != null );
+
+        SplitLocalRepositoryManager lrm = new SplitLocalRepositoryManager( tempDir.newFolder( "benchmark" ) );
+        TraceReplayer replayer = new TraceReplayer( lrm );
+        replayer.setThreads( Integer.getInteger( "benchmark.threads", 1 ).intValue() );
+        System.out.println( replayer.replay( new File( trace ) ) );
+        lrm.close();
+    }
+
+}
@@ -0,0 +1,434 @@
+package org.eclipse.tesla.aether.localrepo.split;
+
+/*******************************************************************************
+ * Copyright (c) 2011 Sonatype, Inc.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ *   http://www.eclipse.org/legal/epl-v10.html
+ *******************************************************************************/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.sonatype.aether.RepositorySystemSession;
+import org.sonatype.aether.artifact.Artifact;
+import org.sonatype.aether.metadata.Metadata;
+import org.sonatype.aether.repository.LocalArtifactRegistration;
+import org.sonatype.aether.repository.LocalArtifactRequest;
+import org.sonatype.aether.repository.LocalArtifactResult;
+import org.sonatype.aether.repository.LocalMetadataRegistration;
+import org.sonatype.aether.repository.LocalMetadataRequest;
+import org.sonatype.aether.repository.RemoteRepository;
+import org.sonatype.aether.util.DefaultRepositorySystemSession;
+import org.sonatype.aether.util.artifact.DefaultArtifact;
+import org.sonatype.aether.util.metadata.DefaultMetadata;
+
+/**
+ * Drives a local repository manager with the calls recorded in an access trace (see
+ * {@link SplitLocalRepositoryManager#setTrace(File)}) and measures the latencies per operation.
+ */
+class TraceReplayer
+{
+
+    private final SplitLocalRepositoryManager lrm;
+
+    private int threads = 1;
+
+    private boolean createFiles = true;
+
+    public TraceReplayer( SplitLocalRepositoryManager lrm )
+    {
+        this.lrm = lrm;
+    }
+
+    /**
+     * Sets the number of threads that concurrently replay the trace. With a single thread, the calls are replayed in
+     * their recorded order.
+     */
+    public TraceReplayer setThreads( int threads )
+    {
+        this.threads = Math.max( 1, threads );
+        return this;
+    }
+
+    /**
+     * Controls whether registrations create the registered files (if missing) to emulate the downloads/installations
+     * that preceded them in the recorded workload.
+     */
+    public TraceReplayer setCreateFiles( boolean createFiles )
+    {
+        this.createFiles = createFiles;
+        return this;
+    }
+
+    public static List<Map<String, Object>> read( File trace )
+        throws IOException
+    {
+        List<Map<String, Object>> records = new ArrayList<Map<String, Object>>();
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( trace ), "UTF-8" ) );
+        try
+        {
+            for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+            {
+                if ( line.trim().length() > 0 )
+                {
+                    records.add( parse( line ) );
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return records;
+    }
+
+    public Result replay( File trace )
+        throws Exception
+    {
+        final List<Map<String, Object>> records = read( trace );
+        final Result result = new Result();
+        final RepositorySystemSession session = new DefaultRepositorySystemSession();
+        final AtomicInteger index = new AtomicInteger();
+
+        List<Thread> workers = new ArrayList<Thread>();
+        final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+        for ( int i = 0; i < threads; i++ )
+        {
+            workers.add( new Thread( "replay-" + i )
+            {
+                @Override
+                public void run()
+                {
+                    for ( int i = index.getAndIncrement(); i < records.size(); i = index.getAndIncrement() )
+                    {
+                        try
+                        {
+                            replay( session, records.get( i ), result );
+                        }
+                        catch ( Throwable e )
+                        {
+                            errors.add( e );
+                        }
+                    }
+                }
+            } );
+        }
+
+        long start = System.nanoTime();
+        for ( Thread worker : workers )
+        {
+            worker.start();
+        }
+        for ( Thread worker : workers )
+        {
+            worker.join();
+        }
+        result.nanos = System.nanoTime() - start;
+
+        if ( !errors.isEmpty() )
+        {
+            throw new IllegalStateException( "Replay failed: " + errors, errors.get( 0 ) );
+        }
+        return result;
+    }
+
+    private void replay( RepositorySystemSession session, Map<String, Object> record, Result result )
+        throws IOException
+    {
+        String op = (String) record.get( "op" );
+        long start;
+        if ( "findArtifact".equals( op ) )
+        {
+            LocalArtifactRequest request =
+                new LocalArtifactRequest( newArtifact( record ), getRepositories( record ),
+                                          (String) record.get( "context" ) );
+            start = System.nanoTime();
+            LocalArtifactResult res = lrm.find( session, request );
+            result.getStats( op ).add( System.nanoTime() - start );
+            if ( !record.get( "available" ).equals( Boolean.valueOf( res.isAvailable() ) ) )
+            {
+                result.mismatches.incrementAndGet();
+            }
+        }
+        else if ( "addArtifact".equals( op ) )
+        {
+            Artifact artifact = newArtifact( record );
+            RemoteRepository repository = getRepository( record );
+            if ( createFiles )
+            {
+                String path =
+                    ( repository != null ) ? lrm.getPathForRemoteArtifact( artifact, repository, "" )
+                                    : lrm.getPathForLocalArtifact( artifact );
+                create( new File( lrm.getRepository().getBasedir(), path ), "" );
+            }
+            start = System.nanoTime();
+            lrm.add( session, new LocalArtifactRegistration( artifact, repository, getContexts( record ) ) );
+            result.getStats( op ).add( System.nanoTime() - start );
+        }
+        else if ( "findMetadata".equals( op ) )
+        {
+            LocalMetadataRequest request =
+                new LocalMetadataRequest( newMetadata( record ), getRepository( record ),
+                                          (String) record.get( "context" ) );
+            start = System.nanoTime();
+            lrm.find( session, request );
+            result.getStats( op ).add( System.nanoTime() - start );
+        }
+        else if ( "addMetadata".equals( op ) )
+        {
+            Metadata metadata = newMetadata( record );
+            RemoteRepository repository = getRepository( record );
+            if ( createFiles )
+            {
+                for ( String context : getContexts( record ) )
+                {
+                    String path =
+                        ( repository != null ) ? lrm.getPathForRemoteMetadata( metadata, repository, context )
+                                        : lrm.getPathForLocalMetadata( metadata );
+                    create( new File( lrm.getRepository().getBasedir(), path ), "<metadata/>" );
+                }
+            }
+            start = System.nanoTime();
+            lrm.add( session, new LocalMetadataRegistration( metadata, repository, getContexts( record ) ) );
+            result.getStats( op ).add( System.nanoTime() - start );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "unknown operation " + op );
+        }
+    }
+
+    private static void create( File file, String content )
+        throws IOException
+    {
+        if ( !file.exists() )
+        {
+            file.getParentFile().mkdirs();
+            FileUtils.fileWrite( file.getPath(), "UTF-8", content );
+        }
+    }
+
+    private static Artifact newArtifact( Map<String, Object> record )
+    {
+        return new DefaultArtifact( (String) record.get( "groupId" ), (String) record.get( "artifactId" ),
+                                    (String) record.get( "classifier" ), (String) record.get( "extension" ),
+                                    (String) record.get( "version" ) );
+    }
+
+    private static Metadata newMetadata( Map<String, Object> record )
+    {
+        return new DefaultMetadata( (String) record.get( "groupId" ), (String) record.get( "artifactId" ),
+                                    (String) record.get( "version" ), (String) record.get( "type" ),
+                                    Metadata.Nature.valueOf( (String) record.get( "nature" ) ) );
+    }
+
+    private static RemoteRepository getRepository( Map<String, Object> record )
+    {
+        String id = (String) record.get( "repository" );
+        return ( id != null ) ? new RemoteRepository( id, "default", (String) record.get( "url" ) ) : null;
+    }
+
+    private static List<RemoteRepository> getRepositories( Map<String, Object> record )
+    {
+        List<RemoteRepository> repositories = new ArrayList<RemoteRepository>();
+        for ( Object value : (List<?>) record.get( "repositories" ) )
+        {
+            String spec = value.toString();
+            int at = spec.indexOf( '@' );
+            repositories.add( new RemoteRepository( spec.substring( 0, at ), "default", spec.substring( at + 1 ) ) );
+        }
+        return repositories;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static List<String> getContexts( Map<String, Object> record )
+    {
+        List<String> contexts = (List<String>) record.get( "contexts" );
+        return ( contexts != null ) ? contexts : Collections.<String> emptyList();
+    }
+
+    /**
+     * Parses a flat JSON object whose values are strings, numbers, booleans, {@code null} or arrays of strings, i.e.
+     * the records written by the access trace.
+     */
+    static Map<String, Object> parse( String json )
+    {
+        Parser parser = new Parser( json );
+        Map<String, Object> object = new LinkedHashMap<String, Object>();
+        parser.expect( '{' );
+        if ( !parser.consume( '}' ) )
+        {
+            do
+            {
+                String key = parser.string();
+                parser.expect( ':' );
+                object.put( key, parser.value() );
+            }
+            while ( parser.consume( ',' ) );
+            parser.expect( '}' );
+        }
+        return object;
+    }
+
+    static class Parser
+    {
+
+        private final String json;
+
+        private int pos;
+
+        Parser( String json )
+        {
+            this.json = json;
+        }
+
+        private void skipWhitespace()
+        {
+            while ( pos < json.length() && Character.isWhitespace( json.charAt( pos ) ) )
+            {
+                pos++;
+            }
+        }
+
+        boolean consume( char c )
+        {
+            skipWhitespace();
+            if ( pos < json.length() && json.charAt( pos ) == c )
+            {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect( char c )
+        {
+            if ( !consume( c ) )
+            {
+                throw new IllegalArgumentException( "expected '" + c + "' at offset " + pos + ": " + json );
+            }
+        }
+
+        Object value()
+        {
+            skipWhitespace();
+            char c = json.charAt( pos );
+            if ( c == '"' )
+            {
+                return string();
+            }
+            if ( c == '[' )
+            {
+                List<Object> values = new ArrayList<Object>();
+                expect( '[' );
+                if ( !consume( ']' ) )
+                {
+                    do
+                    {
+                        values.add( value() );
+                    }
+                    while ( consume( ',' ) );
+                    expect( ']' );
+                }
+                return values;
+            }
+            int end = pos;
+            while ( end < json.length() && ",]}".indexOf( json.charAt( end ) ) < 0 )
+            {
+                end++;
+            }
+            String literal = json.substring( pos, end ).trim();
+            pos = end;
+            if ( "true".equals( literal ) || "false".equals( literal ) )
+            {
+                return Boolean.valueOf( literal );
+            }
+            if ( "null".equals( literal ) )
+            {
+                return null;
+            }
+            return Long.valueOf( literal );
+        }
+
+        String string()
+        {
+            expect( '"' );
+            StringBuilder buffer = new StringBuilder();
+            for ( char c = json.charAt( pos++ ); c != '"'; c = json.charAt( pos++ ) )
+            {
+                if ( c == '\\' )
+                {
+                    c = json.charAt( pos++ );
+                    if ( c == 'u' )
+                    {
+                        c = (char) Integer.parseInt( json.substring( pos, pos + 4 ), 16 );
+                        pos += 4;
+                    }
+                    else if ( c == 'n' )
+                    {
+                        c = '\n';
+                    }
+                    else if ( c == 't' )
+                    {
+                        c = '\t';
+                    }
+                    else if ( c == 'r' )
+                    {
+                        c = '\r';
+                    }
+                }
+                buffer.append( c );
+            }
+            return buffer.toString();
+        }
+
+    }
+
+    static class Result
+    {
+
+        final Map<String, LatencyStats> stats = new LinkedHashMap<String, LatencyStats>();
+
+        final AtomicInteger mismatches = new AtomicInteger();
+
+        long nanos;
+
+        synchronized LatencyStats getStats( String op )
+        {
+            LatencyStats latencies = stats.get( op );
+            if ( latencies == null )
+            {
+                latencies = new LatencyStats( op );
+                stats.put( op, latencies );
+            }
+            return latencies;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            StringBuilder buffer = new StringBuilder( 256 );
+            buffer.append( String.format( "replay: %.1fms, %d mismatched lookups", nanos / 1000000.0,
+                                          mismatches.get() ) );
+            for ( LatencyStats latencies : stats.values() )
+            {
+                buffer.append( '\n' ).append( latencies );
+            }
+            return buffer.toString();
+        }
+
+    }
+
+}